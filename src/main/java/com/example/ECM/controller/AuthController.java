@@ -5,6 +5,7 @@ import com.example.ECM.model.Role;
 import com.example.ECM.model.User;
 import com.example.ECM.repository.UserRepository;
 import com.example.ECM.service.EmailService;
+import com.example.ECM.service.GuestCartService;
 import com.example.ECM.service.OtpService;
 import com.example.ECM.util.JwtUtil;
 import jakarta.validation.Valid;
@@ -29,6 +30,7 @@ public class AuthController {
     private final EmailService emailService;
     private final OtpService otpService;
     private final JwtUtil jwtUtil;
+    private final GuestCartService guestCartService;
 
     @PostMapping("/register")
     public ResponseEntity<?> register(@RequestBody @Valid RegisterRequest request) {
@@ -69,7 +71,8 @@ public class AuthController {
     }
 
     @PostMapping("/login")
-    public ResponseEntity<AuthResponse> login(@RequestBody @Valid AuthRequest request) {
+    public ResponseEntity<AuthResponse> login(@RequestBody @Valid AuthRequest request,
+                                              @RequestHeader(value = GuestCartController.TOKEN_HEADER, required = false) String guestCartToken) {
         try {
             logger.info("Nhận yêu cầu đăng nhập: username={}", request.getUsername());
 
@@ -93,6 +96,15 @@ public class AuthController {
             String token = jwtUtil.generateToken(user.getUsername(), user.getRole().name(), user.getPhone(), user.getAddress(), user.getEmail(), user.getFullName());
 
             logger.info("Người dùng {} đã đăng nhập thành công", request.getUsername());
+
+            // Gộp giỏ hàng khách (nếu có) vào giỏ của tài khoản; lỗi khi gộp không làm hỏng đăng nhập
+            if (guestCartToken != null) {
+                try {
+                    guestCartService.mergeInto(guestCartToken, user.getId());
+                } catch (Exception e) {
+                    logger.warn("Không gộp được giỏ hàng khách cho người dùng {}: {}", request.getUsername(), e.getMessage());
+                }
+            }
             return ResponseEntity.ok(new AuthResponse(token, "Đăng nhập thành công"));
 
         } catch (Exception e) {
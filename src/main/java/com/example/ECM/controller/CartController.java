@@ -2,22 +2,29 @@ package com.example.ECM.controller;
 
 import com.example.ECM.dto.CartDTO;
 import com.example.ECM.dto.CartItemRequestDTO;
+import com.example.ECM.dto.CartOperationDTO;
 import com.example.ECM.model.Cart;
 import com.example.ECM.model.User;
 import com.example.ECM.repository.CartRepository;
 import com.example.ECM.repository.UserRepository;
+import com.example.ECM.service.AbandonedCartSweeper;
 import com.example.ECM.service.CartService;
+import com.example.ECM.service.CartWriteBehindStore;
+import com.example.ECM.util.NdjsonWriter;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
 import java.util.Map;
@@ -31,6 +38,9 @@ public class CartController {
     private final CartService cartService;
     private final UserRepository userRepository;
     private final CartRepository cartRepository;
+    private final CartWriteBehindStore cartStore;
+    private final AbandonedCartSweeper abandonedCartSweeper;
+    private final ObjectMapper objectMapper;
 
 // lấy tất cả giỏ hàng
 @PreAuthorize("hasRole('ADMIN')")
@@ -51,6 +61,26 @@ public ResponseEntity<?> getAllCarts() {
 }
 
 
+    // Lấy tất cả giỏ hàng dạng NDJSON (Accept: application/x-ndjson), mỗi dòng một giỏ hàng
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping(value = "/all", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllCarts() {
+        logger.debug("Admin đang stream danh sách tất cả giỏ hàng");
+        StreamingResponseBody body = out -> {
+            try (NdjsonWriter writer = new NdjsonWriter(objectMapper, out)) {
+                cartService.streamAllCarts(writer);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    // 🔹 Thống kê job dọn giỏ hàng bỏ quên (chỉ admin)
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/sweeper/stats")
+    public ResponseEntity<Map<String, Object>> sweeperStats() {
+        return ResponseEntity.ok(abandonedCartSweeper.stats());
+    }
+
     // Lấy giỏ hàng theo userId
     @GetMapping("/{userId}")
     public ResponseEntity<?> getCart(@PathVariable Long userId) {
@@ -113,6 +143,24 @@ public ResponseEntity<?> getAllCarts() {
         }
     }
 
+    // Áp dụng nhiều thao tác (ADD / SET / REMOVE) trong một request, trả về giỏ hàng sau cùng
+    @PostMapping("/batch")
+    public ResponseEntity<?> applyBatch(
+            @RequestBody List<CartOperationDTO> operations,
+            @AuthenticationPrincipal UserDetails userDetails) {
+        try {
+            User user = userRepository.findByUsername(userDetails.getUsername())
+                    .orElseThrow(() -> new RuntimeException("User not found"));
+            return ResponseEntity.ok(cartService.applyBatch(user.getId(), operations));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (Exception e) {
+            logger.error("Lỗi khi cập nhật giỏ hàng theo lô: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("message", "Lỗi khi cập nhật giỏ hàng: " + e.getMessage()));
+        }
+    }
+
     @DeleteMapping("/remove")
     public ResponseEntity<?> removeCartItem(
             @Valid @RequestBody CartItemRequestDTO request,
@@ -143,6 +191,7 @@ public ResponseEntity<?> getAllCarts() {
 
                     .orElseThrow(() -> new RuntimeException("Cart not found for user ID: " + userId));
 
+            cartStore.discard(userId); // Bỏ bản trong bộ nhớ (nếu bật write-behind) để không bị ghi lại
             cartRepository.delete(cart); // Xóa hoàn toàn giỏ hàng
 
             return ResponseEntity.ok(Map.of("message", "Đã xóa toàn bộ giỏ hàng"));
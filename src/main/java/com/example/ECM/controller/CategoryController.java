@@ -1,9 +1,13 @@
 package com.example.ECM.controller;
 
 import com.example.ECM.dto.CategoryDTO;
+import com.example.ECM.service.CatalogVersionService;
 import com.example.ECM.service.CategoryService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
@@ -16,17 +20,29 @@ import java.util.Optional;
 @RequiredArgsConstructor
 public class CategoryController {
     private final CategoryService categoryService;
+    private final CatalogVersionService catalogVersion;
 
+    // Trả 304 nếu catalog chưa đổi kể từ ETag client đang giữ
     @GetMapping
-    public ResponseEntity<List<CategoryDTO>> getAllCategories() {
+    public ResponseEntity<List<CategoryDTO>> getAllCategories(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String etag = CatalogVersionService.etag("categories", catalogVersion.current());
+        if (CatalogVersionService.matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(CacheControl.noCache()).build();
+        }
         List<CategoryDTO> categories = categoryService.getAllCategories();
-        return ResponseEntity.ok(categories);
+        return ResponseEntity.ok().eTag(etag).cacheControl(CacheControl.noCache()).body(categories);
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<CategoryDTO> getCategoryById(@PathVariable Long id) {
+    public ResponseEntity<CategoryDTO> getCategoryById(@PathVariable Long id,
+                                                       @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String etag = CatalogVersionService.etag("category" + id, catalogVersion.current());
+        if (CatalogVersionService.matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(CacheControl.noCache()).build();
+        }
         Optional<CategoryDTO> categoryDTO = categoryService.getCategoryById(id);
-        return categoryDTO.map(ResponseEntity::ok)
+        return categoryDTO.map(category -> ResponseEntity.ok().eTag(etag).cacheControl(CacheControl.noCache()).body(category))
                 .orElseGet(() -> ResponseEntity.notFound().build());
     }
 
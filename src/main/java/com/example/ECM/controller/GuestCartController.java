@@ -0,0 +1,106 @@
+package com.example.ECM.controller;
+
+import com.example.ECM.dto.CartDTO;
+import com.example.ECM.dto.CartItemRequestDTO;
+import com.example.ECM.dto.CartOperationDTO;
+import com.example.ECM.service.GuestCartService;
+import com.example.ECM.service.GuestCartStore;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Giỏ hàng cho khách chưa đăng nhập. Token giỏ đi kèm header {@value #TOKEN_HEADER};
+ * thao tác ghi đầu tiên không có token sẽ tạo giỏ mới và trả token trong cùng header.
+ * Gửi header này khi gọi /api/auth/login để gộp giỏ khách vào giỏ của tài khoản.
+ */
+@RestController
+@RequestMapping("/api/guest-cart")
+@RequiredArgsConstructor
+public class GuestCartController {
+    public static final String TOKEN_HEADER = "X-Guest-Cart";
+
+    private static final Logger logger = LoggerFactory.getLogger(GuestCartController.class);
+    private final GuestCartService guestCartService;
+
+    @PostMapping
+    public ResponseEntity<?> createCart() {
+        try {
+            String token = guestCartService.createCart();
+            return ResponseEntity.status(HttpStatus.CREATED).header(TOKEN_HEADER, token).body(Map.of("token", token));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of("message", e.getMessage()));
+        }
+    }
+
+    @GetMapping
+    public ResponseEntity<?> getCart(@RequestHeader(TOKEN_HEADER) String token) {
+        try {
+            return ResponseEntity.ok(guestCartService.getCart(token));
+        } catch (GuestCartStore.GuestCartNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("message", e.getMessage()));
+        }
+    }
+
+    @PostMapping("/add")
+    public ResponseEntity<?> addToCart(@RequestHeader(value = TOKEN_HEADER, required = false) String token,
+                                       @RequestBody CartItemRequestDTO request) {
+        return apply(token, List.of(new CartOperationDTO(CartOperationDTO.Type.ADD, request.getProductId(), request.getQuantity())));
+    }
+
+    @PutMapping("/update")
+    public ResponseEntity<?> updateCartItem(@RequestHeader(TOKEN_HEADER) String token,
+                                            @RequestBody CartItemRequestDTO request) {
+        return apply(token, List.of(new CartOperationDTO(CartOperationDTO.Type.SET, request.getProductId(), request.getQuantity())));
+    }
+
+    @DeleteMapping("/remove")
+    public ResponseEntity<?> removeCartItem(@RequestHeader(TOKEN_HEADER) String token,
+                                            @RequestBody CartItemRequestDTO request) {
+        return apply(token, List.of(new CartOperationDTO(CartOperationDTO.Type.REMOVE, request.getProductId(), 0)));
+    }
+
+    @PostMapping("/batch")
+    public ResponseEntity<?> applyBatch(@RequestHeader(value = TOKEN_HEADER, required = false) String token,
+                                        @RequestBody List<CartOperationDTO> operations) {
+        return apply(token, operations);
+    }
+
+    @DeleteMapping
+    public ResponseEntity<?> clearCart(@RequestHeader(TOKEN_HEADER) String token) {
+        guestCartService.clearCart(token);
+        return ResponseEntity.ok(Map.of("message", "Đã xóa giỏ hàng"));
+    }
+
+    // 🔹 Thống kê kho giỏ khách (chỉ admin)
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> stats() {
+        return ResponseEntity.ok(guestCartService.stats());
+    }
+
+    private ResponseEntity<?> apply(String token, List<CartOperationDTO> operations) {
+        try {
+            String cartToken = token != null ? token : guestCartService.createCart();
+            CartDTO cart = guestCartService.applyBatch(cartToken, operations);
+            return ResponseEntity.ok().header(TOKEN_HEADER, cartToken).body(cart);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (GuestCartStore.GuestCartNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("message", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of("message", e.getMessage()));
+        } catch (Exception e) {
+            logger.error("Lỗi khi cập nhật giỏ hàng khách: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("message", "Lỗi khi cập nhật giỏ hàng: " + e.getMessage()));
+        }
+    }
+}
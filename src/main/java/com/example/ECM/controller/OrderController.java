@@ -1,35 +1,140 @@
 package com.example.ECM.controller;
 
+import com.example.ECM.dto.CheckoutJobDTO;
+import com.example.ECM.dto.CursorPage;
+import com.example.ECM.dto.OrderHistoryDTO;
 import com.example.ECM.dto.OrderItemDTO;
 import com.example.ECM.dto.OrderResponseDTO;
+import com.example.ECM.dto.OrderStatusBulkRequest;
+import com.example.ECM.dto.OrderStatusBulkResult;
 import com.example.ECM.model.Order;
+import com.example.ECM.repository.OrderExportJdbcRepository;
+import com.example.ECM.service.CheckoutQueueService;
+import com.example.ECM.service.CheckoutWorkerPool;
+import com.example.ECM.service.IdempotencyService;
+import com.example.ECM.service.InventoryService;
+import com.example.ECM.service.OrderExportService;
 import com.example.ECM.service.OrderService;
+import com.example.ECM.util.CsvWriter;
+import com.example.ECM.util.KeysetCursor;
+import com.example.ECM.util.NdjsonWriter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.math.BigDecimal;
+import java.net.URI;
+import java.time.LocalDate;
 import java.util.List;
+import java.util.Locale;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/api/orders")  // Endpoint chính của Order
 public class OrderController {
 
     private static final Logger logger = Logger.getLogger(OrderController.class.getName());
+    private static final String ORDER_CURSOR_SORT = "id_desc";
+    private static final int MAX_HISTORY_PAGE_SIZE = 100;
 
     private final OrderService orderService;
+    private final ObjectMapper objectMapper;
+    private final IdempotencyService idempotencyService;
+    private final CheckoutQueueService checkoutQueueService;
+    private final CheckoutWorkerPool checkoutWorkerPool;
+    private final OrderExportService orderExportService;
 
-    public OrderController(OrderService orderService) {
+    public OrderController(OrderService orderService, ObjectMapper objectMapper, IdempotencyService idempotencyService,
+                           CheckoutQueueService checkoutQueueService, CheckoutWorkerPool checkoutWorkerPool,
+                           OrderExportService orderExportService) {
         this.orderService = orderService;
+        this.objectMapper = objectMapper;
+        this.idempotencyService = idempotencyService;
+        this.checkoutQueueService = checkoutQueueService;
+        this.checkoutWorkerPool = checkoutWorkerPool;
+        this.orderExportService = orderExportService;
     }
 
     // 📌 API để đặt hàng từ giỏ hàng
+    // Có header Idempotency-Key → client gửi lại cùng key sẽ nhận lại đơn đã tạo thay vì tạo đơn mới
     @PostMapping("/checkout/{userId}")
-    public ResponseEntity<OrderResponseDTO> checkout(@PathVariable Long userId) {
-        Order newOrder = orderService.createOrder(userId);
-        return ResponseEntity.ok(convertToDTO(newOrder));
+    public ResponseEntity<?> checkout(@PathVariable Long userId,
+                                      @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        return idempotencyService.execute("checkout:" + userId, idempotencyKey, () -> createOrder(userId));
+    }
+
+    private ResponseEntity<?> createOrder(Long userId) {
+        try {
+            Order newOrder = orderService.createOrder(userId);
+            return ResponseEntity.ok(convertToDTO(newOrder));
+        } catch (InventoryService.InsufficientStockException e) {
+            logger.warning("⚠ Không đủ hàng khi đặt hàng cho userId " + userId + ": " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("Lỗi: " + e.getMessage());
+        }
+    }
+
+    // 📌 API đặt hàng bất đồng bộ: xếp yêu cầu vào hàng đợi và trả 202 kèm ticket ngay,
+    // client hỏi trạng thái ở /api/orders/checkout/jobs/{ticket}
+    @PostMapping("/checkout/{userId}/async")
+    public ResponseEntity<?> checkoutAsync(@PathVariable Long userId,
+                                           @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        return idempotencyService.execute("checkout-async:" + userId, idempotencyKey, () -> enqueueCheckout(userId));
+    }
+
+    private ResponseEntity<?> enqueueCheckout(Long userId) {
+        try {
+            CheckoutJobDTO job = checkoutQueueService.enqueue(userId);
+            checkoutWorkerPool.wakeUp();
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/orders/checkout/jobs/" + job.getTicket()))
+                    .body(job);
+        } catch (CheckoutQueueService.QueueFullException e) {
+            logger.warning("⚠ Hàng đợi checkout đầy, từ chối userId " + userId);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "5")
+                    .body("Lỗi: " + e.getMessage());
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "⚠ Không xếp được yêu cầu đặt hàng của userId: " + userId, e);
+            return ResponseEntity.badRequest().body("Lỗi: " + e.getMessage());
+        }
+    }
+
+    // 📌 API xem trạng thái ticket đặt hàng bất đồng bộ (COMPLETED thì có orderId)
+    @GetMapping("/checkout/jobs/{ticket}")
+    public ResponseEntity<?> getCheckoutJob(@PathVariable String ticket) {
+        CheckoutJobDTO job = checkoutQueueService.getJob(ticket);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Lỗi: Không tìm thấy ticket");
+        }
+        return ResponseEntity.ok(job);
+    }
+
+    // 📌 API thống kê worker checkout bất đồng bộ (admin)
+    @GetMapping("/checkout/workers/stats")
+    public ResponseEntity<?> getCheckoutWorkerStats() {
+        return ResponseEntity.ok(checkoutWorkerPool.stats());
+    }
+
+    // 📌 API hủy đơn hàng, trả hàng về kho
+    @PostMapping("/{id}/cancel")
+    public ResponseEntity<?> cancelOrder(@PathVariable Long id) {
+        logger.info("📢 [CANCEL ORDER] Hủy đơn hàng ID: " + id);
+        try {
+            Order order = orderService.cancelOrder(id);
+            return ResponseEntity.ok(convertToDTO(order));
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "❌ Lỗi khi hủy đơn hàng ID: " + id, e);
+            return ResponseEntity.badRequest().body("Lỗi: " + e.getMessage());
+        }
     }
 
 
@@ -49,10 +154,19 @@ public class OrderController {
 
 
     // 📌 API lấy danh sách đơn hàng của người dùng
+    // Có tham số cursor (rỗng cho trang đầu) → phân trang keyset, mới nhất trước
     @GetMapping("/user/{userId}")
-    public ResponseEntity<?> getOrdersByUserId(@PathVariable Long userId) {
+    public ResponseEntity<?> getOrdersByUserId(@PathVariable Long userId,
+                                               @RequestParam(required = false) String cursor,
+                                               @RequestParam(defaultValue = "20") int size) {
         logger.info("📢 [GET USER ORDERS] Lấy đơn hàng của userId: " + userId);
         try {
+            if (cursor != null) {
+                int pageSize = clampPageSize(size);
+                KeysetCursor before = KeysetCursor.decode(cursor, ORDER_CURSOR_SORT);
+                List<Order> orders = orderService.getOrdersByUserIdBefore(userId, before != null ? before.id() : null, pageSize + 1);
+                return ResponseEntity.ok(toCursorPage(orders, pageSize));
+            }
             List<Order> orders = orderService.getOrdersByUserId(userId);
             logger.info("✅ Số đơn hàng tìm thấy: " + orders.size());
             return ResponseEntity.ok(orders.stream().map(this::convertToDTO).collect(Collectors.toList()));
@@ -62,11 +176,40 @@ public class OrderController {
         }
     }
 
+    // 📌 API lịch sử đơn hàng của người dùng: phân trang keyset, mới nhất trước (cursor rỗng / không gửi = trang đầu)
+    @GetMapping("/user/{userId}/history")
+    public ResponseEntity<?> getOrderHistory(@PathVariable Long userId,
+                                             @RequestParam(required = false) String cursor,
+                                             @RequestParam(defaultValue = "20") int size) {
+        logger.info("📢 [GET ORDER HISTORY] Lấy lịch sử đơn hàng của userId: " + userId);
+        try {
+            int pageSize = clampPageSize(size);
+            KeysetCursor before = KeysetCursor.decode(cursor, ORDER_CURSOR_SORT);
+            List<OrderHistoryDTO> orders = orderService.getOrderHistory(userId, before != null ? before.id() : null, pageSize + 1);
+            boolean hasNext = orders.size() > pageSize;
+            List<OrderHistoryDTO> page = hasNext ? orders.subList(0, pageSize) : orders;
+            String nextCursor = hasNext
+                    ? KeysetCursor.encode(ORDER_CURSOR_SORT, null, page.get(page.size() - 1).getId())
+                    : null;
+            return ResponseEntity.ok(new CursorPage<>(page, nextCursor, hasNext));
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "❌ Lỗi khi lấy lịch sử đơn hàng của userId: " + userId, e);
+            return ResponseEntity.badRequest().body("Lỗi: " + e.getMessage());
+        }
+    }
+
     // 📌 API lấy danh sách tất cả đơn hàng (admin)
     @GetMapping
-    public ResponseEntity<?> getAllOrders() {
+    public ResponseEntity<?> getAllOrders(@RequestParam(required = false) String cursor,
+                                          @RequestParam(defaultValue = "20") int size) {
         logger.info("📢 [GET ALL ORDERS] Lấy tất cả đơn hàng");
         try {
+            if (cursor != null) {
+                int pageSize = clampPageSize(size);
+                KeysetCursor before = KeysetCursor.decode(cursor, ORDER_CURSOR_SORT);
+                List<Order> orders = orderService.getAllOrdersBefore(before != null ? before.id() : null, pageSize + 1);
+                return ResponseEntity.ok(toCursorPage(orders, pageSize));
+            }
             List<Order> orders = orderService.getAllOrders();
             logger.info("✅ Tổng số đơn hàng: " + orders.size());
             return ResponseEntity.ok(orders.stream().map(this::convertToDTO).collect(Collectors.toList()));
@@ -76,6 +219,63 @@ public class OrderController {
         }
     }
 
+    // 📌 API lấy tất cả đơn hàng dạng NDJSON (Accept: application/x-ndjson), mỗi dòng một đơn hàng
+    @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllOrders() {
+        logger.info("📢 [STREAM ALL ORDERS] Stream tất cả đơn hàng");
+        StreamingResponseBody body = out -> {
+            try (NdjsonWriter writer = new NdjsonWriter(objectMapper, out)) {
+                orderService.streamAllOrders(writer);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    // 📌 API xuất đơn hàng ra CSV cho admin (type=orders: mỗi dòng một đơn, type=items: mỗi dòng một sản phẩm trong đơn)
+    // Lọc theo ngày tạo [from, to] và trạng thái (status=PENDING,PAID), mặc định nén gzip (file .csv.gz)
+    @GetMapping("/export")
+    public ResponseEntity<?> exportOrders(@RequestParam(defaultValue = "orders") String type,
+                                          @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                          @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                          @RequestParam(required = false) List<String> status,
+                                          @RequestParam(defaultValue = "true") boolean gzip) {
+        logger.info("📢 [EXPORT ORDERS] Xuất " + type + " từ " + from + " đến " + to + ", trạng thái " + status);
+        OrderExportService.Type exportType;
+        try {
+            exportType = OrderExportService.Type.valueOf(type.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Lỗi: type phải là orders hoặc items");
+        }
+        if (from != null && to != null && from.isAfter(to)) {
+            return ResponseEntity.badRequest().body("Lỗi: from phải trước hoặc bằng to");
+        }
+        List<String> statuses = status == null ? null : status.stream()
+                .map(s -> s.trim().toUpperCase(Locale.ROOT))
+                .filter(s -> !s.isEmpty())
+                .collect(Collectors.toList());
+        OrderExportJdbcRepository.Filter filter = new OrderExportJdbcRepository.Filter(
+                from != null ? from.atStartOfDay() : null,
+                to != null ? to.plusDays(1).atStartOfDay() : null,
+                statuses);
+
+        StreamingResponseBody body = out -> {
+            GZIPOutputStream gzipOut = gzip ? new GZIPOutputStream(out, 64 * 1024) : null;
+            long start = System.currentTimeMillis();
+            try (CsvWriter csv = new CsvWriter(gzipOut != null ? gzipOut : out)) {
+                long rows = orderExportService.export(exportType, filter, csv);
+                logger.info("✅ Đã xuất " + rows + " dòng " + type + " trong " + (System.currentTimeMillis() - start) + " ms");
+            }
+            if (gzipOut != null) {
+                gzipOut.finish();
+            }
+        };
+        String filename = exportType.name().toLowerCase(Locale.ROOT) + "-" + LocalDate.now() + (gzip ? ".csv.gz" : ".csv");
+        return ResponseEntity.ok()
+                .contentType(gzip ? MediaType.parseMediaType("application/gzip") : MediaType.parseMediaType("text/csv;charset=UTF-8"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(filename).build().toString())
+                .body(body);
+    }
+
     // 📌 API cập nhật trạng thái đơn hàng
     @PutMapping("/{id}")
     public ResponseEntity<?> updateOrder(@PathVariable Long id, @RequestBody Order updatedOrder) {
@@ -90,6 +290,23 @@ public class OrderController {
         }
     }
 
+    // 📌 API đổi trạng thái hàng loạt (admin / kho): {"ids": [...], "status": "SHIPPED", "fromStatus": "PROCESSING"}
+    // Chỉ các bước chuyển hợp lệ theo OrderStatus được áp dụng, đơn không đổi được trả về trong rejected kèm lý do
+    @PostMapping("/status/bulk")
+    public ResponseEntity<?> bulkUpdateStatus(@RequestBody OrderStatusBulkRequest request) {
+        logger.info("📢 [BULK STATUS] Đổi " + (request.getIds() != null ? request.getIds().size() : 0)
+                + " đơn hàng sang trạng thái: " + request.getStatus());
+        try {
+            OrderStatusBulkResult result = orderService.bulkUpdateStatus(request.getIds(), request.getStatus(), request.getFromStatus());
+            return ResponseEntity.ok(result);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Lỗi: " + e.getMessage());
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "❌ Lỗi khi đổi trạng thái hàng loạt", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Lỗi: " + e.getMessage());
+        }
+    }
+
     // 📌 API xóa đơn hàng
     @DeleteMapping("/{id}")
     public ResponseEntity<?> deleteOrder(@PathVariable Long id) {
@@ -104,6 +321,21 @@ public class OrderController {
         }
     }
 
+    // 📌 Giới hạn kích thước trang keyset trong [1, MAX_HISTORY_PAGE_SIZE] (size + 1 không bị tràn số)
+    private static int clampPageSize(int size) {
+        return Math.max(1, Math.min(size, MAX_HISTORY_PAGE_SIZE));
+    }
+
+    // 📌 Cắt danh sách (đã lấy dư 1 phần tử) thành một trang keyset kèm cursor cho trang sau
+    private CursorPage<OrderResponseDTO> toCursorPage(List<Order> orders, int size) {
+        boolean hasNext = orders.size() > size;
+        List<Order> page = hasNext ? orders.subList(0, size) : orders;
+        String nextCursor = hasNext
+                ? KeysetCursor.encode(ORDER_CURSOR_SORT, null, page.get(page.size() - 1).getId())
+                : null;
+        return new CursorPage<>(page.stream().map(this::convertToDTO).collect(Collectors.toList()), nextCursor, hasNext);
+    }
+
     // 📌 Hàm chuyển đổi Order thành OrderResponseDTO
     private OrderResponseDTO convertToDTO(Order order) {
         if (order == null) {
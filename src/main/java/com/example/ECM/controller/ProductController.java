@@ -1,16 +1,33 @@
 package com.example.ECM.controller;
 
+import com.example.ECM.dto.BulkUpdateResult;
+import com.example.ECM.dto.CursorPage;
+import com.example.ECM.dto.ImportReport;
+import com.example.ECM.dto.ProductBulkUpdateItem;
 import com.example.ECM.dto.ProductDTO;
+import com.example.ECM.service.CatalogVersionService;
+import com.example.ECM.service.InventoryService;
+import com.example.ECM.service.ProductCache;
+import com.example.ECM.service.ProductImportService;
 import com.example.ECM.service.ProductService;
 import jakarta.validation.constraints.Min;
+import com.example.ECM.util.NdjsonWriter;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.InputStream;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import org.slf4j.Logger;
@@ -22,11 +39,17 @@ import org.slf4j.LoggerFactory;
 public class ProductController {
 
     private final ProductService productService;
+    private final ObjectMapper objectMapper;
+    private final CatalogVersionService catalogVersion;
+    private final ProductImportService productImportService;
+    private final ProductCache productCache;
+    private final InventoryService inventoryService;
     private static final Logger logger = LoggerFactory.getLogger(ProductController.class);
 
     // 🔹 Tìm kiếm sản phẩm với bộ lọc & phân trang
+    // Có tham số cursor (kể cả rỗng cho trang đầu) → phân trang keyset, trả về nextCursor thay vì tổng số trang
     @GetMapping("/search")
-    public ResponseEntity<Page<ProductDTO>> searchProducts(
+    public ResponseEntity<?> searchProducts(
             @RequestParam(required = false) String name,
             @RequestParam(required = false) Long categoryId,
             @RequestParam(required = false) Double minPrice,
@@ -34,34 +57,86 @@ public class ProductController {
             @RequestParam(required = false) Double minRating, // ✅ Lọc theo đánh giá
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
-            @RequestParam(required = false) String sort
+            @RequestParam(required = false) String sort, // price_asc, price_desc, rating_desc, relevance
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "false") boolean facets // ✅ Kèm số lượng theo danh mục / khoảng giá / mức rating
     ) {
         try {
+            if (facets && cursor == null) {
+                return ResponseEntity.ok(productService.searchProductsWithFacets(name, categoryId, minPrice, maxPrice, minRating, page, size, sort));
+            }
+            if (cursor != null) {
+                CursorPage<ProductDTO> slice = productService.searchProductsAfter(name, categoryId, minPrice, maxPrice, minRating, cursor, size, sort);
+                return ResponseEntity.ok(slice);
+            }
             Page<ProductDTO> products = productService.searchProducts(name, categoryId, minPrice, maxPrice, minRating, page, size, sort);
             return ResponseEntity.ok(products);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
         } catch (Exception e) {
             logger.error("Lỗi khi tìm kiếm sản phẩm: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Page.empty());
         }
     }
 
+    // 🔹 Gợi ý tên sản phẩm khi gõ (typeahead), phục vụ từ index trong bộ nhớ
+    @GetMapping("/suggest")
+    public ResponseEntity<?> suggestProducts(@RequestParam(name = "q", required = false) String prefix,
+                                             @RequestParam(defaultValue = "8") int limit) {
+        try {
+            return ResponseEntity.ok(productService.suggestProducts(prefix, Math.min(Math.max(limit, 0), 20)));
+        } catch (Exception e) {
+            logger.error("Lỗi khi gợi ý sản phẩm: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(List.of());
+        }
+    }
+
     // 🔹 Lấy tất cả danh sách sản phẩm
+    // Đọc phiên bản trước khi truy vấn: nếu có ghi xen giữa, ETag cũ hơn dữ liệu nên lần poll sau vẫn tải lại
     @GetMapping("/all")
-    public ResponseEntity<List<ProductDTO>> getAllProducts() {
+    public ResponseEntity<List<ProductDTO>> getAllProducts(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String etag = CatalogVersionService.etag("products", catalogVersion.current());
+        if (CatalogVersionService.matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(CacheControl.noCache()).build();
+        }
         try {
-            return ResponseEntity.ok(productService.getAllProducts());
+            return ResponseEntity.ok().eTag(etag).cacheControl(CacheControl.noCache()).body(productService.getAllProducts());
         } catch (Exception e) {
             logger.error("Lỗi khi lấy danh sách sản phẩm: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
         }
     }
 
+    // 🔹 Lấy tất cả sản phẩm dạng NDJSON (Accept: application/x-ndjson), mỗi dòng một sản phẩm, ghi dần ra response
+    @GetMapping(value = "/all", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllProducts() {
+        StreamingResponseBody body = out -> {
+            try (NdjsonWriter writer = new NdjsonWriter(objectMapper, out)) {
+                productService.streamAllProducts(writer);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    // 🔹 Thống kê cache sản phẩm: hit / miss / eviction (chỉ admin)
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/cache/stats")
+    public ResponseEntity<Map<String, Object>> getCacheStats() {
+        return ResponseEntity.ok(productCache.stats());
+    }
+
     // 🔹 Lấy sản phẩm theo ID
     @GetMapping("/{id}")
-    public ResponseEntity<ProductDTO> getProductById(@PathVariable Long id) {
+    public ResponseEntity<ProductDTO> getProductById(@PathVariable Long id,
+                                                     @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String etag = CatalogVersionService.etag("product" + id, catalogVersion.current());
+        if (CatalogVersionService.matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(CacheControl.noCache()).build();
+        }
         try {
             return productService.getProductById(id)
-                    .map(ResponseEntity::ok)
+                    .map(product -> ResponseEntity.ok().eTag(etag).cacheControl(CacheControl.noCache()).body(product))
                     .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body(null));
         } catch (Exception e) {
             logger.error("Lỗi khi lấy sản phẩm với ID {}: {}", id, e.getMessage(), e);
@@ -88,6 +163,24 @@ public class ProductController {
         }
     }
 
+    // 🔹 Nhập sản phẩm hàng loạt từ file CSV / NDJSON (chỉ admin)
+    // Dòng có cột id sẽ ghi đè sản phẩm cùng id; danh mục lấy theo categoryId hoặc tên (cột category)
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping(value = "/import", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> importProducts(@RequestParam("file") MultipartFile file) {
+        try (InputStream input = file.getInputStream()) {
+            ProductImportService.Format format = ProductImportService.Format.detect(file.getOriginalFilename(), file.getContentType());
+            ImportReport report = productImportService.importProducts(input, format);
+            return ResponseEntity.ok(report);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (Exception e) {
+            logger.error("Lỗi khi nhập sản phẩm: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("message", "Lỗi khi nhập sản phẩm: " + e.getMessage()));
+        }
+    }
+
 
     // 🔹 Cập nhật sản phẩm (chỉ admin)
     @PreAuthorize("hasRole('ADMIN')")
@@ -116,6 +209,23 @@ public class ProductController {
         }
     }
 
+    // 🔹 Cập nhật giá / tồn kho cho nhiều sản phẩm trong một lần gọi (chỉ admin)
+    // Body: [{"id": 1, "price": 120000, "stockQuantity": 5}, ...]; trường null được giữ nguyên
+    @PreAuthorize("hasRole('ADMIN')")
+    @PutMapping("/bulk")
+    public ResponseEntity<?> bulkUpdatePriceAndStock(@RequestBody List<ProductBulkUpdateItem> items) {
+        try {
+            BulkUpdateResult result = productService.bulkUpdatePriceAndStock(items);
+            return ResponseEntity.ok(result);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (Exception e) {
+            logger.error("Lỗi khi cập nhật hàng loạt sản phẩm: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("message", "Lỗi khi cập nhật hàng loạt sản phẩm: " + e.getMessage()));
+        }
+    }
+
     // 🔹 Cập nhật số lượng tồn kho (chỉ admin)
     @PreAuthorize("hasRole('ADMIN')")
     @PatchMapping("/{id}/stock")
@@ -129,4 +239,35 @@ public class ProductController {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
         }
     }
+
+    // 🔹 Chia tồn kho của sản phẩm bán chạy thành nhiều shard để các checkout đồng thời không tranh một dòng (chỉ admin)
+    // Không truyền shards → dùng inventory.defaultShards; gọi lại để chia lại
+    @PreAuthorize("hasRole('ADMIN')")
+    @PutMapping("/{id}/stock-shards")
+    public ResponseEntity<?> enableStockShards(@PathVariable Long id, @RequestParam(required = false) Integer shards) {
+        try {
+            int total = inventoryService.enableSharding(id, shards);
+            return ResponseEntity.ok(Map.of("productId", id, "stockQuantity", total, "sharded", true));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (Exception e) {
+            logger.error("Lỗi khi chia shard tồn kho cho sản phẩm với ID {}: {}", id, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("message", "Lỗi khi chia shard tồn kho: " + e.getMessage()));
+        }
+    }
+
+    // 🔹 Gộp các shard tồn kho về lại một dòng (chỉ admin)
+    @PreAuthorize("hasRole('ADMIN')")
+    @DeleteMapping("/{id}/stock-shards")
+    public ResponseEntity<?> disableStockShards(@PathVariable Long id) {
+        try {
+            int total = inventoryService.disableSharding(id);
+            return ResponseEntity.ok(Map.of("productId", id, "stockQuantity", total, "sharded", false));
+        } catch (Exception e) {
+            logger.error("Lỗi khi gộp shard tồn kho cho sản phẩm với ID {}: {}", id, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("message", "Lỗi khi gộp shard tồn kho: " + e.getMessage()));
+        }
+    }
 }
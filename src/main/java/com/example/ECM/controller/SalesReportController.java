@@ -0,0 +1,97 @@
+package com.example.ECM.controller;
+
+import com.example.ECM.service.SalesRollupService;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+// 🔹 Dashboard doanh số cho admin: chỉ đọc các bảng tổng hợp, không quét orders / order_items
+@RestController
+@RequestMapping("/api/sales")
+@RequiredArgsConstructor
+public class SalesReportController {
+
+    private static final int DEFAULT_RANGE_DAYS = 30;
+    private static final int MAX_RANGE_DAYS = 366;
+    private static final int MAX_TOP_PRODUCTS = 100;
+
+    private final SalesRollupService salesRollupService;
+    private static final Logger logger = LoggerFactory.getLogger(SalesReportController.class);
+
+    // 🔹 Doanh số từng ngày trong khoảng [from, to] (mặc định 30 ngày gần nhất)
+    @GetMapping("/daily")
+    public ResponseEntity<?> getDaily(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        LocalDate end = to != null ? to : LocalDate.now();
+        LocalDate start = from != null ? from : end.minusDays(DEFAULT_RANGE_DAYS - 1);
+        String error = validateRange(start, end);
+        if (error != null) {
+            return ResponseEntity.badRequest().body(Map.of("message", error));
+        }
+        return ResponseEntity.ok(salesRollupService.getDaily(start, end));
+    }
+
+    // 🔹 Sản phẩm bán chạy nhất (theo doanh thu) trong khoảng ngày
+    @GetMapping("/products")
+    public ResponseEntity<?> getTopProducts(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                            @RequestParam(defaultValue = "20") int limit) {
+        LocalDate end = to != null ? to : LocalDate.now();
+        LocalDate start = from != null ? from : end.minusDays(DEFAULT_RANGE_DAYS - 1);
+        String error = validateRange(start, end);
+        if (error != null) {
+            return ResponseEntity.badRequest().body(Map.of("message", error));
+        }
+        int size = Math.max(1, Math.min(limit, MAX_TOP_PRODUCTS));
+        return ResponseEntity.ok(salesRollupService.getTopProducts(start, end, size));
+    }
+
+    // 🔹 Doanh số theo danh mục trong khoảng ngày
+    @GetMapping("/categories")
+    public ResponseEntity<?> getCategories(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                           @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        LocalDate end = to != null ? to : LocalDate.now();
+        LocalDate start = from != null ? from : end.minusDays(DEFAULT_RANGE_DAYS - 1);
+        String error = validateRange(start, end);
+        if (error != null) {
+            return ResponseEntity.badRequest().body(Map.of("message", error));
+        }
+        return ResponseEntity.ok(salesRollupService.getCategories(start, end));
+    }
+
+    // 🔹 Tính lại bảng tổng hợp từ đơn hàng cho khoảng [from, to] (backfill / sửa sai lệch), nên chạy lúc ít đơn
+    @PostMapping("/rebuild")
+    public ResponseEntity<?> rebuild(@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                     @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        try {
+            long start = System.currentTimeMillis();
+            int days = salesRollupService.rebuild(from, to);
+            long elapsedMs = System.currentTimeMillis() - start;
+            logger.info("Đã dựng lại bảng tổng hợp doanh số {} → {}: {} ngày có doanh số, {} ms", from, to, days, elapsedMs);
+            return ResponseEntity.ok(Map.of("from", from, "to", to, "days", days, "elapsedMs", elapsedMs));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (Exception e) {
+            logger.error("Lỗi khi dựng lại bảng tổng hợp doanh số: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("message", "Lỗi khi dựng lại bảng tổng hợp doanh số: " + e.getMessage()));
+        }
+    }
+
+    private static String validateRange(LocalDate from, LocalDate to) {
+        if (from.isAfter(to)) {
+            return "from phải trước hoặc bằng to";
+        }
+        if (from.plusDays(MAX_RANGE_DAYS).isBefore(to)) {
+            return "Khoảng ngày tối đa " + MAX_RANGE_DAYS + " ngày";
+        }
+        return null;
+    }
+}
@@ -3,12 +3,17 @@ package com.example.ECM.controller;
 import com.example.ECM.dto.UpdateProfileRequest;
 import com.example.ECM.model.User;
 import com.example.ECM.repository.UserRepository;
+import com.example.ECM.service.UserService;
+import com.example.ECM.util.NdjsonWriter;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
 import java.util.Optional;
@@ -18,6 +23,8 @@ import java.util.Optional;
 @RequiredArgsConstructor
 public class UserController {
     private final UserRepository userRepository;
+    private final UserService userService;
+    private final ObjectMapper objectMapper;
 
     // ✅ Lấy thông tin của chính người dùng đang đăng nhập
     @GetMapping("/profile")
@@ -43,6 +50,18 @@ public class UserController {
         }
     }
 
+    // ✅ ADMIN lấy danh sách người dùng dạng NDJSON (Accept: application/x-ndjson), mỗi dòng một người dùng
+    @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<StreamingResponseBody> streamAllUsers() {
+        StreamingResponseBody body = out -> {
+            try (NdjsonWriter writer = new NdjsonWriter(objectMapper, out)) {
+                userService.streamAllUsers(writer);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
     // ✅ Cập nhật thông tin cá nhân
     @PutMapping("/profile")
     public ResponseEntity<?> updateProfile(@AuthenticationPrincipal UserDetails userDetails,
@@ -1,11 +1,15 @@
 package com.example.ECM.controller;
 
 import com.example.ECM.model.Order;
+import com.example.ECM.model.OrderStatus;
+import com.example.ECM.service.IdempotencyService;
 import com.example.ECM.service.OrderService;
 import com.example.ECM.service.VNPayService;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.logging.Level;
@@ -18,10 +22,12 @@ public class VNPayController {
 
     private final VNPayService vnPayService;
     private final OrderService orderService;
+    private final IdempotencyService idempotencyService;
 
-    public VNPayController(VNPayService vnPayService, OrderService orderService) {
+    public VNPayController(VNPayService vnPayService, OrderService orderService, IdempotencyService idempotencyService) {
         this.vnPayService = vnPayService;
         this.orderService = orderService;
+        this.idempotencyService = idempotencyService;
     }
 
     // ✅ API tạo link thanh toán VNPay
@@ -39,6 +45,11 @@ public class VNPayController {
                 return ResponseEntity.badRequest().body("❌ Tổng giá trị đơn hàng không hợp lệ!");
             }
 
+            // Từ lúc này đơn được tính là chờ thanh toán online (job hết hạn thanh toán chỉ hủy các đơn như vậy)
+            if (!orderService.startOnlinePayment(orderId)) {
+                return ResponseEntity.badRequest().body("❌ Đơn hàng không còn chờ thanh toán!");
+            }
+
             String paymentUrl = vnPayService.createPaymentUrl(orderId, order.getTotalPrice().doubleValue());
             logger.info("✅ Tạo link thanh toán thành công: " + paymentUrl);
             return ResponseEntity.ok(paymentUrl);
@@ -50,11 +61,35 @@ public class VNPayController {
     }
 
     // ✅ API xử lý phản hồi từ VNPay
+    // Chữ ký được kiểm tra trước khi giữ chỗ idempotency: request giả mạo không chiếm được key của giao dịch thật.
+    // Trình duyệt được VNPay chuyển hướng về nên thường không có header Idempotency-Key:
+    // khi đó dùng mã đơn + mã giao dịch VNPay (đã được ký) làm key, F5 / gọi lại sẽ nhận lại kết quả thành công lần đầu.
+    // Response 4xx không được lưu để lỗi tạm thời không khóa giao dịch trong suốt thời hạn của key
     @GetMapping("/return")
-    public ResponseEntity<?> vnpayReturn(@RequestParam Map<String, String> params) {
+    public ResponseEntity<?> vnpayReturn(@RequestParam Map<String, String> params,
+                                         @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        logger.info("✅ VNPay Callback Params: " + params);
         try {
-            logger.info("✅ VNPay Callback Params: " + params);
+            // handlePaymentCallback xóa vnp_SecureHash khỏi map nên truyền bản sao
+            if (!vnPayService.handlePaymentCallback(new HashMap<>(params))) {
+                logger.warning("⚠ Chữ ký VNPay không hợp lệ cho mã đơn: " + params.get("vnp_TxnRef"));
+                return ResponseEntity.badRequest().body("⚠ Thanh toán thất bại hoặc không hợp lệ!");
+            }
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "❌ Lỗi khi xác thực phản hồi VNPay", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("❌ Lỗi khi xử lý phản hồi VNPay!");
+        }
 
+        String key = idempotencyKey;
+        if (key == null && params.get("vnp_TxnRef") != null && params.get("vnp_TransactionNo") != null) {
+            key = params.get("vnp_TxnRef") + ":" + params.get("vnp_TransactionNo");
+        }
+        return idempotencyService.execute("vnpay-return", key, false, () -> handleReturn(params));
+    }
+
+    // Gọi sau khi chữ ký đã hợp lệ
+    private ResponseEntity<?> handleReturn(Map<String, String> params) {
+        try {
             String txnRef = params.get("vnp_TxnRef");
             if (txnRef == null || txnRef.isEmpty()) {
                 return ResponseEntity.badRequest().body("❌ Không tìm thấy mã đơn hàng!");
@@ -74,25 +109,22 @@ public class VNPayController {
             }
 
             // ✅ Kiểm tra xem đơn hàng đã được thanh toán hay chưa
-            if ("PAID".equals(order.getStatus())) {
+            if (OrderStatus.PAID.name().equals(order.getStatus())) {
                 return ResponseEntity.ok("✅ Đơn hàng đã được thanh toán trước đó!");
             }
 
-            // ✅ Xác thực giao dịch VNPay
-            boolean paymentSuccess = vnPayService.handlePaymentCallback(params);
-            if (paymentSuccess) {
-                order.setStatus("PAID");
-                orderService.updateOrder(orderId, order);
-                logger.info("✅ Thanh toán thành công cho Order ID: " + orderId);
-                return ResponseEntity.ok("✅ Thanh toán thành công!");
-            } else {
-                logger.warning("⚠ Thanh toán thất bại hoặc không hợp lệ cho Order ID: " + orderId);
-                return ResponseEntity.badRequest().body("⚠ Thanh toán thất bại hoặc không hợp lệ!");
+            // Chỉ chuyển PENDING → PAID: đơn có thể vừa bị hủy do quá hạn thanh toán (hàng đã trả về kho)
+            if (!orderService.markPaid(orderId)) {
+                logger.warning("⚠ Đơn hàng " + orderId + " không còn chờ thanh toán (trạng thái lúc đọc: " + order.getStatus() + ")");
+                return ResponseEntity.badRequest().body("⚠ Đơn hàng đã bị hủy hoặc không còn chờ thanh toán!");
             }
+            logger.info("✅ Thanh toán thành công cho Order ID: " + orderId);
+            return ResponseEntity.ok("✅ Thanh toán thành công!");
 
         } catch (Exception e) {
+            // 5xx: idempotency bỏ giữ chỗ nên VNPay / trình duyệt gọi lại sẽ được xử lý lại
             logger.log(Level.SEVERE, "❌ Lỗi khi xử lý phản hồi VNPay", e);
-            return ResponseEntity.badRequest().body("❌ Lỗi khi xử lý phản hồi VNPay!");
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("❌ Lỗi khi xử lý phản hồi VNPay!");
         }
     }
 }
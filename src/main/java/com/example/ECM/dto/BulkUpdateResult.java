@@ -0,0 +1,17 @@
+package com.example.ECM.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkUpdateResult {
+    private int requested;
+    private List<Long> appliedIds;
+    private List<Long> missingIds; // id không tồn tại trong DB
+    private long elapsedMs;
+}
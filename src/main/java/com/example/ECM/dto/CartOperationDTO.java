@@ -0,0 +1,20 @@
+package com.example.ECM.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CartOperationDTO {
+    public enum Type {
+        ADD,    // Cộng thêm quantity vào dòng hiện có (tạo dòng nếu chưa có)
+        SET,    // Đặt số lượng = quantity (0 = bỏ dòng)
+        REMOVE  // Bỏ dòng; không có dòng thì bỏ qua
+    }
+
+    private Type type;
+    private Long productId;
+    private int quantity;
+}
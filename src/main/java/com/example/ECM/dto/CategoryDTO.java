@@ -20,4 +20,9 @@ public class CategoryDTO {
 
     @Builder.Default
     private List<ProductDTO> products = new ArrayList<>();  // Thêm danh sách sản phẩm
+
+    // Thống kê sản phẩm của danh mục (chỉ đọc, bỏ qua khi tạo / cập nhật)
+    private long productCount;
+    private Double minPrice; // null nếu danh mục chưa có sản phẩm
+    private Double maxPrice;
 }
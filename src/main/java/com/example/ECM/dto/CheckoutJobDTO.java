@@ -0,0 +1,20 @@
+package com.example.ECM.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CheckoutJobDTO {
+    private String ticket;
+    private String status;        // QUEUED, PROCESSING, COMPLETED, FAILED
+    private Long orderId;         // Có khi COMPLETED
+    private String error;         // Lý do khi FAILED
+    private Long queuePosition;   // Số ticket đang xếp trước (chỉ có khi QUEUED)
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+}
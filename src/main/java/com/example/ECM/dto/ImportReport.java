@@ -0,0 +1,28 @@
+package com.example.ECM.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImportReport {
+    private long rowsRead;
+    private long rowsImported;
+    private long rowsFailed;
+    private long elapsedMs;
+    private double rowsPerSecond;
+    private List<RowError> errors; // Chỉ giữ tối đa một số lỗi đầu tiên
+    private boolean errorsTruncated;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class RowError {
+        private long line;
+        private String message;
+    }
+}
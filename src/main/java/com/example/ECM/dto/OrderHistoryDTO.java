@@ -0,0 +1,19 @@
+package com.example.ECM.dto;
+
+import lombok.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+// Đơn hàng trong lịch sử mua hàng của user: chỉ các cột cần hiển thị, không kèm thông tin user
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class OrderHistoryDTO {
+    private Long id;
+    private String status;
+    private BigDecimal totalPrice;
+    private LocalDateTime createdAt;
+    private List<OrderHistoryItemDTO> items;
+}
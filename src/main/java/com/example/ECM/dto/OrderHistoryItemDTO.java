@@ -0,0 +1,16 @@
+package com.example.ECM.dto;
+
+import lombok.*;
+
+import java.math.BigDecimal;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class OrderHistoryItemDTO {
+    private Long productId;
+    private String productName;
+    private String productImageUrl;
+    private int quantity;
+    private BigDecimal price; // Giá tại thời điểm đặt hàng
+}
@@ -0,0 +1,16 @@
+package com.example.ECM.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderStatusBulkRequest {
+    private List<Long> ids;
+    private String status;     // Trạng thái mới
+    private String fromStatus; // null = mọi trạng thái được phép chuyển sang status; có giá trị = chỉ đổi đơn đang ở trạng thái này
+}
@@ -0,0 +1,27 @@
+package com.example.ECM.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderStatusBulkResult {
+    private int requested;
+    private String status;
+    private List<Long> updatedIds;
+    private List<Rejected> rejected;
+    private long elapsedMs;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Rejected {
+        private Long id;
+        private String currentStatus; // null nếu đơn không tồn tại
+        private String reason;
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.ECM.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductBulkUpdateItem {
+    private Long id;
+    private Double price;          // null = giữ nguyên giá
+    private Integer stockQuantity; // null = giữ nguyên tồn kho
+}
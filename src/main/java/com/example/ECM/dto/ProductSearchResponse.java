@@ -0,0 +1,14 @@
+package com.example.ECM.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.domain.Page;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductSearchResponse {
+    private Page<ProductDTO> products;
+    private SearchFacetsDTO facets; // null nếu index chưa sẵn sàng
+}
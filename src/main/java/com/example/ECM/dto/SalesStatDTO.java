@@ -0,0 +1,21 @@
+package com.example.ECM.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+// Một dòng thống kê doanh số: theo ngày (date) hoặc theo sản phẩm / danh mục (id, name)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SalesStatDTO {
+    private LocalDate date;
+    private Long id;
+    private String name;
+    private long orders;
+    private long units;
+    private BigDecimal revenue;
+}
@@ -0,0 +1,42 @@
+package com.example.ECM.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SearchFacetsDTO {
+    private List<CategoryFacet> categories;
+    private List<PriceFacet> priceRanges;
+    private List<RatingFacet> ratings;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class CategoryFacet {
+        private Long categoryId;
+        private String name;
+        private int count;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class PriceFacet {
+        private Double minPrice; // null = không giới hạn dưới
+        private Double maxPrice; // null = không giới hạn trên (khoảng là [minPrice, maxPrice))
+        private int count;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class RatingFacet {
+        private int minRating; // Số sản phẩm có rating >= minRating
+        private int count;
+    }
+}
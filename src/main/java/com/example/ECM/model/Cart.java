@@ -5,11 +5,18 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
+import java.time.LocalDateTime;
 import java.util.HashSet;
 import java.util.Set;
 
 @Entity
-@Table(name = "carts")
+@Table(name = "carts", uniqueConstraints = {
+        // Mỗi user một giỏ; thêm vào giỏ dựa vào ràng buộc này (ON CONFLICT)
+        @UniqueConstraint(name = "uk_carts_user_id", columnNames = "user_id")
+}, indexes = {
+        // Phục vụ job dọn giỏ bỏ quên (lọc theo thời gian, duyệt keyset theo id)
+        @Index(name = "idx_carts_updated_at_id", columnList = "updated_at, id")
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -22,9 +29,19 @@ public class Cart {
     @JoinColumn(name = "user_id", nullable = false)
     private User user;
 
+    // 🔹 Lần cuối giỏ được thay đổi; các câu ghi JDBC đặt bằng now()
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
     @OneToMany(mappedBy = "cart", cascade = CascadeType.ALL, orphanRemoval = true)
     private Set<CartItem> cartItems = new HashSet<>();
 
+    @PrePersist
+    @PreUpdate
+    protected void onUpdate() {
+        this.updatedAt = LocalDateTime.now();
+    }
+
     public void addItem(CartItem cartItem) {
         cartItems.add(cartItem);
         cartItem.setCart(this);
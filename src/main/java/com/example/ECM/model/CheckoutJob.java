@@ -0,0 +1,59 @@
+package com.example.ECM.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Một yêu cầu đặt hàng bất đồng bộ. Worker lấy các dòng QUEUED theo id bằng FOR UPDATE SKIP LOCKED,
+ * chạy checkout rồi ghi lại kết quả. Bảng chỉ được đọc / ghi qua {@code CheckoutJobJdbcRepository}.
+ */
+@Entity
+@Table(name = "checkout_jobs", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_checkout_jobs_ticket", columnNames = "ticket")
+}, indexes = {
+        // Phục vụ worker lấy việc theo thứ tự và tính vị trí trong hàng đợi
+        @Index(name = "idx_checkout_jobs_status_id", columnList = "status, id")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class CheckoutJob {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // Mã trả cho client để hỏi trạng thái (UUID, không đoán được như id)
+    @Column(nullable = false, length = 36)
+    private String ticket;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    // QUEUED → PROCESSING → COMPLETED / FAILED (lỗi tạm thời thì quay lại QUEUED)
+    @Column(nullable = false, length = 20)
+    private String status;
+
+    @Column(name = "order_id")
+    private Long orderId;
+
+    @Column(length = 500)
+    private String error;
+
+    // Số lần đã được worker nhận; kết quả chỉ được ghi nếu khớp lần nhận hiện tại
+    @Column(nullable = false)
+    private Integer attempts;
+
+    // Hạn xử lý của lần nhận hiện tại; quá hạn thì ticket được trả lại hàng đợi
+    @Column(name = "locked_until")
+    private LocalDateTime lockedUntil;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+}
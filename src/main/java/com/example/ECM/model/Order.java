@@ -5,10 +5,16 @@ import jakarta.persistence.*;
 import lombok.*;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Entity
-@Table(name = "orders")
+@Table(name = "orders", indexes = {
+        // Phục vụ job hủy đơn quá hạn thanh toán online
+        @Index(name = "idx_orders_status_payment_started_at", columnList = "status, payment_started_at"),
+        // Phục vụ lịch sử đơn hàng của user, mới nhất trước
+        @Index(name = "idx_orders_user_id_id", columnList = "user_id, id DESC")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -26,6 +32,26 @@ public class Order {
     private BigDecimal totalPrice;
     private String status;
 
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    // 🔹 true khi đơn đang giữ hàng trong kho (trừ lúc checkout). Hủy đơn sẽ trả hàng và đặt lại false,
+    // nên đơn cũ (tạo trước khi có giữ hàng) không bao giờ trả hàng. Sau khi tạo chỉ OrderJdbcRepository ghi cột này
+    @Column(name = "stock_reserved", columnDefinition = "boolean default false not null", updatable = false)
+    private boolean stockReserved;
+
+    // 🔹 Lần đầu khách mở thanh toán online (tạo link VNPay); null với đơn COD.
+    // Chỉ đơn có giá trị này mới bị job hết hạn thanh toán hủy. Chỉ OrderJdbcRepository ghi cột này
+    @Column(name = "payment_started_at", insertable = false, updatable = false)
+    private LocalDateTime paymentStartedAt;
+
     @OneToMany(mappedBy = "order", cascade = CascadeType.ALL, orphanRemoval = true)
     private List<OrderItem> orderItems;
+
+    @PrePersist
+    void onCreate() {
+        if (createdAt == null) {
+            createdAt = LocalDateTime.now();
+        }
+    }
 }
@@ -7,7 +7,10 @@ import lombok.*;
 import java.math.BigDecimal;
 
 @Entity
-@Table(name = "order_items")
+@Table(name = "order_items", indexes = {
+        // Postgres không tự tạo index cho khóa ngoại; cần khi đọc sản phẩm theo danh sách đơn hàng
+        @Index(name = "idx_order_items_order_id", columnList = "order_id")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -28,4 +31,9 @@ public class OrderItem {
 
     private int quantity;
     private BigDecimal price; // Giá tại thời điểm đặt hàng
+
+    // 🔹 Danh mục của sản phẩm tại thời điểm đặt hàng (0 = không có danh mục), để bảng tổng hợp doanh số
+    // tính đơn vào cùng một danh mục khi đặt, khi hủy và khi dựng lại. Dòng cũ (null) lấy danh mục hiện tại của sản phẩm
+    @Column(name = "category_id")
+    private Long categoryId;
 }
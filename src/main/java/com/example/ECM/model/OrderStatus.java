@@ -1,4 +1,53 @@
 package com.example.ECM.model;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Trạng thái đơn hàng và các bước chuyển hợp lệ:
+ * PENDING → PAID → PROCESSING → SHIPPED → DELIVERED (đơn COD đi thẳng PENDING → PROCESSING),
+ * hủy được khi chưa giao cho vận chuyển. DELIVERED và CANCELED là trạng thái cuối.
+ */
 public enum OrderStatus {
-    PENDING, PROCESSING, SHIPPED, DELIVERED, CANCELED
+    PENDING, PAID, PROCESSING, SHIPPED, DELIVERED, CANCELED;
+
+    private Set<OrderStatus> next;
+
+    static {
+        PENDING.next = EnumSet.of(PAID, PROCESSING, CANCELED);
+        PAID.next = EnumSet.of(PROCESSING, CANCELED);
+        PROCESSING.next = EnumSet.of(SHIPPED, CANCELED);
+        SHIPPED.next = EnumSet.of(DELIVERED);
+        DELIVERED.next = EnumSet.noneOf(OrderStatus.class);
+        CANCELED.next = EnumSet.noneOf(OrderStatus.class);
+    }
+
+    public boolean canTransitionTo(OrderStatus target) {
+        return next.contains(target);
+    }
+
+    // Các trạng thái được phép chuyển sang target (dùng làm điều kiện trong câu UPDATE)
+    public static List<String> sourcesOf(OrderStatus target) {
+        List<String> sources = new ArrayList<>();
+        for (OrderStatus status : values()) {
+            if (status.canTransitionTo(target)) {
+                sources.add(status.name());
+            }
+        }
+        return sources;
+    }
+
+    public static OrderStatus parse(String status) {
+        if (status == null || status.isBlank()) {
+            throw new IllegalArgumentException("Trạng thái đơn hàng không được để trống");
+        }
+        try {
+            return valueOf(status.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Trạng thái đơn hàng không hợp lệ: " + status);
+        }
+    }
 }
@@ -1,10 +1,15 @@
 package com.example.ECM.model;
 
+import com.example.ECM.util.VietnameseNormalizer;
 import jakarta.persistence.*;
 import lombok.*;
 
 @Entity
-@Table(name = "products")
+@Table(name = "products", indexes = {
+        // Phục vụ phân trang keyset theo giá và theo đánh giá
+        @Index(name = "idx_products_price_id", columnList = "price, id"),
+        @Index(name = "idx_products_rating_id", columnList = "rating DESC, id")
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -18,6 +23,10 @@ public class Product {
     @Column(nullable = false, length = 255)
     private String name;
 
+    // 🔹 Tên đã bỏ dấu, chữ thường ("Áo Thun Đỏ" → "ao thun do"), dùng cho tìm kiếm không dấu trên DB
+    @Column(name = "search_key", length = 255)
+    private String searchKey;
+
     @Column(columnDefinition = "TEXT")
     private String description;
 
@@ -27,6 +36,11 @@ public class Product {
     @Column(name = "stock_quantity", nullable = false) // 🔹 Đảm bảo ánh xạ đúng tên cột trong DB
     private Integer stockQuantity = 0; // 🔹 Mặc định là 0 để tránh lỗi null
 
+    // 🔹 Số shard tồn kho (0 = giữ hàng trực tiếp trên stock_quantity). Khi > 0, tồn kho thật nằm ở bảng
+    // product_stock_shards và stock_quantity chỉ là bản tổng hợp để hiển thị. Do InventoryService quản lý, JPA không ghi
+    @Column(name = "stock_shards", columnDefinition = "integer default 0 not null", insertable = false, updatable = false)
+    private Integer stockShards;
+
     @Column(length = 500)
     private String imageUrl;
 
@@ -36,4 +50,10 @@ public class Product {
     @ManyToOne
     @JoinColumn(name = "category_id", nullable = false)
     private Category category;
+
+    @PrePersist
+    @PreUpdate
+    void updateSearchKey() {
+        searchKey = VietnameseNormalizer.fold(name);
+    }
 }
@@ -0,0 +1,33 @@
+package com.example.ECM.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Một phần tồn kho của sản phẩm bán chạy. Tồn kho được chia thành {@code products.stock_shards} dòng
+ * để các checkout đồng thời trừ hàng trên các dòng khác nhau thay vì cùng chờ khóa một dòng products.
+ * Bảng chỉ được đọc / ghi qua {@code InventoryJdbcRepository}.
+ */
+@Entity
+@Table(name = "product_stock_shards", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_product_stock_shards_product_shard", columnNames = {"product_id", "shard"})
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class ProductStockShard {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "product_id", nullable = false)
+    private Long productId;
+
+    @Column(nullable = false)
+    private Integer shard;
+
+    @Column(nullable = false)
+    private Integer quantity;
+}
@@ -0,0 +1,38 @@
+package com.example.ECM.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Doanh số theo ngày đặt hàng (đơn chưa hủy): số đơn, số sản phẩm bán ra, doanh thu.
+ * Bảng chỉ được đọc / ghi qua {@code SalesRollupJdbcRepository}; xem {@code SalesRollupService}.
+ */
+@Entity
+@Table(name = "sales_daily", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_sales_daily_date", columnNames = "sales_date")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class SalesDaily {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "sales_date", nullable = false)
+    private LocalDate salesDate;
+
+    @Column(nullable = false)
+    private Long orders;
+
+    @Column(nullable = false)
+    private Long units;
+
+    @Column(nullable = false)
+    private BigDecimal revenue;
+}
@@ -0,0 +1,41 @@
+package com.example.ECM.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Doanh số theo ngày của từng danh mục; orders là số đơn có ít nhất một sản phẩm thuộc danh mục.
+ * category_id = 0 cho dòng của sản phẩm đã bị xóa.
+ */
+@Entity
+@Table(name = "sales_daily_category", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_sales_daily_category_date_category", columnNames = {"sales_date", "category_id"})
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class SalesDailyCategory {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "sales_date", nullable = false)
+    private LocalDate salesDate;
+
+    @Column(name = "category_id", nullable = false)
+    private Long categoryId;
+
+    @Column(nullable = false)
+    private Long orders;
+
+    @Column(nullable = false)
+    private Long units;
+
+    @Column(nullable = false)
+    private BigDecimal revenue;
+}
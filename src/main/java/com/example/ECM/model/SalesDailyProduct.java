@@ -0,0 +1,41 @@
+package com.example.ECM.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Doanh số theo ngày của từng sản phẩm; orders là số đơn có sản phẩm đó.
+ * Unique (sales_date, product_id) cũng là index cho truy vấn top sản phẩm trong khoảng ngày.
+ */
+@Entity
+@Table(name = "sales_daily_product", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_sales_daily_product_date_product", columnNames = {"sales_date", "product_id"})
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class SalesDailyProduct {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "sales_date", nullable = false)
+    private LocalDate salesDate;
+
+    @Column(name = "product_id", nullable = false)
+    private Long productId;
+
+    @Column(nullable = false)
+    private Long orders;
+
+    @Column(nullable = false)
+    private Long units;
+
+    @Column(nullable = false)
+    private BigDecimal revenue;
+}
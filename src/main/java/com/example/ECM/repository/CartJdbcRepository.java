@@ -0,0 +1,241 @@
+package com.example.ECM.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ghi giỏ hàng xuống các bảng carts / cart_items bằng JDBC, dựa trên các ràng buộc unique
+ * (carts.user_id) và (cart_items.cart_id, product_id) để ghi bằng upsert thay vì đọc rồi ghi.
+ * {@code CartWriteBehindStore} và thao tác theo lô ghi trạng thái cuối cùng của giỏ (đã gộp các thao tác).
+ */
+@Repository
+@RequiredArgsConstructor
+public class CartJdbcRepository {
+    // Ghi đè số lượng của dòng (giữ nguyên id nếu dòng đã có)
+    private static final String UPSERT_ITEM_SQL =
+            "INSERT INTO cart_items (cart_id, product_id, quantity, price) VALUES (?, ?, ?, ?) " +
+            "ON CONFLICT (cart_id, product_id) DO UPDATE SET quantity = EXCLUDED.quantity, price = EXCLUDED.price";
+
+    // Tạo giỏ nếu chưa có, nếu có thì cập nhật updated_at; DO UPDATE để RETURNING luôn trả về id
+    private static final String ENSURE_CART_SQL =
+            "INSERT INTO carts (user_id, updated_at) VALUES (?, now()) " +
+            "ON CONFLICT (user_id) DO UPDATE SET updated_at = EXCLUDED.updated_at RETURNING id";
+
+    private static final String TOUCH_CART_SQL = "UPDATE carts SET updated_at = now() WHERE user_id = ? RETURNING id";
+
+    // Đổi số lượng / xóa một dòng theo userId trong một câu lệnh, đồng thời cập nhật updated_at của giỏ
+    private static final String SET_QUANTITY_SQL =
+            "WITH cart AS (" + TOUCH_CART_SQL + ") " +
+            "UPDATE cart_items ci SET quantity = ?, price = ? FROM cart WHERE ci.cart_id = cart.id AND ci.product_id = ?";
+
+    private static final String REMOVE_ITEM_SQL =
+            "WITH cart AS (" + TOUCH_CART_SQL + ") " +
+            "DELETE FROM cart_items ci USING cart WHERE ci.cart_id = cart.id AND ci.product_id = ?";
+
+    // 🔹 Thêm vào giỏ trong một câu lệnh: tạo giỏ nếu chưa có, rồi thêm dòng hoặc cộng dồn số lượng.
+    // Dựa vào unique (carts.user_id) và (cart_items.cart_id, product_id) nên các request đồng thời không tạo trùng.
+    private static final String ADD_ITEM_SQL =
+            "WITH cart AS (" + ENSURE_CART_SQL + ") " +
+            "INSERT INTO cart_items (cart_id, product_id, quantity, price) " +
+            "SELECT cart.id, ?, ?, ? * ? FROM cart " +
+            "ON CONFLICT (cart_id, product_id) DO UPDATE SET " +
+            "quantity = cart_items.quantity + EXCLUDED.quantity, " +
+            "price = ? * (cart_items.quantity + EXCLUDED.quantity) " +
+            "RETURNING cart_id";
+
+    // Xóa các dòng không còn trong giỏ (mảng rỗng → xóa hết)
+    private static final String DELETE_MISSING_SQL =
+            "DELETE FROM cart_items WHERE cart_id = ? AND NOT (product_id = ANY (?::bigint[]))";
+
+    // Chọn một lô giỏ quá hạn theo id (bỏ qua dòng node khác đang khóa), xóa dòng rồi xóa giỏ trong cùng câu lệnh.
+    // Điều kiện updated_at được kiểm tra lại sau khi khóa nên giỏ vừa được dùng sẽ không bị xóa.
+    private static final String DELETE_IDLE_SQL =
+            "WITH victims AS (" +
+            "SELECT id FROM carts WHERE updated_at < ? AND id > ? ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED), " +
+            "items AS (DELETE FROM cart_items WHERE cart_id IN (SELECT id FROM victims) RETURNING 1), " +
+            "deleted AS (DELETE FROM carts WHERE id IN (SELECT id FROM victims) RETURNING id) " +
+            "SELECT (SELECT COUNT(*) FROM deleted), (SELECT COUNT(*) FROM items), (SELECT COALESCE(MAX(id), 0) FROM victims)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public record CartLine(long productId, int quantity, double price) {
+    }
+
+    // Kết quả một lô dọn giỏ; lastId dùng làm mốc keyset cho lô sau
+    public record SweepBatch(int cartsDeleted, int itemsDeleted, long lastId) {
+    }
+
+    // cartId == null → giỏ chưa có trong DB, sẽ được tạo khi ghi
+    public record CartSnapshot(long userId, Long cartId, List<CartLine> lines) {
+    }
+
+    /**
+     * Ghi trạng thái của nhiều giỏ hàng trong một transaction.
+     * Dòng được ghi bằng INSERT ... ON CONFLICT DO UPDATE (dòng đã có giữ nguyên id), dòng đã bỏ bị DELETE.
+     * Trả về userId → cartId của mọi giỏ đã ghi (kể cả giỏ vừa được tạo).
+     * Luôn chạy trong transaction riêng: nơi gọi có thể đang ở trong transaction chỉ đọc.
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public Map<Long, Long> writeCarts(List<CartSnapshot> snapshots) {
+        Map<Long, Long> cartIds = new HashMap<>();
+        List<Object[]> touches = new ArrayList<>();
+        List<Object[]> upserts = new ArrayList<>();
+        List<Object[]> deletes = new ArrayList<>(snapshots.size());
+        for (CartSnapshot snapshot : snapshots) {
+            long cartId;
+            if (snapshot.cartId() != null) {
+                cartId = snapshot.cartId();
+                touches.add(new Object[]{cartId});
+            } else {
+                cartId = ensureCart(snapshot.userId());
+            }
+            cartIds.put(snapshot.userId(), cartId);
+            Long[] keep = new Long[snapshot.lines().size()];
+            for (int i = 0; i < keep.length; i++) {
+                CartLine line = snapshot.lines().get(i);
+                keep[i] = line.productId();
+                upserts.add(new Object[]{cartId, line.productId(), line.quantity(), line.price()});
+            }
+            deletes.add(new Object[]{cartId, keep});
+        }
+
+        if (!touches.isEmpty()) {
+            jdbcTemplate.batchUpdate("UPDATE carts SET updated_at = now() WHERE id = ?", touches);
+        }
+        jdbcTemplate.batchUpdate(DELETE_MISSING_SQL, deletes, deletes.size(), (ps, row) -> {
+            ps.setLong(1, (Long) row[0]);
+            ps.setArray(2, ps.getConnection().createArrayOf("bigint", (Long[]) row[1]));
+        });
+
+        if (!upserts.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPSERT_ITEM_SQL, upserts);
+        }
+        return cartIds;
+    }
+
+    /**
+     * Tạo giỏ nếu chưa có và khóa dòng carts của user tới hết transaction của nơi gọi.
+     * Các câu ghi một giỏ (thêm / sửa / xóa dòng) đều cập nhật dòng carts trước nên sẽ chờ nơi gọi commit.
+     */
+    public long lockCart(long userId) {
+        return jdbcTemplate.queryForObject(ENSURE_CART_SQL, Long.class, userId);
+    }
+
+    // Thay toàn bộ dòng của một giỏ đã khóa bằng lockCart (chạy trong transaction của nơi gọi)
+    public void replaceItems(long cartId, List<CartLine> lines) {
+        Long[] keep = new Long[lines.size()];
+        List<Object[]> upserts = new ArrayList<>(lines.size());
+        for (int i = 0; i < keep.length; i++) {
+            CartLine line = lines.get(i);
+            keep[i] = line.productId();
+            upserts.add(new Object[]{cartId, line.productId(), line.quantity(), line.price()});
+        }
+        jdbcTemplate.update(DELETE_MISSING_SQL, ps -> {
+            ps.setLong(1, cartId);
+            ps.setArray(2, ps.getConnection().createArrayOf("bigint", keep));
+        });
+        if (!upserts.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPSERT_ITEM_SQL, upserts);
+        }
+    }
+
+    // productId → id dòng của một giỏ
+    public Map<Long, Long> findItemIds(long cartId) {
+        Map<Long, Long> ids = new HashMap<>();
+        jdbcTemplate.query("SELECT product_id, id FROM cart_items WHERE cart_id = ?",
+                rs -> {
+                    ids.put(rs.getLong(1), rs.getLong(2));
+                }, cartId);
+        return ids;
+    }
+
+    /**
+     * Thêm quantity sản phẩm vào giỏ của user (chạy trong transaction của nơi gọi).
+     * unitPrice dùng để tính lại tổng tiền của dòng. Trả về id giỏ hàng.
+     */
+    public long addItem(long userId, long productId, int quantity, double unitPrice) {
+        return jdbcTemplate.queryForObject(ADD_ITEM_SQL, Long.class,
+                userId, productId, quantity, unitPrice, quantity, unitPrice);
+    }
+
+    /**
+     * Đảm bảo có hai ràng buộc unique mà các câu upsert dựa vào.
+     * Nếu chưa có: gộp các giỏ trùng của cùng user (giữ giỏ id nhỏ nhất) và các dòng trùng sản phẩm
+     * (cộng dồn số lượng), rồi tạo ràng buộc.
+     */
+    @Transactional
+    public void enforceUniqueness() {
+        if (!constraintExists("uk_carts_user_id")) {
+            String duplicates = "(SELECT user_id, MIN(id) AS keep_id FROM carts GROUP BY user_id HAVING COUNT(*) > 1)";
+            jdbcTemplate.update("UPDATE cart_items ci SET cart_id = d.keep_id FROM carts c JOIN " + duplicates +
+                    " d ON c.user_id = d.user_id WHERE ci.cart_id = c.id AND c.id <> d.keep_id");
+            jdbcTemplate.update("DELETE FROM carts c USING " + duplicates +
+                    " d WHERE c.user_id = d.user_id AND c.id <> d.keep_id");
+            jdbcTemplate.execute("ALTER TABLE carts ADD CONSTRAINT uk_carts_user_id UNIQUE (user_id)");
+        }
+        if (!constraintExists("uk_cart_items_cart_product")) {
+            jdbcTemplate.update("UPDATE cart_items ci SET quantity = d.quantity, price = d.price FROM " +
+                    "(SELECT MIN(id) AS keep_id, SUM(quantity) AS quantity, SUM(price) AS price FROM cart_items " +
+                    "GROUP BY cart_id, product_id HAVING COUNT(*) > 1) d WHERE ci.id = d.keep_id");
+            jdbcTemplate.update("DELETE FROM cart_items ci USING " +
+                    "(SELECT cart_id, product_id, MIN(id) AS keep_id FROM cart_items " +
+                    "GROUP BY cart_id, product_id HAVING COUNT(*) > 1) d " +
+                    "WHERE ci.cart_id = d.cart_id AND ci.product_id = d.product_id AND ci.id <> d.keep_id");
+            jdbcTemplate.execute("ALTER TABLE cart_items ADD CONSTRAINT uk_cart_items_cart_product UNIQUE (cart_id, product_id)");
+        }
+    }
+
+    private boolean constraintExists(String name) {
+        Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM pg_constraint WHERE conname = ?", Integer.class, name);
+        return count != null && count > 0;
+    }
+
+    // Trả về false nếu user không có giỏ hoặc sản phẩm không có trong giỏ
+    public boolean setQuantity(long userId, long productId, int quantity, double unitPrice) {
+        return jdbcTemplate.update(SET_QUANTITY_SQL, userId, quantity, unitPrice * quantity, productId) > 0;
+    }
+
+    public boolean removeItem(long userId, long productId) {
+        return jdbcTemplate.update(REMOVE_ITEM_SQL, userId, productId) > 0;
+    }
+
+    // Giỏ của user có ít nhất một dòng
+    public boolean hasItems(long userId) {
+        Boolean exists = jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM cart_items ci " +
+                "JOIN carts c ON c.id = ci.cart_id WHERE c.user_id = ?)", Boolean.class, userId);
+        return Boolean.TRUE.equals(exists);
+    }
+
+    // Giỏ có từ trước khi thêm cột updated_at: bắt đầu tính thời gian không dùng từ bây giờ
+    public int backfillUpdatedAt() {
+        return jdbcTemplate.update("UPDATE carts SET updated_at = now() WHERE updated_at IS NULL");
+    }
+
+    // Một câu lệnh tự commit (không chạy trong transaction của nơi gọi)
+    public SweepBatch deleteIdleCarts(LocalDateTime cutoff, long afterId, int limit) {
+        return jdbcTemplate.queryForObject(DELETE_IDLE_SQL,
+                (rs, rowNum) -> new SweepBatch(rs.getInt(1), rs.getInt(2), rs.getLong(3)),
+                Timestamp.valueOf(cutoff), afterId, limit);
+    }
+
+    // VACUUM không chạy được trong transaction → gọi ngoài @Transactional
+    public void vacuum() {
+        jdbcTemplate.execute("VACUUM (ANALYZE) cart_items");
+        jdbcTemplate.execute("VACUUM (ANALYZE) carts");
+    }
+
+    // Lấy id giỏ của user, tạo mới nếu chưa có
+    private long ensureCart(long userId) {
+        return jdbcTemplate.queryForObject(ENSURE_CART_SQL, Long.class, userId);
+    }
+}
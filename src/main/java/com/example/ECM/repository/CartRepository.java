@@ -1,10 +1,35 @@
 package com.example.ECM.repository;
 
 import com.example.ECM.model.Cart;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface CartRepository extends JpaRepository<Cart, Long> {
     Optional<Cart> findByUserId(Long userId);
+
+    // 🔹 Nạp giỏ hàng kèm user, các dòng, sản phẩm và danh mục trong một câu SELECT (tránh N+1 khi dựng CartDTO)
+    @EntityGraph(attributePaths = {"user", "cartItems", "cartItems.product", "cartItems.product.category"})
+    @Query("SELECT c FROM Cart c WHERE c.user.id = :userId")
+    Optional<Cart> findWithItemsByUserId(@Param("userId") Long userId);
+
+    @EntityGraph(attributePaths = {"user", "cartItems", "cartItems.product", "cartItems.product.category"})
+    @Query("SELECT DISTINCT c FROM Cart c ORDER BY c.id")
+    List<Cart> findAllWithItems();
+
+    // 🔹 Mỗi dòng là một sản phẩm trong giỏ (giỏ trống vẫn có một dòng), sắp theo giỏ hàng
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT c.id, u.id, ci.id, p.id, p.name, p.description, p.price, p.stockQuantity, " +
+            "p.imageUrl, p.rating, cat.id, ci.quantity " +
+            "FROM Cart c JOIN c.user u LEFT JOIN c.cartItems ci LEFT JOIN ci.product p LEFT JOIN p.category cat " +
+            "ORDER BY c.id, ci.id")
+    Stream<Object[]> streamAllWithItems();
 }
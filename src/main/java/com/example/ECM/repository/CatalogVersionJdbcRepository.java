@@ -0,0 +1,39 @@
+package com.example.ECM.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Phiên bản catalog dùng chung giữa các node, lưu trong sequence catalog_version_seq của Postgres.
+ * nextval không tham gia transaction nên tăng phiên bản không khóa dòng nào và không chặn các lần ghi khác.
+ */
+@Repository
+@RequiredArgsConstructor
+public class CatalogVersionJdbcRepository {
+    private static final String CREATE_SEQUENCE_SQL = "CREATE SEQUENCE IF NOT EXISTS catalog_version_seq";
+    private static final String NEXT_SQL = "SELECT nextval('catalog_version_seq')";
+    // Sequence vừa tạo có last_value = 1 nhưng is_called = false: coi như phiên bản 0
+    private static final String CURRENT_SQL =
+            "SELECT CASE WHEN is_called THEN last_value ELSE 0 END FROM catalog_version_seq";
+
+    private final JdbcTemplate jdbcTemplate;
+    private volatile boolean sequenceReady;
+
+    public long next() {
+        ensureSequence();
+        return jdbcTemplate.queryForObject(NEXT_SQL, Long.class);
+    }
+
+    public long current() {
+        ensureSequence();
+        return jdbcTemplate.queryForObject(CURRENT_SQL, Long.class);
+    }
+
+    private void ensureSequence() {
+        if (!sequenceReady) {
+            jdbcTemplate.execute(CREATE_SEQUENCE_SQL);
+            sequenceReady = true;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.ECM.repository;
+
+import com.example.ECM.dto.CheckoutJobDTO;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Hàng đợi checkout bất đồng bộ trên bảng checkout_jobs.
+ * Mỗi user chỉ có tối đa một ticket đang chờ / đang chạy (unique index một phần trên user_id).
+ * Kết quả của một lần nhận chỉ được ghi nếu ticket vẫn đang PROCESSING với đúng số lần nhận đó,
+ * nên worker chậm quá hạn không ghi đè kết quả của worker nhận lại sau.
+ */
+@Repository
+@RequiredArgsConstructor
+public class CheckoutJobJdbcRepository {
+    private static final String ACTIVE = "status IN ('QUEUED', 'PROCESSING')";
+    private static final String ACTIVE_USER_INDEX = "uk_checkout_jobs_active_user";
+
+    // Ticket QUEUED của user đã có ticket đang chạy hoặc ticket QUEUED cũ hơn → FAILED (giữ một ticket cho mỗi user)
+    private static final String FAIL_DUPLICATE_QUEUED_SQL =
+            "UPDATE checkout_jobs j SET status = 'FAILED', error = 'Trùng yêu cầu đặt hàng đang chờ', " +
+            "locked_until = NULL, updated_at = now() " +
+            "WHERE j.status = 'QUEUED' AND EXISTS (SELECT 1 FROM checkout_jobs o WHERE o.user_id = j.user_id " +
+            "AND o.id <> j.id AND (o.status = 'PROCESSING' OR (o.status = 'QUEUED' AND o.id < j.id)))";
+
+    private static final String ENQUEUE_SQL =
+            "INSERT INTO checkout_jobs (ticket, user_id, status, attempts, created_at, updated_at) " +
+            "VALUES (?, ?, 'QUEUED', 0, now(), now()) " +
+            "ON CONFLICT (user_id) WHERE " + ACTIVE + " DO NOTHING RETURNING ticket";
+
+    // 🔹 Nhận một lô ticket theo thứ tự vào hàng; ticket đang bị node khác khóa thì bỏ qua
+    private static final String CLAIM_SQL =
+            "UPDATE checkout_jobs j SET status = 'PROCESSING', attempts = j.attempts + 1, " +
+            "locked_until = now() + ? * interval '1 second', updated_at = now() " +
+            "FROM (SELECT id FROM checkout_jobs WHERE status = 'QUEUED' ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED) c " +
+            "WHERE j.id = c.id RETURNING j.id, j.user_id, j.attempts";
+
+    private static final String FINISH_SQL =
+            "UPDATE checkout_jobs SET status = ?, order_id = ?, error = ?, locked_until = NULL, updated_at = now() " +
+            "WHERE id = ? AND status = 'PROCESSING' AND attempts = ?";
+
+    // Worker chết hoặc treo quá hạn: trả ticket về hàng đợi, hết lượt thử thì đánh dấu FAILED
+    private static final String REQUEUE_STALE_SQL =
+            "UPDATE checkout_jobs SET status = CASE WHEN attempts >= ? THEN 'FAILED' ELSE 'QUEUED' END, " +
+            "error = 'Quá thời gian xử lý', locked_until = NULL, updated_at = now() " +
+            "WHERE status = 'PROCESSING' AND locked_until < now()";
+
+    private static final String FIND_SQL =
+            "SELECT j.ticket, j.status, j.order_id, j.error, " +
+            "CASE WHEN j.status = 'QUEUED' THEN (SELECT COUNT(*) FROM checkout_jobs q WHERE q.status = 'QUEUED' AND q.id < j.id) END, " +
+            "j.created_at, j.updated_at FROM checkout_jobs j WHERE j.ticket = ?";
+
+    private static final String DELETE_FINISHED_SQL =
+            "DELETE FROM checkout_jobs WHERE id IN (SELECT id FROM checkout_jobs " +
+            "WHERE status IN ('COMPLETED', 'FAILED') AND updated_at < now() - ? * interval '1 hour' LIMIT ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public record ClaimedJob(long id, long userId, int attempt) {
+    }
+
+    /**
+     * Index unique một phần không khai báo được bằng annotation JPA → tạo khi khởi động; ENQUEUE_SQL cần index này.
+     * Bảng từng chạy khi chưa có index có thể chứa nhiều ticket đang chờ của cùng user: ticket đang chạy / cũ nhất được giữ,
+     * các ticket QUEUED còn lại bị đánh dấu FAILED. Bảng bị khóa ghi (vẫn đọc được) từ lúc dọn tới lúc tạo xong index
+     * để không có ticket trùng chen vào giữa. Trả về số ticket đã đánh dấu FAILED.
+     */
+    @Transactional
+    public int ensureActiveUserIndex() {
+        Boolean exists = jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, ACTIVE_USER_INDEX);
+        if (Boolean.TRUE.equals(exists)) {
+            return 0;
+        }
+        jdbcTemplate.execute("LOCK TABLE checkout_jobs IN SHARE ROW EXCLUSIVE MODE");
+        int failed = jdbcTemplate.update(FAIL_DUPLICATE_QUEUED_SQL);
+        jdbcTemplate.execute("CREATE UNIQUE INDEX IF NOT EXISTS " + ACTIVE_USER_INDEX + " ON checkout_jobs (user_id) WHERE " + ACTIVE);
+        return failed;
+    }
+
+    // Trả về null nếu user đã có ticket đang chờ / đang chạy
+    public String enqueue(String ticket, long userId) {
+        List<String> created = jdbcTemplate.queryForList(ENQUEUE_SQL, String.class, ticket, userId);
+        return created.isEmpty() ? null : created.get(0);
+    }
+
+    public String findActiveTicket(long userId) {
+        List<String> tickets = jdbcTemplate.queryForList(
+                "SELECT ticket FROM checkout_jobs WHERE user_id = ? AND " + ACTIVE, String.class, userId);
+        return tickets.isEmpty() ? null : tickets.get(0);
+    }
+
+    public long countQueued() {
+        Long count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM checkout_jobs WHERE status = 'QUEUED'", Long.class);
+        return count != null ? count : 0;
+    }
+
+    public List<ClaimedJob> claim(int limit, long leaseSeconds) {
+        return jdbcTemplate.query(CLAIM_SQL,
+                (rs, rowNum) -> new ClaimedJob(rs.getLong(1), rs.getLong(2), rs.getInt(3)),
+                leaseSeconds, limit);
+    }
+
+    public boolean markCompleted(ClaimedJob job, long orderId) {
+        return jdbcTemplate.update(FINISH_SQL, "COMPLETED", orderId, null, job.id(), job.attempt()) > 0;
+    }
+
+    public boolean markFailed(ClaimedJob job, String error) {
+        return jdbcTemplate.update(FINISH_SQL, "FAILED", null, error, job.id(), job.attempt()) > 0;
+    }
+
+    // Lỗi tạm thời: trả ticket về hàng đợi (giữ vị trí cũ theo id) để lần nhận sau chạy lại
+    public boolean requeue(ClaimedJob job, String error) {
+        return jdbcTemplate.update(FINISH_SQL, "QUEUED", null, error, job.id(), job.attempt()) > 0;
+    }
+
+    public int requeueStale(int maxAttempts) {
+        return jdbcTemplate.update(REQUEUE_STALE_SQL, maxAttempts);
+    }
+
+    public CheckoutJobDTO findByTicket(String ticket) {
+        List<CheckoutJobDTO> jobs = jdbcTemplate.query(FIND_SQL, (rs, rowNum) -> new CheckoutJobDTO(
+                rs.getString(1),
+                rs.getString(2),
+                (Long) rs.getObject(3),
+                rs.getString(4),
+                (Long) rs.getObject(5),
+                toLocalDateTime(rs.getTimestamp(6)),
+                toLocalDateTime(rs.getTimestamp(7))), ticket);
+        return jobs.isEmpty() ? null : jobs.get(0);
+    }
+
+    public int deleteFinished(long retentionHours, int limit) {
+        return jdbcTemplate.update(DELETE_FINISHED_SQL, retentionHours, limit);
+    }
+
+    private static LocalDateTime toLocalDateTime(Timestamp timestamp) {
+        return timestamp != null ? timestamp.toLocalDateTime() : null;
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.ECM.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Bảng idempotency_keys: giữ chỗ một key trước khi chạy request, lưu response khi chạy xong.
+ * Mỗi hàm là một câu lệnh tự commit để node khác thấy ngay. Thời gian hết hạn tính theo đồng hồ của DB.
+ */
+@Repository
+@RequiredArgsConstructor
+public class IdempotencyJdbcRepository {
+    // 🔹 Giữ chỗ key: thêm mới, hoặc chiếm lại bản ghi đã hết hạn (kể cả bản ghi IN_PROGRESS của node đã chết).
+    // Trả về một dòng nếu giữ chỗ được, không dòng nào nếu key đang được xử lý / đã có kết quả
+    private static final String CLAIM_SQL =
+            "INSERT INTO idempotency_keys (scope, idempotency_key, status, created_at, expires_at) " +
+            "VALUES (?, ?, 'IN_PROGRESS', now(), now() + ? * interval '1 second') " +
+            "ON CONFLICT (scope, idempotency_key) DO UPDATE SET status = 'IN_PROGRESS', response_status = NULL, " +
+            "content_type = NULL, response_body = NULL, created_at = now(), expires_at = EXCLUDED.expires_at " +
+            "WHERE idempotency_keys.expires_at < now() " +
+            "RETURNING id";
+
+    private static final String COMPLETE_SQL =
+            "UPDATE idempotency_keys SET status = 'COMPLETED', response_status = ?, content_type = ?, response_body = ?, " +
+            "expires_at = now() + ? * interval '1 second' WHERE scope = ? AND idempotency_key = ?";
+
+    private static final String FIND_SQL =
+            "SELECT status, response_status, content_type, response_body FROM idempotency_keys " +
+            "WHERE scope = ? AND idempotency_key = ? AND expires_at >= now()";
+
+    private static final String DELETE_EXPIRED_SQL =
+            "DELETE FROM idempotency_keys WHERE id IN (" +
+            "SELECT id FROM idempotency_keys WHERE expires_at < now() ORDER BY expires_at LIMIT ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // completed == false → request đầu tiên vẫn đang chạy (các trường response là null)
+    public record StoredRecord(boolean completed, Integer responseStatus, String contentType, String responseBody) {
+    }
+
+    public boolean claim(String scope, String key, long leaseSeconds) {
+        return !jdbcTemplate.queryForList(CLAIM_SQL, Long.class, scope, key, leaseSeconds).isEmpty();
+    }
+
+    public void complete(String scope, String key, int responseStatus, String contentType, String responseBody, long ttlSeconds) {
+        jdbcTemplate.update(COMPLETE_SQL, responseStatus, contentType, responseBody, ttlSeconds, scope, key);
+    }
+
+    // null nếu không có bản ghi còn hạn
+    public StoredRecord find(String scope, String key) {
+        List<StoredRecord> records = jdbcTemplate.query(FIND_SQL, (rs, rowNum) -> new StoredRecord(
+                "COMPLETED".equals(rs.getString(1)),
+                (Integer) rs.getObject(2),
+                rs.getString(3),
+                rs.getString(4)), scope, key);
+        return records.isEmpty() ? null : records.get(0);
+    }
+
+    // Request đầu tiên lỗi: bỏ giữ chỗ để lần thử lại được chạy
+    public void release(String scope, String key) {
+        jdbcTemplate.update("DELETE FROM idempotency_keys WHERE scope = ? AND idempotency_key = ? AND status = 'IN_PROGRESS'",
+                scope, key);
+    }
+
+    public int deleteExpired(int limit) {
+        return jdbcTemplate.update(DELETE_EXPIRED_SQL, limit);
+    }
+}
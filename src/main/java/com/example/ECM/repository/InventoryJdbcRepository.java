@@ -0,0 +1,226 @@
+package com.example.ECM.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Trừ / trả tồn kho bằng các câu UPDATE có điều kiện, không đọc trước rồi ghi.
+ * Sản phẩm thường giữ hàng trên cột products.stock_quantity; sản phẩm bán chạy (stock_shards > 0) giữ hàng trên
+ * bảng product_stock_shards. Mọi nơi khóa dòng đều theo cùng thứ tự: dòng products (id tăng dần) trước,
+ * rồi tới các shard (product_id, shard tăng dần) — nên không thể có deadlock giữa các transaction.
+ * Các hàm không có @Transactional chạy trong transaction của nơi gọi.
+ */
+@Repository
+@RequiredArgsConstructor
+public class InventoryJdbcRepository {
+    private static final String RESERVE_SQL =
+            "UPDATE products SET stock_quantity = stock_quantity - ? " +
+            "WHERE id = ? AND stock_shards = 0 AND stock_quantity >= ?";
+
+    private static final String RELEASE_SQL =
+            "UPDATE products SET stock_quantity = stock_quantity + ? WHERE id = ? AND stock_shards = 0";
+
+    // 🔹 Lấy một shard đủ hàng, bắt đầu từ shard ngẫu nhiên; shard đang bị transaction khác khóa thì bỏ qua.
+    // "shard < ?" sắp false trước true nên thứ tự duyệt là start, start + 1, ..., rồi quay vòng về 0
+    private static final String RESERVE_SHARD_SQL =
+            "WITH s AS (SELECT id FROM product_stock_shards WHERE product_id = ? AND quantity >= ? " +
+            "ORDER BY shard < ?, shard LIMIT 1 FOR UPDATE SKIP LOCKED) " +
+            "UPDATE product_stock_shards p SET quantity = p.quantity - ? FROM s WHERE p.id = s.id";
+
+    private static final String RELEASE_SHARD_SQL =
+            "UPDATE product_stock_shards SET quantity = quantity + ? WHERE id = (" +
+            "SELECT id FROM product_stock_shards WHERE product_id = ? ORDER BY shard < ?, shard LIMIT 1)";
+
+    private static final String LOCK_SHARDS_SQL =
+            "SELECT id, quantity FROM product_stock_shards WHERE product_id = ? ORDER BY shard FOR UPDATE";
+
+    // Ghi lại tổng các shard vào products.stock_quantity (chỉ để hiển thị), trả về các sản phẩm đã đổi
+    private static final String SYNC_SHARDED_SQL =
+            "UPDATE products p SET stock_quantity = s.total " +
+            "FROM (SELECT product_id, SUM(quantity)::int AS total FROM product_stock_shards GROUP BY product_id) s " +
+            "WHERE p.id = s.product_id AND p.stock_shards > 0 AND p.stock_quantity <> s.total " +
+            "RETURNING p.id, p.price, p.stock_quantity, p.rating, p.category_id";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public enum ShardResult { RESERVED, INSUFFICIENT, NOT_SHARDED }
+
+    private record Shard(long id, int quantity) {
+    }
+
+    /**
+     * Trừ hàng cho nhiều sản phẩm thường trong một batch (productIds nên được sắp tăng dần).
+     * Phần tử thứ i của kết quả là 0 nếu sản phẩm i không đủ hàng, không tồn tại hoặc đang chia shard.
+     */
+    public int[] reserve(List<Long> productIds, List<Integer> quantities) {
+        List<Object[]> args = new ArrayList<>(productIds.size());
+        for (int i = 0; i < productIds.size(); i++) {
+            args.add(new Object[]{quantities.get(i), productIds.get(i), quantities.get(i)});
+        }
+        return jdbcTemplate.batchUpdate(RESERVE_SQL, args);
+    }
+
+    public int[] release(List<Long> productIds, List<Integer> quantities) {
+        List<Object[]> args = new ArrayList<>(productIds.size());
+        for (int i = 0; i < productIds.size(); i++) {
+            args.add(new Object[]{quantities.get(i), productIds.get(i)});
+        }
+        return jdbcTemplate.batchUpdate(RELEASE_SQL, args);
+    }
+
+    // Trả về false nếu không có shard nào đủ hàng mà đang rảnh
+    public boolean reserveFromShard(long productId, int quantity, int startShard) {
+        return jdbcTemplate.update(RESERVE_SHARD_SQL, productId, quantity, startShard, quantity) > 0;
+    }
+
+    /**
+     * Đường chậm khi không shard nào đủ hàng một mình (hoặc đều đang bận): khóa mọi shard của sản phẩm theo thứ tự
+     * rồi trừ dần từ shard đầu tiên. Chỉ xảy ra khi sắp hết hàng hoặc số lượng đặt lớn hơn một shard.
+     */
+    public ShardResult reserveAcrossShards(long productId, int quantity) {
+        List<Shard> shards = lockShards(productId);
+        if (shards.isEmpty()) {
+            return ShardResult.NOT_SHARDED;
+        }
+        long total = shards.stream().mapToLong(Shard::quantity).sum();
+        if (total < quantity) {
+            return ShardResult.INSUFFICIENT;
+        }
+        List<Object[]> takes = new ArrayList<>();
+        int remaining = quantity;
+        for (Shard shard : shards) {
+            if (remaining == 0) {
+                break;
+            }
+            int take = Math.min(remaining, shard.quantity());
+            if (take > 0) {
+                takes.add(new Object[]{take, shard.id()});
+                remaining -= take;
+            }
+        }
+        jdbcTemplate.batchUpdate("UPDATE product_stock_shards SET quantity = quantity - ? WHERE id = ?", takes);
+        return ShardResult.RESERVED;
+    }
+
+    // Trả về false nếu sản phẩm không có shard nào
+    public boolean releaseToShard(long productId, int quantity, int startShard) {
+        return jdbcTemplate.update(RELEASE_SHARD_SQL, quantity, productId, startShard) > 0;
+    }
+
+    // null nếu sản phẩm không tồn tại
+    public Integer findShardCount(long productId) {
+        List<Integer> counts = jdbcTemplate.queryForList("SELECT stock_shards FROM products WHERE id = ?", Integer.class, productId);
+        return counts.isEmpty() ? null : counts.get(0);
+    }
+
+    // productId → số shard của mọi sản phẩm đang chia shard
+    public Map<Long, Integer> findShardedProducts() {
+        Map<Long, Integer> result = new HashMap<>();
+        jdbcTemplate.query("SELECT id, stock_shards FROM products WHERE stock_shards > 0",
+                rs -> {
+                    result.put(rs.getLong(1), rs.getInt(2));
+                });
+        return result;
+    }
+
+    /**
+     * Chia tồn kho của sản phẩm thành {@code shards} phần gần bằng nhau (chia lại nếu đã chia trước đó).
+     * Trả về tổng tồn kho; ném RuntimeException nếu sản phẩm không tồn tại.
+     */
+    @Transactional
+    public int enableSharding(long productId, int shards) {
+        int total = lockTotal(productId);
+        jdbcTemplate.update("DELETE FROM product_stock_shards WHERE product_id = ?", productId);
+        List<Object[]> rows = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            rows.add(new Object[]{productId, shard, split(total, shards, shard)});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO product_stock_shards (product_id, shard, quantity) VALUES (?, ?, ?)", rows);
+        jdbcTemplate.update("UPDATE products SET stock_shards = ?, stock_quantity = ? WHERE id = ?", shards, total, productId);
+        return total;
+    }
+
+    // Gộp các shard về lại products.stock_quantity; trả về tổng tồn kho
+    @Transactional
+    public int disableSharding(long productId) {
+        int total = lockTotal(productId);
+        jdbcTemplate.update("DELETE FROM product_stock_shards WHERE product_id = ?", productId);
+        jdbcTemplate.update("UPDATE products SET stock_shards = 0, stock_quantity = ? WHERE id = ?", total, productId);
+        return total;
+    }
+
+    /**
+     * Đặt lại tồn kho của sản phẩm đang chia shard (admin sửa tồn kho), chia đều cho các shard hiện có.
+     * Trả về false nếu sản phẩm không chia shard.
+     */
+    @Transactional
+    public boolean overwriteShardedStock(long productId, int quantity) {
+        List<Integer> counts = jdbcTemplate.queryForList(
+                "SELECT stock_shards FROM products WHERE id = ? FOR UPDATE", Integer.class, productId);
+        if (counts.isEmpty() || counts.get(0) == 0) {
+            return false;
+        }
+        List<Shard> shards = lockShards(productId);
+        if (shards.isEmpty()) {
+            return false;
+        }
+        List<Object[]> rows = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            rows.add(new Object[]{split(quantity, shards.size(), i), shards.get(i).id()});
+        }
+        jdbcTemplate.batchUpdate("UPDATE product_stock_shards SET quantity = ? WHERE id = ?", rows);
+        jdbcTemplate.update("UPDATE products SET stock_quantity = ? WHERE id = ?", quantity, productId);
+        return true;
+    }
+
+    /**
+     * Cập nhật products.stock_quantity của các sản phẩm chia shard theo tổng các shard (một câu lệnh tự commit).
+     * Trả về các sản phẩm đã đổi để đồng bộ index / cache.
+     */
+    public List<ProductJdbcRepository.UpdatedColumns> syncShardedStock() {
+        return jdbcTemplate.query(SYNC_SHARDED_SQL, (rs, rowNum) -> new ProductJdbcRepository.UpdatedColumns(
+                rs.getLong(1), rs.getDouble(2), rs.getInt(3), rs.getDouble(4), rs.getLong(5)));
+    }
+
+    // Giá / tồn kho / rating / danh mục hiện tại của các sản phẩm (để đồng bộ index dạng cột sau khi trừ / trả hàng)
+    public List<ProductJdbcRepository.UpdatedColumns> findColumns(List<Long> productIds) {
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(
+                    "SELECT id, price, stock_quantity, rating, category_id FROM products WHERE id = ANY (?)");
+            ps.setArray(1, connection.createArrayOf("bigint", productIds.toArray()));
+            return ps;
+        }, (rs, rowNum) -> new ProductJdbcRepository.UpdatedColumns(
+                rs.getLong(1), rs.getDouble(2), rs.getInt(3), rs.getDouble(4), rs.getLong(5)));
+    }
+
+    // Khóa dòng products rồi các shard; trả về tồn kho hiện tại (tổng các shard nếu đang chia shard)
+    private int lockTotal(long productId) {
+        List<long[]> product = jdbcTemplate.query(
+                "SELECT stock_quantity, stock_shards FROM products WHERE id = ? FOR UPDATE",
+                (rs, rowNum) -> new long[]{rs.getInt(1), rs.getInt(2)}, productId);
+        if (product.isEmpty()) {
+            throw new RuntimeException("Không tìm thấy sản phẩm");
+        }
+        if (product.get(0)[1] == 0) {
+            return (int) product.get(0)[0];
+        }
+        return (int) lockShards(productId).stream().mapToLong(Shard::quantity).sum();
+    }
+
+    private List<Shard> lockShards(long productId) {
+        return jdbcTemplate.query(LOCK_SHARDS_SQL, (rs, rowNum) -> new Shard(rs.getLong(1), rs.getInt(2)), productId);
+    }
+
+    // Phần của shard thứ i khi chia total cho n shard (các shard đầu nhận thêm phần dư)
+    private static int split(int total, int n, int i) {
+        return total / n + (i < total % n ? 1 : 0);
+    }
+}
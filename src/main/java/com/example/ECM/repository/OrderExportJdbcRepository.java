@@ -0,0 +1,78 @@
+package com.example.ECM.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Đọc đơn hàng để xuất file bằng cursor một chiều: driver Postgres chỉ giữ FETCH_SIZE dòng mỗi lần,
+ * từng dòng được đẩy cho RowCallbackHandler thay vì gom vào List.
+ * Postgres chỉ dùng cursor khi autocommit tắt, nên phải gọi trong transaction.
+ */
+@Repository
+@RequiredArgsConstructor
+public class OrderExportJdbcRepository {
+    private static final int FETCH_SIZE = 5000;
+
+    // Số sản phẩm mỗi đơn lấy qua index order_items(order_id), không GROUP BY để các dòng ra ngay theo thứ tự id
+    private static final String ORDERS_SQL =
+            "SELECT o.id, o.created_at, o.status, o.user_id, u.username, u.email, o.total_price, " +
+            "(SELECT COUNT(*) FROM order_items oi WHERE oi.order_id = o.id) " +
+            "FROM orders o LEFT JOIN users u ON u.id = o.user_id";
+
+    private static final String ITEMS_SQL =
+            "SELECT o.id, o.created_at, o.status, o.user_id, oi.id, oi.product_id, p.name, oi.quantity, oi.price " +
+            "FROM orders o JOIN order_items oi ON oi.order_id = o.id LEFT JOIN products p ON p.id = oi.product_id";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // from / to / statuses null → không lọc theo điều kiện đó; to không bao gồm
+    public record Filter(LocalDateTime from, LocalDateTime to, List<String> statuses) {
+    }
+
+    public void streamOrders(Filter filter, RowCallbackHandler handler) {
+        stream(ORDERS_SQL, " ORDER BY o.id", filter, handler);
+    }
+
+    public void streamItems(Filter filter, RowCallbackHandler handler) {
+        stream(ITEMS_SQL, " ORDER BY o.id, oi.id", filter, handler);
+    }
+
+    private void stream(String select, String orderBy, Filter filter, RowCallbackHandler handler) {
+        StringBuilder sql = new StringBuilder(select).append(" WHERE true");
+        if (filter.from() != null) {
+            sql.append(" AND o.created_at >= ?");
+        }
+        if (filter.to() != null) {
+            sql.append(" AND o.created_at < ?");
+        }
+        if (filter.statuses() != null && !filter.statuses().isEmpty()) {
+            sql.append(" AND o.status = ANY (?)");
+        }
+        sql.append(orderBy);
+
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(sql.toString(),
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(FETCH_SIZE);
+            int index = 1;
+            if (filter.from() != null) {
+                ps.setTimestamp(index++, Timestamp.valueOf(filter.from()));
+            }
+            if (filter.to() != null) {
+                ps.setTimestamp(index++, Timestamp.valueOf(filter.to()));
+            }
+            if (filter.statuses() != null && !filter.statuses().isEmpty()) {
+                ps.setArray(index, connection.createArrayOf("varchar", filter.statuses().toArray()));
+            }
+            return ps;
+        }, handler);
+    }
+}
@@ -2,9 +2,16 @@ package com.example.ECM.repository;
 
 import com.example.ECM.model.OrderItem;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.List;
 
 public interface OrderItemRepository extends JpaRepository<OrderItem, Long> {
     List<OrderItem> findByOrderId(Long orderId);
+
+    // 🔹 Sản phẩm của một trang lịch sử đơn hàng trong một câu lệnh, sắp theo đơn hàng
+    @Query("SELECT oi.order.id, p.id, p.name, p.imageUrl, oi.quantity, oi.price " +
+            "FROM OrderItem oi LEFT JOIN oi.product p WHERE oi.order.id IN :orderIds ORDER BY oi.order.id, oi.id")
+    List<Object[]> findHistoryItems(@Param("orderIds") List<Long> orderIds);
 }
@@ -0,0 +1,144 @@
+package com.example.ECM.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Các chuyển trạng thái đơn hàng cần chạy đúng một lần khi nhiều request / node cùng xử lý một đơn
+ * (hủy đơn, hết hạn thanh toán, xác nhận thanh toán, đổi trạng thái hàng loạt): điều kiện trạng thái nằm ngay trong câu UPDATE.
+ * Chạy trong transaction của nơi gọi.
+ */
+@Repository
+@RequiredArgsConstructor
+public class OrderJdbcRepository {
+    // Trả về stock_reserved trước khi hủy; không có dòng nào nếu đơn không ở trạng thái cho phép hủy
+    private static final String CANCEL_SQL =
+            "WITH target AS (SELECT id, stock_reserved FROM orders WHERE id = ? AND status = ANY (?) FOR UPDATE) " +
+            "UPDATE orders o SET status = 'CANCELED', stock_reserved = false FROM target WHERE o.id = target.id " +
+            "RETURNING target.stock_reserved";
+
+    // Hủy một lô đơn chờ thanh toán online quá hạn (đơn COD không có payment_started_at nên không bị hủy);
+    // đơn đang bị transaction khác khóa để lượt sau
+    private static final String CANCEL_EXPIRED_SQL =
+            "WITH expired AS (SELECT id, stock_reserved FROM orders WHERE status = 'PENDING' AND payment_started_at < ? " +
+            "ORDER BY payment_started_at LIMIT ? FOR UPDATE SKIP LOCKED) " +
+            "UPDATE orders o SET status = 'CANCELED', stock_reserved = false FROM expired WHERE o.id = expired.id " +
+            "RETURNING o.id, expired.stock_reserved";
+
+    // 🔹 Đổi trạng thái một lô đơn trong một câu lệnh; chỉ đơn đang ở một trong các trạng thái nguồn được đổi.
+    // Khóa theo thứ tự id để hai lô chồng nhau chạy song song không deadlock
+    private static final String BULK_TRANSITION_SQL =
+            "WITH target AS (SELECT id FROM orders WHERE id = ANY (?) AND status = ANY (?) ORDER BY id FOR UPDATE) " +
+            "UPDATE orders o SET status = ? FROM target WHERE o.id = target.id RETURNING o.id";
+
+    private static final String BULK_CANCEL_SQL =
+            "WITH target AS (SELECT id, stock_reserved FROM orders WHERE id = ANY (?) AND status = ANY (?) ORDER BY id FOR UPDATE) " +
+            "UPDATE orders o SET status = 'CANCELED', stock_reserved = false FROM target WHERE o.id = target.id " +
+            "RETURNING o.id, target.stock_reserved";
+
+    private static final String ITEM_QUANTITIES_SQL =
+            "SELECT product_id, SUM(quantity) FROM order_items WHERE order_id = ANY (?) " +
+            "GROUP BY product_id ORDER BY product_id";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public record CanceledOrder(long id, boolean stockReserved) {
+    }
+
+    public record LockedOrder(String status, boolean stockReserved) {
+    }
+
+    /**
+     * Hủy đơn nếu trạng thái hiện tại nằm trong fromStatuses.
+     * Trả về null nếu không hủy, ngược lại trả về đơn có đang giữ hàng hay không (để trả hàng về kho).
+     */
+    public Boolean cancel(long orderId, Collection<String> fromStatuses) {
+        List<Boolean> result = jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(CANCEL_SQL);
+            ps.setLong(1, orderId);
+            ps.setArray(2, connection.createArrayOf("varchar", fromStatuses.toArray()));
+            return ps;
+        }, (rs, rowNum) -> rs.getBoolean(1));
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    public List<CanceledOrder> cancelExpired(LocalDateTime paymentStartedBefore, int limit) {
+        return jdbcTemplate.query(CANCEL_EXPIRED_SQL,
+                (rs, rowNum) -> new CanceledOrder(rs.getLong(1), rs.getBoolean(2)),
+                Timestamp.valueOf(paymentStartedBefore), limit);
+    }
+
+    // Ghi mốc bắt đầu thanh toán online (giữ mốc đầu tiên nếu khách tạo lại link); false nếu đơn không còn PENDING
+    public boolean startPayment(long orderId) {
+        return jdbcTemplate.update("UPDATE orders SET payment_started_at = COALESCE(payment_started_at, now()) " +
+                "WHERE id = ? AND status = 'PENDING'", orderId) > 0;
+    }
+
+    // Đổi trạng thái nếu đơn đang ở trạng thái from; trả về false nếu đơn không tồn tại hoặc đã đổi trạng thái
+    public boolean transition(long orderId, String from, String to) {
+        return jdbcTemplate.update("UPDATE orders SET status = ? WHERE id = ? AND status = ?", to, orderId, from) > 0;
+    }
+
+    // Trả về id các đơn đã đổi trạng thái
+    public List<Long> transitionAll(Collection<Long> orderIds, Collection<String> fromStatuses, String to) {
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(BULK_TRANSITION_SQL);
+            ps.setArray(1, connection.createArrayOf("bigint", orderIds.toArray()));
+            ps.setArray(2, connection.createArrayOf("varchar", fromStatuses.toArray()));
+            ps.setString(3, to);
+            return ps;
+        }, (rs, rowNum) -> rs.getLong(1));
+    }
+
+    public List<CanceledOrder> cancelAll(Collection<Long> orderIds, Collection<String> fromStatuses) {
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(BULK_CANCEL_SQL);
+            ps.setArray(1, connection.createArrayOf("bigint", orderIds.toArray()));
+            ps.setArray(2, connection.createArrayOf("varchar", fromStatuses.toArray()));
+            return ps;
+        }, (rs, rowNum) -> new CanceledOrder(rs.getLong(1), rs.getBoolean(2)));
+    }
+
+    // Khóa đơn tới hết transaction và trả về trạng thái + stock_reserved hiện tại; null nếu đơn không tồn tại
+    public LockedOrder lock(long orderId) {
+        List<LockedOrder> orders = jdbcTemplate.query("SELECT status, stock_reserved FROM orders WHERE id = ? FOR UPDATE",
+                (rs, rowNum) -> new LockedOrder(rs.getString(1), rs.getBoolean(2)), orderId);
+        return orders.isEmpty() ? null : orders.get(0);
+    }
+
+    // id → trạng thái hiện tại; đơn không tồn tại thì không có trong Map
+    public Map<Long, String> findStatuses(Collection<Long> orderIds) {
+        Map<Long, String> statuses = new HashMap<>();
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement("SELECT id, status FROM orders WHERE id = ANY (?)");
+            ps.setArray(1, connection.createArrayOf("bigint", orderIds.toArray()));
+            return ps;
+        }, rs -> {
+            statuses.put(rs.getLong(1), rs.getString(2));
+        });
+        return statuses;
+    }
+
+    // productId → tổng số lượng trong các đơn, sắp theo productId
+    public Map<Long, Integer> findItemQuantities(Collection<Long> orderIds) {
+        Map<Long, Integer> quantities = new TreeMap<>();
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(ITEM_QUANTITIES_SQL);
+            ps.setArray(1, connection.createArrayOf("bigint", orderIds.toArray()));
+            return ps;
+        }, rs -> {
+            quantities.put(rs.getLong(1), rs.getInt(2));
+        });
+        return quantities;
+    }
+}
@@ -2,11 +2,42 @@ package com.example.ECM.repository;
 
 
 import com.example.ECM.model.Order;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface OrderRepository extends JpaRepository<Order, Long> {
+    // Lấy kèm sản phẩm trong đơn trong cùng câu lệnh, tránh N+1 khi chuyển sang DTO
+    @EntityGraph(attributePaths = {"user", "orderItems", "orderItems.product"})
     List<Order> findByUserId(Long userId);
     boolean existsByUserIdAndStatus(Long userId, String status);
 
+    // 🔹 Phân trang keyset, mới nhất trước: chỉ lấy các đơn có id nhỏ hơn beforeId, không chạy COUNT
+    @Query("SELECT o FROM Order o WHERE o.user.id = :userId AND (:beforeId IS NULL OR o.id < :beforeId) ORDER BY o.id DESC")
+    List<Order> findByUserIdBefore(@Param("userId") Long userId, @Param("beforeId") Long beforeId, Pageable limit);
+
+    // 🔹 Lịch sử đơn hàng: chỉ lấy các cột hiển thị, đi theo index (user_id, id DESC) và không join bảng users
+    @Query("SELECT o.id, o.status, o.totalPrice, o.createdAt FROM Order o " +
+            "WHERE o.user.id = :userId AND (:beforeId IS NULL OR o.id < :beforeId) ORDER BY o.id DESC")
+    List<Object[]> findHistoryByUserIdBefore(@Param("userId") Long userId, @Param("beforeId") Long beforeId, Pageable limit);
+
+    @Query("SELECT o FROM Order o WHERE (:beforeId IS NULL OR o.id < :beforeId) ORDER BY o.id DESC")
+    List<Order> findAllBefore(@Param("beforeId") Long beforeId, Pageable limit);
+
+    // 🔹 Mỗi dòng là một sản phẩm trong đơn (đơn không có sản phẩm vẫn có một dòng), sắp theo đơn hàng
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT o.id, u.username, u.email, o.totalPrice, o.status, " +
+            "oi.id, p.id, p.name, p.description, p.price, p.imageUrl, oi.quantity " +
+            "FROM Order o LEFT JOIN o.user u LEFT JOIN o.orderItems oi LEFT JOIN oi.product p " +
+            "ORDER BY o.id, oi.id")
+    Stream<Object[]> streamAllWithItems();
+
 }
\ No newline at end of file
@@ -0,0 +1,175 @@
+package com.example.ECM.repository;
+
+import com.example.ECM.util.VietnameseNormalizer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Các thao tác ghi hàng loạt lên bảng products bằng JDBC batch, bỏ qua persistence context của JPA.
+ * Phía gọi chịu trách nhiệm đồng bộ lại các index trong bộ nhớ sau khi ghi.
+ */
+@Repository
+@RequiredArgsConstructor
+public class ProductJdbcRepository {
+    // Tồn kho / rating không có trong dòng nhập (NULL) → sản phẩm mới nhận 0
+    private static final String INSERT_SQL =
+            "INSERT INTO products (name, description, price, stock_quantity, image_url, rating, category_id, search_key) " +
+            "VALUES (?, ?, ?, COALESCE(CAST(? AS integer), 0), ?, COALESCE(CAST(? AS float8), 0), ?, ?)";
+
+    // 🔹 Sản phẩm đã có thì giữ tồn kho / rating cũ khi dòng nhập không có cột đó (ví dụ file chỉ cập nhật giá).
+    // Hai cột này NOT NULL nên EXCLUDED không mang được NULL: giá trị gốc được truyền thêm một lần cho phần DO UPDATE
+    private static final String UPSERT_SQL =
+            "INSERT INTO products (id, name, description, price, stock_quantity, image_url, rating, category_id, search_key) " +
+            "VALUES (?, ?, ?, ?, COALESCE(CAST(? AS integer), 0), ?, COALESCE(CAST(? AS float8), 0), ?, ?) " +
+            "ON CONFLICT (id) DO UPDATE SET name = EXCLUDED.name, description = EXCLUDED.description, " +
+            "price = EXCLUDED.price, stock_quantity = COALESCE(CAST(? AS integer), products.stock_quantity), " +
+            "image_url = EXCLUDED.image_url, rating = COALESCE(CAST(? AS float8), products.rating), " +
+            "category_id = EXCLUDED.category_id, search_key = EXCLUDED.search_key";
+
+    // Mỗi mảng là một cột của bảng tạm (id, giá mới, tồn kho mới); NULL = giữ nguyên giá trị cũ
+    private static final String BULK_UPDATE_SQL =
+            "UPDATE products p SET price = COALESCE(v.price, p.price), " +
+            "stock_quantity = COALESCE(v.stock_quantity, p.stock_quantity) " +
+            "FROM unnest(?::bigint[], ?::float8[], ?::int[]) AS v(id, price, stock_quantity) " +
+            "WHERE p.id = v.id " +
+            "RETURNING p.id, p.price, p.stock_quantity, p.rating, p.category_id";
+
+    // Số dòng tối đa trong một câu UPDATE
+    private static final int BULK_UPDATE_CHUNK = 10_000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // id == null → thêm mới (id do DB cấp); có id → ghi đè nếu đã tồn tại
+    // stockQuantity / rating == null: dòng nhập không có cột đó
+    public record ProductRow(Long id, String name, String description, double price, Integer stockQuantity,
+                             String imageUrl, Double rating, long categoryId) {
+    }
+
+    // Giá trị của một sản phẩm sau khi cập nhật hàng loạt (đủ để đồng bộ index dạng cột)
+    public record UpdatedColumns(long id, double price, int stockQuantity, double rating, long categoryId) {
+    }
+
+    /**
+     * Cập nhật giá / tồn kho cho nhiều sản phẩm trong một transaction.
+     * Mỗi câu UPDATE ... FROM unnest(...) xử lý tối đa {@value #BULK_UPDATE_CHUNK} dòng.
+     * Trả về các sản phẩm thực sự được cập nhật (id không tồn tại sẽ không có mặt).
+     */
+    @Transactional
+    public List<UpdatedColumns> updatePriceAndStock(Long[] ids, Double[] prices, Integer[] stocks) {
+        List<UpdatedColumns> updated = new ArrayList<>(ids.length);
+        for (int from = 0; from < ids.length; from += BULK_UPDATE_CHUNK) {
+            int to = Math.min(ids.length, from + BULK_UPDATE_CHUNK);
+            Long[] idChunk = Arrays.copyOfRange(ids, from, to);
+            Double[] priceChunk = Arrays.copyOfRange(prices, from, to);
+            Integer[] stockChunk = Arrays.copyOfRange(stocks, from, to);
+            updated.addAll(jdbcTemplate.query(connection -> {
+                PreparedStatement ps = connection.prepareStatement(BULK_UPDATE_SQL);
+                ps.setArray(1, connection.createArrayOf("bigint", idChunk));
+                ps.setArray(2, connection.createArrayOf("float8", priceChunk));
+                ps.setArray(3, connection.createArrayOf("int4", stockChunk));
+                return ps;
+            }, (rs, rowNum) -> new UpdatedColumns(
+                    rs.getLong(1), rs.getDouble(2), rs.getInt(3), rs.getDouble(4), rs.getLong(5))));
+        }
+        return updated;
+    }
+
+    // 🔹 Ghi một lô sản phẩm mới trong một batch JDBC
+    public void insertBatch(List<ProductRow> rows) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                bindColumns(ps, 1, rows.get(i));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return rows.size();
+            }
+        });
+    }
+
+    // 🔹 Ghi một lô sản phẩm có id sẵn (INSERT ... ON CONFLICT DO UPDATE)
+    public void upsertBatch(List<ProductRow> rows) {
+        jdbcTemplate.batchUpdate(UPSERT_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                ProductRow row = rows.get(i);
+                ps.setLong(1, row.id());
+                bindColumns(ps, 2, row);
+                setNullableInt(ps, 10, row.stockQuantity());
+                setNullableDouble(ps, 11, row.rating());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return rows.size();
+            }
+        });
+    }
+
+    // Sau khi ghi id tường minh, đưa sequence của cột id vượt qua id lớn nhất để tránh trùng khóa
+    public void syncIdSequence() {
+        jdbcTemplate.execute("SELECT setval(pg_get_serial_sequence('products', 'id'), " +
+                "GREATEST((SELECT COALESCE(MAX(id), 0) FROM products), 1))");
+    }
+
+    /**
+     * Điền search_key cho các dòng chưa có (dữ liệu cũ trước khi thêm cột, hoặc ghi thẳng vào DB).
+     * Trả về số dòng đã cập nhật.
+     */
+    public int backfillSearchKeys() {
+        List<Object[]> pending = jdbcTemplate.query("SELECT id, name FROM products WHERE search_key IS NULL",
+                (rs, rowNum) -> new Object[]{VietnameseNormalizer.fold(rs.getString(2)), rs.getLong(1)});
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        jdbcTemplate.batchUpdate("UPDATE products SET search_key = ? WHERE id = ?", pending);
+        return pending.size();
+    }
+
+    private static void bindColumns(PreparedStatement ps, int start, ProductRow row) throws SQLException {
+        ps.setString(start, row.name());
+        if (row.description() != null) {
+            ps.setString(start + 1, row.description());
+        } else {
+            ps.setNull(start + 1, Types.VARCHAR);
+        }
+        ps.setDouble(start + 2, row.price());
+        setNullableInt(ps, start + 3, row.stockQuantity());
+        if (row.imageUrl() != null) {
+            ps.setString(start + 4, row.imageUrl());
+        } else {
+            ps.setNull(start + 4, Types.VARCHAR);
+        }
+        setNullableDouble(ps, start + 5, row.rating());
+        ps.setLong(start + 6, row.categoryId());
+        ps.setString(start + 7, VietnameseNormalizer.fold(row.name()));
+    }
+
+    private static void setNullableInt(PreparedStatement ps, int index, Integer value) throws SQLException {
+        if (value != null) {
+            ps.setInt(index, value);
+        } else {
+            ps.setNull(index, Types.INTEGER);
+        }
+    }
+
+    private static void setNullableDouble(PreparedStatement ps, int index, Double value) throws SQLException {
+        if (value != null) {
+            ps.setDouble(index, value);
+        } else {
+            ps.setNull(index, Types.DOUBLE);
+        }
+    }
+}
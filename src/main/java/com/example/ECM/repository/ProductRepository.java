@@ -1,18 +1,34 @@
 package com.example.ECM.repository;
 
+import com.example.ECM.dto.ProductDTO;
 import com.example.ECM.model.Product;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
 @Repository
 public interface ProductRepository extends JpaRepository<Product, Long> {
 
+    // Bộ lọc dùng chung cho các truy vấn phân trang keyset bên dưới; :name phải được bỏ dấu trước (VietnameseNormalizer.fold)
+    String SEARCH_FILTERS = "(:name IS NULL OR p.searchKey LIKE CONCAT('%', :name, '%')) " +
+            "AND (:categoryId IS NULL OR p.category.id = :categoryId) " +
+            "AND (:minPrice IS NULL OR p.price >= :minPrice) " +
+            "AND (:maxPrice IS NULL OR p.price <= :maxPrice) " +
+            "AND (:minRating IS NULL OR p.rating >= :minRating) ";
+
     @Query("SELECT p FROM Product p WHERE " +
-            "(:name IS NULL OR LOWER(p.name) LIKE LOWER(CONCAT('%', :name, '%'))) " +
+            "(:name IS NULL OR p.searchKey LIKE CONCAT('%', :name, '%')) " +
             "AND (:categoryId IS NULL OR p.category.id = :categoryId) " +
             "AND (:minPrice IS NULL OR p.price >= :minPrice) " +
             "AND (:maxPrice IS NULL OR p.price <= :maxPrice) " +
@@ -25,4 +41,82 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
             @Param("minRating") Double minRating,
             Pageable pageable
     );
+
+    // 🔹 Phân trang keyset (seek): không dùng OFFSET và không chạy COUNT, giới hạn số dòng qua Pageable
+    @Query("SELECT p FROM Product p WHERE " + SEARCH_FILTERS +
+            "AND (:afterId IS NULL OR p.id > :afterId) ORDER BY p.id ASC")
+    List<Product> searchAfterById(
+            @Param("name") String name,
+            @Param("categoryId") Long categoryId,
+            @Param("minPrice") Double minPrice,
+            @Param("maxPrice") Double maxPrice,
+            @Param("minRating") Double minRating,
+            @Param("afterId") Long afterId,
+            Pageable limit
+    );
+
+    @Query("SELECT p FROM Product p WHERE " + SEARCH_FILTERS +
+            "AND (:afterId IS NULL OR (p.price, p.id) > (:afterKey, :afterId)) ORDER BY p.price ASC, p.id ASC")
+    List<Product> searchAfterByPriceAsc(
+            @Param("name") String name,
+            @Param("categoryId") Long categoryId,
+            @Param("minPrice") Double minPrice,
+            @Param("maxPrice") Double maxPrice,
+            @Param("minRating") Double minRating,
+            @Param("afterKey") Double afterKey,
+            @Param("afterId") Long afterId,
+            Pageable limit
+    );
+
+    @Query("SELECT p FROM Product p WHERE " + SEARCH_FILTERS +
+            "AND (:afterId IS NULL OR (p.price, p.id) < (:afterKey, :afterId)) ORDER BY p.price DESC, p.id DESC")
+    List<Product> searchAfterByPriceDesc(
+            @Param("name") String name,
+            @Param("categoryId") Long categoryId,
+            @Param("minPrice") Double minPrice,
+            @Param("maxPrice") Double maxPrice,
+            @Param("minRating") Double minRating,
+            @Param("afterKey") Double afterKey,
+            @Param("afterId") Long afterId,
+            Pageable limit
+    );
+
+    @Query("SELECT p FROM Product p WHERE " + SEARCH_FILTERS +
+            "AND (:afterId IS NULL OR p.rating < :afterKey OR (p.rating = :afterKey AND p.id > :afterId)) " +
+            "ORDER BY p.rating DESC, p.id ASC")
+    List<Product> searchAfterByRatingDesc(
+            @Param("name") String name,
+            @Param("categoryId") Long categoryId,
+            @Param("minPrice") Double minPrice,
+            @Param("maxPrice") Double maxPrice,
+            @Param("minRating") Double minRating,
+            @Param("afterKey") Double afterKey,
+            @Param("afterId") Long afterId,
+            Pageable limit
+    );
+
+    // Chỉ lấy các cột cần cho các index trong bộ nhớ, không nạp entity
+    @Query("SELECT p.id, p.price, p.rating, p.category.id, p.stockQuantity, p.name, p.description FROM Product p ORDER BY p.id")
+    List<Object[]> findIndexRows();
+
+    // Số sản phẩm, giá thấp nhất, cao nhất theo từng danh mục trong một truy vấn (dùng khi index chưa sẵn sàng)
+    @Query("SELECT p.category.id, COUNT(p), MIN(p.price), MAX(p.price) FROM Product p GROUP BY p.category.id")
+    List<Object[]> findCategoryStats();
+
+    // Gợi ý theo tiền tố tên khi index gợi ý chưa sẵn sàng; prefix đã được bỏ dấu và escape ký tự LIKE
+    @Query("SELECT p FROM Product p WHERE p.searchKey LIKE CONCAT(:prefix, '%') ESCAPE '\\' ORDER BY p.rating DESC, p.id")
+    List<Product> suggestByNamePrefix(@Param("prefix") String prefix, Pageable limit);
+
+    @Query("SELECT p.id FROM Product p WHERE p.category.id = :categoryId")
+    List<Long> findIdsByCategoryId(@Param("categoryId") Long categoryId);
+
+    // 🔹 Đọc tuần tự toàn bộ sản phẩm dưới dạng DTO qua cursor JDBC (cần chạy trong transaction)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT new com.example.ECM.dto.ProductDTO(p.id, p.name, p.description, p.price, p.stockQuantity, p.imageUrl, p.rating, p.category.id) " +
+            "FROM Product p ORDER BY p.id")
+    Stream<ProductDTO> streamAllAsDTO();
+
+    // Nạp một trang sản phẩm theo danh sách id, kèm danh mục trong cùng một truy vấn
+    @EntityGraph(attributePaths = "category")
+    List<Product> findByIdIn(Collection<Long> ids);
 }
@@ -0,0 +1,182 @@
+package com.example.ECM.repository;
+
+import com.example.ECM.dto.SalesStatDTO;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Các bảng tổng hợp doanh số sales_daily / sales_daily_product / sales_daily_category.
+ * Cộng dồn bằng upsert (cộng thêm vào dòng đã có) nên nhiều node ghi cùng một dòng vẫn đúng;
+ * dựng lại một khoảng ngày thì xóa rồi tính lại từ orders / order_items.
+ * Chỉ tính đơn chưa hủy, theo ngày tạo đơn; doanh thu là tổng order_items.price (giá lúc đặt hàng).
+ * Danh mục lấy từ order_items.category_id (lúc đặt hàng), dòng cũ chưa có cột này mới lấy danh mục hiện tại của sản phẩm.
+ */
+@Repository
+@RequiredArgsConstructor
+public class SalesRollupJdbcRepository {
+    private static final String UPSERT_DAILY_SQL =
+            "INSERT INTO sales_daily (sales_date, orders, units, revenue) VALUES (?, ?, ?, ?) " +
+            "ON CONFLICT (sales_date) DO UPDATE SET orders = sales_daily.orders + EXCLUDED.orders, " +
+            "units = sales_daily.units + EXCLUDED.units, revenue = sales_daily.revenue + EXCLUDED.revenue";
+
+    private static final String UPSERT_PRODUCT_SQL =
+            "INSERT INTO sales_daily_product (sales_date, product_id, orders, units, revenue) VALUES (?, ?, ?, ?, ?) " +
+            "ON CONFLICT (sales_date, product_id) DO UPDATE SET orders = sales_daily_product.orders + EXCLUDED.orders, " +
+            "units = sales_daily_product.units + EXCLUDED.units, revenue = sales_daily_product.revenue + EXCLUDED.revenue";
+
+    private static final String UPSERT_CATEGORY_SQL =
+            "INSERT INTO sales_daily_category (sales_date, category_id, orders, units, revenue) VALUES (?, ?, ?, ?, ?) " +
+            "ON CONFLICT (sales_date, category_id) DO UPDATE SET orders = sales_daily_category.orders + EXCLUDED.orders, " +
+            "units = sales_daily_category.units + EXCLUDED.units, revenue = sales_daily_category.revenue + EXCLUDED.revenue";
+
+    private static final String CATEGORY_ID = "COALESCE(oi.category_id, p.category_id, 0)";
+
+    // Các dòng sản phẩm của đơn vừa hủy / sắp xóa, để trừ khỏi bảng tổng hợp (đơn cũ không có created_at thì bỏ qua)
+    private static final String ORDER_LINES_SQL =
+            "SELECT o.id, CAST(o.created_at AS date), oi.product_id, " + CATEGORY_ID + ", oi.quantity, oi.price " +
+            "FROM orders o JOIN order_items oi ON oi.order_id = o.id LEFT JOIN products p ON p.id = oi.product_id " +
+            "WHERE o.id = ANY (?) AND o.created_at IS NOT NULL AND oi.product_id IS NOT NULL ORDER BY o.id";
+
+    // 🔹 Dựng lại [from, to): cùng điều kiện với phần cộng dồn để hai cách tính cho cùng kết quả
+    private static final String REBUILD_DAILY_SQL =
+            "INSERT INTO sales_daily (sales_date, orders, units, revenue) " +
+            "SELECT CAST(o.created_at AS date), COUNT(DISTINCT o.id), SUM(oi.quantity), SUM(oi.price) " +
+            "FROM orders o JOIN order_items oi ON oi.order_id = o.id " +
+            "WHERE o.created_at >= ? AND o.created_at < ? AND o.status <> 'CANCELED' AND oi.product_id IS NOT NULL " +
+            "GROUP BY 1";
+
+    private static final String REBUILD_PRODUCT_SQL =
+            "INSERT INTO sales_daily_product (sales_date, product_id, orders, units, revenue) " +
+            "SELECT CAST(o.created_at AS date), oi.product_id, COUNT(DISTINCT o.id), SUM(oi.quantity), SUM(oi.price) " +
+            "FROM orders o JOIN order_items oi ON oi.order_id = o.id " +
+            "WHERE o.created_at >= ? AND o.created_at < ? AND o.status <> 'CANCELED' AND oi.product_id IS NOT NULL " +
+            "GROUP BY 1, 2";
+
+    private static final String REBUILD_CATEGORY_SQL =
+            "INSERT INTO sales_daily_category (sales_date, category_id, orders, units, revenue) " +
+            "SELECT CAST(o.created_at AS date), " + CATEGORY_ID + ", COUNT(DISTINCT o.id), SUM(oi.quantity), SUM(oi.price) " +
+            "FROM orders o JOIN order_items oi ON oi.order_id = o.id LEFT JOIN products p ON p.id = oi.product_id " +
+            "WHERE o.created_at >= ? AND o.created_at < ? AND o.status <> 'CANCELED' AND oi.product_id IS NOT NULL " +
+            "GROUP BY 1, 2";
+
+    private static final String DAILY_SQL =
+            "SELECT sales_date, orders, units, revenue FROM sales_daily WHERE sales_date BETWEEN ? AND ? ORDER BY sales_date";
+
+    private static final String TOP_PRODUCTS_SQL =
+            "SELECT s.product_id, p.name, SUM(s.orders), SUM(s.units), SUM(s.revenue) " +
+            "FROM sales_daily_product s LEFT JOIN products p ON p.id = s.product_id " +
+            "WHERE s.sales_date BETWEEN ? AND ? GROUP BY s.product_id, p.name " +
+            "ORDER BY SUM(s.revenue) DESC, s.product_id LIMIT ?";
+
+    private static final String CATEGORIES_SQL =
+            "SELECT s.category_id, c.name, SUM(s.orders), SUM(s.units), SUM(s.revenue) " +
+            "FROM sales_daily_category s LEFT JOIN categories c ON c.id = s.category_id " +
+            "WHERE s.sales_date BETWEEN ? AND ? GROUP BY s.category_id, c.name " +
+            "ORDER BY SUM(s.revenue) DESC, s.category_id";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // id = productId / categoryId, 0 với bảng theo ngày
+    public record Delta(LocalDate date, long id, long orders, long units, BigDecimal revenue) {
+    }
+
+    public record OrderLine(long orderId, LocalDate date, long productId, long categoryId, int quantity, BigDecimal price) {
+    }
+
+    /**
+     * Cộng các delta vào ba bảng trong một transaction. Mỗi danh sách phải được sắp theo (date, id)
+     * để các node ghi song song khóa dòng theo cùng thứ tự.
+     */
+    @Transactional
+    public void apply(List<Delta> daily, List<Delta> products, List<Delta> categories) {
+        List<Object[]> rows = new ArrayList<>(daily.size());
+        for (Delta delta : daily) {
+            rows.add(new Object[]{Date.valueOf(delta.date()), delta.orders(), delta.units(), delta.revenue()});
+        }
+        jdbcTemplate.batchUpdate(UPSERT_DAILY_SQL, rows);
+        jdbcTemplate.batchUpdate(UPSERT_PRODUCT_SQL, toRows(products));
+        jdbcTemplate.batchUpdate(UPSERT_CATEGORY_SQL, toRows(categories));
+    }
+
+    public List<OrderLine> findOrderLines(Collection<Long> orderIds) {
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(ORDER_LINES_SQL);
+            ps.setArray(1, connection.createArrayOf("bigint", orderIds.toArray()));
+            return ps;
+        }, (rs, rowNum) -> new OrderLine(
+                rs.getLong(1),
+                rs.getDate(2).toLocalDate(),
+                rs.getLong(3),
+                rs.getLong(4),
+                rs.getInt(5),
+                rs.getBigDecimal(6) != null ? rs.getBigDecimal(6) : BigDecimal.ZERO));
+    }
+
+    /**
+     * Xóa rồi tính lại các ngày trong [from, to). Khóa advisory để hai lần dựng lại (hai node) không chạy chồng nhau.
+     * Trả về số dòng sales_daily đã ghi.
+     */
+    @Transactional
+    public int rebuild(LocalDate from, LocalDate to) {
+        jdbcTemplate.query("SELECT pg_advisory_xact_lock(hashtext('sales_rollup_rebuild'))", rs -> {
+        });
+        Date fromDate = Date.valueOf(from);
+        Date toDate = Date.valueOf(to);
+        jdbcTemplate.update("DELETE FROM sales_daily WHERE sales_date >= ? AND sales_date < ?", fromDate, toDate);
+        jdbcTemplate.update("DELETE FROM sales_daily_product WHERE sales_date >= ? AND sales_date < ?", fromDate, toDate);
+        jdbcTemplate.update("DELETE FROM sales_daily_category WHERE sales_date >= ? AND sales_date < ?", fromDate, toDate);
+        Timestamp fromTime = Timestamp.valueOf(from.atStartOfDay());
+        Timestamp toTime = Timestamp.valueOf(to.atStartOfDay());
+        int days = jdbcTemplate.update(REBUILD_DAILY_SQL, fromTime, toTime);
+        jdbcTemplate.update(REBUILD_PRODUCT_SQL, fromTime, toTime);
+        jdbcTemplate.update(REBUILD_CATEGORY_SQL, fromTime, toTime);
+        return days;
+    }
+
+    public boolean isEmpty() {
+        return jdbcTemplate.queryForList("SELECT 1 FROM sales_daily LIMIT 1").isEmpty();
+    }
+
+    // Ngày tạo đơn sớm nhất; null nếu chưa có đơn nào có created_at
+    public LocalDate findFirstOrderDate() {
+        Date first = jdbcTemplate.queryForObject("SELECT CAST(MIN(created_at) AS date) FROM orders", Date.class);
+        return first != null ? first.toLocalDate() : null;
+    }
+
+    public List<SalesStatDTO> findDaily(LocalDate from, LocalDate to) {
+        return jdbcTemplate.query(DAILY_SQL, (rs, rowNum) -> new SalesStatDTO(
+                rs.getDate(1).toLocalDate(), null, null, rs.getLong(2), rs.getLong(3), rs.getBigDecimal(4)),
+                Date.valueOf(from), Date.valueOf(to));
+    }
+
+    public List<SalesStatDTO> findTopProducts(LocalDate from, LocalDate to, int limit) {
+        return jdbcTemplate.query(TOP_PRODUCTS_SQL, (rs, rowNum) -> new SalesStatDTO(
+                null, rs.getLong(1), rs.getString(2), rs.getLong(3), rs.getLong(4), rs.getBigDecimal(5)),
+                Date.valueOf(from), Date.valueOf(to), limit);
+    }
+
+    public List<SalesStatDTO> findCategories(LocalDate from, LocalDate to) {
+        return jdbcTemplate.query(CATEGORIES_SQL, (rs, rowNum) -> new SalesStatDTO(
+                null, rs.getLong(1), rs.getString(2), rs.getLong(3), rs.getLong(4), rs.getBigDecimal(5)),
+                Date.valueOf(from), Date.valueOf(to));
+    }
+
+    private static List<Object[]> toRows(List<Delta> deltas) {
+        List<Object[]> rows = new ArrayList<>(deltas.size());
+        for (Delta delta : deltas) {
+            rows.add(new Object[]{Date.valueOf(delta.date()), delta.id(), delta.orders(), delta.units(), delta.revenue()});
+        }
+        return rows;
+    }
+}
@@ -1,11 +1,17 @@
 package com.example.ECM.repository;
 
+import com.example.ECM.dto.UserDTO;
 import com.example.ECM.model.Role;
 import com.example.ECM.model.User;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByUsername(String username);
@@ -14,4 +20,10 @@ public interface UserRepository extends JpaRepository<User, Long> {
     // ✅ Cập nhật phương thức để tìm bằng username hoặc email
     Optional<User> findByUsernameOrEmail(String username, String email);
     List<User> findByRole(Role role); // Tìm tất cả user có role cụ thể
+
+    // 🔹 Đọc tuần tự toàn bộ user dưới dạng DTO qua cursor JDBC (cần chạy trong transaction)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT new com.example.ECM.dto.UserDTO(u.id, u.username, u.email, u.fullName, u.phone, u.address, u.role) " +
+            "FROM User u ORDER BY u.id")
+    Stream<UserDTO> streamAllAsDTO();
 }
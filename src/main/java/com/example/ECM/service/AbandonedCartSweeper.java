@@ -0,0 +1,110 @@
+package com.example.ECM.service;
+
+import com.example.ECM.repository.CartJdbcRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Job xóa các giỏ hàng không được thay đổi quá {@code cart.sweeper.idleDays} ngày.
+ * Mỗi lô là một câu lệnh riêng (tự commit) xóa tối đa {@code cart.sweeper.batchSize} giỏ, duyệt keyset theo id,
+ * nên không giữ khóa lâu. Các dòng được chọn bằng FOR UPDATE SKIP LOCKED: nhiều node cùng chạy sẽ tự chia việc
+ * thay vì chờ nhau. Sau khi xóa nhiều dòng thì chạy VACUUM ANALYZE để trả lại chỗ cho index.
+ */
+@Component
+public class AbandonedCartSweeper {
+    private static final Logger logger = LoggerFactory.getLogger(AbandonedCartSweeper.class);
+
+    private final CartJdbcRepository cartJdbcRepository;
+    private final boolean enabled;
+    private final int idleDays;
+    private final int batchSize;
+    private final long vacuumThreshold;
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong cartsDeleted = new AtomicLong();
+    private final AtomicLong itemsDeleted = new AtomicLong();
+    private final AtomicLong totalMs = new AtomicLong();
+    private volatile long lastRunMs;
+    private volatile long lastRunCarts;
+    private volatile Instant lastRunAt;
+
+    public AbandonedCartSweeper(CartJdbcRepository cartJdbcRepository,
+                                @Value("${cart.sweeper.enabled:true}") boolean enabled,
+                                @Value("${cart.sweeper.idleDays:30}") int idleDays,
+                                @Value("${cart.sweeper.batchSize:500}") int batchSize,
+                                @Value("${cart.sweeper.vacuumThreshold:10000}") long vacuumThreshold) {
+        this.cartJdbcRepository = cartJdbcRepository;
+        this.enabled = enabled;
+        this.idleDays = idleDays;
+        this.batchSize = batchSize;
+        this.vacuumThreshold = vacuumThreshold;
+    }
+
+    @Scheduled(fixedDelayString = "${cart.sweeper.intervalMs:3600000}", initialDelayString = "${cart.sweeper.initialDelayMs:300000}")
+    public void scheduledSweep() {
+        if (enabled) {
+            sweep();
+        }
+    }
+
+    // 🔹 Chạy một lượt dọn, trả về số giỏ đã xóa
+    public long sweep() {
+        long start = System.currentTimeMillis();
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(idleDays);
+        long afterId = 0;
+        long carts = 0;
+        long items = 0;
+        try {
+            while (true) {
+                CartJdbcRepository.SweepBatch batch = cartJdbcRepository.deleteIdleCarts(cutoff, afterId, batchSize);
+                if (batch.cartsDeleted() == 0) {
+                    break;
+                }
+                carts += batch.cartsDeleted();
+                items += batch.itemsDeleted();
+                afterId = batch.lastId();
+            }
+            if (carts + items >= vacuumThreshold) {
+                cartJdbcRepository.vacuum();
+            }
+        } catch (RuntimeException e) {
+            logger.error("Lỗi khi dọn giỏ hàng bỏ quên: {}", e.getMessage(), e);
+        } finally {
+            long elapsed = System.currentTimeMillis() - start;
+            runs.incrementAndGet();
+            cartsDeleted.addAndGet(carts);
+            itemsDeleted.addAndGet(items);
+            totalMs.addAndGet(elapsed);
+            lastRunMs = elapsed;
+            lastRunCarts = carts;
+            lastRunAt = Instant.now();
+        }
+        if (carts > 0) {
+            logger.info("Đã xóa {} giỏ hàng bỏ quên ({} dòng) trong {} ms", carts, items, System.currentTimeMillis() - start);
+        }
+        return carts;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", enabled);
+        result.put("idleDays", idleDays);
+        result.put("runs", runs.get());
+        result.put("cartsDeleted", cartsDeleted.get());
+        result.put("itemsDeleted", itemsDeleted.get());
+        result.put("totalMs", totalMs.get());
+        result.put("lastRunMs", lastRunMs);
+        result.put("lastRunCarts", lastRunCarts);
+        result.put("lastRunAt", lastRunAt);
+        return result;
+    }
+}
@@ -1,15 +1,19 @@
 package com.example.ECM.service;
 
 import com.example.ECM.dto.CartDTO;
+import com.example.ECM.dto.CartOperationDTO;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface CartService {
     CartDTO getCartByUserId(Long userId);
     CartDTO addToCart(Long userId, Long productId, int quantity);
     CartDTO updateCartItem(Long userId, Long productId, int quantity);
     void removeCartItem(Long userId, Long productId);
+    CartDTO applyBatch(Long userId, List<CartOperationDTO> operations); // Nhiều thao tác thêm / đặt số lượng / xóa trong một lần
     void clearCart(Long userId);
     List<CartDTO> getAllCarts();
+    void streamAllCarts(Consumer<? super CartDTO> sink); // Đẩy lần lượt từng giỏ hàng, không gom vào List
 
 }
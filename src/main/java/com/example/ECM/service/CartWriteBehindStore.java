@@ -0,0 +1,497 @@
+package com.example.ECM.service;
+
+import com.example.ECM.dto.CartDTO;
+import com.example.ECM.dto.CartItemDTO;
+import com.example.ECM.dto.CartOperationDTO;
+import com.example.ECM.dto.ProductDTO;
+import com.example.ECM.model.Cart;
+import com.example.ECM.model.CartItem;
+import com.example.ECM.repository.CartJdbcRepository;
+import com.example.ECM.repository.CartJdbcRepository.CartLine;
+import com.example.ECM.repository.CartJdbcRepository.CartSnapshot;
+import com.example.ECM.repository.CartRepository;
+import com.example.ECM.repository.UserRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Giỏ hàng giữ trong bộ nhớ theo userId, ghi xuống DB theo lô (write-behind).
+ * Bật bằng {@code cart.writeBehind.enabled=true}; khi tắt, {@code CartServiceImpl} ghi thẳng DB như trước.
+ * <p>
+ * Mỗi user thuộc một trong {@value #STRIPES} khóa; mọi thao tác trên cùng giỏ chạy tuần tự dưới khóa đó.
+ * Khóa chỉ được giữ trong từng thao tác ngắn: trong lúc user đặt hàng, chỉ các thao tác trên giỏ của chính user đó phải chờ.
+ * Giỏ chưa có trong bộ nhớ được nạp từ DB (một truy vấn). Các thay đổi chỉ đánh dấu giỏ là "bẩn";
+ * job định kỳ và lúc tắt ứng dụng ghi trạng thái cuối cùng của các giỏ bẩn xuống DB.
+ * Dòng được thêm trong bộ nhớ chưa có id ({@code cartItemId = null}) cho tới khi giỏ được nạp lại.
+ */
+@Component
+public class CartWriteBehindStore {
+    private static final Logger logger = LoggerFactory.getLogger(CartWriteBehindStore.class);
+    private static final int STRIPES = 64;
+
+    private final CartRepository cartRepository;
+    private final CartJdbcRepository cartJdbcRepository;
+    private final UserRepository userRepository;
+    private final ProductCache productCache;
+    private final boolean enabled;
+    private final int flushBatchSize;
+    private final long idleEvictMs;
+
+    private final ConcurrentHashMap<Long, CartState> carts = new ConcurrentHashMap<>();
+    private final Set<Long> dirtyUsers = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    // User đang trong transaction đặt hàng; ghi / đọc giỏ của user đó chờ trên Condition của khóa tương ứng
+    private final Set<Long> checkingOut = ConcurrentHashMap.newKeySet();
+    private final Condition[] checkoutDone = new Condition[STRIPES];
+    // Chỉ một lượt ghi tại một thời điểm, để snapshot cũ không ghi đè snapshot mới hơn của cùng giỏ.
+    // Thứ tự khóa: khóa của user trước, flushLock sau; lượt ghi định kỳ chỉ tryLock khóa user khi đang giữ flushLock
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    public CartWriteBehindStore(CartRepository cartRepository,
+                                CartJdbcRepository cartJdbcRepository,
+                                UserRepository userRepository,
+                                ProductCache productCache,
+                                @Value("${cart.writeBehind.enabled:false}") boolean enabled,
+                                @Value("${cart.writeBehind.flushBatchSize:500}") int flushBatchSize,
+                                @Value("${cart.writeBehind.idleEvictMs:600000}") long idleEvictMs) {
+        this.cartRepository = cartRepository;
+        this.cartJdbcRepository = cartJdbcRepository;
+        this.userRepository = userRepository;
+        this.productCache = productCache;
+        this.enabled = enabled;
+        this.flushBatchSize = flushBatchSize;
+        this.idleEvictMs = idleEvictMs;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+            checkoutDone[i] = stripes[i].newCondition();
+        }
+    }
+
+    private static final class CartState {
+        private Long cartId;
+        private final LinkedHashMap<Long, Line> lines = new LinkedHashMap<>();
+        private boolean dirty;
+        private long lastAccess;
+    }
+
+    private static final class Line {
+        private final Long itemId;
+        private int quantity;
+        private double price; // Tổng tiền của dòng (giống CartItem.updateQuantity)
+
+        private Line(Long itemId, int quantity, double price) {
+            this.itemId = itemId;
+            this.quantity = quantity;
+            this.price = price;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public CartDTO getCart(Long userId) {
+        ReentrantLock lock = stripe(userId);
+        lock.lock();
+        try {
+            CartState state = load(userId);
+            if (state.cartId == null && state.lines.isEmpty()) {
+                throw new RuntimeException("Không tìm thấy giỏ hàng cho user ID: " + userId);
+            }
+            return toDTO(userId, state);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public CartDTO add(Long userId, ProductDTO product, int quantity) {
+        ReentrantLock lock = stripe(userId);
+        lock.lock();
+        try {
+            CartState state = load(userId);
+            if (state.cartId == null && state.lines.isEmpty() && !userRepository.existsById(userId)) {
+                throw new RuntimeException("Không tìm thấy người dùng");
+            }
+            Line line = state.lines.get(product.getId());
+            if (line == null) {
+                state.lines.put(product.getId(), new Line(null, quantity, product.getPrice() * quantity));
+            } else {
+                line.quantity += quantity;
+                line.price = product.getPrice() * line.quantity;
+            }
+            markDirty(userId, state);
+            return toDTO(userId, state);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public CartDTO update(Long userId, ProductDTO product, int quantity) {
+        ReentrantLock lock = stripe(userId);
+        lock.lock();
+        try {
+            CartState state = load(userId);
+            Line line = state.lines.get(product.getId());
+            if (line == null) {
+                throw new RuntimeException("Không tìm thấy sản phẩm trong giỏ hàng");
+            }
+            line.quantity = quantity;
+            line.price = product.getPrice() * quantity;
+            markDirty(userId, state);
+            return toDTO(userId, state);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void remove(Long userId, Long productId) {
+        ReentrantLock lock = stripe(userId);
+        lock.lock();
+        try {
+            CartState state = load(userId);
+            if (state.lines.remove(productId) == null) {
+                throw new RuntimeException("Không tìm thấy sản phẩm trong giỏ hàng");
+            }
+            markDirty(userId, state);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Áp dụng cả lô thao tác dưới một lần khóa; products chứa mọi sản phẩm được ADD / SET
+    public CartDTO applyBatch(Long userId, List<CartOperationDTO> operations, Map<Long, ProductDTO> products) {
+        ReentrantLock lock = stripe(userId);
+        lock.lock();
+        try {
+            CartState state = load(userId);
+            if (state.cartId == null && state.lines.isEmpty() && !userRepository.existsById(userId)) {
+                throw new RuntimeException("Không tìm thấy người dùng");
+            }
+            for (CartOperationDTO op : operations) {
+                Line line = state.lines.get(op.getProductId());
+                int quantity = switch (op.getType()) {
+                    case ADD -> (line != null ? line.quantity : 0) + op.getQuantity();
+                    case SET -> op.getQuantity();
+                    case REMOVE -> 0;
+                };
+                if (quantity <= 0) {
+                    state.lines.remove(op.getProductId());
+                    continue;
+                }
+                double unitPrice = products.get(op.getProductId()).getPrice();
+                if (line == null) {
+                    state.lines.put(op.getProductId(), new Line(null, quantity, unitPrice * quantity));
+                } else {
+                    line.quantity = quantity;
+                    line.price = unitPrice * quantity;
+                }
+            }
+            markDirty(userId, state);
+            return toDTO(userId, state);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear(Long userId) {
+        ReentrantLock lock = stripe(userId);
+        lock.lock();
+        try {
+            CartState state = load(userId);
+            if (state.cartId == null && state.lines.isEmpty()) {
+                throw new RuntimeException("Không tìm thấy giỏ hàng cho user ID: " + userId);
+            }
+            state.lines.clear();
+            markDirty(userId, state);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Bỏ giỏ khỏi bộ nhớ mà không ghi (giỏ vừa bị xóa trực tiếp trên DB)
+    public void discard(Long userId) {
+        ReentrantLock lock = stripe(userId);
+        lock.lock();
+        try {
+            carts.remove(userId);
+            dirtyUsers.remove(userId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gọi trong transaction đặt hàng, trước khi đọc giỏ từ DB.
+     * Ghi ngay giỏ của user xuống DB (trong transaction đặt hàng) và đánh dấu user đang đặt hàng tới khi transaction kết thúc:
+     * các thao tác trên giỏ của user đó chờ, user khác cùng khóa không bị ảnh hưởng, các lượt ghi định kỳ bỏ qua user này.
+     * Commit → bỏ bản trong bộ nhớ để lần đọc sau lấy giỏ đã được dọn từ DB.
+     * Rollback → lần ghi vừa rồi cũng bị hủy, nên bản trong bộ nhớ được đánh dấu bẩn lại để lượt sau ghi.
+     */
+    public void beginCheckout(Long userId) {
+        if (!enabled) {
+            return;
+        }
+        ReentrantLock lock = stripe(userId);
+        lock.lock();
+        try {
+            awaitCheckout(userId);
+            CartState state = carts.get(userId);
+            Long previousCartId = state != null ? state.cartId : null;
+            boolean flushed = false;
+            // Chờ lượt ghi đang chạy kết thúc: không còn snapshot cũ của giỏ này chưa ghi
+            flushLock.lock();
+            try {
+                if (state != null && state.dirty) {
+                    Map<Long, Long> written = cartJdbcRepository.writeCarts(List.of(snapshot(userId, state)));
+                    state.cartId = written.get(userId);
+                    state.dirty = false;
+                    dirtyUsers.remove(userId);
+                    flushed = true;
+                }
+            } finally {
+                flushLock.unlock();
+            }
+            boolean rewriteOnRollback = flushed;
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    endCheckout(userId, status == STATUS_COMMITTED, rewriteOnRollback, previousCartId);
+                }
+            });
+            checkingOut.add(userId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void endCheckout(Long userId, boolean committed, boolean rewriteOnRollback, Long previousCartId) {
+        ReentrantLock lock = stripe(userId);
+        lock.lock();
+        try {
+            if (committed) {
+                carts.remove(userId);
+                dirtyUsers.remove(userId);
+            } else if (rewriteOnRollback) {
+                CartState state = carts.get(userId);
+                if (state != null) {
+                    state.cartId = previousCartId;
+                    markDirty(userId, state);
+                }
+            }
+        } finally {
+            checkingOut.remove(userId);
+            checkoutDone[stripeIndex(userId)].signalAll();
+            lock.unlock();
+        }
+    }
+
+    // 🔹 Ghi định kỳ các giỏ bẩn xuống DB và bỏ các giỏ không dùng tới lâu
+    @Scheduled(fixedDelayString = "${cart.writeBehind.flushIntervalMs:2000}")
+    public void scheduledFlush() {
+        if (!enabled) {
+            return;
+        }
+        flushAll();
+        evictIdle();
+    }
+
+    @PreDestroy
+    public void onShutdown() {
+        if (enabled) {
+            flushAll();
+        }
+    }
+
+    public void flushAll() {
+        if (!enabled || dirtyUsers.isEmpty()) {
+            return;
+        }
+        List<Long> retry = new ArrayList<>();
+        List<Long> dropped = new ArrayList<>();
+        flushLock.lock();
+        try {
+            List<CartSnapshot> batch = new ArrayList<>(flushBatchSize);
+            for (Long userId : dirtyUsers) {
+                ReentrantLock lock = stripe(userId);
+                if (!lock.tryLock()) {
+                    continue;
+                }
+                try {
+                    // Giỏ đang đặt hàng: beginCheckout đã ghi, kết quả tùy transaction đặt hàng → để lượt sau
+                    if (checkingOut.contains(userId)) {
+                        continue;
+                    }
+                    CartState state = carts.get(userId);
+                    dirtyUsers.remove(userId);
+                    if (state == null || !state.dirty) {
+                        continue;
+                    }
+                    state.dirty = false;
+                    batch.add(snapshot(userId, state));
+                } finally {
+                    lock.unlock();
+                }
+                if (batch.size() >= flushBatchSize) {
+                    write(batch, retry, dropped);
+                    batch = new ArrayList<>(flushBatchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                write(batch, retry, dropped);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+        // Chờ khóa của user chỉ sau khi đã nhả flushLock (checkout giữ khóa user trong lúc chờ flushLock)
+        retry.forEach(this::redirty);
+        dropped.forEach(this::discard);
+    }
+
+    // Giỏ ghi lỗi được đưa vào retry (lỗi tạm thời) hoặc dropped (lỗi dữ liệu) để xử lý sau khi nhả flushLock
+    private void write(List<CartSnapshot> batch, List<Long> retry, List<Long> dropped) {
+        long start = System.currentTimeMillis();
+        try {
+            applyCartIds(cartJdbcRepository.writeCarts(batch));
+            logger.debug("Đã ghi {} giỏ hàng trong {} ms", batch.size(), System.currentTimeMillis() - start);
+            return;
+        } catch (RuntimeException e) {
+            logger.warn("Ghi lô {} giỏ hàng thất bại, thử lại từng giỏ: {}", batch.size(), e.getMessage());
+        }
+        for (CartSnapshot snapshot : batch) {
+            try {
+                applyCartIds(cartJdbcRepository.writeCarts(List.of(snapshot)));
+            } catch (DataIntegrityViolationException e) {
+                // Ví dụ sản phẩm trong giỏ đã bị xóa → bỏ bản trong bộ nhớ, DB vẫn là nguồn đúng
+                logger.error("Không ghi được giỏ hàng của user {}, bỏ khỏi bộ nhớ: {}", snapshot.userId(), e.getMessage());
+                dropped.add(snapshot.userId());
+            } catch (RuntimeException e) {
+                // Lỗi tạm thời (mất kết nối...) → giữ trạng thái bẩn để lượt sau ghi lại
+                logger.error("Không ghi được giỏ hàng của user {}, sẽ thử lại: {}", snapshot.userId(), e.getMessage());
+                retry.add(snapshot.userId());
+            }
+        }
+    }
+
+    private void redirty(Long userId) {
+        ReentrantLock lock = stripe(userId);
+        lock.lock();
+        try {
+            CartState state = carts.get(userId);
+            if (state != null) {
+                markDirty(userId, state);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void applyCartIds(Map<Long, Long> cartIds) {
+        cartIds.forEach((userId, cartId) -> {
+            CartState state = carts.get(userId);
+            if (state != null) {
+                state.cartId = cartId;
+            }
+        });
+    }
+
+    private void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleEvictMs;
+        Iterator<Map.Entry<Long, CartState>> it = carts.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, CartState> entry = it.next();
+            ReentrantLock lock = stripe(entry.getKey());
+            if (!lock.tryLock()) {
+                continue;
+            }
+            try {
+                CartState state = entry.getValue();
+                // Giỏ đang đặt hàng được giữ lại: nếu rollback thì bản trong bộ nhớ là bản duy nhất còn đúng
+                if (!state.dirty && state.lastAccess < cutoff && !checkingOut.contains(entry.getKey())) {
+                    it.remove();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Gọi khi đang giữ khóa của user; chờ lượt đặt hàng của user (nếu có) kết thúc trước khi đọc giỏ
+    private CartState load(Long userId) {
+        awaitCheckout(userId);
+        CartState state = carts.get(userId);
+        if (state == null) {
+            state = new CartState();
+            Optional<Cart> cart = cartRepository.findWithItemsByUserId(userId);
+            if (cart.isPresent()) {
+                state.cartId = cart.get().getId();
+                for (CartItem item : cart.get().getCartItems()) {
+                    state.lines.put(item.getProduct().getId(),
+                            new Line(item.getId(), item.getQuantity(), item.getProduct().getPrice() * item.getQuantity()));
+                }
+            }
+            carts.put(userId, state);
+        }
+        state.lastAccess = System.currentTimeMillis();
+        return state;
+    }
+
+    private void markDirty(Long userId, CartState state) {
+        state.dirty = true;
+        dirtyUsers.add(userId);
+    }
+
+    private static CartSnapshot snapshot(Long userId, CartState state) {
+        List<CartLine> lines = new ArrayList<>(state.lines.size());
+        state.lines.forEach((productId, line) -> lines.add(new CartLine(productId, line.quantity, line.price)));
+        return new CartSnapshot(userId, state.cartId, lines);
+    }
+
+    private CartDTO toDTO(Long userId, CartState state) {
+        List<CartItemDTO> items = new ArrayList<>(state.lines.size());
+        double total = 0.0;
+        for (Map.Entry<Long, Line> entry : state.lines.entrySet()) {
+            Optional<ProductDTO> product = productCache.get(entry.getKey());
+            if (product.isEmpty()) {
+                continue; // Sản phẩm đã bị xóa khỏi catalog
+            }
+            int quantity = entry.getValue().quantity;
+            double linePrice = quantity * product.get().getPrice();
+            items.add(new CartItemDTO(entry.getValue().itemId, product.get(), quantity, linePrice));
+            total += linePrice;
+        }
+        return new CartDTO(state.cartId, userId, items, total);
+    }
+
+    // Gọi khi đang giữ khóa của user
+    private void awaitCheckout(Long userId) {
+        while (checkingOut.contains(userId)) {
+            checkoutDone[stripeIndex(userId)].awaitUninterruptibly();
+        }
+    }
+
+    private ReentrantLock stripe(Long userId) {
+        return stripes[stripeIndex(userId)];
+    }
+
+    private static int stripeIndex(Long userId) {
+        return (Long.hashCode(userId) & 0x7fffffff) % STRIPES;
+    }
+}
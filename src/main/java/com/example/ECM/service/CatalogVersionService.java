@@ -0,0 +1,152 @@
+package com.example.ECM.service;
+
+import com.example.ECM.repository.CatalogVersionJdbcRepository;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Phiên bản của catalog (sản phẩm + danh mục + tồn kho), tăng sau mỗi lần ghi.
+ * Dùng làm ETag để client polling nhận 304 mà không phải truy vấn DB hay serialize lại JSON.
+ * Giá trị gốc nằm trong DB ({@link CatalogVersionJdbcRepository}) nên mọi node và mọi lần restart thấy cùng một phiên bản;
+ * mỗi node chỉ giữ bản sao đọc lại sau tối đa {@code catalog.version.refreshMs}.
+ * <p>
+ * Cache và index sản phẩm, danh sách danh mục là bộ nhớ riêng của từng node và chỉ nhận thay đổi do chính node đó ghi.
+ * Khi chạy nhiều node ({@code catalog.sync.enabled=true}), node nào thấy phiên bản trong DB vượt quá phần mình đã phản ánh
+ * (tức là node khác đã ghi) sẽ phát {@link RemoteChange} để nạp lại từ DB, chậm tối đa {@code catalog.sync.intervalMs}.
+ */
+@Service
+@RequiredArgsConstructor
+public class CatalogVersionService {
+    private static final Logger logger = LoggerFactory.getLogger(CatalogVersionService.class);
+
+    private final CatalogVersionJdbcRepository versionRepository;
+    private final ApplicationEventPublisher eventPublisher;
+
+    @Value("${catalog.version.refreshMs:1000}")
+    private long refreshMs;
+
+    @Value("${catalog.sync.enabled:false}")
+    private boolean syncEnabled;
+
+    private final AtomicLong version = new AtomicLong();
+    private volatile long refreshedAt;
+
+    // Phiên bản mới nhất mà bộ nhớ của node này đã phản ánh; -1 khi index chưa nạp lần đầu
+    private final AtomicLong synced = new AtomicLong(-1);
+
+    /**
+     * Node khác đã ghi vào catalog: cache / index trong bộ nhớ của node này cần nạp lại từ DB.
+     */
+    public record RemoteChange(long version) {
+    }
+
+    /**
+     * Phiên bản hiện tại. Bản sao cũ hơn DB chỉ khiến ETag cũ hơn dữ liệu (client tải lại thêm một lần),
+     * không bao giờ ngược lại vì phiên bản chỉ tăng sau khi thay đổi đã commit.
+     */
+    public long current() {
+        long now = System.nanoTime();
+        if (refreshedAt == 0 || now - refreshedAt >= refreshMs * 1_000_000L) {
+            try {
+                version.accumulateAndGet(versionRepository.current(), Math::max);
+                refreshedAt = now;
+            } catch (RuntimeException e) {
+                logger.warn("Không đọc được phiên bản catalog, dùng bản sao trong bộ nhớ: {}", e.getMessage());
+            }
+        }
+        return version.get();
+    }
+
+    // 🔹 Gọi sau khi ghi; nếu đang trong transaction thì chỉ tăng sau khi commit
+    public void bump() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    advance();
+                }
+            });
+        } else {
+            advance();
+        }
+    }
+
+    private void advance() {
+        try {
+            long next = versionRepository.next();
+            // Liền ngay sau phần đã phản ánh → chỉ có lần ghi của chính node này; có khoảng trống thì để sync() nạp lại
+            synced.compareAndSet(next - 1, next);
+            version.accumulateAndGet(next, Math::max);
+        } catch (RuntimeException e) {
+            logger.error("Lỗi khi tăng phiên bản catalog: {}", e.getMessage(), e);
+        }
+    }
+
+    // 🔹 Đọc thẳng phiên bản trong DB (không qua bản sao); gọi trước khi nạp lại toàn bộ từ DB
+    public long readShared() {
+        return versionRepository.current();
+    }
+
+    // 🔹 Bộ nhớ của node đã phản ánh mọi thay đổi tới phiên bản đã cho (vừa nạp lại xong)
+    public void markSynced(long syncedVersion) {
+        synced.accumulateAndGet(syncedVersion, Math::max);
+    }
+
+    /**
+     * Chạy nhiều node: phát hiện thay đổi do node khác ghi. Một lần nạp lại bao hết mọi thay đổi tính tới lúc đó,
+     * nên tối đa một lần nạp mỗi chu kỳ dù node khác ghi bao nhiêu lần.
+     */
+    @Scheduled(fixedDelayString = "${catalog.sync.intervalMs:30000}", initialDelayString = "${catalog.sync.intervalMs:30000}")
+    public void sync() {
+        if (!syncEnabled || synced.get() < 0) {
+            return;
+        }
+        try {
+            long shared = versionRepository.current();
+            version.accumulateAndGet(shared, Math::max);
+            if (shared > synced.get()) {
+                logger.info("Catalog đã thay đổi trên node khác (phiên bản {} > {}), nạp lại từ DB", shared, synced.get());
+                eventPublisher.publishEvent(new RemoteChange(shared));
+            }
+        } catch (RuntimeException e) {
+            logger.error("Lỗi khi đồng bộ catalog với các node khác: {}", e.getMessage(), e);
+        }
+    }
+
+    // ETag mạnh cho một tài nguyên của catalog ở phiên bản đã cho
+    public static String etag(String resource, long version) {
+        return "\"" + resource + "-" + version + "\"";
+    }
+
+    /**
+     * Kiểm tra header If-None-Match có chứa ETag hiện tại không (hỗ trợ danh sách và "*").
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || ifNoneMatch.isBlank()) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            // If-None-Match dùng so sánh yếu: bỏ tiền tố W/ trước khi so
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.ECM.service;
+
+import com.example.ECM.dto.CategoryDTO;
+import com.example.ECM.model.Category;
+import com.example.ECM.repository.CategoryRepository;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Danh sách danh mục trong bộ nhớ, ghép với thống kê sản phẩm (số lượng, giá min/max) từ {@link ProductCatalogIndex}.
+ * Danh sách được thay thế nguyên khối (copy-on-write) khi danh mục thay đổi nên đọc không cần khóa.
+ */
+@Service
+@RequiredArgsConstructor
+public class CategorySnapshotService {
+    private static final Logger logger = LoggerFactory.getLogger(CategorySnapshotService.class);
+
+    private final CategoryRepository categoryRepository;
+    private final ProductCatalogIndex catalogIndex;
+
+    // id → tên, sắp theo id; null khi chưa nạp
+    private volatile Map<Long, String> names;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        reload();
+    }
+
+    // Danh mục có thể đã được sửa trên node khác
+    @EventListener
+    public void onRemoteChange(CatalogVersionService.RemoteChange change) {
+        reload();
+    }
+
+    public synchronized void reload() {
+        try {
+            Map<Long, String> loaded = new TreeMap<>();
+            for (Category category : categoryRepository.findAll()) {
+                loaded.put(category.getId(), category.getName());
+            }
+            names = Collections.unmodifiableMap(loaded);
+            logger.info("Đã nạp {} danh mục vào bộ nhớ", loaded.size());
+        } catch (RuntimeException e) {
+            logger.error("Lỗi khi nạp danh mục: {}", e.getMessage(), e);
+        }
+    }
+
+    // Sẵn sàng khi cả danh sách danh mục lẫn index sản phẩm đã nạp xong
+    public boolean isReady() {
+        return names != null && catalogIndex.isReady();
+    }
+
+    public synchronized void put(Long id, String name) {
+        if (names == null) {
+            return;
+        }
+        Map<Long, String> updated = new TreeMap<>(names);
+        updated.put(id, name);
+        names = Collections.unmodifiableMap(updated);
+    }
+
+    public synchronized void remove(Long id) {
+        if (names == null) {
+            return;
+        }
+        Map<Long, String> updated = new TreeMap<>(names);
+        updated.remove(id);
+        names = Collections.unmodifiableMap(updated);
+    }
+
+    // Bảng id → tên hiện tại (không kèm thống kê); rỗng nếu chưa nạp xong
+    public Optional<Map<Long, String>> names() {
+        return Optional.ofNullable(names);
+    }
+
+    public List<CategoryDTO> getAll() {
+        Map<Long, String> current = names;
+        Map<Long, ProductCatalogIndex.CategoryStat> stats = catalogIndex.categoryStats().orElse(Map.of());
+        List<CategoryDTO> result = new ArrayList<>(current.size());
+        current.forEach((id, name) -> result.add(toDTO(id, name, stats.get(id))));
+        return result;
+    }
+
+    public Optional<CategoryDTO> get(Long id) {
+        String name = names.get(id);
+        if (name == null && !names.containsKey(id)) {
+            return Optional.empty();
+        }
+        Map<Long, ProductCatalogIndex.CategoryStat> stats = catalogIndex.categoryStats().orElse(Map.of());
+        return Optional.of(toDTO(id, name, stats.get(id)));
+    }
+
+    private static CategoryDTO toDTO(Long id, String name, ProductCatalogIndex.CategoryStat stat) {
+        return CategoryDTO.builder()
+                .id(id)
+                .name(name)
+                .productCount(stat != null ? stat.productCount() : 0)
+                .minPrice(stat != null ? stat.minPrice() : null)
+                .maxPrice(stat != null ? stat.maxPrice() : null)
+                .build();
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.ECM.service;
+
+import com.example.ECM.dto.CartItemDTO;
+import com.example.ECM.dto.CheckoutJobDTO;
+import com.example.ECM.model.Order;
+import com.example.ECM.repository.CartJdbcRepository;
+import com.example.ECM.repository.CheckoutJobJdbcRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hàng đợi checkout bất đồng bộ: endpoint chỉ kiểm tra request và ghi một ticket vào bảng checkout_jobs (trả 202),
+ * {@link CheckoutWorkerPool} lấy ticket theo lô và chạy {@link OrderService#createOrder}.
+ * Hàng đợi có giới hạn {@code checkout.async.maxQueued}: đầy thì từ chối ngay thay vì để request chờ DB.
+ */
+@Service
+public class CheckoutQueueService implements SmartInitializingSingleton {
+    private static final Logger logger = LoggerFactory.getLogger(CheckoutQueueService.class);
+
+    private static final int MAX_ERROR_LENGTH = 500;
+    private static final long QUEUE_COUNT_REFRESH_MS = 1000;
+    private static final int CLEANUP_BATCH_SIZE = 1000;
+
+    private final CheckoutJobJdbcRepository checkoutJobJdbcRepository;
+    private final CartJdbcRepository cartJdbcRepository;
+    private final CartWriteBehindStore cartStore;
+    private final OrderService orderService;
+    private final long maxQueued;
+    private final long leaseSeconds;
+    private final int maxAttempts;
+    private final long retentionHours;
+
+    // Số ticket đang chờ: đếm lại từ DB tối đa mỗi giây một lần, giữa hai lần đếm thì cộng dồn tại chỗ
+    private final AtomicLong queuedEstimate = new AtomicLong();
+    private volatile long queuedCountedAt;
+
+    public CheckoutQueueService(CheckoutJobJdbcRepository checkoutJobJdbcRepository,
+                                CartJdbcRepository cartJdbcRepository,
+                                CartWriteBehindStore cartStore,
+                                OrderService orderService,
+                                @Value("${checkout.async.maxQueued:10000}") long maxQueued,
+                                @Value("${checkout.async.leaseSeconds:300}") long leaseSeconds,
+                                @Value("${checkout.async.maxAttempts:3}") int maxAttempts,
+                                @Value("${checkout.async.retentionHours:24}") long retentionHours) {
+        this.checkoutJobJdbcRepository = checkoutJobJdbcRepository;
+        this.cartJdbcRepository = cartJdbcRepository;
+        this.cartStore = cartStore;
+        this.orderService = orderService;
+        this.maxQueued = maxQueued;
+        this.leaseSeconds = leaseSeconds;
+        this.maxAttempts = maxAttempts;
+        this.retentionHours = retentionHours;
+    }
+
+    public static class QueueFullException extends RuntimeException {
+        public QueueFullException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Chạy khi mọi bean đã tạo xong (JPA đã tạo bảng), trước khi web server mở cổng và worker bắt đầu nhận ticket.
+     * Không có index thì mọi lần xếp ticket đều lỗi → dừng khởi động thay vì chạy tiếp với hàng đợi hỏng.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        int failed;
+        try {
+            failed = checkoutJobJdbcRepository.ensureActiveUserIndex();
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("Không tạo được unique index cho checkout_jobs: " + e.getMessage(), e);
+        }
+        if (failed > 0) {
+            logger.warn("Đã đánh dấu FAILED {} ticket checkout trùng user trước khi tạo index", failed);
+        }
+    }
+
+    /**
+     * Kiểm tra giỏ hàng rồi xếp một ticket vào hàng đợi; trả về ticket.
+     * User đã có ticket đang chờ / đang chạy thì trả về ticket đó (bấm đặt hàng nhiều lần không tạo nhiều đơn).
+     */
+    public CheckoutJobDTO enqueue(Long userId) {
+        String active = checkoutJobJdbcRepository.findActiveTicket(userId);
+        if (active != null) {
+            return describe(active);
+        }
+        if (!hasItems(userId)) {
+            throw new RuntimeException("Giỏ hàng trống, không thể đặt hàng!");
+        }
+        if (queuedCount() >= maxQueued) {
+            throw new QueueFullException("Hệ thống đang quá tải, vui lòng thử lại sau");
+        }
+        String ticket = checkoutJobJdbcRepository.enqueue(UUID.randomUUID().toString(), userId);
+        if (ticket == null) {
+            // Request song song của cùng user vừa tạo ticket
+            ticket = checkoutJobJdbcRepository.findActiveTicket(userId);
+            if (ticket == null) {
+                throw new RuntimeException("Không xếp được yêu cầu đặt hàng, vui lòng thử lại");
+            }
+        } else {
+            queuedEstimate.incrementAndGet();
+        }
+        return describe(ticket);
+    }
+
+    // null nếu không có ticket
+    public CheckoutJobDTO getJob(String ticket) {
+        return checkoutJobJdbcRepository.findByTicket(ticket);
+    }
+
+    public List<CheckoutJobJdbcRepository.ClaimedJob> claim(int limit) {
+        return checkoutJobJdbcRepository.claim(limit, leaseSeconds);
+    }
+
+    /**
+     * Chạy một ticket: tạo đơn và ghi COMPLETED trong cùng transaction, nên đơn chỉ được tạo nếu ticket được đánh dấu xong.
+     * Worker đã quá hạn (ticket bị nhận lại) thì rollback đơn của mình.
+     */
+    @Transactional
+    public long process(CheckoutJobJdbcRepository.ClaimedJob job) {
+        Order order = orderService.createOrder(job.userId());
+        if (!checkoutJobJdbcRepository.markCompleted(job, order.getId())) {
+            throw new IllegalStateException("Ticket " + job.id() + " đã được nhận lại bởi worker khác");
+        }
+        return order.getId();
+    }
+
+    // Lỗi tạm thời thì xếp lại nếu còn lượt thử; trả về true nếu đã xếp lại
+    public boolean fail(CheckoutJobJdbcRepository.ClaimedJob job, String error, boolean transientError) {
+        String message = error != null && error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error;
+        if (transientError && job.attempt() < maxAttempts) {
+            return checkoutJobJdbcRepository.requeue(job, message);
+        }
+        checkoutJobJdbcRepository.markFailed(job, message);
+        return false;
+    }
+
+    // 🔹 Trả lại hàng đợi các ticket của worker chết / treo và xóa ticket đã xong quá retentionHours
+    @Scheduled(fixedDelayString = "${checkout.async.maintenanceIntervalMs:60000}", initialDelayString = "${checkout.async.maintenanceIntervalMs:60000}")
+    public void maintenance() {
+        try {
+            int requeued = checkoutJobJdbcRepository.requeueStale(maxAttempts);
+            if (requeued > 0) {
+                logger.warn("Đã trả lại {} ticket checkout quá thời gian xử lý", requeued);
+            }
+            int deleted;
+            do {
+                deleted = checkoutJobJdbcRepository.deleteFinished(retentionHours, CLEANUP_BATCH_SIZE);
+            } while (deleted == CLEANUP_BATCH_SIZE);
+        } catch (RuntimeException e) {
+            logger.error("Lỗi khi bảo trì hàng đợi checkout: {}", e.getMessage(), e);
+        }
+    }
+
+    private boolean hasItems(Long userId) {
+        if (cartStore.isEnabled()) {
+            try {
+                List<CartItemDTO> items = cartStore.getCart(userId).getItems();
+                return items != null && !items.isEmpty();
+            } catch (RuntimeException e) {
+                return false;
+            }
+        }
+        return cartJdbcRepository.hasItems(userId);
+    }
+
+    private long queuedCount() {
+        long now = System.currentTimeMillis();
+        if (now - queuedCountedAt > QUEUE_COUNT_REFRESH_MS) {
+            queuedEstimate.set(checkoutJobJdbcRepository.countQueued());
+            queuedCountedAt = now;
+        }
+        return queuedEstimate.get();
+    }
+
+    // Đọc lại trạng thái ticket (kèm vị trí trong hàng đợi) để trả về ngay trong response 202
+    private CheckoutJobDTO describe(String ticket) {
+        CheckoutJobDTO job = checkoutJobJdbcRepository.findByTicket(ticket);
+        if (job != null) {
+            return job;
+        }
+        CheckoutJobDTO placeholder = new CheckoutJobDTO();
+        placeholder.setTicket(ticket);
+        placeholder.setStatus("QUEUED");
+        return placeholder;
+    }
+}
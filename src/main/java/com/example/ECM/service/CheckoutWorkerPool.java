@@ -0,0 +1,201 @@
+package com.example.ECM.service;
+
+import com.example.ECM.repository.CheckoutJobJdbcRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Worker xử lý hàng đợi checkout bất đồng bộ.
+ * Một luồng điều phối nhận ticket theo lô (tối đa {@code checkout.async.batchSize} mỗi lần đọc DB),
+ * mỗi ticket chạy trên một virtual thread. Semaphore giới hạn số checkout chạy cùng lúc trên DB
+ * ở {@code checkout.async.concurrency}, dù hàng đợi dài bao nhiêu.
+ * Enqueue trên node này đánh thức luồng điều phối ngay; ticket từ node khác được thấy sau tối đa pollIntervalMs.
+ */
+@Component
+public class CheckoutWorkerPool {
+    private static final Logger logger = LoggerFactory.getLogger(CheckoutWorkerPool.class);
+
+    private final CheckoutQueueService checkoutQueueService;
+    private final boolean enabled;
+    private final int concurrency;
+    private final int batchSize;
+    private final long pollIntervalNanos;
+    private final Semaphore permits;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong totalMs = new AtomicLong();
+
+    private volatile boolean running;
+    private volatile Thread dispatcher;
+    private ExecutorService executor;
+
+    public CheckoutWorkerPool(CheckoutQueueService checkoutQueueService,
+                              @Value("${checkout.async.enabled:true}") boolean enabled,
+                              @Value("${checkout.async.concurrency:16}") int concurrency,
+                              @Value("${checkout.async.batchSize:16}") int batchSize,
+                              @Value("${checkout.async.pollIntervalMs:200}") long pollIntervalMs) {
+        this.checkoutQueueService = checkoutQueueService;
+        this.enabled = enabled;
+        this.concurrency = concurrency;
+        this.batchSize = batchSize;
+        this.pollIntervalNanos = TimeUnit.MILLISECONDS.toNanos(pollIntervalMs);
+        this.permits = new Semaphore(concurrency);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        running = true;
+        dispatcher = Thread.ofVirtual().name("checkout-dispatcher").start(this::dispatchLoop);
+        logger.info("Đã khởi động worker checkout ({} luồng đồng thời, lô {})", concurrency, batchSize);
+    }
+
+    // Gọi sau khi enqueue để không phải chờ tới lượt đọc DB kế tiếp
+    public void wakeUp() {
+        Thread thread = dispatcher;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        Thread thread = dispatcher;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                // Ticket chưa xong khi hết thời gian chờ sẽ được trả lại hàng đợi sau leaseSeconds
+                executor.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", enabled);
+        result.put("concurrency", concurrency);
+        result.put("running", concurrency - permits.availablePermits());
+        result.put("completed", completed.get());
+        result.put("failed", failed.get());
+        result.put("retried", retried.get());
+        long done = completed.get() + failed.get();
+        result.put("avgMs", done > 0 ? totalMs.get() / done : 0);
+        return result;
+    }
+
+    private void dispatchLoop() {
+        while (running) {
+            try {
+                // Chờ tới khi có ít nhất một chỗ trống rồi nhận đủ số ticket cho các chỗ trống đó
+                permits.acquire();
+                int slots = 1 + drainUpTo(batchSize - 1);
+                List<CheckoutJobJdbcRepository.ClaimedJob> jobs;
+                try {
+                    jobs = checkoutQueueService.claim(slots);
+                } catch (RuntimeException e) {
+                    // Không nhận được ticket nào → trả lại toàn bộ chỗ đã giữ
+                    permits.release(slots);
+                    throw e;
+                }
+                if (jobs.size() < slots) {
+                    permits.release(slots - jobs.size());
+                }
+                dispatch(jobs);
+                if (jobs.isEmpty()) {
+                    LockSupport.parkNanos(pollIntervalNanos);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Lỗi khi nhận ticket checkout: {}", e.getMessage(), e);
+                LockSupport.parkNanos(pollIntervalNanos);
+            }
+        }
+    }
+
+    // Mỗi ticket đã giữ sẵn một chỗ; chỗ được trả khi ticket chạy xong, hoặc ngay nếu không giao được cho executor
+    private void dispatch(List<CheckoutJobJdbcRepository.ClaimedJob> jobs) {
+        for (int i = 0; i < jobs.size(); i++) {
+            CheckoutJobJdbcRepository.ClaimedJob job = jobs.get(i);
+            try {
+                executor.execute(() -> {
+                    try {
+                        process(job);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                // Executor đã dừng (đang tắt ứng dụng): ticket chưa giao sẽ quay lại hàng đợi sau leaseSeconds
+                permits.release(jobs.size() - i);
+                throw e;
+            }
+        }
+    }
+
+    // Lấy thêm tối đa max chỗ trống mà không chờ
+    private int drainUpTo(int max) {
+        int taken = 0;
+        while (taken < max && permits.tryAcquire()) {
+            taken++;
+        }
+        return taken;
+    }
+
+    private void process(CheckoutJobJdbcRepository.ClaimedJob job) {
+        long start = System.currentTimeMillis();
+        try {
+            checkoutQueueService.process(job);
+            completed.incrementAndGet();
+        } catch (RuntimeException e) {
+            boolean transientError = e instanceof TransientDataAccessException;
+            try {
+                if (checkoutQueueService.fail(job, e.getMessage(), transientError)) {
+                    retried.incrementAndGet();
+                } else {
+                    failed.incrementAndGet();
+                }
+            } catch (RuntimeException writeError) {
+                // Ticket sẽ được trả lại hàng đợi khi hết hạn xử lý
+                logger.error("Lỗi khi ghi kết quả ticket {}: {}", job.id(), writeError.getMessage(), writeError);
+            }
+            if (!transientError) {
+                logger.info("Checkout bất đồng bộ thất bại cho userId {}: {}", job.userId(), e.getMessage());
+            }
+        } finally {
+            totalMs.addAndGet(System.currentTimeMillis() - start);
+        }
+    }
+}
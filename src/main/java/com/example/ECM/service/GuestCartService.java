@@ -0,0 +1,108 @@
+package com.example.ECM.service;
+
+import com.example.ECM.dto.CartDTO;
+import com.example.ECM.dto.CartItemDTO;
+import com.example.ECM.dto.CartOperationDTO;
+import com.example.ECM.dto.ProductDTO;
+import com.example.ECM.util.CartOperationValidator;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Giỏ hàng của khách: dữ liệu nằm trong {@link GuestCartStore}, giá / thông tin sản phẩm lấy từ {@link ProductCache}.
+ * Khi khách đăng nhập, các dòng được gộp vào giỏ của user qua {@link CartService#applyBatch}.
+ */
+@Service
+@RequiredArgsConstructor
+public class GuestCartService {
+    private static final Logger logger = LoggerFactory.getLogger(GuestCartService.class);
+
+    private final GuestCartStore guestCartStore;
+    private final ProductCache productCache;
+    private final CartService cartService;
+
+    public String createCart() {
+        return guestCartStore.create();
+    }
+
+    public CartDTO getCart(String token) {
+        return toDTO(guestCartStore.get(token));
+    }
+
+    public CartDTO applyBatch(String token, List<CartOperationDTO> operations) {
+        CartOperationValidator.validate(operations);
+        Set<Long> productIds = operations.stream()
+                .filter(op -> op.getType() != CartOperationDTO.Type.REMOVE)
+                .map(CartOperationDTO::getProductId)
+                .collect(Collectors.toSet());
+        Map<Long, ProductDTO> products = productCache.getAll(productIds);
+        for (Long productId : productIds) {
+            if (!products.containsKey(productId)) {
+                throw new IllegalArgumentException("Không tìm thấy sản phẩm: " + productId);
+            }
+        }
+        return toDTO(guestCartStore.apply(token, operations));
+    }
+
+    public void clearCart(String token) {
+        guestCartStore.delete(token);
+    }
+
+    /**
+     * Gộp giỏ khách vào giỏ của user (cộng dồn số lượng) rồi xóa giỏ khách.
+     * Sản phẩm đã bị xóa khỏi catalog được bỏ qua. Không có giỏ khách thì không làm gì.
+     * Giỏ khách được lấy ra trước (hai lần đăng nhập cùng token không gộp hai lần); gộp lỗi thì trả lại các dòng
+     * vào đúng token đó để khách vẫn còn giỏ và có thể đăng nhập lại để gộp.
+     */
+    public void mergeInto(String token, Long userId) {
+        Optional<Map<Long, Integer>> lines = guestCartStore.take(token);
+        if (lines.isEmpty() || lines.get().isEmpty()) {
+            return;
+        }
+        try {
+            Map<Long, ProductDTO> products = productCache.getAll(lines.get().keySet());
+            List<CartOperationDTO> operations = new ArrayList<>(lines.get().size());
+            lines.get().forEach((productId, quantity) -> {
+                if (products.containsKey(productId)) {
+                    operations.add(new CartOperationDTO(CartOperationDTO.Type.ADD, productId, quantity));
+                }
+            });
+            if (!operations.isEmpty()) {
+                cartService.applyBatch(userId, operations);
+                logger.info("Đã gộp {} sản phẩm từ giỏ khách vào giỏ của user {}", operations.size(), userId);
+            }
+        } catch (RuntimeException e) {
+            guestCartStore.restore(token, lines.get());
+            throw e;
+        }
+    }
+
+    public Map<String, Object> stats() {
+        return guestCartStore.stats();
+    }
+
+    private CartDTO toDTO(Map<Long, Integer> lines) {
+        Map<Long, ProductDTO> products = productCache.getAll(lines.keySet());
+        List<CartItemDTO> items = new ArrayList<>(lines.size());
+        double total = 0.0;
+        for (Map.Entry<Long, Integer> entry : lines.entrySet()) {
+            ProductDTO product = products.get(entry.getKey());
+            if (product == null) {
+                continue; // Sản phẩm đã bị xóa khỏi catalog
+            }
+            double linePrice = entry.getValue() * product.getPrice();
+            items.add(new CartItemDTO(null, product, entry.getValue(), linePrice));
+            total += linePrice;
+        }
+        return new CartDTO(null, null, items, total);
+    }
+}
@@ -0,0 +1,386 @@
+package com.example.ECM.service;
+
+import com.example.ECM.dto.CartOperationDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Giỏ hàng của khách chưa đăng nhập, giữ ngoài heap (direct ByteBuffer) để hàng triệu giỏ không tạo áp lực GC.
+ * <p>
+ * Khóa là token ngẫu nhiên 128 bit. Bộ nhớ chia thành {@value #SEGMENTS} phân đoạn, mỗi phân đoạn một khóa
+ * và một bảng băm địa chỉ mở (dò tuyến tính, xóa bằng dịch lùi nên không cần tombstone).
+ * Mỗi slot có kích thước cố định, chứa tối đa {@value #MAX_LINES} dòng (productId, quantity).
+ * Giỏ hết hạn sau {@code guestCart.ttlMinutes} phút không dùng; tổng số giỏ bị chặn bởi {@code guestCart.maxCarts}
+ * (chia đều cho các phân đoạn, phân đoạn đầy thì dọn giỏ hết hạn trước khi từ chối tạo giỏ mới).
+ */
+@Component
+public class GuestCartStore {
+    private static final Logger logger = LoggerFactory.getLogger(GuestCartStore.class);
+
+    public static final int MAX_LINES = 20;
+    private static final int SEGMENTS = 64;
+
+    // Bố cục một slot: [token hi 8][token lo 8][hết hạn lúc (ms) 8][số dòng 4][dòng: productId 8 + quantity 4]...
+    private static final int TOKEN_HI = 0;
+    private static final int TOKEN_LO = 8;
+    private static final int EXPIRES_AT = 16;
+    private static final int LINE_COUNT = 24;
+    private static final int LINES = 28;
+    private static final int LINE_SIZE = 12;
+    private static final int SLOT_SIZE = LINES + MAX_LINES * LINE_SIZE;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final SecureRandom random = new SecureRandom();
+    private final long ttlMs;
+    private final long maxCarts;
+
+    public GuestCartStore(@Value("${guestCart.maxCarts:100000}") long maxCarts,
+                          @Value("${guestCart.ttlMinutes:1440}") long ttlMinutes) {
+        this.maxCarts = maxCarts;
+        this.ttlMs = ttlMinutes * 60_000L;
+        int perSegment = (int) Math.max(1, (maxCarts + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    // Token không hợp lệ / không tồn tại / đã hết hạn
+    public static class GuestCartNotFoundException extends RuntimeException {
+        public GuestCartNotFoundException() {
+            super("Không tìm thấy giỏ hàng khách (token không hợp lệ hoặc đã hết hạn)");
+        }
+    }
+
+    private static final class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ByteBuffer buffer;
+        private final int slots;
+        private final int maxEntries;
+        private int size;
+
+        private Segment(int maxEntries) {
+            this.maxEntries = maxEntries;
+            // Hệ số tải tối đa 0.75 để chuỗi dò ngắn
+            this.slots = maxEntries + maxEntries / 3 + 1;
+            this.buffer = ByteBuffer.allocateDirect(Math.multiplyExact(slots, SLOT_SIZE));
+        }
+
+        private int offset(int slot) {
+            return slot * SLOT_SIZE;
+        }
+
+        private boolean isEmpty(int slot) {
+            return buffer.getLong(offset(slot) + TOKEN_HI) == 0 && buffer.getLong(offset(slot) + TOKEN_LO) == 0;
+        }
+
+        private int home(long hi, long lo) {
+            return (int) ((hash(hi, lo) >>> 6 & 0x7fffffffL) % slots);
+        }
+
+        private int find(long hi, long lo, long now) {
+            for (int slot = home(hi, lo); !isEmpty(slot); slot = (slot + 1) % slots) {
+                int base = offset(slot);
+                if (buffer.getLong(base + TOKEN_HI) == hi && buffer.getLong(base + TOKEN_LO) == lo) {
+                    if (buffer.getLong(base + EXPIRES_AT) <= now) {
+                        delete(slot);
+                        return -1;
+                    }
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        private int insert(long hi, long lo, long expiresAt, long now) {
+            if (size >= maxEntries) {
+                sweep(now);
+                if (size >= maxEntries) {
+                    return -1;
+                }
+            }
+            int slot = home(hi, lo);
+            while (!isEmpty(slot)) {
+                slot = (slot + 1) % slots;
+            }
+            int base = offset(slot);
+            buffer.putLong(base + TOKEN_HI, hi);
+            buffer.putLong(base + TOKEN_LO, lo);
+            buffer.putLong(base + EXPIRES_AT, expiresAt);
+            buffer.putInt(base + LINE_COUNT, 0);
+            size++;
+            return slot;
+        }
+
+        // Xóa và dịch lùi các phần tử phía sau trong cùng chuỗi dò để không để lại lỗ
+        private void delete(int slot) {
+            int hole = slot;
+            int next = slot;
+            while (true) {
+                next = (next + 1) % slots;
+                if (isEmpty(next)) {
+                    break;
+                }
+                int base = offset(next);
+                int home = home(buffer.getLong(base + TOKEN_HI), buffer.getLong(base + TOKEN_LO));
+                boolean stays = hole <= next ? (hole < home && home <= next) : (hole < home || home <= next);
+                if (stays) {
+                    continue;
+                }
+                copySlot(next, hole);
+                hole = next;
+            }
+            int base = offset(hole);
+            buffer.putLong(base + TOKEN_HI, 0);
+            buffer.putLong(base + TOKEN_LO, 0);
+            size--;
+        }
+
+        private void copySlot(int from, int to) {
+            int src = offset(from);
+            int dst = offset(to);
+            int length = LINES + buffer.getInt(src + LINE_COUNT) * LINE_SIZE;
+            for (int i = 0; i + 8 <= length; i += 8) {
+                buffer.putLong(dst + i, buffer.getLong(src + i));
+            }
+            for (int i = length & ~7; i < length; i++) {
+                buffer.put(dst + i, buffer.get(src + i));
+            }
+        }
+
+        private int sweep(long now) {
+            int removed = 0;
+            int slot = 0;
+            while (slot < slots) {
+                if (!isEmpty(slot) && buffer.getLong(offset(slot) + EXPIRES_AT) <= now) {
+                    // Phần tử phía sau có thể được dịch vào đúng slot này → kiểm tra lại, không tăng slot
+                    delete(slot);
+                    removed++;
+                } else {
+                    slot++;
+                }
+            }
+            return removed;
+        }
+
+        private Map<Long, Integer> readLines(int slot) {
+            int base = offset(slot);
+            int count = buffer.getInt(base + LINE_COUNT);
+            Map<Long, Integer> lines = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                int line = base + LINES + i * LINE_SIZE;
+                lines.put(buffer.getLong(line), buffer.getInt(line + 8));
+            }
+            return lines;
+        }
+
+        private void writeLines(int slot, Map<Long, Integer> lines) {
+            int base = offset(slot);
+            int i = 0;
+            for (Map.Entry<Long, Integer> entry : lines.entrySet()) {
+                int line = base + LINES + i * LINE_SIZE;
+                buffer.putLong(line, entry.getKey());
+                buffer.putInt(line + 8, entry.getValue());
+                i++;
+            }
+            buffer.putInt(base + LINE_COUNT, i);
+        }
+    }
+
+    /**
+     * Tạo giỏ trống, trả về token. Ném IllegalStateException nếu kho đã đầy (sau khi đã dọn giỏ hết hạn).
+     */
+    public String create() {
+        long hi;
+        long lo;
+        do {
+            hi = random.nextLong();
+            lo = random.nextLong();
+        } while (hi == 0 && lo == 0);
+        Segment segment = segmentOf(hi, lo);
+        long now = System.currentTimeMillis();
+        segment.lock.lock();
+        try {
+            if (segment.insert(hi, lo, now + ttlMs, now) < 0) {
+                throw new IllegalStateException("Kho giỏ hàng khách đã đầy, vui lòng thử lại sau");
+            }
+        } finally {
+            segment.lock.unlock();
+        }
+        return String.format("%016x%016x", hi, lo);
+    }
+
+    // productId → quantity theo thứ tự thêm; đồng thời gia hạn giỏ
+    public Map<Long, Integer> get(String token) {
+        return mutate(token, null);
+    }
+
+    /**
+     * Áp dụng các thao tác ADD / SET / REMOVE (cùng ngữ nghĩa với giỏ hàng của user) và trả về các dòng sau cùng.
+     * Vượt quá {@value #MAX_LINES} dòng thì cả lô bị từ chối.
+     */
+    public Map<Long, Integer> apply(String token, List<CartOperationDTO> operations) {
+        return mutate(token, operations);
+    }
+
+    // Lấy các dòng và xóa giỏ (dùng khi gộp vào giỏ của user lúc đăng nhập)
+    public Optional<Map<Long, Integer>> take(String token) {
+        long[] key = parse(token);
+        if (key == null) {
+            return Optional.empty();
+        }
+        Segment segment = segmentOf(key[0], key[1]);
+        segment.lock.lock();
+        try {
+            int slot = segment.find(key[0], key[1], System.currentTimeMillis());
+            if (slot < 0) {
+                return Optional.empty();
+            }
+            Map<Long, Integer> lines = segment.readLines(slot);
+            segment.delete(slot);
+            return Optional.of(lines);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Đặt lại các dòng đã lấy bằng {@link #take} vào đúng token đó (khi gộp giỏ thất bại), với hạn dùng mới.
+     * Trả về false nếu kho đã đầy hoặc token không hợp lệ.
+     */
+    public boolean restore(String token, Map<Long, Integer> lines) {
+        long[] key = parse(token);
+        if (key == null) {
+            return false;
+        }
+        Segment segment = segmentOf(key[0], key[1]);
+        long now = System.currentTimeMillis();
+        segment.lock.lock();
+        try {
+            int slot = segment.find(key[0], key[1], now);
+            if (slot < 0) {
+                slot = segment.insert(key[0], key[1], now + ttlMs, now);
+                if (slot < 0) {
+                    logger.warn("Kho giỏ hàng khách đã đầy, không trả lại được {} dòng", lines.size());
+                    return false;
+                }
+            }
+            segment.writeLines(slot, lines);
+            return true;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    public void delete(String token) {
+        take(token);
+    }
+
+    // 🔹 Dọn định kỳ các giỏ hết hạn
+    @Scheduled(fixedDelayString = "${guestCart.sweepIntervalMs:60000}")
+    public void sweepExpired() {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                removed += segment.sweep(now);
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        if (removed > 0) {
+            logger.debug("Đã xóa {} giỏ hàng khách hết hạn", removed);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        long size = 0;
+        long offHeapBytes = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.size;
+            } finally {
+                segment.lock.unlock();
+            }
+            offHeapBytes += segment.buffer.capacity();
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", size);
+        result.put("maxCarts", maxCarts);
+        result.put("offHeapBytes", offHeapBytes);
+        result.put("ttlMinutes", ttlMs / 60_000L);
+        return result;
+    }
+
+    private Map<Long, Integer> mutate(String token, List<CartOperationDTO> operations) {
+        long[] key = parse(token);
+        if (key == null) {
+            throw new GuestCartNotFoundException();
+        }
+        Segment segment = segmentOf(key[0], key[1]);
+        long now = System.currentTimeMillis();
+        segment.lock.lock();
+        try {
+            int slot = segment.find(key[0], key[1], now);
+            if (slot < 0) {
+                throw new GuestCartNotFoundException();
+            }
+            Map<Long, Integer> lines = segment.readLines(slot);
+            if (operations != null) {
+                for (CartOperationDTO op : operations) {
+                    int quantity = switch (op.getType()) {
+                        case ADD -> lines.getOrDefault(op.getProductId(), 0) + op.getQuantity();
+                        case SET -> op.getQuantity();
+                        case REMOVE -> 0;
+                    };
+                    if (quantity <= 0) {
+                        lines.remove(op.getProductId());
+                    } else {
+                        lines.put(op.getProductId(), quantity);
+                    }
+                }
+                if (lines.size() > MAX_LINES) {
+                    throw new IllegalArgumentException("Giỏ hàng khách tối đa " + MAX_LINES + " sản phẩm");
+                }
+                segment.writeLines(slot, lines);
+            }
+            segment.buffer.putLong(segment.offset(slot) + EXPIRES_AT, now + ttlMs);
+            return lines;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    private Segment segmentOf(long hi, long lo) {
+        return segments[(int) (hash(hi, lo) & (SEGMENTS - 1))];
+    }
+
+    private static long hash(long hi, long lo) {
+        long h = hi * 0x9E3779B97F4A7C15L ^ lo;
+        return h ^ (h >>> 29);
+    }
+
+    // Token là 32 ký tự hex; sai định dạng → null
+    private static long[] parse(String token) {
+        if (token == null || token.length() != 32) {
+            return null;
+        }
+        try {
+            return new long[]{Long.parseUnsignedLong(token.substring(0, 16), 16), Long.parseUnsignedLong(token.substring(16), 16)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.ECM.service;
+
+import com.example.ECM.repository.IdempotencyJdbcRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Chống chạy lặp request có header {@value #HEADER}: request đầu tiên chạy và response (mã 2xx / 4xx) được lưu lại,
+ * các request sau cùng key nhận lại đúng response đó mà không chạy lại.
+ * Kết quả được giữ trong bộ nhớ (Caffeine) và trong bảng idempotency_keys để node khác / sau khi khởi động lại vẫn dùng được.
+ * Request trùng đến khi request đầu còn đang chạy thì chờ kết quả (trên cùng node chờ qua CompletableFuture,
+ * khác node thì đọc lại DB) tới tối đa {@code idempotency.waitTimeoutMs}, quá hạn trả 409.
+ * Response 5xx hoặc exception không được lưu: lần thử lại sẽ chạy lại. Scope gọi với {@code storeClientErrors = false}
+ * cũng không lưu response 4xx (ví dụ callback mà lỗi 4xx có thể do dữ liệu tạm thời, không phải do chính request).
+ */
+@Service
+public class IdempotencyService {
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyService.class);
+
+    public static final String HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+    public static final int MAX_KEY_LENGTH = 100;
+
+    private static final long POLL_INTERVAL_MS = 50;
+    private static final int CLEANUP_BATCH_SIZE = 1000;
+
+    private final IdempotencyJdbcRepository idempotencyJdbcRepository;
+    private final ObjectMapper objectMapper;
+    private final long ttlSeconds;
+    private final long leaseSeconds;
+    private final long waitTimeoutMs;
+
+    private final Cache<String, StoredResponse> completed;
+    private final ConcurrentHashMap<String, CompletableFuture<StoredResponse>> inFlight = new ConcurrentHashMap<>();
+
+    public IdempotencyService(IdempotencyJdbcRepository idempotencyJdbcRepository,
+                              ObjectMapper objectMapper,
+                              @Value("${idempotency.ttlMinutes:1440}") long ttlMinutes,
+                              @Value("${idempotency.leaseSeconds:60}") long leaseSeconds,
+                              @Value("${idempotency.waitTimeoutMs:10000}") long waitTimeoutMs,
+                              @Value("${idempotency.localMaxSize:10000}") long localMaxSize) {
+        this.idempotencyJdbcRepository = idempotencyJdbcRepository;
+        this.objectMapper = objectMapper;
+        this.ttlSeconds = ttlMinutes * 60;
+        this.leaseSeconds = leaseSeconds;
+        this.waitTimeoutMs = waitTimeoutMs;
+        this.completed = Caffeine.newBuilder()
+                .maximumSize(localMaxSize)
+                .expireAfterWrite(Duration.ofMinutes(ttlMinutes))
+                .build();
+    }
+
+    // Response đã lưu; contentType == null → body là chuỗi trả về nguyên dạng
+    private record StoredResponse(int status, String contentType, String body) {
+    }
+
+    /**
+     * Chạy action nếu key chưa được dùng trong scope, ngược lại trả về response đã lưu.
+     * key == null → chạy bình thường, không chống lặp.
+     */
+    public ResponseEntity<?> execute(String scope, String key, Supplier<ResponseEntity<?>> action) {
+        return execute(scope, key, true, action);
+    }
+
+    // storeClientErrors == false → response 4xx được trả về nhưng không lưu, lần gọi sau cùng key sẽ chạy lại
+    public ResponseEntity<?> execute(String scope, String key, boolean storeClientErrors, Supplier<ResponseEntity<?>> action) {
+        if (key == null || key.isBlank()) {
+            return action.get();
+        }
+        if (key.length() > MAX_KEY_LENGTH) {
+            return ResponseEntity.badRequest().body("Lỗi: " + HEADER + " dài quá " + MAX_KEY_LENGTH + " ký tự");
+        }
+        String id = scope + "|" + key;
+        long deadline = System.currentTimeMillis() + waitTimeoutMs;
+        while (true) {
+            StoredResponse cached = completed.getIfPresent(id);
+            if (cached != null) {
+                return replay(cached);
+            }
+            CompletableFuture<StoredResponse> mine = new CompletableFuture<>();
+            CompletableFuture<StoredResponse> running = inFlight.putIfAbsent(id, mine);
+            if (running == null) {
+                try {
+                    return executeOwned(scope, key, id, storeClientErrors, action, mine, deadline);
+                } finally {
+                    inFlight.remove(id, mine);
+                }
+            }
+
+            // 🔹 Request trùng trên cùng node: chờ request đầu, nếu nó lỗi thì thử chạy lại
+            try {
+                return replay(running.get(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+            } catch (TimeoutException e) {
+                return inProgress();
+            } catch (ExecutionException e) {
+                if (System.currentTimeMillis() >= deadline) {
+                    return inProgress();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return inProgress();
+            }
+        }
+    }
+
+    private ResponseEntity<?> executeOwned(String scope, String key, String id, boolean storeClientErrors,
+                                           Supplier<ResponseEntity<?>> action,
+                                           CompletableFuture<StoredResponse> mine, long deadline) {
+        while (!idempotencyJdbcRepository.claim(scope, key, leaseSeconds)) {
+            // Key đã có kết quả, hoặc node khác đang chạy: đọc lại DB tới khi có kết quả
+            IdempotencyJdbcRepository.StoredRecord record = idempotencyJdbcRepository.find(scope, key);
+            if (record != null && record.completed()) {
+                StoredResponse stored = new StoredResponse(record.responseStatus(), record.contentType(), record.responseBody());
+                completed.put(id, stored);
+                mine.complete(stored);
+                return replay(stored);
+            }
+            if (record == null) {
+                // Node kia vừa lỗi và bỏ giữ chỗ (hoặc bản ghi vừa hết hạn) → giữ chỗ lại
+                continue;
+            }
+            if (System.currentTimeMillis() >= deadline || !sleep()) {
+                mine.completeExceptionally(new TimeoutException(id));
+                return inProgress();
+            }
+        }
+
+        ResponseEntity<?> response;
+        try {
+            response = action.get();
+        } catch (RuntimeException e) {
+            idempotencyJdbcRepository.release(scope, key);
+            mine.completeExceptionally(e);
+            throw e;
+        }
+        if (response.getStatusCode().is5xxServerError()
+                || (!storeClientErrors && response.getStatusCode().is4xxClientError())) {
+            idempotencyJdbcRepository.release(scope, key);
+            mine.completeExceptionally(new IllegalStateException("HTTP " + response.getStatusCode().value()));
+            return response;
+        }
+
+        StoredResponse stored;
+        try {
+            stored = toStored(response);
+        } catch (JsonProcessingException e) {
+            logger.error("Không lưu được response cho {} {}: {}", HEADER, id, e.getMessage(), e);
+            idempotencyJdbcRepository.release(scope, key);
+            mine.completeExceptionally(e);
+            return response;
+        }
+        completed.put(id, stored);
+        mine.complete(stored);
+        try {
+            idempotencyJdbcRepository.complete(scope, key, stored.status(), stored.contentType(), stored.body(), ttlSeconds);
+        } catch (RuntimeException e) {
+            // Vẫn còn kết quả trong bộ nhớ; node khác sẽ thấy giữ chỗ hết hạn sau leaseSeconds
+            logger.error("Lỗi khi lưu kết quả cho {} {}: {}", HEADER, id, e.getMessage(), e);
+        }
+        return response;
+    }
+
+    // 🔹 Xóa định kỳ các bản ghi hết hạn (theo lô để không giữ khóa lâu)
+    @Scheduled(fixedDelayString = "${idempotency.cleanupIntervalMs:600000}", initialDelayString = "${idempotency.cleanupIntervalMs:600000}")
+    public void deleteExpired() {
+        try {
+            long total = 0;
+            int deleted;
+            do {
+                deleted = idempotencyJdbcRepository.deleteExpired(CLEANUP_BATCH_SIZE);
+                total += deleted;
+            } while (deleted == CLEANUP_BATCH_SIZE);
+            if (total > 0) {
+                logger.info("Đã xóa {} idempotency key hết hạn", total);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Lỗi khi xóa idempotency key hết hạn: {}", e.getMessage(), e);
+        }
+    }
+
+    private StoredResponse toStored(ResponseEntity<?> response) throws JsonProcessingException {
+        Object body = response.getBody();
+        int status = response.getStatusCode().value();
+        if (body == null || body instanceof String) {
+            return new StoredResponse(status, null, (String) body);
+        }
+        return new StoredResponse(status, MediaType.APPLICATION_JSON_VALUE, objectMapper.writeValueAsString(body));
+    }
+
+    private static ResponseEntity<?> replay(StoredResponse stored) {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(stored.status()).header(REPLAYED_HEADER, "true");
+        if (stored.contentType() != null) {
+            builder.contentType(MediaType.parseMediaType(stored.contentType()));
+        }
+        return builder.body(stored.body());
+    }
+
+    private static ResponseEntity<?> inProgress() {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body("Lỗi: request với " + HEADER + " này đang được xử lý, thử lại sau");
+    }
+
+    private static boolean sleep() {
+        try {
+            Thread.sleep(POLL_INTERVAL_MS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
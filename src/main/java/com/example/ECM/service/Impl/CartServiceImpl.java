@@ -2,25 +2,38 @@ package com.example.ECM.service.Impl;
 
 import com.example.ECM.dto.CartDTO;
 import com.example.ECM.dto.CartItemDTO;
+import com.example.ECM.dto.CartOperationDTO;
 import com.example.ECM.dto.ProductDTO;
 import com.example.ECM.model.Cart;
 import com.example.ECM.model.CartItem;
 import com.example.ECM.model.Product;
-import com.example.ECM.model.User;
-import com.example.ECM.repository.CartItemRepository;
+import com.example.ECM.repository.CartJdbcRepository;
 import com.example.ECM.repository.CartRepository;
-import com.example.ECM.repository.ProductRepository;
-import com.example.ECM.repository.UserRepository;
 import com.example.ECM.service.CartService;
+import com.example.ECM.service.CartWriteBehindStore;
+import com.example.ECM.service.ProductCache;
+import com.example.ECM.util.CartOperationValidator;
 import lombok.RequiredArgsConstructor;
+import org.hibernate.Hibernate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
@@ -29,15 +42,30 @@ public class CartServiceImpl implements CartService {
     private static final Logger logger = LoggerFactory.getLogger(CartServiceImpl.class);
 
     private final CartRepository cartRepository;
-    private final CartItemRepository cartItemRepository;
-    private final ProductRepository productRepository;
-    private final UserRepository userRepository;
+    private final CartJdbcRepository cartJdbcRepository;
+    private final ProductCache productCache;
+    private final CartWriteBehindStore cartStore;
+
+    // Dữ liệu cũ có thể có giỏ / dòng trùng, khi đó ddl-auto không tạo được ràng buộc unique → gộp rồi tạo lại.
+    // Giỏ chưa có updated_at (trước khi thêm cột) được tính là vừa dùng.
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        try {
+            cartJdbcRepository.enforceUniqueness();
+            cartJdbcRepository.backfillUpdatedAt();
+        } catch (RuntimeException e) {
+            logger.error("Lỗi khi tạo ràng buộc unique cho giỏ hàng: {}", e.getMessage(), e);
+        }
+    }
 
     @Override
     public CartDTO getCartByUserId(Long userId) {
         logger.debug("Lấy giỏ hàng cho userId: {}", userId);
         try {
-            Cart cart = cartRepository.findByUserId(userId)
+            if (cartStore.isEnabled()) {
+                return cartStore.getCart(userId);
+            }
+            Cart cart = cartRepository.findWithItemsByUserId(userId)
                     .orElseThrow(() -> new RuntimeException("Không tìm thấy giỏ hàng cho user ID: " + userId));
             return convertToDTO(cart);
         } catch (Exception e) {
@@ -50,7 +78,8 @@ public class CartServiceImpl implements CartService {
     public List<CartDTO> getAllCarts() {
         logger.debug("Lấy danh sách tất cả giỏ hàng");
         try {
-            List<Cart> carts = cartRepository.findAll();
+            cartStore.flushAll(); // Đọc từ DB → ghi các thay đổi còn trong bộ nhớ trước
+            List<Cart> carts = cartRepository.findAllWithItems();
             return carts.stream()
                     .map(this::convertToDTO)
                     .collect(Collectors.toList());
@@ -60,33 +89,59 @@ public class CartServiceImpl implements CartService {
         }
     }
 
+    // Các dòng đã sắp theo giỏ hàng nên chỉ cần giữ một giỏ trong bộ nhớ tại mỗi thời điểm
+    @Override
+    @Transactional(readOnly = true)
+    public void streamAllCarts(Consumer<? super CartDTO> sink) {
+        logger.debug("Stream danh sách tất cả giỏ hàng");
+        cartStore.flushAll();
+        try (Stream<Object[]> rows = cartRepository.streamAllWithItems()) {
+            CartDTO current = null;
+            Iterator<Object[]> it = rows.iterator();
+            while (it.hasNext()) {
+                Object[] row = it.next();
+                Long cartId = (Long) row[0];
+                if (current == null || !current.getCartId().equals(cartId)) {
+                    if (current != null) {
+                        sink.accept(current);
+                    }
+                    current = new CartDTO(cartId, (Long) row[1], new ArrayList<>(), 0.0);
+                }
+                if (row[2] != null) {
+                    ProductDTO product = new ProductDTO((Long) row[3], (String) row[4], (String) row[5], (Double) row[6],
+                            (Integer) row[7], (String) row[8], (Double) row[9], (Long) row[10]);
+                    int quantity = ((Number) row[11]).intValue();
+                    double linePrice = product.getPrice() != null ? quantity * product.getPrice() : 0.0;
+                    current.getItems().add(new CartItemDTO((Long) row[2], product, quantity, linePrice));
+                    current.setCartTotal(current.getCartTotal() + linePrice);
+                }
+            }
+            if (current != null) {
+                sink.accept(current);
+            }
+        }
+    }
+
     @Override
     @Transactional
     public CartDTO addToCart(Long userId, Long productId, int quantity) {
         logger.debug("Thêm sản phẩm vào giỏ hàng - userId: {}, productId: {}, quantity: {}", userId, productId, quantity);
         try {
-            User user = userRepository.findById(userId)
-                    .orElseThrow(() -> new RuntimeException("Không tìm thấy người dùng"));
-
-            Product product = productRepository.findById(productId)
+            // Kiểm tra sản phẩm qua cache
+            ProductDTO snapshot = productCache.get(productId)
                     .orElseThrow(() -> new RuntimeException("Không tìm thấy sản phẩm"));
-
-            Cart cart = cartRepository.findByUserId(userId).orElseGet(() -> {
-                Cart newCart = new Cart();
-                newCart.setUser(user);
-                return cartRepository.save(newCart);
-            });
-
-            Optional<CartItem> existingItem = cartItemRepository.findByCartAndProduct(cart, product);
-            if (existingItem.isPresent()) {
-                CartItem cartItem = existingItem.get();
-                cartItem.updateQuantity(cartItem.getQuantity() + quantity);
-            } else {
-                CartItem newItem = new CartItem(cart, product, quantity);
-                cart.addItem(newItem);
-                cartItemRepository.save(newItem);
+            if (cartStore.isEnabled()) {
+                return cartStore.add(userId, snapshot, quantity);
             }
 
+            // Một câu upsert: không đọc trước nên các request đồng thời của cùng user không tạo giỏ / dòng trùng
+            try {
+                cartJdbcRepository.addItem(userId, productId, quantity, snapshot.getPrice());
+            } catch (DataIntegrityViolationException e) {
+                throw new RuntimeException("Không tìm thấy người dùng");
+            }
+            Cart cart = cartRepository.findWithItemsByUserId(userId)
+                    .orElseThrow(() -> new RuntimeException("Không tìm thấy giỏ hàng cho user ID: " + userId));
             return convertToDTO(cart);
         } catch (Exception e) {
             logger.error("Lỗi khi thêm sản phẩm vào giỏ hàng: {}", e.getMessage(), e);
@@ -99,14 +154,19 @@ public class CartServiceImpl implements CartService {
     public CartDTO updateCartItem(Long userId, Long productId, int quantity) {
         logger.debug("Cập nhật sản phẩm trong giỏ hàng - userId: {}, productId: {}, quantity: {}", userId, productId, quantity);
         try {
-            Cart cart = cartRepository.findByUserId(userId)
+            if (cartStore.isEnabled()) {
+                ProductDTO snapshot = productCache.get(productId)
+                        .orElseThrow(() -> new RuntimeException("Không tìm thấy sản phẩm"));
+                return cartStore.update(userId, snapshot, quantity);
+            }
+            // Một câu UPDATE theo userId (kèm cập nhật updated_at của giỏ), không cần nạp giỏ trước
+            ProductDTO snapshot = productCache.get(productId)
+                    .orElseThrow(() -> new RuntimeException("Không tìm thấy sản phẩm"));
+            if (!cartJdbcRepository.setQuantity(userId, productId, quantity, snapshot.getPrice())) {
+                throw new RuntimeException("Không tìm thấy sản phẩm trong giỏ hàng");
+            }
+            Cart cart = cartRepository.findWithItemsByUserId(userId)
                     .orElseThrow(() -> new RuntimeException("Không tìm thấy giỏ hàng cho user ID: " + userId));
-
-            CartItem cartItem = cartItemRepository.findByCartAndProduct(cart, productRepository.getReferenceById(productId))
-                    .orElseThrow(() -> new RuntimeException("Không tìm thấy sản phẩm trong giỏ hàng"));
-
-            cartItem.updateQuantity(quantity);
-            cartItemRepository.save(cartItem);
             return convertToDTO(cart);
         } catch (Exception e) {
             logger.error("Lỗi khi cập nhật sản phẩm trong giỏ hàng: {}", e.getMessage(), e);
@@ -114,19 +174,94 @@ public class CartServiceImpl implements CartService {
         }
     }
 
+    /**
+     * Áp dụng một lô thao tác giỏ hàng (đồng bộ sau khi dùng offline, "mua lại" đơn cũ...).
+     * Các thao tác được gộp thành số lượng cuối cùng theo sản phẩm rồi ghi bằng JDBC batch trong một transaction,
+     * nên số câu SQL không phụ thuộc số thao tác. Có sản phẩm không tồn tại thì cả lô bị từ chối.
+     * Dòng carts của user bị khóa trước khi đọc giỏ, nên thêm / sửa giỏ đồng thời phải chờ lô này commit
+     * thay vì bị số lượng tuyệt đối của lô ghi đè.
+     */
     @Override
     @Transactional
-    public void removeCartItem(Long userId, Long productId) {
-        logger.debug("Xóa sản phẩm khỏi giỏ hàng - userId: {}, productId: {}", userId, productId);
+    public CartDTO applyBatch(Long userId, List<CartOperationDTO> operations) {
+        logger.debug("Áp dụng {} thao tác giỏ hàng - userId: {}", operations != null ? operations.size() : 0, userId);
+        CartOperationValidator.validate(operations);
+
+        Set<Long> productIds = operations.stream()
+                .filter(op -> op.getType() != CartOperationDTO.Type.REMOVE)
+                .map(CartOperationDTO::getProductId)
+                .collect(Collectors.toSet());
+        Map<Long, ProductDTO> products = productCache.getAll(productIds);
+        for (Long productId : productIds) {
+            if (!products.containsKey(productId)) {
+                throw new IllegalArgumentException("Không tìm thấy sản phẩm: " + productId);
+            }
+        }
+        if (cartStore.isEnabled()) {
+            return cartStore.applyBatch(userId, operations, products);
+        }
+
+        long cartId;
         try {
-            Cart cart = cartRepository.findByUserId(userId)
-                    .orElseThrow(() -> new RuntimeException("Không tìm thấy giỏ hàng cho user ID: " + userId));
+            cartId = cartJdbcRepository.lockCart(userId);
+        } catch (DataIntegrityViolationException e) {
+            throw new RuntimeException("Không tìm thấy người dùng");
+        }
+        Cart cart = cartRepository.findWithItemsByUserId(userId).orElse(null);
+        // Trạng thái hiện tại: productId → số lượng, kèm dữ liệu sản phẩm đã nạp cùng giỏ
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        Map<Long, ProductDTO> catalog = new HashMap<>();
+        if (cart != null) {
+            for (CartItem item : cart.getCartItems()) {
+                Product p = item.getProduct();
+                quantities.put(p.getId(), item.getQuantity());
+                catalog.put(p.getId(), new ProductDTO(p.getId(), p.getName(), p.getDescription(), p.getPrice(),
+                        p.getStockQuantity(), p.getImageUrl(), p.getRating(), p.getCategory().getId()));
+            }
+        }
+        catalog.putAll(products);
+        for (CartOperationDTO op : operations) {
+            int quantity = switch (op.getType()) {
+                case ADD -> quantities.getOrDefault(op.getProductId(), 0) + op.getQuantity();
+                case SET -> op.getQuantity();
+                case REMOVE -> 0;
+            };
+            if (quantity <= 0) {
+                quantities.remove(op.getProductId());
+            } else {
+                quantities.put(op.getProductId(), quantity);
+            }
+        }
 
-            CartItem cartItem = cartItemRepository.findByCartAndProduct(cart, productRepository.getReferenceById(productId))
-                    .orElseThrow(() -> new RuntimeException("Không tìm thấy sản phẩm trong giỏ hàng"));
+        List<CartJdbcRepository.CartLine> lines = new ArrayList<>(quantities.size());
+        quantities.forEach((productId, quantity) -> lines.add(
+                new CartJdbcRepository.CartLine(productId, quantity, catalog.get(productId).getPrice() * quantity)));
+        cartJdbcRepository.replaceItems(cartId, lines);
+        Map<Long, Long> itemIds = cartJdbcRepository.findItemIds(cartId);
 
-            cart.removeItem(cartItem);
-            cartItemRepository.delete(cartItem);
+        List<CartItemDTO> items = new ArrayList<>(quantities.size());
+        double total = 0.0;
+        for (Map.Entry<Long, Integer> entry : quantities.entrySet()) {
+            ProductDTO product = catalog.get(entry.getKey());
+            double linePrice = entry.getValue() * product.getPrice();
+            items.add(new CartItemDTO(itemIds.get(entry.getKey()), product, entry.getValue(), linePrice));
+            total += linePrice;
+        }
+        return new CartDTO(cartId, userId, items, total);
+    }
+
+    @Override
+    @Transactional
+    public void removeCartItem(Long userId, Long productId) {
+        logger.debug("Xóa sản phẩm khỏi giỏ hàng - userId: {}, productId: {}", userId, productId);
+        try {
+            if (cartStore.isEnabled()) {
+                cartStore.remove(userId, productId);
+                return;
+            }
+            if (!cartJdbcRepository.removeItem(userId, productId)) {
+                throw new RuntimeException("Không tìm thấy sản phẩm trong giỏ hàng");
+            }
         } catch (Exception e) {
             logger.error("Lỗi khi xóa sản phẩm khỏi giỏ hàng: {}", e.getMessage(), e);
             throw new RuntimeException("Lỗi khi xóa sản phẩm khỏi giỏ hàng: " + e.getMessage());
@@ -138,10 +273,15 @@ public class CartServiceImpl implements CartService {
     public void clearCart(Long userId) {
         logger.debug("Xóa toàn bộ giỏ hàng của userId: {}", userId);
         try {
-            Cart cart = cartRepository.findByUserId(userId)
+            if (cartStore.isEnabled()) {
+                cartStore.clear(userId);
+                return;
+            }
+            Cart cart = cartRepository.findWithItemsByUserId(userId)
                     .orElseThrow(() -> new RuntimeException("Không tìm thấy giỏ hàng cho user ID: " + userId));
 
             cart.clearItems();
+            cart.setUpdatedAt(LocalDateTime.now());
             cartRepository.save(cart);
         } catch (Exception e) {
             logger.error("Lỗi khi xóa toàn bộ giỏ hàng: {}", e.getMessage(), e);
@@ -151,21 +291,22 @@ public class CartServiceImpl implements CartService {
 
     private CartDTO convertToDTO(Cart cart) {
         List<CartItemDTO> cartItemDTOs = cart.getCartItems().stream()
-                .map(item -> new CartItemDTO(
-                        item.getId(),
-                        new ProductDTO(
-                                item.getProduct().getId(),
-                                item.getProduct().getName(),
-                                item.getProduct().getDescription(),
-                                item.getProduct().getPrice(),
-                                item.getProduct().getStockQuantity(),
-                                item.getProduct().getImageUrl(),
-                                item.getProduct().getRating(),
-                                item.getProduct().getCategory().getId()
-                        ),
-                        item.getQuantity(),
-                        item.getQuantity() * item.getProduct().getPrice() // ✅ Tính tổng tiền cho từng sản phẩm
-                ))
+                .map(item -> {
+                    // Sản phẩm đã được nạp cùng giỏ hàng (entity graph) → dùng luôn;
+                    // dòng vừa thêm chỉ giữ proxy nên lấy dữ liệu từ cache (getId() trên proxy không truy vấn)
+                    Product p = item.getProduct();
+                    ProductDTO product = Hibernate.isInitialized(p)
+                            ? new ProductDTO(p.getId(), p.getName(), p.getDescription(), p.getPrice(),
+                                    p.getStockQuantity(), p.getImageUrl(), p.getRating(), p.getCategory().getId())
+                            : productCache.get(p.getId())
+                                    .orElseThrow(() -> new RuntimeException("Không tìm thấy sản phẩm: " + p.getId()));
+                    return new CartItemDTO(
+                            item.getId(),
+                            product,
+                            item.getQuantity(),
+                            item.getQuantity() * product.getPrice() // ✅ Tính tổng tiền cho từng sản phẩm
+                    );
+                })
                 .collect(Collectors.toList());
 
         double totalPrice = cartItemDTOs.stream()
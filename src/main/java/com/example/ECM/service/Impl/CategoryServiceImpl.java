@@ -3,11 +3,17 @@ package com.example.ECM.service.Impl;
 import com.example.ECM.dto.CategoryDTO;
 import com.example.ECM.model.Category;
 import com.example.ECM.repository.CategoryRepository;
+import com.example.ECM.repository.ProductRepository;
+import com.example.ECM.service.CatalogVersionService;
 import com.example.ECM.service.CategoryService;
+import com.example.ECM.service.CategorySnapshotService;
+import com.example.ECM.service.ProductIndexer;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -15,31 +21,49 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class CategoryServiceImpl implements CategoryService {
     private final CategoryRepository categoryRepository;
+    private final ProductRepository productRepository;
+    private final CatalogVersionService catalogVersion;
+    private final CategorySnapshotService categorySnapshot;
+    private final ProductIndexer productIndexer;
 
     @Override
     public List<CategoryDTO> getAllCategories() {
+        // 🔹 Phục vụ từ bộ nhớ; chỉ truy vấn DB khi snapshot chưa nạp xong (lúc khởi động)
+        if (categorySnapshot.isReady()) {
+            return categorySnapshot.getAll();
+        }
+        Map<Long, Object[]> stats = loadStats();
         return categoryRepository.findAll().stream()
-                .map(this::convertToDTO)
+                .map(category -> convertToDTO(category, stats.get(category.getId())))
                 .collect(Collectors.toList());
     }
 
     @Override
     public Optional<CategoryDTO> getCategoryById(Long id) {
-        return categoryRepository.findById(id).map(this::convertToDTO);
+        if (categorySnapshot.isReady()) {
+            return categorySnapshot.get(id);
+        }
+        return categoryRepository.findById(id).map(category -> convertToDTO(category, loadStats().get(id)));
     }
 
     @Override
     public CategoryDTO createCategory(CategoryDTO categoryDTO) {
         Category category = new Category();
         category.setName(categoryDTO.getName());
-        return convertToDTO(categoryRepository.save(category));
+        Category saved = categoryRepository.save(category);
+        categorySnapshot.put(saved.getId(), saved.getName());
+        catalogVersion.bump();
+        return convertToDTO(saved, null);
     }
 
     @Override
     public Optional<CategoryDTO> updateCategory(Long id, CategoryDTO updatedCategory) {
         return categoryRepository.findById(id).map(category -> {
             category.setName(updatedCategory.getName());
-            return convertToDTO(categoryRepository.save(category));
+            Category saved = categoryRepository.save(category);
+            categorySnapshot.put(saved.getId(), saved.getName());
+            catalogVersion.bump();
+            return categorySnapshot.isReady() ? categorySnapshot.get(id).orElseThrow() : convertToDTO(saved, null);
         });
     }
 
@@ -48,14 +72,33 @@ public class CategoryServiceImpl implements CategoryService {
         if (!categoryRepository.existsById(id)) {
             return false;
         }
+        // Xóa danh mục sẽ xóa luôn các sản phẩm của nó (cascade) → gỡ chúng khỏi các index trong bộ nhớ
+        List<Long> productIds = productRepository.findIdsByCategoryId(id);
         categoryRepository.deleteById(id);
+        productIds.forEach(productIndexer::remove);
+        categorySnapshot.remove(id);
+        catalogVersion.bump();
         return true;
     }
 
-    private CategoryDTO convertToDTO(Category category) {
+    // Thống kê sản phẩm theo danh mục bằng một truy vấn GROUP BY: categoryId → {id, count, min, max}
+    private Map<Long, Object[]> loadStats() {
+        Map<Long, Object[]> stats = new HashMap<>();
+        for (Object[] row : productRepository.findCategoryStats()) {
+            if (row[0] != null) {
+                stats.put(((Number) row[0]).longValue(), row);
+            }
+        }
+        return stats;
+    }
+
+    private CategoryDTO convertToDTO(Category category, Object[] stats) {
         return CategoryDTO.builder()
                 .id(category.getId())
                 .name(category.getName())
+                .productCount(stats != null ? ((Number) stats[1]).longValue() : 0)
+                .minPrice(stats != null && stats[2] != null ? ((Number) stats[2]).doubleValue() : null)
+                .maxPrice(stats != null && stats[3] != null ? ((Number) stats[3]).doubleValue() : null)
                 .build();
     }
 }
@@ -1,19 +1,40 @@
 package com.example.ECM.service.Impl;
 
+import com.example.ECM.dto.OrderHistoryDTO;
+import com.example.ECM.dto.OrderHistoryItemDTO;
+import com.example.ECM.dto.OrderItemDTO;
+import com.example.ECM.dto.OrderResponseDTO;
+import com.example.ECM.dto.OrderStatusBulkResult;
 import com.example.ECM.model.*;
 import com.example.ECM.repository.CartRepository;
 import com.example.ECM.repository.CartItemRepository;
 import com.example.ECM.repository.OrderItemRepository;
+import com.example.ECM.repository.OrderJdbcRepository;
 import com.example.ECM.repository.OrderRepository;
+import com.example.ECM.service.CartWriteBehindStore;
+import com.example.ECM.service.InventoryService;
 import com.example.ECM.service.OrderService;
+import com.example.ECM.service.SalesRollupService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 @Service
 @Transactional
@@ -21,25 +42,44 @@ public class OrderServiceImpl implements OrderService {
 
     private static final Logger logger = Logger.getLogger(OrderServiceImpl.class.getName());
 
+    // Hủy đơn ở các trạng thái này thì trả hàng về kho; đơn đã giao cho vận chuyển thì không hủy được
+    private static final List<String> CANCELABLE_STATUSES = OrderStatus.sourcesOf(OrderStatus.CANCELED);
+
+    // Số id mỗi câu UPDATE khi đổi trạng thái hàng loạt, và số id tối đa mỗi request
+    private static final int BULK_STATUS_BATCH_SIZE = 500;
+    private static final int MAX_BULK_STATUS_IDS = 10000;
+
     private final OrderRepository orderRepository;
     private final CartRepository cartRepository;
     private final CartItemRepository cartItemRepository;
     private final OrderItemRepository orderItemRepository;
+    private final CartWriteBehindStore cartStore;
+    private final OrderJdbcRepository orderJdbcRepository;
+    private final InventoryService inventoryService;
+    private final SalesRollupService salesRollupService;
 
     @Autowired
     public OrderServiceImpl(OrderRepository orderRepository, CartRepository cartRepository,
-                            CartItemRepository cartItemRepository, OrderItemRepository orderItemRepository) {
+                            CartItemRepository cartItemRepository, OrderItemRepository orderItemRepository,
+                            CartWriteBehindStore cartStore, OrderJdbcRepository orderJdbcRepository,
+                            InventoryService inventoryService, SalesRollupService salesRollupService) {
         this.orderRepository = orderRepository;
         this.cartRepository = cartRepository;
         this.cartItemRepository = cartItemRepository;
         this.orderItemRepository = orderItemRepository;
+        this.cartStore = cartStore;
+        this.orderJdbcRepository = orderJdbcRepository;
+        this.inventoryService = inventoryService;
+        this.salesRollupService = salesRollupService;
     }
 
     @Override
     public Order createOrder(Long userId) {
         logger.info("Bắt đầu tạo đơn hàng cho userId: " + userId);
+        // Ghi giỏ đang giữ trong bộ nhớ (nếu có) xuống DB và khóa giỏ tới khi transaction này kết thúc
+        cartStore.beginCheckout(userId);
 
-        Cart cart = cartRepository.findByUserId(userId)
+        Cart cart = cartRepository.findWithItemsByUserId(userId)
                 .orElseThrow(() -> new RuntimeException("Không tìm thấy giỏ hàng"));
 
         if (cart.getCartItems().isEmpty()) {
@@ -49,8 +89,11 @@ public class OrderServiceImpl implements OrderService {
         Order newOrder = new Order();
         newOrder.setUser(cart.getUser());
         newOrder.setStatus(OrderStatus.PENDING.name());
+        newOrder.setStockReserved(true);
 
         List<OrderItem> orderItems = new ArrayList<>();
+        Map<Long, Integer> quantities = new TreeMap<>();
+        List<SalesRollupService.Line> salesLines = new ArrayList<>();
         BigDecimal totalPrice = BigDecimal.ZERO;
 
         for (CartItem cartItem : cart.getCartItems()) {
@@ -60,7 +103,12 @@ public class OrderServiceImpl implements OrderService {
             orderItem.setQuantity(cartItem.getQuantity());
             orderItem.setPrice(BigDecimal.valueOf(cartItem.getProduct().getPrice())
                     .multiply(BigDecimal.valueOf(cartItem.getQuantity())));
+            Category category = cartItem.getProduct().getCategory();
+            orderItem.setCategoryId(category != null ? category.getId() : 0L);
             orderItems.add(orderItem);
+            quantities.merge(cartItem.getProduct().getId(), cartItem.getQuantity(), Integer::sum);
+            salesLines.add(new SalesRollupService.Line(cartItem.getProduct().getId(),
+                    orderItem.getCategoryId(), cartItem.getQuantity(), orderItem.getPrice()));
             totalPrice = totalPrice.add(orderItem.getPrice());
         }
 
@@ -72,6 +120,12 @@ public class OrderServiceImpl implements OrderService {
         cartItemRepository.deleteAll(cart.getCartItems());
         logger.info("Đã xóa sản phẩm trong giỏ hàng sau khi đặt hàng.");
 
+        // Giữ hàng sau cùng: các dòng tồn kho bị khóa từ lúc trừ tới khi commit, nên ghi xong mọi thứ khác trước.
+        // Không đủ hàng → ném lỗi, cả đơn hàng lẫn việc xóa giỏ đều được rollback
+        orderRepository.flush();
+        inventoryService.reserve(quantities);
+        salesRollupService.recordPlaced(savedOrder.getCreatedAt().toLocalDate(), salesLines);
+
         return savedOrder;
     }
 
@@ -91,34 +145,254 @@ public class OrderServiceImpl implements OrderService {
     }
 
     @Override
-    public Order updateOrder(Long id, Order updatedOrder) {
-        return orderRepository.findById(id).map(order -> {
-            if (updatedOrder.getOrderItems() == null || updatedOrder.getOrderItems().isEmpty()) {
-                throw new RuntimeException("Danh sách sản phẩm không hợp lệ");
+    @Transactional(readOnly = true)
+    public List<Order> getOrdersByUserIdBefore(Long userId, Long beforeId, int limit) {
+        return orderRepository.findByUserIdBefore(userId, beforeId, PageRequest.of(0, limit));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Order> getAllOrdersBefore(Long beforeId, int limit) {
+        return orderRepository.findAllBefore(beforeId, PageRequest.of(0, limit));
+    }
+
+    // Một câu lệnh lấy trang đơn hàng, một câu lệnh lấy sản phẩm của cả trang (không lazy load theo từng đơn)
+    @Override
+    @Transactional(readOnly = true)
+    public List<OrderHistoryDTO> getOrderHistory(Long userId, Long beforeId, int limit) {
+        List<Object[]> rows = orderRepository.findHistoryByUserIdBefore(userId, beforeId, PageRequest.of(0, limit));
+        if (rows.isEmpty()) {
+            return List.of();
+        }
+        List<OrderHistoryDTO> orders = new ArrayList<>(rows.size());
+        Map<Long, OrderHistoryDTO> byId = new HashMap<>();
+        for (Object[] row : rows) {
+            OrderHistoryDTO order = new OrderHistoryDTO((Long) row[0], (String) row[1], (BigDecimal) row[2],
+                    (LocalDateTime) row[3], new ArrayList<>());
+            orders.add(order);
+            byId.put(order.getId(), order);
+        }
+        for (Object[] row : orderItemRepository.findHistoryItems(new ArrayList<>(byId.keySet()))) {
+            byId.get((Long) row[0]).getItems().add(new OrderHistoryItemDTO(
+                    (Long) row[1],
+                    (String) row[2],
+                    (String) row[3],
+                    ((Number) row[4]).intValue(),
+                    (BigDecimal) row[5]));
+        }
+        return orders;
+    }
+
+    // Các dòng đã sắp theo đơn hàng nên chỉ cần giữ một đơn trong bộ nhớ tại mỗi thời điểm
+    @Override
+    @Transactional(readOnly = true)
+    public void streamAllOrders(Consumer<? super OrderResponseDTO> sink) {
+        logger.info("Stream danh sách tất cả đơn hàng");
+        try (Stream<Object[]> rows = orderRepository.streamAllWithItems()) {
+            OrderResponseDTO current = null;
+            Iterator<Object[]> it = rows.iterator();
+            while (it.hasNext()) {
+                Object[] row = it.next();
+                Long orderId = (Long) row[0];
+                if (current == null || !current.getId().equals(orderId)) {
+                    if (current != null) {
+                        sink.accept(current);
+                    }
+                    current = new OrderResponseDTO(orderId, (String) row[1], (String) row[2],
+                            (BigDecimal) row[3], (String) row[4], new ArrayList<>());
+                }
+                if (row[5] != null) {
+                    current.getOrderItems().add(new OrderItemDTO(
+                            (Long) row[5],
+                            (Long) row[6],
+                            (String) row[7],
+                            (String) row[8],
+                            row[9] != null ? BigDecimal.valueOf((Double) row[9]) : null,
+                            (String) row[10],
+                            ((Number) row[11]).intValue()));
+                }
             }
-            order.setStatus(updatedOrder.getStatus());
-            order.getOrderItems().clear();
-            for (OrderItem item : updatedOrder.getOrderItems()) {
-                item.setOrder(order);
-                order.getOrderItems().add(item);
+            if (current != null) {
+                sink.accept(current);
             }
-            return orderRepository.save(order);
-        }).orElseThrow(() -> new RuntimeException("Order not found"));
+        }
+    }
+
+    @Override
+    public Order updateOrder(Long id, Order updatedOrder) {
+        // Sản phẩm của đơn đã tạo không đổi được: hàng giữ trong kho và bảng tổng hợp doanh số tính theo order_items lúc đặt
+        if (updatedOrder.getOrderItems() != null && !updatedOrder.getOrderItems().isEmpty()) {
+            throw new IllegalArgumentException("Không thể thay đổi sản phẩm của đơn hàng đã tạo");
+        }
+        return updateOrderStatus(id, updatedOrder.getStatus());
     }
 
     @Override
     public Order updateOrderStatus(Long orderId, String status) {
+        OrderStatus target = OrderStatus.parse(status);
+        if (target == OrderStatus.CANCELED) {
+            return cancelOrder(orderId);
+        }
         Order order = orderRepository.findById(orderId)
                 .orElseThrow(() -> new RuntimeException("Không tìm thấy đơn hàng"));
-        order.setStatus(status);
+        applyStatus(order, target);
         return orderRepository.save(order);
     }
 
+    @Override
+    public OrderStatusBulkResult bulkUpdateStatus(List<Long> orderIds, String status, String fromStatus) {
+        long start = System.currentTimeMillis();
+        if (orderIds == null || orderIds.isEmpty()) {
+            throw new IllegalArgumentException("Danh sách đơn hàng trống");
+        }
+        if (orderIds.size() > MAX_BULK_STATUS_IDS) {
+            throw new IllegalArgumentException("Tối đa " + MAX_BULK_STATUS_IDS + " đơn hàng mỗi lần");
+        }
+        OrderStatus target = OrderStatus.parse(status);
+        List<String> sources;
+        if (fromStatus != null && !fromStatus.isBlank()) {
+            OrderStatus from = OrderStatus.parse(fromStatus);
+            if (!from.canTransitionTo(target)) {
+                throw new IllegalArgumentException("Không thể chuyển đơn hàng từ " + from + " sang " + target);
+            }
+            sources = List.of(from.name());
+        } else {
+            sources = OrderStatus.sourcesOf(target);
+            if (sources.isEmpty()) {
+                throw new IllegalArgumentException("Không thể chuyển đơn hàng sang " + target);
+            }
+        }
+
+        List<Long> ids = new ArrayList<>(new LinkedHashSet<>(orderIds));
+        ids.removeIf(Objects::isNull);
+        List<Long> updated = new ArrayList<>(ids.size());
+        List<Long> reserved = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += BULK_STATUS_BATCH_SIZE) {
+            List<Long> batch = ids.subList(from, Math.min(from + BULK_STATUS_BATCH_SIZE, ids.size()));
+            if (target == OrderStatus.CANCELED) {
+                for (OrderJdbcRepository.CanceledOrder canceled : orderJdbcRepository.cancelAll(batch, sources)) {
+                    updated.add(canceled.id());
+                    if (canceled.stockReserved()) {
+                        reserved.add(canceled.id());
+                    }
+                }
+            } else {
+                updated.addAll(orderJdbcRepository.transitionAll(batch, sources, target.name()));
+            }
+        }
+        if (!reserved.isEmpty()) {
+            inventoryService.release(orderJdbcRepository.findItemQuantities(reserved));
+        }
+        if (target == OrderStatus.CANCELED) {
+            salesRollupService.recordCanceled(updated);
+        }
+
+        // 🔹 Đơn không đổi được: đọc trạng thái hiện tại (trong cùng transaction) để báo lý do
+        Set<Long> updatedSet = new HashSet<>(updated);
+        List<Long> notUpdated = new ArrayList<>();
+        for (Long id : ids) {
+            if (!updatedSet.contains(id)) {
+                notUpdated.add(id);
+            }
+        }
+        Map<Long, String> current = new HashMap<>();
+        for (int from = 0; from < notUpdated.size(); from += BULK_STATUS_BATCH_SIZE) {
+            current.putAll(orderJdbcRepository.findStatuses(
+                    notUpdated.subList(from, Math.min(from + BULK_STATUS_BATCH_SIZE, notUpdated.size()))));
+        }
+        List<OrderStatusBulkResult.Rejected> rejected = new ArrayList<>(notUpdated.size());
+        for (Long id : notUpdated) {
+            String currentStatus = current.get(id);
+            String reason;
+            if (currentStatus == null) {
+                reason = "Không tìm thấy đơn hàng";
+            } else if (target.name().equals(currentStatus)) {
+                reason = "Đơn hàng đã ở trạng thái " + target;
+            } else {
+                reason = "Không thể chuyển đơn hàng từ " + currentStatus + " sang " + target;
+            }
+            rejected.add(new OrderStatusBulkResult.Rejected(id, currentStatus, reason));
+        }
+
+        logger.info("Đổi trạng thái hàng loạt sang " + target + ": " + updated.size() + " đơn thành công, "
+                + rejected.size() + " đơn bị từ chối");
+        return new OrderStatusBulkResult(orderIds.size(), target.name(), updated, rejected,
+                System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public Order cancelOrder(Long orderId) {
+        Boolean stockReserved = orderJdbcRepository.cancel(orderId, CANCELABLE_STATUSES);
+        Order order = orderRepository.findById(orderId)
+                .orElseThrow(() -> new RuntimeException("Không tìm thấy đơn hàng"));
+        if (stockReserved == null) {
+            if (OrderStatus.CANCELED.name().equals(order.getStatus())) {
+                return order;
+            }
+            throw new RuntimeException("Không thể hủy đơn hàng ở trạng thái " + order.getStatus());
+        }
+        if (stockReserved) {
+            inventoryService.release(orderJdbcRepository.findItemQuantities(List.of(orderId)));
+        }
+        salesRollupService.recordCanceled(List.of(orderId));
+        logger.info("Đã hủy đơn hàng ID: " + orderId);
+        return order;
+    }
+
+    @Override
+    public int cancelExpiredOrders(LocalDateTime paymentStartedBefore, int limit) {
+        List<OrderJdbcRepository.CanceledOrder> canceled = orderJdbcRepository.cancelExpired(paymentStartedBefore, limit);
+        List<Long> reserved = new ArrayList<>(canceled.size());
+        List<Long> canceledIds = new ArrayList<>(canceled.size());
+        for (OrderJdbcRepository.CanceledOrder order : canceled) {
+            canceledIds.add(order.id());
+            if (order.stockReserved()) {
+                reserved.add(order.id());
+            }
+        }
+        if (!reserved.isEmpty()) {
+            inventoryService.release(orderJdbcRepository.findItemQuantities(reserved));
+        }
+        salesRollupService.recordCanceled(canceledIds);
+        return canceled.size();
+    }
+
+    @Override
+    public boolean startOnlinePayment(Long orderId) {
+        return orderJdbcRepository.startPayment(orderId);
+    }
+
+    @Override
+    public boolean markPaid(Long orderId) {
+        return orderJdbcRepository.transition(orderId, OrderStatus.PENDING.name(), OrderStatus.PAID.name());
+    }
+
+    // Kiểm tra bước chuyển theo OrderStatus; giữ nguyên trạng thái thì không làm gì
+    private void applyStatus(Order order, OrderStatus target) {
+        OrderStatus current = OrderStatus.parse(order.getStatus());
+        if (current == target) {
+            return;
+        }
+        if (!current.canTransitionTo(target)) {
+            throw new IllegalArgumentException("Không thể chuyển đơn hàng từ " + current + " sang " + target);
+        }
+        order.setStatus(target.name());
+    }
+
     @Override
     public void deleteOrder(Long id) {
-        if (!orderRepository.existsById(id)) {
+        // Khóa đơn để không bị hủy song song trong lúc xóa (đơn vừa hủy thì đã được trừ khỏi bảng tổng hợp)
+        OrderJdbcRepository.LockedOrder order = orderJdbcRepository.lock(id);
+        if (order == null) {
             throw new RuntimeException("Order not found");
         }
+        // Đơn chưa giao cho vận chuyển mà còn giữ hàng → trả hàng về kho như khi hủy (đọc số lượng trước khi xóa)
+        if (order.stockReserved() && CANCELABLE_STATUSES.contains(order.status())) {
+            inventoryService.release(orderJdbcRepository.findItemQuantities(List.of(id)));
+        }
+        if (!OrderStatus.CANCELED.name().equals(order.status())) {
+            salesRollupService.recordDeleted(id);
+        }
         orderRepository.deleteById(id);
     }
 
@@ -1,31 +1,79 @@
 package com.example.ECM.service.Impl;
 
+import com.example.ECM.dto.BulkUpdateResult;
+import com.example.ECM.dto.CursorPage;
+import com.example.ECM.dto.ProductBulkUpdateItem;
 import com.example.ECM.dto.ProductDTO;
+import com.example.ECM.dto.ProductSearchResponse;
+import com.example.ECM.dto.ProductSuggestionDTO;
+import com.example.ECM.dto.SearchFacetsDTO;
 import com.example.ECM.model.Category;
 import com.example.ECM.model.Product;
 import com.example.ECM.repository.CategoryRepository;
+import com.example.ECM.repository.ProductJdbcRepository;
 import com.example.ECM.repository.ProductRepository;
+import com.example.ECM.service.CatalogVersionService;
+import com.example.ECM.service.CategorySnapshotService;
+import com.example.ECM.service.InventoryService;
+import com.example.ECM.service.ProductCache;
+import com.example.ECM.service.ProductCatalogIndex;
+import com.example.ECM.service.ProductIndexer;
 import com.example.ECM.service.ProductService;
+import com.example.ECM.service.ProductSuggestIndex;
+import com.example.ECM.service.ProductTextIndex;
+import com.example.ECM.util.KeysetCursor;
+import com.example.ECM.util.VietnameseNormalizer;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 public class ProductServiceImpl implements ProductService {
     private final ProductRepository productRepository;
+    private final ProductJdbcRepository productJdbcRepository;
     private final CategoryRepository categoryRepository;
+    private final ProductCatalogIndex catalogIndex;
+    private final ProductTextIndex textIndex;
+    private final ProductSuggestIndex suggestIndex;
+    private final ProductIndexer productIndexer;
+    private final CatalogVersionService catalogVersion;
+    private final ProductCache productCache;
+    private final InventoryService inventoryService;
+    private final CategorySnapshotService categorySnapshot;
 
     @Override
     public Page<ProductDTO> searchProducts(String name, Long categoryId, Double minPrice, Double maxPrice, Double minRating, int page, int size, String sort) {
-        Sort sorting = switch (sort) {
+        Pageable pageRequest = PageRequest.of(page, size);
+        ProductTextIndex.TextMatch textMatch = catalogIndex.isReady() ? textIndex.match(name) : null;
+        Optional<ProductCatalogIndex.CatalogPage> hits = catalogIndex.search(
+                textMatch, categoryId, minPrice, maxPrice, minRating, sort, (int) pageRequest.getOffset(), size, false);
+        if (hits.isPresent()) {
+            // 🔹 Index trả về id của trang cần lấy, chỉ nạp đúng các sản phẩm đó
+            return new PageImpl<>(loadInOrder(hits.get().ids()), pageRequest, hits.get().total());
+        }
+
+        // Index chưa nạp xong (lúc khởi động) → truy vấn trực tiếp DB
+        Sort sorting = switch (sort != null ? sort : "") {
             case "price_asc" -> Sort.by("price").ascending();
             case "price_desc" -> Sort.by("price").descending();
             case "rating_desc" -> Sort.by("rating").descending();
@@ -33,13 +81,94 @@ public class ProductServiceImpl implements ProductService {
         };
 
         Pageable pageable = PageRequest.of(page, size, sorting);
-        return productRepository.searchProducts(name, categoryId, minPrice, maxPrice, minRating, pageable)
+        return productRepository.searchProducts(VietnameseNormalizer.fold(name), categoryId, minPrice, maxPrice, minRating, pageable)
                 .map(this::convertToDTO);
     }
 
+    @Override
+    public ProductSearchResponse searchProductsWithFacets(String name, Long categoryId, Double minPrice, Double maxPrice, Double minRating, int page, int size, String sort) {
+        Pageable pageRequest = PageRequest.of(page, size);
+        ProductTextIndex.TextMatch textMatch = catalogIndex.isReady() ? textIndex.match(name) : null;
+        Optional<ProductCatalogIndex.CatalogPage> hits = catalogIndex.search(
+                textMatch, categoryId, minPrice, maxPrice, minRating, sort, (int) pageRequest.getOffset(), size, true);
+        if (hits.isEmpty()) {
+            // Index chưa nạp xong → vẫn trả kết quả từ DB nhưng bỏ qua facet
+            return new ProductSearchResponse(searchProducts(name, categoryId, minPrice, maxPrice, minRating, page, size, sort), null);
+        }
+        Page<ProductDTO> products = new PageImpl<>(loadInOrder(hits.get().ids()), pageRequest, hits.get().total());
+        return new ProductSearchResponse(products, toFacetsDTO(hits.get().facets()));
+    }
+
+    @Override
+    public List<ProductSuggestionDTO> suggestProducts(String prefix, int limit) {
+        if (prefix == null || prefix.isBlank() || limit <= 0) {
+            return List.of();
+        }
+        if (catalogIndex.isReady()) {
+            return suggestIndex.suggest(prefix, limit).stream()
+                    .map(s -> new ProductSuggestionDTO(s.productId(), s.name(), s.rating()))
+                    .collect(Collectors.toList());
+        }
+        // Index chưa nạp xong → truy vấn DB theo tiền tố tên
+        String escaped = VietnameseNormalizer.fold(prefix.trim()).replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+        return productRepository.suggestByNamePrefix(escaped, PageRequest.of(0, limit)).stream()
+                .map(p -> new ProductSuggestionDTO(p.getId(), p.getName(), p.getRating()))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public CursorPage<ProductDTO> searchProductsAfter(String name, Long categoryId, Double minPrice, Double maxPrice, Double minRating, String cursor, int size, String sort) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Kích thước trang phải lớn hơn 0");
+        }
+        String sortKey = sort != null ? sort : "";
+        KeysetCursor after = KeysetCursor.decode(cursor, sortKey);
+        Long afterId = after != null ? after.id() : null;
+        Double afterKey = after != null ? after.numericKey() : null;
+        boolean keyedSort = sortKey.equals("price_asc") || sortKey.equals("price_desc") || sortKey.equals("rating_desc");
+        if (after != null && keyedSort && afterKey == null) {
+            throw new IllegalArgumentException("Cursor không hợp lệ");
+        }
+
+        ProductTextIndex.TextMatch textMatch = catalogIndex.isReady() ? textIndex.match(name) : null;
+        Optional<ProductCatalogIndex.CatalogSlice> slice = catalogIndex.searchAfter(
+                textMatch, categoryId, minPrice, maxPrice, minRating, sortKey, afterKey, afterId, size);
+        if (slice.isPresent()) {
+            long[] ids = slice.get().ids();
+            List<ProductDTO> items = loadInOrder(ids);
+            String nextCursor = slice.get().hasNext() && ids.length > 0
+                    ? KeysetCursor.encode(sortKey, slice.get().lastKey(), ids[ids.length - 1])
+                    : null;
+            return new CursorPage<>(items, nextCursor, nextCursor != null);
+        }
+
+        // Index chưa nạp xong → seek trực tiếp trên DB (relevance được thay bằng thứ tự id)
+        Pageable limit = PageRequest.of(0, size + 1);
+        String key = VietnameseNormalizer.fold(name);
+        List<Product> rows = switch (sortKey) {
+            case "price_asc" -> productRepository.searchAfterByPriceAsc(key, categoryId, minPrice, maxPrice, minRating, afterKey, afterId, limit);
+            case "price_desc" -> productRepository.searchAfterByPriceDesc(key, categoryId, minPrice, maxPrice, minRating, afterKey, afterId, limit);
+            case "rating_desc" -> productRepository.searchAfterByRatingDesc(key, categoryId, minPrice, maxPrice, minRating, afterKey, afterId, limit);
+            default -> productRepository.searchAfterById(key, categoryId, minPrice, maxPrice, minRating, afterId, limit);
+        };
+        boolean hasNext = rows.size() > size;
+        List<ProductDTO> items = rows.stream().limit(size).map(this::convertToDTO).collect(Collectors.toList());
+        String nextCursor = null;
+        if (hasNext) {
+            ProductDTO last = items.get(items.size() - 1);
+            Object lastKey = switch (sortKey) {
+                case "price_asc", "price_desc" -> last.getPrice();
+                case "rating_desc" -> last.getRating();
+                default -> null;
+            };
+            nextCursor = KeysetCursor.encode(sortKey, lastKey, last.getId());
+        }
+        return new CursorPage<>(items, nextCursor, hasNext);
+    }
+
     @Override
     public Optional<ProductDTO> getProductById(Long id) {
-        return productRepository.findById(id).map(this::convertToDTO);
+        return productCache.get(id);
     }
 
     @Override
@@ -56,7 +185,10 @@ public class ProductServiceImpl implements ProductService {
         product.setRating(productDTO.getRating());
         product.setCategory(category);
 
-        return convertToDTO(productRepository.save(product));
+        Product savedProduct = productRepository.save(product);
+        productIndexer.index(savedProduct);
+        catalogVersion.bump();
+        return convertToDTO(savedProduct);
     }
 
     @Override
@@ -75,7 +207,11 @@ public class ProductServiceImpl implements ProductService {
                 existingProduct.setCategory(category);
             }
 
-            return convertToDTO(productRepository.save(existingProduct));
+            Product savedProduct = productRepository.save(existingProduct);
+            inventoryService.overrideStock(id, savedProduct.getStockQuantity());
+            productIndexer.index(savedProduct);
+            catalogVersion.bump();
+            return convertToDTO(savedProduct);
         });
     }
 
@@ -84,13 +220,78 @@ public class ProductServiceImpl implements ProductService {
         return productRepository.findById(id).map(existingProduct -> {
             existingProduct.setStockQuantity(quantity);
             productRepository.save(existingProduct);
+            inventoryService.overrideStock(id, quantity);
+            productIndexer.index(existingProduct);
+            catalogVersion.bump();
             return convertToDTO(existingProduct);
         });
     }
 
+    @Override
+    public BulkUpdateResult bulkUpdatePriceAndStock(List<ProductBulkUpdateItem> items) {
+        long start = System.currentTimeMillis();
+        // Nếu một id xuất hiện nhiều lần thì lấy dòng sau cùng
+        Map<Long, ProductBulkUpdateItem> byId = new LinkedHashMap<>();
+        for (ProductBulkUpdateItem item : items) {
+            if (item.getId() == null) {
+                throw new IllegalArgumentException("Thiếu id sản phẩm");
+            }
+            if (item.getPrice() == null && item.getStockQuantity() == null) {
+                throw new IllegalArgumentException("Sản phẩm " + item.getId() + " không có giá hoặc tồn kho mới");
+            }
+            if (item.getPrice() != null && (item.getPrice() < 0 || item.getPrice().isNaN() || item.getPrice().isInfinite())) {
+                throw new IllegalArgumentException("Giá không hợp lệ cho sản phẩm " + item.getId());
+            }
+            if (item.getStockQuantity() != null && item.getStockQuantity() < 0) {
+                throw new IllegalArgumentException("Tồn kho không hợp lệ cho sản phẩm " + item.getId());
+            }
+            byId.put(item.getId(), item);
+        }
+
+        int n = byId.size();
+        Long[] ids = new Long[n];
+        Double[] prices = new Double[n];
+        Integer[] stocks = new Integer[n];
+        int i = 0;
+        for (ProductBulkUpdateItem item : byId.values()) {
+            ids[i] = item.getId();
+            prices[i] = item.getPrice();
+            stocks[i] = item.getStockQuantity();
+            i++;
+        }
+
+        // Transaction đã commit khi hàm này trả về → an toàn để cập nhật index
+        List<ProductJdbcRepository.UpdatedColumns> updated = productJdbcRepository.updatePriceAndStock(ids, prices, stocks);
+        for (ProductJdbcRepository.UpdatedColumns row : updated) {
+            if (byId.get(row.id()).getStockQuantity() != null && inventoryService.isSharded(row.id())) {
+                inventoryService.overrideStock(row.id(), row.stockQuantity());
+            }
+        }
+        List<Product> changed = updated.stream()
+                .map(row -> Product.builder()
+                        .id(row.id())
+                        .price(row.price())
+                        .stockQuantity(row.stockQuantity())
+                        .rating(row.rating())
+                        .category(Category.builder().id(row.categoryId()).build())
+                        .build())
+                .collect(Collectors.toList());
+        productIndexer.indexColumns(changed);
+        if (!changed.isEmpty()) {
+            catalogVersion.bump();
+        }
+
+        List<Long> appliedIds = updated.stream().map(ProductJdbcRepository.UpdatedColumns::id).collect(Collectors.toList());
+        Set<Long> applied = new HashSet<>(appliedIds);
+        List<Long> missingIds = byId.keySet().stream().filter(id -> !applied.contains(id)).collect(Collectors.toList());
+        return new BulkUpdateResult(n, appliedIds, missingIds, System.currentTimeMillis() - start);
+    }
+
     @Override
     public void deleteProduct(Long id) {
         productRepository.deleteById(id);
+        productIndexer.remove(id);
+        catalogVersion.bump();
     }
 
     @Override
@@ -100,6 +301,55 @@ public class ProductServiceImpl implements ProductService {
                 .collect(Collectors.toList());
     }
 
+    // Đọc qua cursor với fetch size cố định: bộ nhớ không phụ thuộc số lượng sản phẩm
+    @Override
+    @Transactional(readOnly = true)
+    public void streamAllProducts(Consumer<? super ProductDTO> sink) {
+        try (Stream<ProductDTO> products = productRepository.streamAllAsDTO()) {
+            products.forEach(sink);
+        }
+    }
+
+    // Nạp các sản phẩm theo id và giữ nguyên thứ tự mà index đã sắp xếp
+    private List<ProductDTO> loadInOrder(long[] ids) {
+        if (ids.length == 0) {
+            return List.of();
+        }
+        List<Long> idList = Arrays.stream(ids).boxed().collect(Collectors.toList());
+        Map<Long, Product> productsById = productRepository.findByIdIn(idList).stream()
+                .collect(Collectors.toMap(Product::getId, Function.identity()));
+        return idList.stream()
+                .map(productsById::get)
+                .filter(Objects::nonNull)
+                .map(this::convertToDTO)
+                .collect(Collectors.toList());
+    }
+
+    private SearchFacetsDTO toFacetsDTO(ProductCatalogIndex.CatalogFacets facets) {
+        // Tên danh mục lấy từ snapshot trong bộ nhớ; chỉ truy vấn DB khi snapshot chưa nạp xong
+        Map<Long, String> categoryNames = categorySnapshot.names()
+                .orElseGet(() -> categoryRepository.findAllById(facets.categoryCounts().keySet()).stream()
+                        .collect(Collectors.toMap(Category::getId, Category::getName)));
+        List<SearchFacetsDTO.CategoryFacet> categories = new ArrayList<>();
+        facets.categoryCounts().forEach((id, count) ->
+                categories.add(new SearchFacetsDTO.CategoryFacet(id, categoryNames.get(id), count)));
+
+        double[] edges = ProductCatalogIndex.PRICE_BUCKET_EDGES;
+        List<SearchFacetsDTO.PriceFacet> priceRanges = new ArrayList<>();
+        for (int b = 0; b < facets.priceCounts().length; b++) {
+            priceRanges.add(new SearchFacetsDTO.PriceFacet(
+                    b > 0 ? edges[b - 1] : null,
+                    b < edges.length ? edges[b] : null,
+                    facets.priceCounts()[b]));
+        }
+
+        List<SearchFacetsDTO.RatingFacet> ratings = new ArrayList<>();
+        for (int i = 0; i < facets.ratingCounts().length; i++) {
+            ratings.add(new SearchFacetsDTO.RatingFacet(ProductCatalogIndex.RATING_BAND_FLOORS[i], facets.ratingCounts()[i]));
+        }
+        return new SearchFacetsDTO(categories, priceRanges, ratings);
+    }
+
     private ProductDTO convertToDTO(Product product) {
         return ProductDTO.builder()
                 .id(product.getId())
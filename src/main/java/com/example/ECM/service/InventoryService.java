@@ -0,0 +1,256 @@
+package com.example.ECM.service;
+
+import com.example.ECM.model.Category;
+import com.example.ECM.model.Product;
+import com.example.ECM.repository.InventoryJdbcRepository;
+import com.example.ECM.repository.ProductJdbcRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * Giữ hàng trong kho khi checkout và trả hàng khi hủy đơn.
+ * Mỗi dòng được trừ bằng một câu UPDATE có điều kiện (không SELECT ... FOR UPDATE), theo thứ tự productId tăng dần
+ * nên các checkout có nhiều sản phẩm không deadlock lẫn nhau. Sản phẩm bán chạy có thể chia tồn kho thành nhiều shard
+ * ({@link #enableSharding}): mỗi checkout trừ trên một shard rảnh, nên các checkout đồng thời trên cùng sản phẩm
+ * không phải xếp hàng chờ khóa của một dòng products.
+ * Các hàm reserve / release chạy trong transaction của nơi gọi: nếu ném lỗi thì mọi dòng đã trừ được rollback.
+ */
+@Service
+public class InventoryService {
+    private static final Logger logger = LoggerFactory.getLogger(InventoryService.class);
+
+    public static final int MAX_SHARDS = 256;
+
+    private final InventoryJdbcRepository inventoryJdbcRepository;
+    private final ProductIndexer productIndexer;
+    private final ProductCache productCache;
+    private final CatalogVersionService catalogVersion;
+    private final int defaultShards;
+
+    // productId → số shard; được nạp lại định kỳ từ DB nên node khác bật / tắt shard cũng sẽ thấy
+    private final Map<Long, Integer> shardCounts = new ConcurrentHashMap<>();
+
+    public InventoryService(InventoryJdbcRepository inventoryJdbcRepository,
+                            ProductIndexer productIndexer,
+                            ProductCache productCache,
+                            CatalogVersionService catalogVersion,
+                            @Value("${inventory.defaultShards:16}") int defaultShards) {
+        this.inventoryJdbcRepository = inventoryJdbcRepository;
+        this.productIndexer = productIndexer;
+        this.productCache = productCache;
+        this.catalogVersion = catalogVersion;
+        this.defaultShards = defaultShards;
+    }
+
+    public static class InsufficientStockException extends RuntimeException {
+        private final Long productId;
+
+        public InsufficientStockException(Long productId, String message) {
+            super(message);
+            this.productId = productId;
+        }
+
+        public Long getProductId() {
+            return productId;
+        }
+    }
+
+    /**
+     * Trừ tồn kho cho mọi dòng (productId → số lượng). Ném {@link InsufficientStockException}
+     * nếu một sản phẩm không đủ hàng hoặc không tồn tại.
+     */
+    public void reserve(Map<Long, Integer> quantities) {
+        Map<Long, Integer> rowLines = new TreeMap<>();
+        Map<Long, Integer> shardLines = new TreeMap<>();
+        for (Map.Entry<Long, Integer> line : quantities.entrySet()) {
+            if (line.getValue() == null || line.getValue() <= 0) {
+                throw new IllegalArgumentException("Số lượng không hợp lệ cho sản phẩm " + line.getKey());
+            }
+            (shardCounts.containsKey(line.getKey()) ? shardLines : rowLines).put(line.getKey(), line.getValue());
+        }
+
+        // 🔹 Sản phẩm thường: một batch UPDATE có điều kiện, khóa các dòng products theo id tăng dần
+        if (!rowLines.isEmpty()) {
+            List<Long> ids = new ArrayList<>(rowLines.keySet());
+            int[] counts = inventoryJdbcRepository.reserve(ids, new ArrayList<>(rowLines.values()));
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) {
+                    Long productId = ids.get(i);
+                    Integer shards = inventoryJdbcRepository.findShardCount(productId);
+                    if (shards == null) {
+                        throw new InsufficientStockException(productId, "Sản phẩm " + productId + " không tồn tại");
+                    }
+                    if (shards == 0) {
+                        throw new InsufficientStockException(productId, "Sản phẩm " + productId + " không đủ hàng");
+                    }
+                    // Node khác vừa chia shard sản phẩm này
+                    shardCounts.put(productId, shards);
+                    shardLines.put(productId, rowLines.get(productId));
+                }
+            }
+        }
+
+        // 🔹 Sản phẩm chia shard: khóa sau các dòng products, theo productId tăng dần
+        for (Map.Entry<Long, Integer> line : shardLines.entrySet()) {
+            reserveFromShards(line.getKey(), line.getValue());
+        }
+
+        refreshCatalogAfterCommit(rowLines.keySet());
+    }
+
+    // Trả hàng về kho (hủy đơn / hết hạn thanh toán); sản phẩm đã bị xóa thì bỏ qua
+    public void release(Map<Long, Integer> quantities) {
+        Map<Long, Integer> sorted = new TreeMap<>(quantities);
+        if (sorted.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(sorted.keySet());
+        int[] counts = inventoryJdbcRepository.release(ids, new ArrayList<>(sorted.values()));
+        List<Long> released = new ArrayList<>(ids.size());
+        for (int i = 0; i < counts.length; i++) {
+            Long productId = ids.get(i);
+            if (counts[i] > 0) {
+                released.add(productId);
+            } else if (!inventoryJdbcRepository.releaseToShard(productId, sorted.get(productId), randomShard(productId))) {
+                logger.warn("Không trả được {} sản phẩm {} về kho (sản phẩm không còn tồn tại)", sorted.get(productId), productId);
+            }
+        }
+        refreshCatalogAfterCommit(released);
+    }
+
+    /**
+     * Chia tồn kho của sản phẩm thành nhiều shard (shards == null → inventory.defaultShards).
+     * Gọi lại với số shard khác để chia lại. Trả về tổng tồn kho.
+     */
+    public int enableSharding(Long productId, Integer shards) {
+        int n = shards != null ? shards : defaultShards;
+        if (n < 1 || n > MAX_SHARDS) {
+            throw new IllegalArgumentException("Số shard phải từ 1 đến " + MAX_SHARDS);
+        }
+        int total = inventoryJdbcRepository.enableSharding(productId, n);
+        shardCounts.put(productId, n);
+        productCache.invalidate(productId);
+        logger.info("Đã chia tồn kho sản phẩm {} ({} đơn vị) thành {} shard", productId, total, n);
+        return total;
+    }
+
+    public int disableSharding(Long productId) {
+        int total = inventoryJdbcRepository.disableSharding(productId);
+        shardCounts.remove(productId);
+        productCache.invalidate(productId);
+        logger.info("Đã gộp tồn kho sản phẩm {} về một dòng ({} đơn vị)", productId, total);
+        return total;
+    }
+
+    public boolean isSharded(Long productId) {
+        return shardCounts.containsKey(productId);
+    }
+
+    // 🔹 Admin vừa ghi đè tồn kho: nếu sản phẩm đang chia shard thì chia lại số mới cho các shard
+    public void overrideStock(Long productId, int quantity) {
+        inventoryJdbcRepository.overwriteShardedStock(productId, quantity);
+    }
+
+    // 🔹 Định kỳ nạp lại danh sách sản phẩm chia shard và cập nhật tồn kho hiển thị của chúng
+    @Scheduled(fixedDelayString = "${inventory.shardSyncIntervalMs:5000}")
+    public void syncShardedStock() {
+        try {
+            Map<Long, Integer> sharded = inventoryJdbcRepository.findShardedProducts();
+            shardCounts.keySet().retainAll(sharded.keySet());
+            shardCounts.putAll(sharded);
+            if (sharded.isEmpty()) {
+                return;
+            }
+            List<Product> changed = toProducts(inventoryJdbcRepository.syncShardedStock());
+            if (!changed.isEmpty()) {
+                productIndexer.indexColumns(changed);
+                catalogVersion.bump();
+            }
+        } catch (RuntimeException e) {
+            logger.error("Lỗi khi đồng bộ tồn kho chia shard: {}", e.getMessage(), e);
+        }
+    }
+
+    private void reserveFromShards(Long productId, int quantity) {
+        if (inventoryJdbcRepository.reserveFromShard(productId, quantity, randomShard(productId))) {
+            return;
+        }
+        switch (inventoryJdbcRepository.reserveAcrossShards(productId, quantity)) {
+            case RESERVED:
+                return;
+            case INSUFFICIENT:
+                throw new InsufficientStockException(productId, "Sản phẩm " + productId + " không đủ hàng");
+            default:
+                // Node khác vừa gộp shard: trừ trên dòng products (chỉ xảy ra trong lúc đổi cấu hình)
+                shardCounts.remove(productId);
+                int[] counts = inventoryJdbcRepository.reserve(List.of(productId), List.of(quantity));
+                if (counts[0] == 0) {
+                    throw new InsufficientStockException(productId, "Sản phẩm " + productId + " không đủ hàng");
+                }
+        }
+    }
+
+    private int randomShard(Long productId) {
+        Integer shards = shardCounts.get(productId);
+        return shards != null && shards > 1 ? ThreadLocalRandom.current().nextInt(shards) : 0;
+    }
+
+    /**
+     * Sau khi commit: ghi tồn kho mới vào cột stock của index (đồng thời xóa cache) rồi mới tăng phiên bản catalog,
+     * để ETag không bao giờ mới hơn dữ liệu. Sản phẩm chia shard được cập nhật theo chu kỳ ở {@link #syncShardedStock}.
+     */
+    private void refreshCatalogAfterCommit(Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(productIds);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    refreshCatalog(ids);
+                }
+            });
+        } else {
+            refreshCatalog(ids);
+        }
+        // Đăng ký sau nên cũng chạy sau phần cập nhật index ở trên
+        catalogVersion.bump();
+    }
+
+    private void refreshCatalog(List<Long> ids) {
+        try {
+            productIndexer.indexColumns(toProducts(inventoryJdbcRepository.findColumns(ids)));
+        } catch (RuntimeException e) {
+            // Index lệch tồn kho tới lần ghi sau của sản phẩm; cache thì vẫn phải xóa
+            logger.error("Lỗi khi cập nhật tồn kho vào index: {}", e.getMessage(), e);
+            productCache.invalidateAll(ids);
+        }
+    }
+
+    private static List<Product> toProducts(List<ProductJdbcRepository.UpdatedColumns> rows) {
+        return rows.stream()
+                .map(row -> Product.builder()
+                        .id(row.id())
+                        .price(row.price())
+                        .stockQuantity(row.stockQuantity())
+                        .rating(row.rating())
+                        .category(Category.builder().id(row.categoryId()).build())
+                        .build())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.ECM.service;
+
+import com.example.ECM.repository.OrderExportJdbcRepository;
+import com.example.ECM.util.CsvWriter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Xuất đơn hàng (mỗi dòng một đơn) hoặc sản phẩm trong đơn (mỗi dòng một sản phẩm) ra CSV.
+ * Dòng đọc từ cursor được ghi thẳng ra CsvWriter nên bộ nhớ không tăng theo số đơn hàng.
+ */
+@Service
+@RequiredArgsConstructor
+public class OrderExportService {
+
+    public enum Type {
+        ORDERS, ITEMS
+    }
+
+    private static final String[] ORDER_HEADER = {
+            "order_id", "created_at", "status", "user_id", "username", "email", "total_price", "item_count"};
+    private static final String[] ITEM_HEADER = {
+            "order_id", "created_at", "status", "user_id", "order_item_id", "product_id", "product_name", "quantity", "price"};
+
+    private final OrderExportJdbcRepository orderExportJdbcRepository;
+
+    // Trả về số dòng dữ liệu đã ghi (không tính dòng tiêu đề)
+    @Transactional(readOnly = true)
+    public long export(Type type, OrderExportJdbcRepository.Filter filter, CsvWriter csv) throws IOException {
+        csv.writeBom();
+        long[] rows = {0};
+        if (type == Type.ORDERS) {
+            csv.writeRecord(ORDER_HEADER);
+            orderExportJdbcRepository.streamOrders(filter, rs -> {
+                writeOrderRow(rs, csv);
+                rows[0]++;
+            });
+        } else {
+            csv.writeRecord(ITEM_HEADER);
+            orderExportJdbcRepository.streamItems(filter, rs -> {
+                writeItemRow(rs, csv);
+                rows[0]++;
+            });
+        }
+        return rows[0];
+    }
+
+    private static void writeOrderRow(ResultSet rs, CsvWriter csv) throws SQLException {
+        try {
+            csv.writeValue(rs.getLong(1));
+            csv.writeValue(toIso(rs.getTimestamp(2)));
+            csv.writeText(rs.getString(3));
+            csv.writeValue(rs.getObject(4));
+            csv.writeText(rs.getString(5));
+            csv.writeText(rs.getString(6));
+            csv.writeValue(rs.getBigDecimal(7));
+            csv.writeValue(rs.getLong(8));
+            csv.endRecord();
+        } catch (IOException e) {
+            // Client ngắt kết nối: dừng đọc cursor
+            throw new UncheckedIOException("Lỗi khi ghi CSV: " + e.getMessage(), e);
+        }
+    }
+
+    private static void writeItemRow(ResultSet rs, CsvWriter csv) throws SQLException {
+        try {
+            csv.writeValue(rs.getLong(1));
+            csv.writeValue(toIso(rs.getTimestamp(2)));
+            csv.writeText(rs.getString(3));
+            csv.writeValue(rs.getObject(4));
+            csv.writeValue(rs.getLong(5));
+            csv.writeValue(rs.getObject(6));
+            csv.writeText(rs.getString(7));
+            csv.writeValue(rs.getInt(8));
+            csv.writeValue(rs.getBigDecimal(9));
+            csv.endRecord();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Lỗi khi ghi CSV: " + e.getMessage(), e);
+        }
+    }
+
+    private static String toIso(Timestamp timestamp) {
+        return timestamp != null ? timestamp.toLocalDateTime().toString() : null;
+    }
+}
@@ -1,16 +1,30 @@
 package com.example.ECM.service;
 
+import com.example.ECM.dto.OrderHistoryDTO;
+import com.example.ECM.dto.OrderResponseDTO;
+import com.example.ECM.dto.OrderStatusBulkResult;
 import com.example.ECM.model.Order;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface OrderService {
     Order createOrder(Long userId);
     Order getOrderById(Long id);
     List<Order> getOrdersByUserId(Long userId);
     List<Order> getAllOrders();
-    Order updateOrder(Long id, Order updatedOrder);
+    List<Order> getOrdersByUserIdBefore(Long userId, Long beforeId, int limit); // Phân trang keyset, mới nhất trước
+    List<Order> getAllOrdersBefore(Long beforeId, int limit);
+    List<OrderHistoryDTO> getOrderHistory(Long userId, Long beforeId, int limit); // Lịch sử đơn hàng, tối đa 2 câu lệnh SQL
+    void streamAllOrders(Consumer<? super OrderResponseDTO> sink); // Đẩy lần lượt từng đơn hàng, không gom vào List
+    Order updateOrder(Long id, Order updatedOrder); // Chỉ đổi trạng thái; gửi kèm orderItems thì bị từ chối
     void deleteOrder(Long id);
     Order saveOrder(Order order); // Thêm phương thức lưu đơn hàng
     Order updateOrderStatus(Long orderId, String status); // Thêm phương thức cập nhật trạng thái đơn hàng
+    OrderStatusBulkResult bulkUpdateStatus(List<Long> orderIds, String status, String fromStatus); // Đổi trạng thái hàng loạt theo OrderStatus, báo đơn nào đổi được / bị từ chối
+    Order cancelOrder(Long orderId); // Hủy đơn và trả hàng về kho (gọi lại nhiều lần vẫn chỉ trả một lần)
+    int cancelExpiredOrders(LocalDateTime paymentStartedBefore, int limit); // Hủy một lô đơn quá hạn thanh toán online, trả về số đơn đã hủy
+    boolean startOnlinePayment(Long orderId); // Đánh dấu đơn PENDING đang chờ thanh toán online; false nếu đơn không còn chờ thanh toán
+    boolean markPaid(Long orderId); // PENDING → PAID; false nếu đơn không còn chờ thanh toán
 }
@@ -0,0 +1,113 @@
+package com.example.ECM.service;
+
+import com.example.ECM.dto.ProductDTO;
+import com.example.ECM.model.Product;
+import com.example.ECM.repository.ProductRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Cache đọc-xuyên (read-through) các bản chụp {@link ProductDTO} theo id.
+ * Caffeine dùng chính sách loại bỏ W-TinyLFU nên sản phẩm được xem nhiều sẽ ở lại cache
+ * dù có nhiều lượt đọc một lần đi qua. Mọi thay đổi sản phẩm đi qua {@link ProductIndexer} sẽ xóa entry tương ứng.
+ */
+@Component
+public class ProductCache {
+    private final ProductRepository productRepository;
+    private final Cache<Long, ProductDTO> cache;
+
+    public ProductCache(ProductRepository productRepository,
+                        @Value("${catalog.productCache.maxSize:10000}") long maxSize) {
+        this.productRepository = productRepository;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Lấy sản phẩm từ cache, nạp từ DB nếu chưa có. Sản phẩm không tồn tại thì không được cache.
+     * Trả về bản sao để phía gọi có sửa DTO cũng không làm hỏng dữ liệu trong cache.
+     */
+    public Optional<ProductDTO> get(Long id) {
+        if (id == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(cache.get(id, this::load)).map(ProductCache::copy);
+    }
+
+    /**
+     * Lấy nhiều sản phẩm một lúc; các id chưa có trong cache được nạp bằng một truy vấn.
+     * Id không tồn tại sẽ không có trong kết quả.
+     */
+    public Map<Long, ProductDTO> getAll(Collection<Long> ids) {
+        Map<Long, ProductDTO> result = new LinkedHashMap<>();
+        cache.getAll(ids, this::loadAll).forEach((id, dto) -> result.put(id, copy(dto)));
+        return result;
+    }
+
+    // Xóa entry; nếu đang có luồng nạp cùng key thì Caffeine chờ luồng đó xong rồi mới xóa
+    public void invalidate(Long id) {
+        cache.invalidate(id);
+    }
+
+    public void invalidateAll(Collection<Long> ids) {
+        cache.invalidateAll(ids);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public Map<String, Object> stats() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", cache.estimatedSize());
+        result.put("hitCount", stats.hitCount());
+        result.put("missCount", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictionCount", stats.evictionCount());
+        result.put("averageLoadPenaltyMs", stats.averageLoadPenalty() / 1_000_000.0);
+        return result;
+    }
+
+    private ProductDTO load(Long id) {
+        return productRepository.findById(id).map(ProductCache::toSnapshot).orElse(null);
+    }
+
+    private Map<Long, ProductDTO> loadAll(Set<? extends Long> ids) {
+        Map<Long, ProductDTO> loaded = new HashMap<>();
+        for (Product product : productRepository.findAllById(new ArrayList<Long>(ids))) {
+            loaded.put(product.getId(), toSnapshot(product));
+        }
+        return loaded;
+    }
+
+    private static ProductDTO toSnapshot(Product product) {
+        return new ProductDTO(
+                product.getId(),
+                product.getName(),
+                product.getDescription(),
+                product.getPrice(),
+                product.getStockQuantity(),
+                product.getImageUrl(),
+                product.getRating(),
+                product.getCategory() != null ? product.getCategory().getId() : null);
+    }
+
+    private static ProductDTO copy(ProductDTO dto) {
+        return new ProductDTO(dto.getId(), dto.getName(), dto.getDescription(), dto.getPrice(),
+                dto.getStockQuantity(), dto.getImageUrl(), dto.getRating(), dto.getCategoryId());
+    }
+}
@@ -0,0 +1,795 @@
+package com.example.ECM.service;
+
+import com.example.ECM.model.Product;
+import com.example.ECM.util.SlotBitSet;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index dạng cột (columnar) của catalog sản phẩm, nằm hoàn toàn trên heap.
+ * Mỗi sản phẩm chiếm một slot; các cột id, giá, rating, danh mục, tồn kho là mảng nguyên thủy.
+ * Bộ lọc dùng bitset, các kiểu sắp xếp price_asc / price_desc / rating_desc dùng hoán vị đã sắp sẵn.
+ * Search chỉ trả về id của trang cần lấy, việc nạp entity do {@code ProductServiceImpl} đảm nhận.
+ * Mỗi giá trị facet (danh mục, khoảng giá, mức rating) cũng có bitset riêng để đếm facet bằng phép giao.
+ * Ngoài ra index giữ số sản phẩm và giá thấp nhất / cao nhất của từng danh mục, cập nhật theo từng thay đổi.
+ */
+@Component
+public class ProductCatalogIndex {
+    // Ranh giới các khoảng giá (VND): [0, 100k), [100k, 500k), ..., [10tr, ∞)
+    public static final double[] PRICE_BUCKET_EDGES = {100_000, 500_000, 1_000_000, 5_000_000, 10_000_000};
+    // Các mức "từ N sao trở lên" trả về trong facet rating
+    public static final int[] RATING_BAND_FLOORS = {4, 3, 2, 1};
+    private static final int RATING_LEVELS = 5;
+    // Lô nhỏ hơn ngưỡng này chèn từng slot vào hoán vị; lớn hơn thì sắp các slot đổi chỗ rồi trộn một lần
+    private static final int INCREMENTAL_RELINK_LIMIT = 8;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Columns columns = new Columns(0);
+    private volatile boolean ready = false;
+    // Các thay đổi xảy ra trong lúc rebuild, sẽ được áp lại lên bản mới trước khi hoán đổi
+    private List<PendingWrite> pendingWrites;
+
+    // facets == null nếu không yêu cầu
+    public record CatalogPage(long[] ids, int total, CatalogFacets facets) {
+    }
+
+    /**
+     * Số kết quả theo từng giá trị facet.
+     * {@code categoryCounts} đếm trên tập kết quả trước khi lọc danh mục (để vẫn thấy các danh mục khác),
+     * {@code priceCounts} theo {@link #PRICE_BUCKET_EDGES}, {@code ratingCounts} theo {@link #RATING_BAND_FLOORS}.
+     */
+    public record CatalogFacets(Map<Long, Integer> categoryCounts, int[] priceCounts, int[] ratingCounts) {
+    }
+
+    public record CategoryStat(int productCount, double minPrice, double maxPrice) {
+    }
+
+    // Kết quả phân trang keyset: id của trang, khóa sắp xếp của phần tử cuối và còn trang sau hay không
+    public record CatalogSlice(long[] ids, double lastKey, boolean hasNext) {
+    }
+
+    private record Row(long id, double price, double rating, long categoryId, int stock) {
+        static Row of(Product product) {
+            return new Row(
+                    product.getId(),
+                    product.getPrice() != null ? product.getPrice() : 0.0,
+                    product.getRating() != null ? product.getRating() : 0.0,
+                    product.getCategory() != null ? product.getCategory().getId() : -1L,
+                    product.getStockQuantity() != null ? product.getStockQuantity() : 0);
+        }
+    }
+
+    // row == null nghĩa là xóa
+    private record PendingWrite(long id, Row row) {
+        void applyTo(Columns target) {
+            if (row == null) {
+                target.remove(id);
+            } else {
+                target.upsert(row);
+            }
+        }
+    }
+
+    // 🔹 Bắt đầu ghi nhận các thay đổi sẽ phải áp lại lên bản index mới
+    public void beginRebuild() {
+        lock.writeLock().lock();
+        try {
+            pendingWrites = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // 🔹 Dựng index mới từ snapshot rồi hoán đổi, không chặn các truy vấn trong lúc dựng
+    public void completeRebuild(List<Product> snapshot) {
+        Columns fresh = new Columns(snapshot.size());
+        List<Row> rows = new ArrayList<>(snapshot.size());
+        for (Product product : snapshot) {
+            rows.add(Row.of(product));
+        }
+        fresh.upsertAll(rows);
+        lock.writeLock().lock();
+        try {
+            if (pendingWrites != null) {
+                for (PendingWrite write : pendingWrites) {
+                    write.applyTo(fresh);
+                }
+            }
+            columns = fresh;
+            ready = true;
+        } finally {
+            pendingWrites = null;
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void abortRebuild() {
+        lock.writeLock().lock();
+        try {
+            pendingWrites = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void upsert(Product product) {
+        apply(new PendingWrite(product.getId(), Row.of(product)));
+    }
+
+    // Cập nhật nhiều sản phẩm dưới một lần khóa ghi (bulk update giá / tồn kho, đồng bộ tồn kho shard)
+    public void upsertAll(List<Product> products) {
+        if (products.isEmpty()) {
+            return;
+        }
+        List<Row> rows = new ArrayList<>(products.size());
+        for (Product product : products) {
+            rows.add(Row.of(product));
+        }
+        lock.writeLock().lock();
+        try {
+            columns.upsertAll(rows);
+            if (pendingWrites != null) {
+                for (Row row : rows) {
+                    pendingWrites.add(new PendingWrite(row.id(), row));
+                }
+            }
+            if (columns.needsCompaction()) {
+                columns = columns.compacted();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Long id) {
+        apply(new PendingWrite(id, null));
+    }
+
+    private void apply(PendingWrite write) {
+        lock.writeLock().lock();
+        try {
+            write.applyTo(columns);
+            if (pendingWrites != null) {
+                pendingWrites.add(write);
+            }
+            if (columns.needsCompaction()) {
+                columns = columns.compacted();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Tìm kiếm trên index. {@code text} là kết quả của {@link ProductTextIndex} (null nếu không lọc theo tên).
+     * Trả về {@link Optional#empty()} khi index chưa nạp xong, lúc đó phía gọi cần truy vấn thẳng xuống DB.
+     */
+    public Optional<CatalogPage> search(ProductTextIndex.TextMatch text, Long categoryId, Double minPrice, Double maxPrice,
+                                        Double minRating, String sort, int offset, int limit, boolean withFacets) {
+        if (!ready) {
+            return Optional.empty();
+        }
+        lock.readLock().lock();
+        try {
+            return Optional.of(columns.search(text, categoryId, minPrice, maxPrice, minRating,
+                    sort != null ? sort : "", offset, limit, withFacets));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Phân trang keyset trên index: {@code afterKey}/{@code afterId} lấy từ cursor của trang trước (null cho trang đầu).
+     */
+    public Optional<CatalogSlice> searchAfter(ProductTextIndex.TextMatch text, Long categoryId, Double minPrice, Double maxPrice,
+                                              Double minRating, String sort, Double afterKey, Long afterId, int limit) {
+        if (!ready) {
+            return Optional.empty();
+        }
+        lock.readLock().lock();
+        try {
+            return Optional.of(columns.searchAfter(text, categoryId, minPrice, maxPrice, minRating,
+                    sort != null ? sort : "", afterKey, afterId, limit));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Thống kê theo danh mục (chỉ các danh mục đang có sản phẩm).
+     * Trả về {@link Optional#empty()} khi index chưa nạp xong.
+     */
+    public Optional<Map<Long, CategoryStat>> categoryStats() {
+        if (!ready) {
+            return Optional.empty();
+        }
+        lock.readLock().lock();
+        try {
+            Map<Long, CategoryStat> result = new HashMap<>();
+            columns.categoryStats.forEach((categoryId, stats) -> {
+                if (categoryId >= 0 && stats.count > 0) {
+                    result.put(categoryId, new CategoryStat(stats.count, stats.prices.firstKey(), stats.prices.lastKey()));
+                }
+            });
+            return Optional.of(result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Số sản phẩm và phân bố giá (giá → số sản phẩm) của một danh mục, để lấy min/max sau khi xóa
+    private static final class CategoryStats {
+        private int count;
+        private final TreeMap<Double, Integer> prices = new TreeMap<>();
+
+        void add(double price) {
+            count++;
+            prices.merge(price, 1, Integer::sum);
+        }
+
+        void remove(double price) {
+            count--;
+            prices.computeIfPresent(price, (k, n) -> n > 1 ? n - 1 : null);
+        }
+    }
+
+    private static final class Columns {
+        private long[] ids;
+        private double[] prices;
+        private double[] ratings;
+        private long[] categoryIds;
+        private int[] stocks;
+        private int size;
+
+        private final SlotBitSet live;
+        private final Map<Long, Integer> slotById;
+        private final Map<Long, SlotBitSet> categoryBits = new HashMap<>();
+        private final Map<Long, CategoryStats> categoryStats = new HashMap<>();
+        private final SlotBitSet[] priceBucketBits = new SlotBitSet[PRICE_BUCKET_EDGES.length + 1];
+        // ratingLevelBits[k]: các slot có rating trong [k, k+1) (rating 5 tính vào mức 4)
+        private final SlotBitSet[] ratingLevelBits = new SlotBitSet[RATING_LEVELS];
+
+        // Hoán vị các slot còn sống: theo (giá tăng, id tăng) và (rating giảm, id tăng)
+        private int[] byPrice;
+        private int[] byRating;
+        private int liveCount;
+        // Slot mới luôn được cấp theo id tăng dần; cờ này bị tắt nếu điều đó không còn đúng
+        private boolean idOrdered = true;
+
+        Columns(int expected) {
+            int capacity = Math.max(16, expected);
+            ids = new long[capacity];
+            prices = new double[capacity];
+            ratings = new double[capacity];
+            categoryIds = new long[capacity];
+            stocks = new int[capacity];
+            byPrice = new int[capacity];
+            byRating = new int[capacity];
+            live = new SlotBitSet(capacity);
+            slotById = new HashMap<>(capacity * 4 / 3 + 1);
+            for (int b = 0; b < priceBucketBits.length; b++) {
+                priceBucketBits[b] = new SlotBitSet(capacity);
+            }
+            for (int k = 0; k < RATING_LEVELS; k++) {
+                ratingLevelBits[k] = new SlotBitSet(capacity);
+            }
+        }
+
+        void upsert(Row row) {
+            upsertAll(List.of(row));
+        }
+
+        /**
+         * Ghi các dòng vào cột. Hoán vị byPrice / byRating chỉ phải sửa cho slot mới hoặc đổi giá / rating
+         * (cập nhật chỉ tồn kho / danh mục không dời chỗ). Nhiều slot đổi chỗ thì bỏ chúng khỏi hoán vị, sắp riêng
+         * rồi trộn lại trong một lượt O(N + k log k), thay vì dời mảng một lần cho mỗi slot.
+         */
+        void upsertAll(List<Row> rows) {
+            boolean batch = rows.size() > INCREMENTAL_RELINK_LIMIT;
+            List<Integer> moved = batch ? new ArrayList<>() : null;
+            SlotBitSet movedBits = batch ? new SlotBitSet(size + rows.size()) : null;
+            for (Row row : rows) {
+                Integer existing = slotById.get(row.id());
+                int slot;
+                boolean reorder;
+                if (existing != null) {
+                    slot = existing;
+                    reorder = Double.compare(prices[slot], row.price()) != 0
+                            || Double.compare(ratings[slot], row.rating()) != 0;
+                    if (reorder && !batch) {
+                        unlinkFromOrders(slot);
+                    }
+                    unlinkFromFacets(slot);
+                } else {
+                    if (size > 0 && ids[size - 1] > row.id()) {
+                        idOrdered = false;
+                    }
+                    slot = size++;
+                    ensureCapacity(size);
+                    slotById.put(row.id(), slot);
+                    live.set(slot);
+                    reorder = true;
+                }
+
+                ids[slot] = row.id();
+                prices[slot] = row.price();
+                ratings[slot] = row.rating();
+                categoryIds[slot] = row.categoryId();
+                stocks[slot] = row.stock();
+
+                linkIntoFacets(slot);
+                if (reorder) {
+                    if (!batch) {
+                        linkIntoOrders(slot);
+                    } else if (!movedBits.get(slot)) {
+                        movedBits.set(slot);
+                        moved.add(slot);
+                    }
+                }
+            }
+            if (batch && !moved.isEmpty()) {
+                relinkOrders(moved, movedBits);
+            }
+        }
+
+        void remove(long id) {
+            Integer existing = slotById.remove(id);
+            if (existing == null) {
+                return;
+            }
+            int slot = existing;
+            unlinkFromOrders(slot);
+            unlinkFromFacets(slot);
+            live.clear(slot);
+        }
+
+        boolean needsCompaction() {
+            return size > 1024 && size - liveCount > liveCount;
+        }
+
+        Columns compacted() {
+            Columns fresh = new Columns(liveCount);
+            List<Row> rows = new ArrayList<>(liveCount);
+            for (int s = live.nextSetBit(0); s >= 0; s = live.nextSetBit(s + 1)) {
+                rows.add(new Row(ids[s], prices[s], ratings[s], categoryIds[s], stocks[s]));
+            }
+            fresh.upsertAll(rows);
+            return fresh;
+        }
+
+        CatalogPage search(ProductTextIndex.TextMatch text, Long categoryId, Double minPrice, Double maxPrice,
+                           Double minRating, String sort, int offset, int limit, boolean withFacets) {
+            // Khi cần facet, bộ lọc danh mục được áp sau cùng để đếm facet danh mục trên tập chưa lọc danh mục
+            Filtered filtered = filter(text, withFacets ? null : categoryId, minPrice, maxPrice, minRating, "relevance".equals(sort));
+            SlotBitSet matches = filtered.matches();
+            CatalogFacets facets = null;
+            if (withFacets) {
+                Map<Long, Integer> categoryCounts = countByCategory(matches);
+                if (categoryId != null) {
+                    SlotBitSet bits = categoryBits.get(categoryId);
+                    matches.and(bits != null ? bits : new SlotBitSet(0));
+                }
+                facets = new CatalogFacets(categoryCounts, countPriceBuckets(matches), countRatingBands(matches));
+            }
+
+            int total = matches.cardinality();
+            int from = Math.max(0, offset);
+            int to = (int) Math.min(total, (long) from + Math.max(0, limit));
+            if (from >= to) {
+                return new CatalogPage(new long[0], total, facets);
+            }
+
+            if (filtered.scores() != null) {
+                int[] ranked = topByScore(matches, filtered.scores(), to, null, 0L);
+                long[] page = new long[ranked.length - from];
+                for (int i = from; i < ranked.length; i++) {
+                    page[i - from] = ids[ranked[i]];
+                }
+                return new CatalogPage(page, total, facets);
+            }
+
+            long[] page = new long[to - from];
+            int seen = 0;
+            int n = 0;
+            switch (sort) {
+                case "price_asc" -> {
+                    for (int i = 0; i < liveCount && n < page.length; i++) {
+                        int s = byPrice[i];
+                        if (matches.get(s) && seen++ >= from) {
+                            page[n++] = ids[s];
+                        }
+                    }
+                }
+                case "price_desc" -> {
+                    for (int i = liveCount - 1; i >= 0 && n < page.length; i--) {
+                        int s = byPrice[i];
+                        if (matches.get(s) && seen++ >= from) {
+                            page[n++] = ids[s];
+                        }
+                    }
+                }
+                case "rating_desc" -> {
+                    for (int i = 0; i < liveCount && n < page.length; i++) {
+                        int s = byRating[i];
+                        if (matches.get(s) && seen++ >= from) {
+                            page[n++] = ids[s];
+                        }
+                    }
+                }
+                default -> {
+                    for (int s = matches.nextSetBit(0); s >= 0 && n < page.length; s = matches.nextSetBit(s + 1)) {
+                        if (seen++ >= from) {
+                            page[n++] = ids[s];
+                        }
+                    }
+                }
+            }
+            return new CatalogPage(n == page.length ? page : Arrays.copyOf(page, n), total, facets);
+        }
+
+        // Phân trang keyset: bắt đầu ngay sau (afterKey, afterId) trong thứ tự sắp xếp, không đếm tổng
+        CatalogSlice searchAfter(ProductTextIndex.TextMatch text, Long categoryId, Double minPrice, Double maxPrice,
+                                 Double minRating, String sort, Double afterKey, Long afterId, int limit) {
+            Filtered filtered = filter(text, categoryId, minPrice, maxPrice, minRating, "relevance".equals(sort));
+            SlotBitSet matches = filtered.matches();
+            boolean first = afterId == null;
+            int[] picked = new int[limit + 1];
+            int n = 0;
+
+            switch (sort) {
+                case "price_asc" -> {
+                    int start = first ? 0 : pricePosition(afterKey, afterId + 1);
+                    for (int i = start; i < liveCount && n <= limit; i++) {
+                        if (matches.get(byPrice[i])) {
+                            picked[n++] = byPrice[i];
+                        }
+                    }
+                }
+                case "price_desc" -> {
+                    int start = first ? liveCount - 1 : pricePosition(afterKey, afterId) - 1;
+                    for (int i = start; i >= 0 && n <= limit; i--) {
+                        if (matches.get(byPrice[i])) {
+                            picked[n++] = byPrice[i];
+                        }
+                    }
+                }
+                case "rating_desc" -> {
+                    int start = first ? 0 : ratingPosition(afterKey, afterId + 1);
+                    for (int i = start; i < liveCount && n <= limit; i++) {
+                        if (matches.get(byRating[i])) {
+                            picked[n++] = byRating[i];
+                        }
+                    }
+                }
+                case "relevance" -> {
+                    if (filtered.scores() != null && (first || afterKey != null)) {
+                        int[] ranked = topByScore(matches, filtered.scores(), limit + 1,
+                                first ? null : afterKey.floatValue(), first ? 0L : afterId);
+                        n = ranked.length;
+                        System.arraycopy(ranked, 0, picked, 0, n);
+                    } else {
+                        n = scanById(matches, afterId, picked, limit);
+                    }
+                }
+                default -> n = scanById(matches, afterId, picked, limit);
+            }
+
+            boolean hasNext = n > limit;
+            int count = Math.min(n, limit);
+            long[] page = new long[count];
+            for (int i = 0; i < count; i++) {
+                page[i] = ids[picked[i]];
+            }
+            double lastKey = 0.0;
+            if (count > 0) {
+                int last = picked[count - 1];
+                lastKey = switch (sort) {
+                    case "price_asc", "price_desc" -> prices[last];
+                    case "rating_desc" -> ratings[last];
+                    case "relevance" -> filtered.scores() != null ? filtered.scores()[last] : 0.0;
+                    default -> 0.0;
+                };
+            }
+            return new CatalogSlice(page, lastKey, hasNext);
+        }
+
+        private record Filtered(SlotBitSet matches, float[] scores) {
+        }
+
+        private Filtered filter(ProductTextIndex.TextMatch text, Long categoryId, Double minPrice, Double maxPrice,
+                                Double minRating, boolean withScores) {
+            SlotBitSet matches;
+            if (categoryId != null) {
+                SlotBitSet bits = categoryBits.get(categoryId);
+                matches = bits != null ? bits.copy() : new SlotBitSet(0);
+            } else {
+                matches = live.copy();
+            }
+
+            float[] slotScores = null;
+            if (text != null) {
+                SlotBitSet textBits = new SlotBitSet(size);
+                if (withScores) {
+                    slotScores = new float[size];
+                }
+                long[] textIds = text.productIds();
+                for (int i = 0; i < textIds.length; i++) {
+                    Integer slot = slotById.get(textIds[i]);
+                    if (slot != null) {
+                        textBits.set(slot);
+                        if (slotScores != null) {
+                            slotScores[slot] = text.scores()[i];
+                        }
+                    }
+                }
+                matches.and(textBits);
+            }
+
+            if (minPrice != null || maxPrice != null || minRating != null) {
+                for (int s = matches.nextSetBit(0); s >= 0; s = matches.nextSetBit(s + 1)) {
+                    if ((minPrice != null && prices[s] < minPrice)
+                            || (maxPrice != null && prices[s] > maxPrice)
+                            || (minRating != null && ratings[s] < minRating)) {
+                        matches.clear(s);
+                    }
+                }
+            }
+            return new Filtered(matches, slotScores);
+        }
+
+        // Thứ tự mặc định theo id; slot được cấp theo id tăng dần nên có thể tìm điểm bắt đầu bằng nhị phân
+        private int scanById(SlotBitSet matches, Long afterId, int[] picked, int limit) {
+            int start = 0;
+            if (afterId != null) {
+                int lo = 0;
+                int hi = size;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (ids[mid] <= afterId) {
+                        lo = mid + 1;
+                    } else {
+                        hi = mid;
+                    }
+                }
+                start = idOrdered ? lo : 0;
+            }
+            int n = 0;
+            for (int s = matches.nextSetBit(start); s >= 0 && n <= limit; s = matches.nextSetBit(s + 1)) {
+                if (afterId == null || ids[s] > afterId) {
+                    picked[n++] = s;
+                }
+            }
+            return n;
+        }
+
+        /**
+         * Lấy tối đa {@code count} slot có điểm cao nhất (điểm giảm dần, id tăng dần) bằng heap giới hạn kích thước.
+         * Nếu có {@code afterScore}, chỉ xét các slot đứng sau (afterScore, afterId) trong thứ tự đó.
+         */
+        private int[] topByScore(SlotBitSet matches, float[] slotScores, int count, Float afterScore, long afterId) {
+            Comparator<Integer> worstFirst = (a, b) -> {
+                int cmp = Float.compare(slotScores[a], slotScores[b]);
+                return cmp != 0 ? cmp : Long.compare(ids[b], ids[a]);
+            };
+            PriorityQueue<Integer> heap = new PriorityQueue<>(count + 1, worstFirst);
+            for (int s = matches.nextSetBit(0); s >= 0; s = matches.nextSetBit(s + 1)) {
+                if (afterScore != null) {
+                    int cmp = Float.compare(slotScores[s], afterScore);
+                    if (cmp > 0 || (cmp == 0 && ids[s] <= afterId)) {
+                        continue;
+                    }
+                }
+                heap.offer(s);
+                if (heap.size() > count) {
+                    heap.poll();
+                }
+            }
+            int[] ranked = new int[heap.size()];
+            for (int i = ranked.length - 1; i >= 0; i--) {
+                ranked[i] = heap.poll();
+            }
+            return ranked;
+        }
+
+        // 🔹 Đếm facet: mỗi giá trị là một phép giao bitset (popcount), không duyệt lại từng sản phẩm
+        private Map<Long, Integer> countByCategory(SlotBitSet matches) {
+            List<Map.Entry<Long, Integer>> counts = new ArrayList<>();
+            for (Map.Entry<Long, SlotBitSet> entry : categoryBits.entrySet()) {
+                if (entry.getKey() < 0) {
+                    continue;
+                }
+                int count = matches.andCardinality(entry.getValue());
+                if (count > 0) {
+                    counts.add(Map.entry(entry.getKey(), count));
+                }
+            }
+            counts.sort(Map.Entry.<Long, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+            Map<Long, Integer> ordered = new LinkedHashMap<>();
+            for (Map.Entry<Long, Integer> entry : counts) {
+                ordered.put(entry.getKey(), entry.getValue());
+            }
+            return ordered;
+        }
+
+        private int[] countPriceBuckets(SlotBitSet matches) {
+            int[] counts = new int[priceBucketBits.length];
+            for (int b = 0; b < counts.length; b++) {
+                counts[b] = matches.andCardinality(priceBucketBits[b]);
+            }
+            return counts;
+        }
+
+        // Số kết quả có rating >= mỗi mức trong RATING_BAND_FLOORS (cộng dồn từ mức cao xuống)
+        private int[] countRatingBands(SlotBitSet matches) {
+            int[] atLeast = new int[RATING_LEVELS + 1];
+            for (int k = RATING_LEVELS - 1; k >= 0; k--) {
+                atLeast[k] = atLeast[k + 1] + matches.andCardinality(ratingLevelBits[k]);
+            }
+            int[] counts = new int[RATING_BAND_FLOORS.length];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = atLeast[RATING_BAND_FLOORS[i]];
+            }
+            return counts;
+        }
+
+        private void linkIntoFacets(int slot) {
+            categoryBitsOf(categoryIds[slot]).set(slot);
+            priceBucketBits[priceBucket(prices[slot])].set(slot);
+            ratingLevelBits[ratingLevel(ratings[slot])].set(slot);
+            categoryStats.computeIfAbsent(categoryIds[slot], k -> new CategoryStats()).add(prices[slot]);
+        }
+
+        private void unlinkFromFacets(int slot) {
+            categoryBitsOf(categoryIds[slot]).clear(slot);
+            priceBucketBits[priceBucket(prices[slot])].clear(slot);
+            ratingLevelBits[ratingLevel(ratings[slot])].clear(slot);
+            CategoryStats stats = categoryStats.get(categoryIds[slot]);
+            if (stats != null) {
+                stats.remove(prices[slot]);
+            }
+        }
+
+        private static int priceBucket(double price) {
+            int b = 0;
+            while (b < PRICE_BUCKET_EDGES.length && price >= PRICE_BUCKET_EDGES[b]) {
+                b++;
+            }
+            return b;
+        }
+
+        private static int ratingLevel(double rating) {
+            return (int) Math.max(0, Math.min(RATING_LEVELS - 1, Math.floor(rating)));
+        }
+
+        private SlotBitSet categoryBitsOf(long categoryId) {
+            return categoryBits.computeIfAbsent(categoryId, k -> new SlotBitSet(ids.length));
+        }
+
+        private void linkIntoOrders(int slot) {
+            int pricePos = pricePosition(prices[slot], ids[slot]);
+            System.arraycopy(byPrice, pricePos, byPrice, pricePos + 1, liveCount - pricePos);
+            byPrice[pricePos] = slot;
+
+            int ratingPos = ratingPosition(ratings[slot], ids[slot]);
+            System.arraycopy(byRating, ratingPos, byRating, ratingPos + 1, liveCount - ratingPos);
+            byRating[ratingPos] = slot;
+
+            liveCount++;
+        }
+
+        private void unlinkFromOrders(int slot) {
+            int pricePos = pricePosition(prices[slot], ids[slot]);
+            System.arraycopy(byPrice, pricePos + 1, byPrice, pricePos, liveCount - pricePos - 1);
+
+            int ratingPos = ratingPosition(ratings[slot], ids[slot]);
+            System.arraycopy(byRating, ratingPos + 1, byRating, ratingPos, liveCount - ratingPos - 1);
+
+            liveCount--;
+        }
+
+        // Slot mới chưa nằm trong hoán vị; slot cũ đổi giá / rating vẫn nằm ở vị trí cũ nên bỏ ra theo movedBits
+        private void relinkOrders(List<Integer> moved, SlotBitSet movedBits) {
+            Integer[] sorted = moved.toArray(new Integer[0]);
+            Arrays.sort(sorted, this::comparePrice);
+            int kept = mergeInto(byPrice, sorted, movedBits, this::comparePrice);
+            Arrays.sort(sorted, this::compareRating);
+            mergeInto(byRating, sorted, movedBits, this::compareRating);
+            liveCount = kept + sorted.length;
+        }
+
+        // Dồn các slot không đổi chỗ về đầu mảng rồi trộn từ cuối với các slot đã sắp, không cấp phát mảng mới
+        private int mergeInto(int[] order, Integer[] sorted, SlotBitSet movedBits, Comparator<Integer> comparator) {
+            int kept = 0;
+            for (int i = 0; i < liveCount; i++) {
+                if (!movedBits.get(order[i])) {
+                    order[kept++] = order[i];
+                }
+            }
+            int i = kept - 1;
+            int j = sorted.length - 1;
+            for (int w = kept + sorted.length - 1; j >= 0; w--) {
+                if (i >= 0 && comparator.compare(order[i], sorted[j]) > 0) {
+                    order[w] = order[i--];
+                } else {
+                    order[w] = sorted[j--];
+                }
+            }
+            return kept;
+        }
+
+        // (giá tăng, id tăng) — cùng thứ tự với pricePosition
+        private int comparePrice(Integer a, Integer b) {
+            int cmp = Double.compare(prices[a], prices[b]);
+            return cmp != 0 ? cmp : Long.compare(ids[a], ids[b]);
+        }
+
+        // (rating giảm, id tăng) — cùng thứ tự với ratingPosition
+        private int compareRating(Integer a, Integer b) {
+            int cmp = Double.compare(ratings[b], ratings[a]);
+            return cmp != 0 ? cmp : Long.compare(ids[a], ids[b]);
+        }
+
+        // Vị trí đầu tiên trong byPrice có (giá, id) >= (price, id)
+        private int pricePosition(double price, long id) {
+            int lo = 0;
+            int hi = liveCount;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int s = byPrice[mid];
+                int cmp = Double.compare(prices[s], price);
+                if (cmp < 0 || (cmp == 0 && ids[s] < id)) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        // Vị trí đầu tiên trong byRating có (rating giảm dần, id tăng dần) không đứng trước (rating, id)
+        private int ratingPosition(double rating, long id) {
+            int lo = 0;
+            int hi = liveCount;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int s = byRating[mid];
+                int cmp = Double.compare(ratings[s], rating);
+                if (cmp > 0 || (cmp == 0 && ids[s] < id)) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        private void ensureCapacity(int required) {
+            if (required <= ids.length) {
+                return;
+            }
+            int capacity = Math.max(required, ids.length + (ids.length >> 1));
+            ids = Arrays.copyOf(ids, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+            ratings = Arrays.copyOf(ratings, capacity);
+            categoryIds = Arrays.copyOf(categoryIds, capacity);
+            stocks = Arrays.copyOf(stocks, capacity);
+            byPrice = Arrays.copyOf(byPrice, capacity);
+            byRating = Arrays.copyOf(byRating, capacity);
+        }
+    }
+}
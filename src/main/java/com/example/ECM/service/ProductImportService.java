@@ -0,0 +1,391 @@
+package com.example.ECM.service;
+
+import com.example.ECM.dto.ImportReport;
+import com.example.ECM.model.Category;
+import com.example.ECM.repository.CategoryRepository;
+import com.example.ECM.repository.ProductJdbcRepository;
+import com.example.ECM.repository.ProductJdbcRepository.ProductRow;
+import com.example.ECM.util.CsvReader;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Nhập sản phẩm hàng loạt từ CSV hoặc NDJSON.
+ * File được đọc tuần tự, mỗi lô {@code catalog.import.batchSize} dòng được ghi bằng một batch JDBC,
+ * nên bộ nhớ chỉ phụ thuộc kích thước lô chứ không phụ thuộc kích thước file.
+ */
+@Service
+@RequiredArgsConstructor
+public class ProductImportService {
+    private static final Logger logger = LoggerFactory.getLogger(ProductImportService.class);
+    private static final int MAX_REPORTED_ERRORS = 100;
+
+    private final ProductJdbcRepository productJdbcRepository;
+    private final CategoryRepository categoryRepository;
+    private final ProductIndexer productIndexer;
+    private final CatalogVersionService catalogVersion;
+    private final InventoryService inventoryService;
+    private final ObjectMapper objectMapper;
+
+    @Value("${catalog.import.batchSize:1000}")
+    private int batchSize;
+
+    public enum Format {
+        CSV, NDJSON;
+
+        // Xác định định dạng theo đuôi file, sau đó theo Content-Type
+        public static Format detect(String filename, String contentType) {
+            String name = filename != null ? filename.toLowerCase(Locale.ROOT) : "";
+            String type = contentType != null ? contentType.toLowerCase(Locale.ROOT) : "";
+            if (name.endsWith(".ndjson") || name.endsWith(".jsonl") || type.contains("ndjson")) {
+                return NDJSON;
+            }
+            if (name.endsWith(".csv") || type.contains("csv")) {
+                return CSV;
+            }
+            throw new IllegalArgumentException("Chỉ hỗ trợ file .csv hoặc .ndjson");
+        }
+    }
+
+    // Một dòng đã đọc từ file, kèm số dòng để báo lỗi; error != null nếu không đọc được nội dung dòng
+    private record SourceRow(long line, Map<String, String> fields, String error) {
+    }
+
+    public ImportReport importProducts(InputStream input, Format format) throws IOException {
+        long start = System.currentTimeMillis();
+        Map<String, Long> categoryIdsByName = new HashMap<>();
+        Set<Long> categoryIds = new HashSet<>();
+        for (Category category : categoryRepository.findAll()) {
+            categoryIds.add(category.getId());
+            if (category.getName() != null) {
+                categoryIdsByName.put(category.getName().trim().toLowerCase(Locale.ROOT), category.getId());
+            }
+        }
+
+        ImportReport report = new ImportReport(0, 0, 0, 0, 0.0, new ArrayList<>(), false);
+        List<ProductRow> inserts = new ArrayList<>(batchSize);
+        List<Long> insertLines = new ArrayList<>(batchSize);
+        List<ProductRow> upserts = new ArrayList<>(batchSize);
+        List<Long> upsertLines = new ArrayList<>(batchSize);
+        boolean explicitIds = false;
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 64 * 1024);
+        Iterator<SourceRow> rows = format == Format.CSV ? csvRows(reader) : ndjsonRows(reader);
+        try {
+            while (rows.hasNext()) {
+                SourceRow source = rows.next();
+                report.setRowsRead(report.getRowsRead() + 1);
+                if (source.error() != null) {
+                    recordError(report, source.line(), source.error());
+                    continue;
+                }
+                ProductRow row;
+                try {
+                    row = toProductRow(source.fields(), categoryIds, categoryIdsByName);
+                } catch (IllegalArgumentException e) {
+                    recordError(report, source.line(), e.getMessage());
+                    continue;
+                }
+                if (row.id() == null) {
+                    inserts.add(row);
+                    insertLines.add(source.line());
+                    if (inserts.size() >= batchSize) {
+                        flush(inserts, insertLines, false, report);
+                    }
+                } else {
+                    explicitIds = true;
+                    upserts.add(row);
+                    upsertLines.add(source.line());
+                    if (upserts.size() >= batchSize) {
+                        flush(upserts, upsertLines, true, report);
+                    }
+                }
+            }
+            flush(inserts, insertLines, false, report);
+            flush(upserts, upsertLines, true, report);
+        } catch (ParseFailure e) {
+            recordError(report, e.line, e.getMessage());
+            // Vẫn ghi nốt các dòng hợp lệ đã đọc trước chỗ file bị hỏng
+            flush(inserts, insertLines, false, report);
+            flush(upserts, upsertLines, true, report);
+        } finally {
+            if (explicitIds) {
+                productJdbcRepository.syncIdSequence();
+            }
+            if (report.getRowsImported() > 0) {
+                productIndexer.rebuild();
+                catalogVersion.bump();
+            }
+        }
+
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        report.setElapsedMs(elapsed);
+        report.setRowsPerSecond(report.getRowsImported() * 1000.0 / elapsed);
+        logger.info("Nhập sản phẩm: đọc {} dòng, ghi {} dòng, lỗi {} dòng trong {} ms",
+                report.getRowsRead(), report.getRowsImported(), report.getRowsFailed(), elapsed);
+        return report;
+    }
+
+    // Ghi một lô; nếu cả lô bị DB từ chối thì ghi lại từng dòng để tìm ra dòng lỗi
+    private void flush(List<ProductRow> batch, List<Long> lines, boolean upsert, ImportReport report) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            write(batch, upsert);
+            report.setRowsImported(report.getRowsImported() + batch.size());
+        } catch (DataAccessException e) {
+            logger.warn("Lô {} dòng bị từ chối, thử lại từng dòng: {}", batch.size(), e.getMostSpecificCause().getMessage());
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    write(List.of(batch.get(i)), upsert);
+                    report.setRowsImported(report.getRowsImported() + 1);
+                } catch (DataAccessException rowError) {
+                    recordError(report, lines.get(i), rowError.getMostSpecificCause().getMessage());
+                }
+            }
+        }
+        batch.clear();
+        lines.clear();
+    }
+
+    private void write(List<ProductRow> batch, boolean upsert) {
+        if (upsert) {
+            productJdbcRepository.upsertBatch(batch);
+            // Sản phẩm chia shard: stock_quantity được tính lại từ các shard, nên chia số mới cho các shard
+            for (ProductRow row : batch) {
+                if (row.stockQuantity() != null && inventoryService.isSharded(row.id())) {
+                    inventoryService.overrideStock(row.id(), row.stockQuantity());
+                }
+            }
+        } else {
+            productJdbcRepository.insertBatch(batch);
+        }
+    }
+
+    private static void recordError(ImportReport report, long line, String message) {
+        report.setRowsFailed(report.getRowsFailed() + 1);
+        if (report.getErrors().size() < MAX_REPORTED_ERRORS) {
+            report.getErrors().add(new ImportReport.RowError(line, message));
+        } else {
+            report.setErrorsTruncated(true);
+        }
+    }
+
+    private ProductRow toProductRow(Map<String, String> fields, Set<Long> categoryIds, Map<String, Long> categoryIdsByName) {
+        String name = text(fields, "name");
+        if (name == null) {
+            throw new IllegalArgumentException("Thiếu tên sản phẩm");
+        }
+        if (name.length() > 255) {
+            throw new IllegalArgumentException("Tên sản phẩm dài quá 255 ký tự");
+        }
+        String imageUrl = text(fields, "imageurl");
+        if (imageUrl != null && imageUrl.length() > 500) {
+            throw new IllegalArgumentException("imageUrl dài quá 500 ký tự");
+        }
+
+        Double price = number(fields, "price");
+        if (price == null || price < 0) {
+            throw new IllegalArgumentException("Giá không hợp lệ");
+        }
+        Double stock = number(fields, "stockquantity");
+        if (stock != null && (stock < 0 || stock != Math.floor(stock) || stock > Integer.MAX_VALUE)) {
+            throw new IllegalArgumentException("Số lượng tồn kho không hợp lệ");
+        }
+        Double rating = number(fields, "rating");
+        if (rating != null && (rating < 0 || rating > 5)) {
+            throw new IllegalArgumentException("Rating phải nằm trong khoảng 0-5");
+        }
+
+        Long categoryId = id(fields, "categoryid");
+        if (categoryId != null) {
+            if (!categoryIds.contains(categoryId)) {
+                throw new IllegalArgumentException("Danh mục không tồn tại: " + categoryId);
+            }
+        } else {
+            String categoryName = text(fields, "category");
+            if (categoryName == null) {
+                throw new IllegalArgumentException("Thiếu categoryId hoặc category");
+            }
+            categoryId = categoryIdsByName.get(categoryName.toLowerCase(Locale.ROOT));
+            if (categoryId == null) {
+                throw new IllegalArgumentException("Danh mục không tồn tại: " + categoryName);
+            }
+        }
+
+        // Cột không có (null) → sản phẩm mới nhận 0, sản phẩm đã có giữ giá trị cũ
+        return new ProductRow(
+                id(fields, "id"),
+                name,
+                text(fields, "description"),
+                price,
+                stock != null ? stock.intValue() : null,
+                imageUrl,
+                rating,
+                categoryId);
+    }
+
+    private static String text(Map<String, String> fields, String key) {
+        String value = fields.get(key);
+        if (value == null) {
+            return null;
+        }
+        value = value.trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static Double number(Map<String, String> fields, String key) {
+        String value = text(fields, key);
+        if (value == null) {
+            return null;
+        }
+        try {
+            double parsed = Double.parseDouble(value);
+            if (Double.isNaN(parsed) || Double.isInfinite(parsed)) {
+                throw new NumberFormatException();
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Giá trị số không hợp lệ ở cột " + key + ": " + value);
+        }
+    }
+
+    // Id phải là số nguyên chính xác (không đi qua double: 1.5 không thành 1, id > 2^53 không bị làm tròn)
+    private static Long id(Map<String, String> fields, String key) {
+        String value = text(fields, key);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Id không hợp lệ ở cột " + key + ": " + value);
+        }
+    }
+
+    // Tên cột không phân biệt hoa thường và dấu gạch dưới: stock_quantity == stockQuantity
+    private static String normalizeKey(String key) {
+        return key.trim().replace("_", "").toLowerCase(Locale.ROOT);
+    }
+
+    private Iterator<SourceRow> csvRows(BufferedReader reader) throws IOException {
+        CsvReader csv = new CsvReader(reader);
+        List<String> header = csv.readRecord();
+        if (header == null) {
+            throw new IllegalArgumentException("File CSV rỗng");
+        }
+        List<String> columns = new ArrayList<>(header.size());
+        for (String column : header) {
+            // Bỏ BOM nếu file được lưu từ Excel
+            columns.add(normalizeKey(column.replace("\uFEFF", "")));
+        }
+        return new SourceIterator() {
+            @Override
+            SourceRow readNext() throws IOException {
+                List<String> record = csv.readRecord();
+                if (record == null) {
+                    return null;
+                }
+                Map<String, String> fields = new HashMap<>();
+                for (int i = 0; i < columns.size() && i < record.size(); i++) {
+                    fields.put(columns.get(i), record.get(i));
+                }
+                return new SourceRow(csv.getRecordLine(), fields, null);
+            }
+        };
+    }
+
+    private Iterator<SourceRow> ndjsonRows(BufferedReader reader) {
+        return new SourceIterator() {
+            private long line = 0;
+
+            @Override
+            SourceRow readNext() throws IOException {
+                String text;
+                do {
+                    text = reader.readLine();
+                    line++;
+                } while (text != null && text.isBlank());
+                if (text == null) {
+                    return null;
+                }
+                JsonNode node;
+                try {
+                    node = objectMapper.readTree(text);
+                } catch (IOException e) {
+                    // JSON hỏng chỉ làm hỏng dòng đó, các dòng sau vẫn được đọc tiếp
+                    return new SourceRow(line, Map.of(), "JSON không hợp lệ");
+                }
+                if (node == null || !node.isObject()) {
+                    return new SourceRow(line, Map.of(), "Mỗi dòng phải là một JSON object");
+                }
+                Map<String, String> fields = new HashMap<>();
+                node.fields().forEachRemaining(entry ->
+                        fields.put(normalizeKey(entry.getKey()), entry.getValue().isNull() ? null : entry.getValue().asText()));
+                return new SourceRow(line, fields, null);
+            }
+        };
+    }
+
+    // Lỗi đọc file (không phải lỗi dữ liệu của một dòng) → dừng đọc
+    private static final class ParseFailure extends RuntimeException {
+        private final long line;
+
+        ParseFailure(long line, String message) {
+            super(message);
+            this.line = line;
+        }
+    }
+
+    private abstract static class SourceIterator implements Iterator<SourceRow> {
+        private SourceRow next;
+        private long lastLine;
+
+        abstract SourceRow readNext() throws IOException;
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                try {
+                    next = readNext();
+                } catch (IOException e) {
+                    throw new ParseFailure(lastLine + 1, "Không đọc được file: " + e.getMessage());
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public SourceRow next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            SourceRow row = next;
+            lastLine = row.line();
+            next = null;
+            return row;
+        }
+    }
+}
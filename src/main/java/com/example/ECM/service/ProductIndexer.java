@@ -0,0 +1,113 @@
+package com.example.ECM.service;
+
+import com.example.ECM.model.Category;
+import com.example.ECM.model.Product;
+import com.example.ECM.repository.ProductJdbcRepository;
+import com.example.ECM.repository.ProductRepository;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Điểm duy nhất để đồng bộ các index sản phẩm trong bộ nhớ với DB.
+ * Nạp lại toàn bộ khi ứng dụng khởi động và nhận từng thay đổi từ {@code ProductServiceImpl}.
+ * Cũng là nơi xóa các entry tương ứng trong {@link ProductCache}.
+ * Thay đổi do node khác ghi đến qua {@link CatalogVersionService.RemoteChange} và được nạp lại toàn bộ.
+ */
+@Component
+@RequiredArgsConstructor
+public class ProductIndexer {
+    private static final Logger logger = LoggerFactory.getLogger(ProductIndexer.class);
+
+    private final ProductRepository productRepository;
+    private final ProductJdbcRepository productJdbcRepository;
+    private final ProductCatalogIndex catalogIndex;
+    private final ProductTextIndex textIndex;
+    private final ProductSuggestIndex suggestIndex;
+    private final ProductCache productCache;
+    private final CatalogVersionService catalogVersion;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        try {
+            int filled = productJdbcRepository.backfillSearchKeys();
+            if (filled > 0) {
+                logger.info("Đã điền search_key cho {} sản phẩm", filled);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Lỗi khi điền search_key: {}", e.getMessage(), e);
+        }
+        rebuild();
+    }
+
+    @EventListener
+    public void onRemoteChange(CatalogVersionService.RemoteChange change) {
+        rebuild();
+    }
+
+    // 🔹 Nạp lại toàn bộ các index từ DB (một lần quét bảng products)
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        catalogIndex.beginRebuild();
+        textIndex.beginRebuild();
+        suggestIndex.beginRebuild();
+        try {
+            // Đọc phiên bản trước khi quét: thay đổi ghi trong lúc quét sẽ được nạp ở lần đồng bộ sau
+            long version = catalogVersion.readShared();
+            List<Object[]> rows = productRepository.findIndexRows();
+            List<Product> snapshot = new ArrayList<>(rows.size());
+            for (Object[] row : rows) {
+                snapshot.add(Product.builder()
+                        .id(((Number) row[0]).longValue())
+                        .price(row[1] != null ? ((Number) row[1]).doubleValue() : 0.0)
+                        .rating(row[2] != null ? ((Number) row[2]).doubleValue() : 0.0)
+                        .category(row[3] != null ? Category.builder().id(((Number) row[3]).longValue()).build() : null)
+                        .stockQuantity(row[4] != null ? ((Number) row[4]).intValue() : 0)
+                        .name((String) row[5])
+                        .description((String) row[6])
+                        .build());
+            }
+            catalogIndex.completeRebuild(snapshot);
+            textIndex.completeRebuild(snapshot);
+            suggestIndex.completeRebuild(snapshot);
+            productCache.invalidateAll();
+            catalogVersion.markSynced(version);
+            logger.info("Đã nạp {} sản phẩm vào các index trong {} ms", snapshot.size(), System.currentTimeMillis() - start);
+        } catch (RuntimeException e) {
+            catalogIndex.abortRebuild();
+            textIndex.abortRebuild();
+            suggestIndex.abortRebuild();
+            logger.error("Lỗi khi nạp index sản phẩm: {}", e.getMessage(), e);
+        }
+    }
+
+    public void index(Product product) {
+        catalogIndex.upsert(product);
+        textIndex.upsert(product);
+        suggestIndex.upsert(product);
+        productCache.invalidate(product.getId());
+    }
+
+    // Chỉ giá / tồn kho / rating / danh mục thay đổi → không cần đụng tới index văn bản
+    public void indexColumns(List<Product> products) {
+        catalogIndex.upsertAll(products);
+        List<Long> ids = new ArrayList<>(products.size());
+        for (Product product : products) {
+            ids.add(product.getId());
+        }
+        productCache.invalidateAll(ids);
+    }
+
+    public void remove(Long id) {
+        catalogIndex.remove(id);
+        textIndex.remove(id);
+        suggestIndex.remove(id);
+        productCache.invalidate(id);
+    }
+}
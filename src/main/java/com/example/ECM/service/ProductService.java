@@ -1,17 +1,28 @@
 package com.example.ECM.service;
 
+import com.example.ECM.dto.BulkUpdateResult;
+import com.example.ECM.dto.CursorPage;
+import com.example.ECM.dto.ProductBulkUpdateItem;
 import com.example.ECM.dto.ProductDTO;
+import com.example.ECM.dto.ProductSearchResponse;
+import com.example.ECM.dto.ProductSuggestionDTO;
 import org.springframework.data.domain.Page;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface ProductService {
     Page<ProductDTO> searchProducts(String name, Long categoryId, Double minPrice, Double maxPrice, Double minRating, int page, int size, String sort);
+    ProductSearchResponse searchProductsWithFacets(String name, Long categoryId, Double minPrice, Double maxPrice, Double minRating, int page, int size, String sort);
+    List<ProductSuggestionDTO> suggestProducts(String prefix, int limit); // Gợi ý khi gõ ô tìm kiếm
+    CursorPage<ProductDTO> searchProductsAfter(String name, Long categoryId, Double minPrice, Double maxPrice, Double minRating, String cursor, int size, String sort);
     Optional<ProductDTO> getProductById(Long id);
     ProductDTO createProduct(ProductDTO productDTO);
     Optional<ProductDTO> updateProduct(Long id, ProductDTO productDTO);
     Optional<ProductDTO> updateStock(Long id, int quantity);
+    BulkUpdateResult bulkUpdatePriceAndStock(List<ProductBulkUpdateItem> items); // Cập nhật giá / tồn kho hàng loạt
     void deleteProduct(Long id);
     List<ProductDTO> getAllProducts();
+    void streamAllProducts(Consumer<? super ProductDTO> sink); // Đẩy lần lượt từng sản phẩm, không gom vào List
 }
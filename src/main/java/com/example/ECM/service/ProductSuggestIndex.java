@@ -0,0 +1,368 @@
+package com.example.ECM.service;
+
+import com.example.ECM.model.Product;
+import com.example.ECM.util.VietnameseNormalizer;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index gợi ý (typeahead) theo tiền tố tên sản phẩm.
+ * Mỗi từ trong tên sinh một khóa "phần tên bắt đầu từ từ đó", nên gõ "thun" vẫn gợi ý được "áo thun nam".
+ * Khóa nằm trong mảng đã sắp xếp (tiền tố → một đoạn liên tiếp, tìm bằng nhị phân) kèm segment tree
+ * lưu vị trí có trọng số lớn nhất, nên lấy top-k của một đoạn chỉ tốn O(k log n).
+ * Các thay đổi sau lần dựng gần nhất nằm ở phần delta nhỏ; khi delta đủ lớn thì dựng lại phần chính.
+ */
+@Component
+public class ProductSuggestIndex {
+    private static final int DELTA_LIMIT = 1024;
+    // Ưu tiên nhẹ cho sản phẩm có tên bắt đầu bằng tiền tố (so với khớp ở từ giữa tên)
+    private static final float NAME_START_BONUS = 0.25f;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, Doc> docs = new HashMap<>();
+    private Base base = Base.build(List.of());
+    // Sản phẩm có khóa trong phần chính đã lỗi thời (bị sửa hoặc xóa)
+    private final Set<Long> stale = new HashSet<>();
+    private final TreeMap<String, List<Entry>> delta = new TreeMap<>();
+    private int deltaSize;
+    private List<Product> pendingWrites;
+
+    public record Suggestion(long productId, String name, double rating) {
+    }
+
+    private record Doc(long productId, String name, double rating) {
+    }
+
+    private record Entry(String key, long productId, float weight) {
+    }
+
+    public void beginRebuild() {
+        lock.writeLock().lock();
+        try {
+            pendingWrites = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void completeRebuild(List<Product> snapshot) {
+        Map<Long, Doc> fresh = new HashMap<>(snapshot.size() * 4 / 3 + 1);
+        for (Product product : snapshot) {
+            if (product.getName() != null) {
+                fresh.put(product.getId(), toDoc(product));
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            if (pendingWrites != null) {
+                for (Product write : pendingWrites) {
+                    if (write.getName() != null) {
+                        fresh.put(write.getId(), toDoc(write));
+                    } else {
+                        fresh.remove(write.getId());
+                    }
+                }
+            }
+            docs.clear();
+            docs.putAll(fresh);
+            rebuildBase();
+        } finally {
+            pendingWrites = null;
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void abortRebuild() {
+        lock.writeLock().lock();
+        try {
+            pendingWrites = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void upsert(Product product) {
+        lock.writeLock().lock();
+        try {
+            if (pendingWrites != null) {
+                pendingWrites.add(product);
+            }
+            removeInternal(product.getId());
+            if (product.getName() == null) {
+                return;
+            }
+            Doc doc = toDoc(product);
+            docs.put(doc.productId(), doc);
+            for (Entry entry : entriesOf(doc)) {
+                delta.computeIfAbsent(entry.key(), k -> new ArrayList<>(1)).add(entry);
+                deltaSize++;
+            }
+            if (deltaSize > DELTA_LIMIT) {
+                rebuildBase();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Long id) {
+        lock.writeLock().lock();
+        try {
+            if (pendingWrites != null) {
+                pendingWrites.add(Product.builder().id(id).build());
+            }
+            removeInternal(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gợi ý tối đa {@code limit} sản phẩm có tên (hoặc một từ trong tên) bắt đầu bằng {@code prefix},
+     * xếp theo trọng số (rating) giảm dần.
+     */
+    public List<Suggestion> suggest(String prefix, int limit) {
+        String key = normalize(prefix);
+        if (key.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        lock.readLock().lock();
+        try {
+            // Ứng viên từ phần chính: lấy dư để bù cho các sản phẩm lỗi thời hoặc trùng
+            List<Entry> candidates = new ArrayList<>();
+            Set<Long> seen = new HashSet<>();
+            base.topK(key, entry -> {
+                if (!stale.contains(entry.productId()) && seen.add(entry.productId())) {
+                    candidates.add(entry);
+                }
+                return candidates.size() < limit;
+            });
+            for (List<Entry> entries : delta.subMap(key, key + Character.MAX_VALUE).values()) {
+                candidates.addAll(entries);
+            }
+
+            candidates.sort(Comparator.comparingDouble((Entry e) -> -e.weight()).thenComparingLong(Entry::productId));
+            Set<Long> picked = new LinkedHashSet<>();
+            for (Entry entry : candidates) {
+                if (picked.size() >= limit) {
+                    break;
+                }
+                picked.add(entry.productId());
+            }
+            List<Suggestion> result = new ArrayList<>(picked.size());
+            for (Long id : picked) {
+                Doc doc = docs.get(id);
+                if (doc != null) {
+                    result.add(new Suggestion(doc.productId(), doc.name(), doc.rating()));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Chuẩn hóa khóa: chữ thường không dấu, mỗi đoạn ký tự không phải chữ/số thành một khoảng trắng (giữ nguyên từ lặp lại)
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String lower = VietnameseNormalizer.fold(text);
+        StringBuilder sb = new StringBuilder(lower.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (pendingSpace && sb.length() > 0) {
+                    sb.append(' ');
+                }
+                pendingSpace = false;
+                sb.append(c);
+            } else {
+                pendingSpace = true;
+            }
+        }
+        return sb.toString();
+    }
+
+    private void removeInternal(Long id) {
+        Doc previous = docs.remove(id);
+        if (previous == null) {
+            return;
+        }
+        stale.add(id);
+        for (Entry entry : entriesOf(previous)) {
+            List<Entry> entries = delta.get(entry.key());
+            if (entries != null && entries.removeIf(e -> e.productId() == id)) {
+                deltaSize--;
+                if (entries.isEmpty()) {
+                    delta.remove(entry.key());
+                }
+            }
+        }
+    }
+
+    private void rebuildBase() {
+        List<Entry> entries = new ArrayList<>(docs.size() * 3);
+        for (Doc doc : docs.values()) {
+            entries.addAll(entriesOf(doc));
+        }
+        base = Base.build(entries);
+        stale.clear();
+        delta.clear();
+        deltaSize = 0;
+    }
+
+    private static Doc toDoc(Product product) {
+        return new Doc(product.getId(), product.getName(), product.getRating() != null ? product.getRating() : 0.0);
+    }
+
+    private static List<Entry> entriesOf(Doc doc) {
+        String[] words = normalize(doc.name()).split(" ");
+        List<Entry> entries = new ArrayList<>(words.length);
+        if (words.length == 0 || words[0].isEmpty()) {
+            return entries;
+        }
+        StringBuilder suffix = new StringBuilder();
+        for (int i = words.length - 1; i >= 0; i--) {
+            if (suffix.length() > 0) {
+                suffix.insert(0, ' ');
+            }
+            suffix.insert(0, words[i]);
+            float weight = (float) doc.rating() + (i == 0 ? NAME_START_BONUS : 0f);
+            entries.add(new Entry(suffix.toString(), doc.productId(), weight));
+        }
+        return entries;
+    }
+
+    @FunctionalInterface
+    private interface EntryVisitor {
+        // Trả về false để dừng duyệt
+        boolean visit(Entry entry);
+    }
+
+    /**
+     * Phần chính bất biến: khóa đã sắp xếp + segment tree (argmax trọng số) trên mảng khóa.
+     */
+    private static final class Base {
+        private final String[] keys;
+        private final long[] productIds;
+        private final float[] weights;
+        private final int[] tree;
+        private final int leaves;
+
+        private Base(String[] keys, long[] productIds, float[] weights) {
+            this.keys = keys;
+            this.productIds = productIds;
+            this.weights = weights;
+            int n = 1;
+            while (n < Math.max(1, keys.length)) {
+                n <<= 1;
+            }
+            this.leaves = n;
+            this.tree = new int[2 * n];
+            Arrays.fill(tree, -1);
+            for (int i = 0; i < keys.length; i++) {
+                tree[n + i] = i;
+            }
+            for (int node = n - 1; node >= 1; node--) {
+                tree[node] = better(tree[2 * node], tree[2 * node + 1]);
+            }
+        }
+
+        static Base build(List<Entry> entries) {
+            Entry[] sorted = entries.toArray(new Entry[0]);
+            Arrays.sort(sorted, Comparator.comparing(Entry::key).thenComparingLong(Entry::productId));
+            String[] keys = new String[sorted.length];
+            long[] ids = new long[sorted.length];
+            float[] weights = new float[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                keys[i] = sorted[i].key();
+                ids[i] = sorted[i].productId();
+                weights[i] = sorted[i].weight();
+            }
+            return new Base(keys, ids, weights);
+        }
+
+        // Duyệt các khóa có tiền tố {@code prefix} theo trọng số giảm dần cho tới khi visitor dừng
+        void topK(String prefix, EntryVisitor visitor) {
+            int from = lowerBound(prefix);
+            int to = lowerBound(prefix + Character.MAX_VALUE);
+            if (from >= to) {
+                return;
+            }
+            // Mỗi phần tử heap là một đoạn [lo, hi) cùng vị trí tốt nhất trong đoạn
+            PriorityQueue<int[]> heap = new PriorityQueue<>((a, b) -> compare(b[2], a[2]));
+            heap.add(new int[]{from, to, argmax(from, to)});
+            while (!heap.isEmpty()) {
+                int[] range = heap.poll();
+                int best = range[2];
+                if (!visitor.visit(new Entry(keys[best], productIds[best], weights[best]))) {
+                    return;
+                }
+                if (range[0] < best) {
+                    heap.add(new int[]{range[0], best, argmax(range[0], best)});
+                }
+                if (best + 1 < range[1]) {
+                    heap.add(new int[]{best + 1, range[1], argmax(best + 1, range[1])});
+                }
+            }
+        }
+
+        private int lowerBound(String key) {
+            int lo = 0;
+            int hi = keys.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys[mid].compareTo(key) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        // Vị trí có trọng số lớn nhất trong [from, to)
+        private int argmax(int from, int to) {
+            int best = -1;
+            for (int l = from + leaves, r = to + leaves; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1) {
+                    best = better(best, tree[l++]);
+                }
+                if ((r & 1) == 1) {
+                    best = better(best, tree[--r]);
+                }
+            }
+            return best;
+        }
+
+        private int better(int a, int b) {
+            if (a < 0) {
+                return b;
+            }
+            if (b < 0) {
+                return a;
+            }
+            return compare(a, b) >= 0 ? a : b;
+        }
+
+        // Trọng số lớn hơn đứng trước; bằng nhau thì id nhỏ hơn đứng trước
+        private int compare(int a, int b) {
+            int cmp = Float.compare(weights[a], weights[b]);
+            return cmp != 0 ? cmp : Long.compare(productIds[b], productIds[a]);
+        }
+    }
+}
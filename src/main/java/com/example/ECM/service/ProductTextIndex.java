@@ -0,0 +1,459 @@
+package com.example.ECM.service;
+
+import com.example.ECM.model.Product;
+import com.example.ECM.util.SlotBitSet;
+import com.example.ECM.util.VietnameseNormalizer;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index toàn văn trong bộ nhớ cho tên và mô tả sản phẩm.
+ * Gồm posting theo token (khớp nguyên từ) và posting theo trigram (khớp một phần từ, thay cho LIKE '%..%').
+ * Mỗi lần ghi chỉ thêm document mới; bản cũ bị đánh dấu xóa và được dọn khi tỉ lệ rác vượt ngưỡng.
+ * Token được bỏ dấu tiếng Việt nên "ao so mi" khớp "Áo sơ mi"; truy vấn có dấu được cộng điểm khi tên khớp đúng dấu.
+ */
+@Component
+public class ProductTextIndex {
+    private static final float NAME_EXACT_WEIGHT = 3.0f;
+    private static final float NAME_PARTIAL_WEIGHT = 1.5f;
+    private static final float DESCRIPTION_EXACT_WEIGHT = 1.0f;
+    private static final float DESCRIPTION_PARTIAL_WEIGHT = 0.5f;
+    // Cộng thêm cho mỗi từ có dấu trong truy vấn xuất hiện nguyên dạng (đúng dấu) trong tên
+    private static final float ACCENT_EXACT_BONUS = 0.5f;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Segment segment = new Segment();
+    private List<Product> pendingWrites;
+
+    /**
+     * Kết quả khớp: id sản phẩm và điểm liên quan tương ứng (cùng chỉ số).
+     */
+    public record TextMatch(long[] productIds, float[] scores) {
+    }
+
+    public void beginRebuild() {
+        lock.writeLock().lock();
+        try {
+            pendingWrites = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void completeRebuild(List<Product> snapshot) {
+        Segment fresh = new Segment();
+        for (Product product : snapshot) {
+            fresh.add(product.getId(), product.getName(), product.getDescription());
+        }
+        lock.writeLock().lock();
+        try {
+            if (pendingWrites != null) {
+                for (Product write : pendingWrites) {
+                    fresh.applyWrite(write);
+                }
+            }
+            segment = fresh;
+        } finally {
+            pendingWrites = null;
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void abortRebuild() {
+        lock.writeLock().lock();
+        try {
+            pendingWrites = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void upsert(Product product) {
+        write(product);
+    }
+
+    public void remove(Long id) {
+        // Product chỉ có id đại diện cho thao tác xóa
+        write(Product.builder().id(id).build());
+    }
+
+    private void write(Product product) {
+        lock.writeLock().lock();
+        try {
+            segment.applyWrite(product);
+            if (pendingWrites != null) {
+                pendingWrites.add(product);
+            }
+            if (segment.needsCompaction()) {
+                segment = segment.compacted();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Tìm các sản phẩm khớp với tất cả các từ trong truy vấn.
+     * Trả về null nếu truy vấn không có từ nào (tức là không lọc theo văn bản).
+     */
+    public TextMatch match(String query) {
+        List<String> terms = new ArrayList<>(tokenize(query));
+        if (terms.isEmpty()) {
+            return null;
+        }
+        List<String> accentedTerms = new ArrayList<>();
+        for (String word : words(query.toLowerCase(Locale.ROOT))) {
+            if (!word.equals(VietnameseNormalizer.fold(word))) {
+                accentedTerms.add(word);
+            }
+        }
+        lock.readLock().lock();
+        try {
+            return segment.match(terms, accentedTerms);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Tách từ trên chuỗi đã bỏ dấu
+    static Set<String> tokenize(String text) {
+        return text == null ? new LinkedHashSet<>() : words(VietnameseNormalizer.fold(text));
+    }
+
+    private static Set<String> words(String lower) {
+        Set<String> tokens = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean letter = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                tokens.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Danh sách document tăng dần, chỉ thêm vào cuối.
+     */
+    private static final class Postings {
+        private int[] docs = new int[4];
+        private int size;
+
+        void add(int doc) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+
+        // docs luôn tăng dần nên tra bằng tìm kiếm nhị phân, không cần dựng bitset theo cả catalog
+        boolean contains(int doc) {
+            return Arrays.binarySearch(docs, 0, size, doc) >= 0;
+        }
+
+        Postings remapped(int[] newDocIds) {
+            Postings result = new Postings();
+            for (int i = 0; i < size; i++) {
+                int mapped = newDocIds[docs[i]];
+                if (mapped >= 0) {
+                    result.add(mapped);
+                }
+            }
+            return result;
+        }
+    }
+
+    private static final class Segment {
+        private final Map<String, Postings> nameTokens = new HashMap<>();
+        private final Map<String, Postings> descriptionTokens = new HashMap<>();
+        private final Map<String, Postings> trigrams = new HashMap<>();
+        // Từ điển có thứ tự, dùng cho các từ quá ngắn để tạo trigram (tra theo tiền tố)
+        private final TreeSet<String> vocabulary = new TreeSet<>();
+
+        private long[] productIds = new long[16];
+        private String[] names = new String[16]; // tên đã bỏ dấu
+        private String[] rawNames = new String[16]; // tên chữ thường giữ nguyên dấu
+        private String[] descriptions = new String[16]; // các từ của mô tả đã bỏ dấu, nối bằng khoảng trắng
+        private int docCount;
+        private final SlotBitSet deleted = new SlotBitSet(16);
+        private int deletedCount;
+        private final Map<Long, Integer> docByProduct = new HashMap<>();
+
+        void applyWrite(Product product) {
+            Integer previous = docByProduct.remove(product.getId());
+            if (previous != null) {
+                deleted.set(previous);
+                deletedCount++;
+            }
+            if (product.getName() != null) {
+                add(product.getId(), product.getName(), product.getDescription());
+            }
+        }
+
+        void add(long productId, String name, String description) {
+            int doc = docCount++;
+            if (doc == productIds.length) {
+                productIds = Arrays.copyOf(productIds, doc * 2);
+                names = Arrays.copyOf(names, doc * 2);
+                rawNames = Arrays.copyOf(rawNames, doc * 2);
+                descriptions = Arrays.copyOf(descriptions, doc * 2);
+            }
+            Set<String> nameTerms = tokenize(name);
+            Set<String> descriptionTerms = tokenize(description);
+            productIds[doc] = productId;
+            names[doc] = name != null ? VietnameseNormalizer.fold(name) : "";
+            rawNames[doc] = name != null ? name.toLowerCase(Locale.ROOT) : "";
+            descriptions[doc] = String.join(" ", descriptionTerms);
+            docByProduct.put(productId, doc);
+
+            Set<String> docTrigrams = new HashSet<>();
+            for (String term : nameTerms) {
+                nameTokens.computeIfAbsent(term, k -> new Postings()).add(doc);
+                vocabulary.add(term);
+                collectTrigrams(term, docTrigrams);
+            }
+            for (String term : descriptionTerms) {
+                descriptionTokens.computeIfAbsent(term, k -> new Postings()).add(doc);
+                vocabulary.add(term);
+                collectTrigrams(term, docTrigrams);
+            }
+            for (String trigram : docTrigrams) {
+                trigrams.computeIfAbsent(trigram, k -> new Postings()).add(doc);
+            }
+        }
+
+        boolean needsCompaction() {
+            return docCount > 1024 && deletedCount * 2 > docCount;
+        }
+
+        Segment compacted() {
+            int[] newDocIds = new int[docCount];
+            Segment fresh = new Segment();
+            for (int doc = 0; doc < docCount; doc++) {
+                if (deleted.get(doc)) {
+                    newDocIds[doc] = -1;
+                    continue;
+                }
+                int mapped = fresh.docCount++;
+                newDocIds[doc] = mapped;
+                if (mapped == fresh.productIds.length) {
+                    fresh.productIds = Arrays.copyOf(fresh.productIds, mapped * 2);
+                    fresh.names = Arrays.copyOf(fresh.names, mapped * 2);
+                    fresh.rawNames = Arrays.copyOf(fresh.rawNames, mapped * 2);
+                    fresh.descriptions = Arrays.copyOf(fresh.descriptions, mapped * 2);
+                }
+                fresh.productIds[mapped] = productIds[doc];
+                fresh.names[mapped] = names[doc];
+                fresh.rawNames[mapped] = rawNames[doc];
+                fresh.descriptions[mapped] = descriptions[doc];
+                fresh.docByProduct.put(productIds[doc], mapped);
+            }
+            nameTokens.forEach((term, postings) -> putIfNotEmpty(fresh.nameTokens, term, postings.remapped(newDocIds)));
+            descriptionTokens.forEach((term, postings) -> putIfNotEmpty(fresh.descriptionTokens, term, postings.remapped(newDocIds)));
+            trigrams.forEach((trigram, postings) -> putIfNotEmpty(fresh.trigrams, trigram, postings.remapped(newDocIds)));
+            fresh.vocabulary.addAll(fresh.nameTokens.keySet());
+            fresh.vocabulary.addAll(fresh.descriptionTokens.keySet());
+            return fresh;
+        }
+
+        /**
+         * Chọn từ chọn lọc nhất làm "driver": ứng viên lấy từ posting ngắn nhất của nó (chỉ tốn bộ nhớ theo số ứng viên),
+         * sau đó mọi ứng viên đều được đối chiếu lại với văn bản đã bỏ dấu để loại các khớp giả của trigram
+         * (ví dụ ba trigram nằm rải rác ở nhiều từ khác nhau của mô tả).
+         * idf được ước lượng từ độ dài posting (cận trên của số document chứa từ), không quét toàn catalog.
+         */
+        TextMatch match(List<String> terms, List<String> accentedTerms) {
+            int liveDocs = docCount - deletedCount;
+            int termCount = terms.size();
+            Postings[] nameExact = new Postings[termCount];
+            Postings[] descriptionExact = new Postings[termCount];
+            float[] idf = new float[termCount];
+            List<Postings> driverLists = null;
+            int driverTerm = -1;
+            int driverSize = Integer.MAX_VALUE;
+
+            for (int t = 0; t < termCount; t++) {
+                String term = terms.get(t);
+                nameExact[t] = nameTokens.get(term);
+                descriptionExact[t] = descriptionTokens.get(term);
+
+                int frequency;
+                List<Postings> lists = null;
+                if (term.length() >= 3) {
+                    lists = trigramPostings(term);
+                    frequency = lists == null ? 0 : lists.get(0).size;
+                } else {
+                    frequency = prefixFrequency(term);
+                }
+                if (frequency == 0) {
+                    return new TextMatch(new long[0], new float[0]);
+                }
+                idf[t] = (float) Math.log(1.0 + (double) liveDocs / (1 + frequency));
+
+                // Ưu tiên từ có trigram (lọc sơ bộ rẻ hơn), sau đó tới posting ngắn nhất
+                boolean better = driverTerm < 0
+                        || (lists != null && driverLists == null)
+                        || ((lists != null) == (driverLists != null) && frequency < driverSize);
+                if (better) {
+                    driverTerm = t;
+                    driverLists = lists;
+                    driverSize = frequency;
+                }
+            }
+
+            int[] candidates = driverLists != null ? trigramCandidates(driverLists) : prefixCandidates(terms.get(driverTerm));
+            long[] ids = new long[candidates.length];
+            float[] scores = new float[candidates.length];
+            int n = 0;
+            candidateLoop:
+            for (int doc : candidates) {
+                for (String term : terms) {
+                    if (!occurs(names[doc], term) && !occurs(descriptions[doc], term)) {
+                        continue candidateLoop;
+                    }
+                }
+                float score = 0f;
+                for (int t = 0; t < termCount; t++) {
+                    String term = terms.get(t);
+                    boolean inName = nameExact[t] != null && nameExact[t].contains(doc);
+                    boolean partialName = !inName && occurs(names[doc], term);
+                    if (inName) {
+                        score += NAME_EXACT_WEIGHT * idf[t];
+                    } else if (partialName) {
+                        score += NAME_PARTIAL_WEIGHT * idf[t];
+                    }
+                    if (descriptionExact[t] != null && descriptionExact[t].contains(doc)) {
+                        score += DESCRIPTION_EXACT_WEIGHT * idf[t];
+                    } else if (!inName && !partialName) {
+                        // Chỉ khớp một phần trong mô tả (đã được đối chiếu ở trên)
+                        score += DESCRIPTION_PARTIAL_WEIGHT * idf[t];
+                    }
+                }
+                for (String accented : accentedTerms) {
+                    if (rawNames[doc].contains(accented)) {
+                        score += ACCENT_EXACT_BONUS;
+                    }
+                }
+                ids[n] = productIds[doc];
+                scores[n] = score;
+                n++;
+            }
+            return new TextMatch(Arrays.copyOf(ids, n), Arrays.copyOf(scores, n));
+        }
+
+        // Posting của mọi trigram trong từ, ngắn nhất đứng đầu; null nếu có trigram không xuất hiện ở đâu
+        private List<Postings> trigramPostings(String term) {
+            Set<String> termTrigrams = new HashSet<>();
+            collectTrigrams(term, termTrigrams);
+            List<Postings> lists = new ArrayList<>(termTrigrams.size());
+            for (String trigram : termTrigrams) {
+                Postings postings = trigrams.get(trigram);
+                if (postings == null) {
+                    return null;
+                }
+                lists.add(postings);
+            }
+            lists.sort((a, b) -> Integer.compare(a.size, b.size));
+            return lists;
+        }
+
+        // Duyệt posting ngắn nhất và tra các posting còn lại bằng tìm kiếm nhị phân
+        private int[] trigramCandidates(List<Postings> lists) {
+            Postings shortest = lists.get(0);
+            int[] candidates = new int[shortest.size];
+            int count = 0;
+            docLoop:
+            for (int i = 0; i < shortest.size; i++) {
+                int doc = shortest.docs[i];
+                if (deleted.get(doc)) {
+                    continue;
+                }
+                for (int j = 1; j < lists.size(); j++) {
+                    if (!lists.get(j).contains(doc)) {
+                        continue docLoop;
+                    }
+                }
+                candidates[count++] = doc;
+            }
+            return Arrays.copyOf(candidates, count);
+        }
+
+        private int prefixFrequency(String prefix) {
+            int frequency = 0;
+            for (String term : vocabulary.subSet(prefix, prefix + Character.MAX_VALUE)) {
+                Postings inName = nameTokens.get(term);
+                Postings inDescription = descriptionTokens.get(term);
+                frequency += (inName != null ? inName.size : 0) + (inDescription != null ? inDescription.size : 0);
+            }
+            return frequency;
+        }
+
+        // Hợp các posting của những từ có tiền tố đã cho, sắp xếp và bỏ trùng
+        private int[] prefixCandidates(String prefix) {
+            int[] docs = new int[prefixFrequency(prefix)];
+            int count = 0;
+            for (String term : vocabulary.subSet(prefix, prefix + Character.MAX_VALUE)) {
+                count = appendLive(nameTokens.get(term), docs, count);
+                count = appendLive(descriptionTokens.get(term), docs, count);
+            }
+            Arrays.sort(docs, 0, count);
+            int unique = 0;
+            for (int i = 0; i < count; i++) {
+                if (unique == 0 || docs[unique - 1] != docs[i]) {
+                    docs[unique++] = docs[i];
+                }
+            }
+            return Arrays.copyOf(docs, unique);
+        }
+
+        private int appendLive(Postings postings, int[] target, int count) {
+            if (postings != null) {
+                for (int i = 0; i < postings.size; i++) {
+                    if (!deleted.get(postings.docs[i])) {
+                        target[count++] = postings.docs[i];
+                    }
+                }
+            }
+            return count;
+        }
+
+        // Từ dài khớp ở bất kỳ vị trí nào trong một từ; từ ngắn (dưới 3 ký tự) chỉ khớp tiền tố của một từ
+        private static boolean occurs(String text, String term) {
+            if (term.length() >= 3) {
+                return text.contains(term);
+            }
+            for (int at = text.indexOf(term); at >= 0; at = text.indexOf(term, at + 1)) {
+                if (at == 0 || !Character.isLetterOrDigit(text.charAt(at - 1))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static void collectTrigrams(String term, Set<String> target) {
+            for (int i = 0; i + 3 <= term.length(); i++) {
+                target.add(term.substring(i, i + 3));
+            }
+        }
+
+        private static void putIfNotEmpty(Map<String, Postings> target, String key, Postings postings) {
+            if (postings.size > 0) {
+                target.put(key, postings);
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.example.ECM.service;
+
+import com.example.ECM.dto.SalesStatDTO;
+import com.example.ECM.repository.SalesRollupJdbcRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Giữ các bảng tổng hợp doanh số (theo ngày / sản phẩm / danh mục) khớp với đơn hàng mà không ghi thêm gì trên
+ * đường đi của checkout: sau khi transaction đặt hàng commit, delta được cộng dồn trong bộ nhớ theo (ngày, sản phẩm),
+ * job định kỳ ghi tất cả bằng upsert theo lô — nhiều đơn cùng sản phẩm trong một chu kỳ chỉ thành một upsert.
+ * Đơn bị hủy / bị xóa: dòng sản phẩm được đọc ngay trong transaction hủy / xóa (đơn có thể bị xóa trước lượt ghi kế tiếp),
+ * delta âm cũng chỉ được cộng sau khi commit.
+ * Delta chưa ghi sẽ mất nếu node dừng đột ngột → dựng lại (rebuild) các ngày đó. Rebuild nên chạy lúc ít đơn:
+ * đơn commit đúng lúc đang dựng lại có thể bị tính hai lần.
+ */
+@Service
+public class SalesRollupService {
+    private static final Logger logger = LoggerFactory.getLogger(SalesRollupService.class);
+
+    private static final int REMOVED_BATCH_SIZE = 500;
+    private static final int REBUILD_CHUNK_DAYS = 31;
+
+    private final SalesRollupJdbcRepository salesRollupJdbcRepository;
+    private final boolean enabled;
+    private final boolean backfillOnStartup;
+
+    // id = productId / categoryId, 0 với bảng theo ngày
+    private record Key(LocalDate date, long id) {
+    }
+
+    private static final Comparator<Key> KEY_ORDER = Comparator.comparing(Key::date).thenComparingLong(Key::id);
+
+    private record Totals(long orders, long units, BigDecimal revenue) {
+        Totals plus(Totals other) {
+            return new Totals(orders + other.orders, units + other.units, revenue.add(other.revenue));
+        }
+
+        boolean isZero() {
+            return orders == 0 && units == 0 && revenue.signum() == 0;
+        }
+    }
+
+    // Một dòng sản phẩm của đơn hàng
+    public record Line(long productId, long categoryId, int quantity, BigDecimal price) {
+    }
+
+    private final ConcurrentHashMap<Key, Totals> daily = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Key, Totals> products = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Key, Totals> categories = new ConcurrentHashMap<>();
+
+    // Ghi delta và rebuild không chạy cùng lúc trên một node
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    public SalesRollupService(SalesRollupJdbcRepository salesRollupJdbcRepository,
+                              @Value("${salesRollup.enabled:true}") boolean enabled,
+                              @Value("${salesRollup.backfillOnStartup:true}") boolean backfillOnStartup) {
+        this.salesRollupJdbcRepository = salesRollupJdbcRepository;
+        this.enabled = enabled;
+        this.backfillOnStartup = backfillOnStartup;
+    }
+
+    // Gọi trong transaction tạo đơn; delta chỉ được cộng sau khi commit
+    public void recordPlaced(LocalDate date, List<Line> lines) {
+        if (!enabled || date == null || lines.isEmpty()) {
+            return;
+        }
+        List<Line> copy = List.copyOf(lines);
+        afterCommit(() -> addOrder(date, copy, 1));
+    }
+
+    // Gọi trong transaction hủy đơn (chỉ với đơn vừa thực sự chuyển sang CANCELED)
+    public void recordCanceled(Collection<Long> orderIds) {
+        if (!enabled || orderIds.isEmpty()) {
+            return;
+        }
+        subtractAfterCommit(orderIds);
+    }
+
+    // Gọi trong transaction xóa đơn chưa hủy, trước khi xóa
+    public void recordDeleted(Long orderId) {
+        if (!enabled) {
+            return;
+        }
+        subtractAfterCommit(List.of(orderId));
+    }
+
+    // 🔹 Ghi các delta đang chờ xuống DB; đang rebuild thì để lượt sau
+    @Scheduled(fixedDelayString = "${salesRollup.flushIntervalMs:5000}", initialDelayString = "${salesRollup.flushIntervalMs:5000}")
+    public void flush() {
+        if (!enabled || !flushLock.tryLock()) {
+            return;
+        }
+        try {
+            flushPending();
+        } catch (RuntimeException e) {
+            logger.error("Lỗi khi ghi bảng tổng hợp doanh số: {}", e.getMessage(), e);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    // Bảng tổng hợp còn trống (lần đầu triển khai) → dựng lại toàn bộ lịch sử ở luồng nền
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!enabled || !backfillOnStartup) {
+            return;
+        }
+        Thread.ofVirtual().name("sales-rollup-backfill").start(() -> {
+            try {
+                if (!salesRollupJdbcRepository.isEmpty()) {
+                    return;
+                }
+                LocalDate first = salesRollupJdbcRepository.findFirstOrderDate();
+                if (first != null) {
+                    int days = rebuild(first, LocalDate.now());
+                    logger.info("Đã dựng bảng tổng hợp doanh số từ {}: {} ngày có doanh số", first, days);
+                }
+            } catch (RuntimeException e) {
+                logger.error("Lỗi khi dựng bảng tổng hợp doanh số: {}", e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Tính lại các ngày trong [from, to] (tính cả hai đầu) từ orders / order_items, mỗi lần một khoảng 31 ngày.
+     * Trả về số ngày có doanh số.
+     */
+    public int rebuild(LocalDate from, LocalDate to) {
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException("from phải trước hoặc bằng to");
+        }
+        flushLock.lock();
+        try {
+            // Ghi delta đang chờ trước, nếu không đơn đã nằm trong kết quả dựng lại sẽ bị cộng thêm lần nữa
+            flushPending();
+            int days = 0;
+            LocalDate end = to.plusDays(1);
+            for (LocalDate start = from; start.isBefore(end); start = start.plusDays(REBUILD_CHUNK_DAYS)) {
+                LocalDate chunkEnd = start.plusDays(REBUILD_CHUNK_DAYS);
+                days += salesRollupJdbcRepository.rebuild(start, chunkEnd.isBefore(end) ? chunkEnd : end);
+            }
+            return days;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    public List<SalesStatDTO> getDaily(LocalDate from, LocalDate to) {
+        return salesRollupJdbcRepository.findDaily(from, to);
+    }
+
+    public List<SalesStatDTO> getTopProducts(LocalDate from, LocalDate to, int limit) {
+        return salesRollupJdbcRepository.findTopProducts(from, to, limit);
+    }
+
+    public List<SalesStatDTO> getCategories(LocalDate from, LocalDate to) {
+        return salesRollupJdbcRepository.findCategories(from, to);
+    }
+
+    private void flushPending() {
+        TreeMap<Key, Totals> dailyBatch = drain(daily);
+        TreeMap<Key, Totals> productBatch = drain(products);
+        TreeMap<Key, Totals> categoryBatch = drain(categories);
+        if (dailyBatch.isEmpty() && productBatch.isEmpty() && categoryBatch.isEmpty()) {
+            return;
+        }
+        try {
+            salesRollupJdbcRepository.apply(toDeltas(dailyBatch), toDeltas(productBatch), toDeltas(categoryBatch));
+        } catch (RuntimeException e) {
+            // Trả delta lại để lượt sau ghi tiếp
+            restore(daily, dailyBatch);
+            restore(products, productBatch);
+            restore(categories, categoryBatch);
+            throw e;
+        }
+    }
+
+    // Đọc dòng sản phẩm của các đơn ngay (trong transaction của nơi gọi), cộng delta âm sau khi commit
+    private void subtractAfterCommit(Collection<Long> orderIds) {
+        List<Long> ids = List.copyOf(orderIds);
+        Map<Long, List<Line>> byOrder = new HashMap<>();
+        Map<Long, LocalDate> dates = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += REMOVED_BATCH_SIZE) {
+            List<Long> batch = ids.subList(from, Math.min(from + REMOVED_BATCH_SIZE, ids.size()));
+            for (SalesRollupJdbcRepository.OrderLine line : salesRollupJdbcRepository.findOrderLines(batch)) {
+                byOrder.computeIfAbsent(line.orderId(), k -> new ArrayList<>())
+                        .add(new Line(line.productId(), line.categoryId(), line.quantity(), line.price()));
+                dates.put(line.orderId(), line.date());
+            }
+        }
+        if (!byOrder.isEmpty()) {
+            afterCommit(() -> byOrder.forEach((orderId, lines) -> addOrder(dates.get(orderId), lines, -1)));
+        }
+    }
+
+    // sign = 1 khi đặt hàng, -1 khi hủy; orders chỉ đếm một lần cho mỗi sản phẩm / danh mục trong đơn
+    private void addOrder(LocalDate date, List<Line> lines, int sign) {
+        long units = 0;
+        BigDecimal revenue = BigDecimal.ZERO;
+        Map<Long, Totals> byProduct = new HashMap<>();
+        Map<Long, Totals> byCategory = new HashMap<>();
+        for (Line line : lines) {
+            Totals totals = new Totals(0, (long) sign * line.quantity(),
+                    sign > 0 ? line.price() : line.price().negate());
+            byProduct.merge(line.productId(), totals, Totals::plus);
+            byCategory.merge(line.categoryId(), totals, Totals::plus);
+            units += totals.units();
+            revenue = revenue.add(totals.revenue());
+        }
+        daily.merge(new Key(date, 0), new Totals(sign, units, revenue), Totals::plus);
+        Totals counted = new Totals(sign, 0, BigDecimal.ZERO);
+        byProduct.forEach((productId, totals) ->
+                products.merge(new Key(date, productId), totals.plus(counted), Totals::plus));
+        byCategory.forEach((categoryId, totals) ->
+                categories.merge(new Key(date, categoryId), totals.plus(counted), Totals::plus));
+    }
+
+    // Lấy ra từng mục (remove nguyên tử) để delta cộng thêm trong lúc ghi được giữ cho lượt sau
+    private static TreeMap<Key, Totals> drain(ConcurrentHashMap<Key, Totals> pending) {
+        TreeMap<Key, Totals> batch = new TreeMap<>(KEY_ORDER);
+        Set<Key> keys = new HashSet<>(pending.keySet());
+        for (Key key : keys) {
+            Totals totals = pending.remove(key);
+            if (totals != null && !totals.isZero()) {
+                batch.put(key, totals);
+            }
+        }
+        return batch;
+    }
+
+    private static void restore(ConcurrentHashMap<Key, Totals> pending, Map<Key, Totals> batch) {
+        batch.forEach((key, totals) -> pending.merge(key, totals, Totals::plus));
+    }
+
+    private static List<SalesRollupJdbcRepository.Delta> toDeltas(TreeMap<Key, Totals> batch) {
+        List<SalesRollupJdbcRepository.Delta> deltas = new ArrayList<>(batch.size());
+        batch.forEach((key, totals) -> deltas.add(new SalesRollupJdbcRepository.Delta(
+                key.date(), key.id(), totals.orders(), totals.units(), totals.revenue())));
+        return deltas;
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
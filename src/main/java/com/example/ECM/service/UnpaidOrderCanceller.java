@@ -0,0 +1,61 @@
+package com.example.ECM.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+
+/**
+ * Job hủy các đơn PENDING đã mở thanh toán online quá {@code order.paymentTimeout.minutes} phút mà chưa thanh toán,
+ * và trả hàng về kho. Đơn COD (chưa từng tạo link thanh toán) không bị hủy.
+ * Mỗi lô (tối đa {@code order.paymentTimeout.batchSize} đơn) là một transaction; đơn được chọn bằng
+ * FOR UPDATE SKIP LOCKED nên nhiều node cùng chạy không hủy trùng và không chờ nhau.
+ */
+@Component
+public class UnpaidOrderCanceller {
+    private static final Logger logger = LoggerFactory.getLogger(UnpaidOrderCanceller.class);
+
+    private final OrderService orderService;
+    private final boolean enabled;
+    private final int timeoutMinutes;
+    private final int batchSize;
+
+    public UnpaidOrderCanceller(OrderService orderService,
+                                @Value("${order.paymentTimeout.enabled:true}") boolean enabled,
+                                @Value("${order.paymentTimeout.minutes:30}") int timeoutMinutes,
+                                @Value("${order.paymentTimeout.batchSize:200}") int batchSize) {
+        this.orderService = orderService;
+        this.enabled = enabled;
+        this.timeoutMinutes = timeoutMinutes;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${order.paymentTimeout.intervalMs:60000}", initialDelayString = "${order.paymentTimeout.intervalMs:60000}")
+    public void scheduledCancel() {
+        if (enabled) {
+            cancelExpired();
+        }
+    }
+
+    // 🔹 Hủy hết các đơn quá hạn hiện có, trả về số đơn đã hủy
+    public int cancelExpired() {
+        LocalDateTime cutoff = LocalDateTime.now().minusMinutes(timeoutMinutes);
+        int total = 0;
+        try {
+            int canceled;
+            do {
+                canceled = orderService.cancelExpiredOrders(cutoff, batchSize);
+                total += canceled;
+            } while (canceled == batchSize);
+        } catch (RuntimeException e) {
+            logger.error("Lỗi khi hủy đơn quá hạn thanh toán: {}", e.getMessage(), e);
+        }
+        if (total > 0) {
+            logger.info("Đã hủy {} đơn quá hạn thanh toán ({} phút)", total, timeoutMinutes);
+        }
+        return total;
+    }
+}
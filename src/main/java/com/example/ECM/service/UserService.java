@@ -1,11 +1,15 @@
 package com.example.ECM.service;
 
+import com.example.ECM.dto.UserDTO;
 import com.example.ECM.model.User;
 import com.example.ECM.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
@@ -28,6 +32,14 @@ public class UserService {
         }
     }
 
+    // 🔹 Đẩy lần lượt từng user (dạng DTO, không kèm mật khẩu) ra sink qua cursor DB
+    @Transactional(readOnly = true)
+    public void streamAllUsers(Consumer<? super UserDTO> sink) {
+        try (Stream<UserDTO> users = userRepository.streamAllAsDTO()) {
+            users.forEach(sink);
+        }
+    }
+
     // 🔹 Xóa user
     public boolean deleteUser(Long id) {
         try {
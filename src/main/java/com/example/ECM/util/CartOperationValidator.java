@@ -0,0 +1,36 @@
+package com.example.ECM.util;
+
+import com.example.ECM.dto.CartOperationDTO;
+
+import java.util.List;
+
+/**
+ * Kiểm tra một lô thao tác giỏ hàng (dùng chung cho giỏ của user và giỏ khách).
+ * Lô không hợp lệ bị từ chối cả lô bằng IllegalArgumentException (controller trả 400).
+ */
+public final class CartOperationValidator {
+    public static final int MAX_BATCH_OPERATIONS = 200;
+
+    private CartOperationValidator() {
+    }
+
+    public static void validate(List<CartOperationDTO> operations) {
+        if (operations == null || operations.isEmpty()) {
+            throw new IllegalArgumentException("Danh sách thao tác trống");
+        }
+        if (operations.size() > MAX_BATCH_OPERATIONS) {
+            throw new IllegalArgumentException("Tối đa " + MAX_BATCH_OPERATIONS + " thao tác mỗi lần");
+        }
+        for (CartOperationDTO op : operations) {
+            if (op.getType() == null || op.getProductId() == null) {
+                throw new IllegalArgumentException("Thao tác thiếu type hoặc productId");
+            }
+            if (op.getType() == CartOperationDTO.Type.ADD && op.getQuantity() <= 0) {
+                throw new IllegalArgumentException("Số lượng thêm phải lớn hơn 0 (sản phẩm " + op.getProductId() + ")");
+            }
+            if (op.getType() == CartOperationDTO.Type.SET && op.getQuantity() < 0) {
+                throw new IllegalArgumentException("Số lượng không được âm (sản phẩm " + op.getProductId() + ")");
+            }
+        }
+    }
+}
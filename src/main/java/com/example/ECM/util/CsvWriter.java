@@ -0,0 +1,93 @@
+package com.example.ECM.util;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Ghi CSV (RFC 4180, UTF-8) theo từng trường thẳng ra output stream, không giữ lại dòng nào trong bộ nhớ.
+ * Trường chứa dấu phẩy, nháy kép hoặc xuống dòng được đặt trong nháy kép.
+ * Chuỗi bắt đầu bằng = + - @ được thêm dấu ' phía trước để Excel không chạy như công thức.
+ */
+public class CsvWriter implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Writer out;
+    private boolean firstField = true;
+
+    public CsvWriter(OutputStream out) {
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    // Excel chỉ nhận ra UTF-8 (tiếng Việt có dấu) khi file bắt đầu bằng BOM
+    public void writeBom() throws IOException {
+        out.write('\uFEFF');
+    }
+
+    public void writeRecord(String... values) throws IOException {
+        for (String value : values) {
+            writeText(value);
+        }
+        endRecord();
+    }
+
+    public void writeText(String value) throws IOException {
+        separate();
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        char first = value.charAt(0);
+        boolean formula = first == '=' || first == '+' || first == '-' || first == '@';
+        boolean quote = formula;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        if (formula) {
+            out.write('\'');
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.write('"');
+            }
+            out.write(c);
+        }
+        out.write('"');
+    }
+
+    // Số và ngày giờ ghi nguyên dạng, không cần đặt trong nháy
+    public void writeValue(Object value) throws IOException {
+        separate();
+        if (value != null) {
+            out.write(value.toString());
+        }
+    }
+
+    public void endRecord() throws IOException {
+        out.write("\r\n");
+        firstField = true;
+    }
+
+    private void separate() throws IOException {
+        if (!firstField) {
+            out.write(',');
+        }
+        firstField = false;
+    }
+
+    // Chỉ đẩy dữ liệu còn trong buffer, không đóng stream bên dưới
+    @Override
+    public void close() throws IOException {
+        out.flush();
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.ECM.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Cursor "mờ" cho phân trang keyset: mã hóa kiểu sắp xếp, khóa sắp xếp cuối cùng và id cuối cùng.
+ * Client chỉ cần gửi lại nguyên chuỗi nhận được, không cần hiểu nội dung.
+ */
+public record KeysetCursor(String sort, String key, long id) {
+
+    public static String encode(String sort, Object key, long id) {
+        String raw = sort + "|" + (key != null ? key : "") + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // 🔹 Giải mã cursor; chuỗi rỗng hoặc null nghĩa là trang đầu tiên
+    public static KeysetCursor decode(String cursor, String expectedSort) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|", -1);
+            if (parts.length != 3 || !parts[0].equals(expectedSort)) {
+                throw new IllegalArgumentException("Cursor không khớp với kiểu sắp xếp hiện tại");
+            }
+            return new KeysetCursor(parts[0], parts[1], Long.parseLong(parts[2]));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Cursor không hợp lệ: " + e.getMessage(), e);
+        }
+    }
+
+    public Double numericKey() {
+        return key.isEmpty() ? null : Double.valueOf(key);
+    }
+}
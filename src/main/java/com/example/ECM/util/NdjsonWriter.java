@@ -0,0 +1,56 @@
+package com.example.ECM.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * Ghi từng đối tượng thành một dòng JSON (NDJSON) thẳng ra output stream của response.
+ * Không giữ lại đối tượng nào sau khi ghi nên bộ nhớ không tăng theo số dòng.
+ */
+public class NdjsonWriter implements Consumer<Object>, Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int FLUSH_EVERY = 500;
+
+    private final OutputStream out;
+    private final ObjectWriter writer;
+    private int unflushed;
+
+    public NdjsonWriter(ObjectMapper objectMapper, OutputStream out) {
+        this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+        this.writer = objectMapper.writer()
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    public void write(Object value) throws IOException {
+        writer.writeValue(out, value);
+        out.write('\n');
+        if (++unflushed >= FLUSH_EVERY) {
+            out.flush();
+            unflushed = 0;
+        }
+    }
+
+    @Override
+    public void accept(Object value) {
+        try {
+            write(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Lỗi khi ghi NDJSON: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.flush();
+    }
+}
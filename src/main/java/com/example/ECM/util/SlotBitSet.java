@@ -0,0 +1,110 @@
+package com.example.ECM.util;
+
+import java.util.Arrays;
+
+/**
+ * Bitset tối giản dùng cho các index trong bộ nhớ (mỗi bit là một slot sản phẩm).
+ * Khác với {@link java.util.BitSet}, lớp này hỗ trợ {@link #andCardinality(SlotBitSet)}
+ * để đếm giao của hai tập mà không phải cấp phát bản sao.
+ */
+public final class SlotBitSet {
+    private long[] words;
+
+    public SlotBitSet(int capacity) {
+        this.words = new long[Math.max(1, (capacity + 63) >>> 6)];
+    }
+
+    private SlotBitSet(long[] words) {
+        this.words = words;
+    }
+
+    public void set(int index) {
+        ensureCapacity(index);
+        words[index >>> 6] |= 1L << index;
+    }
+
+    public void clear(int index) {
+        int w = index >>> 6;
+        if (w < words.length) {
+            words[w] &= ~(1L << index);
+        }
+    }
+
+    public boolean get(int index) {
+        int w = index >>> 6;
+        return w < words.length && (words[w] & (1L << index)) != 0;
+    }
+
+    public void and(SlotBitSet other) {
+        int common = Math.min(words.length, other.words.length);
+        for (int i = 0; i < common; i++) {
+            words[i] &= other.words[i];
+        }
+        Arrays.fill(words, common, words.length, 0L);
+    }
+
+    public void or(SlotBitSet other) {
+        if (other.words.length > words.length) {
+            words = Arrays.copyOf(words, other.words.length);
+        }
+        for (int i = 0; i < other.words.length; i++) {
+            words[i] |= other.words[i];
+        }
+    }
+
+    public void andNot(SlotBitSet other) {
+        int common = Math.min(words.length, other.words.length);
+        for (int i = 0; i < common; i++) {
+            words[i] &= ~other.words[i];
+        }
+    }
+
+    public int nextSetBit(int from) {
+        if (from < 0) {
+            from = 0;
+        }
+        int w = from >>> 6;
+        if (w >= words.length) {
+            return -1;
+        }
+        long word = words[w] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++w == words.length) {
+                return -1;
+            }
+            word = words[w];
+        }
+    }
+
+    public int cardinality() {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    // 🔹 Đếm số bit chung của hai tập, không cấp phát bộ nhớ
+    public int andCardinality(SlotBitSet other) {
+        int common = Math.min(words.length, other.words.length);
+        int count = 0;
+        for (int i = 0; i < common; i++) {
+            count += Long.bitCount(words[i] & other.words[i]);
+        }
+        return count;
+    }
+
+    public SlotBitSet copy() {
+        return new SlotBitSet(words.clone());
+    }
+
+    private void ensureCapacity(int index) {
+        int required = (index >>> 6) + 1;
+        if (required > words.length) {
+            words = Arrays.copyOf(words, Math.max(required, words.length * 2));
+        }
+    }
+}
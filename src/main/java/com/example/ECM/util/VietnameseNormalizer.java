@@ -0,0 +1,64 @@
+package com.example.ECM.util;
+
+import java.text.Normalizer;
+
+/**
+ * Bỏ dấu tiếng Việt và chuyển về chữ thường ("Áo Thun Đỏ" → "ao thun do") để tìm kiếm không dấu.
+ * Dùng bảng tra một ký tự → một ký tự dựng sẵn một lần, nên mỗi lần gọi chỉ duyệt chuỗi một lượt
+ * và không cấp phát gì nếu chuỗi vốn đã ở dạng chuẩn.
+ */
+public final class VietnameseNormalizer {
+    // Bao phủ Latin-1, Latin Extended, dấu kết hợp (U+0300..U+036F) và Latin Extended Additional (chữ Việt có dấu)
+    private static final int TABLE_SIZE = 0x1F00;
+    // 0 = bỏ ký tự (dấu kết hợp đứng riêng khi chuỗi ở dạng NFD)
+    private static final char[] TABLE = new char[TABLE_SIZE];
+
+    static {
+        for (int c = 1; c < TABLE_SIZE; c++) {
+            char lower = Character.toLowerCase((char) c);
+            String stripped = Normalizer.normalize(String.valueOf(lower), Normalizer.Form.NFD)
+                    .replaceAll("\\p{M}", "");
+            if (stripped.isEmpty()) {
+                TABLE[c] = 0;
+            } else if (stripped.length() == 1) {
+                TABLE[c] = stripped.charAt(0);
+            } else {
+                TABLE[c] = lower;
+            }
+        }
+        // đ / Đ không tách được bằng NFD
+        TABLE['đ'] = 'd';
+        TABLE['Đ'] = 'd';
+    }
+
+    private VietnameseNormalizer() {
+    }
+
+    public static String fold(String text) {
+        if (text == null) {
+            return null;
+        }
+        int n = text.length();
+        int i = 0;
+        while (i < n && map(text.charAt(i)) == text.charAt(i)) {
+            i++;
+        }
+        if (i == n) {
+            return text;
+        }
+        char[] out = new char[n];
+        text.getChars(0, i, out, 0);
+        int len = i;
+        for (; i < n; i++) {
+            char m = map(text.charAt(i));
+            if (m != 0) {
+                out[len++] = m;
+            }
+        }
+        return new String(out, 0, len);
+    }
+
+    private static char map(char c) {
+        return c < TABLE_SIZE ? TABLE[c] : Character.toLowerCase(c);
+    }
+}
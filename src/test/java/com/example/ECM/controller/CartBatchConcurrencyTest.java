@@ -0,0 +1,123 @@
+package com.example.ECM.controller;
+
+import com.example.ECM.model.Cart;
+import com.example.ECM.model.CartItem;
+import com.example.ECM.model.Category;
+import com.example.ECM.model.Product;
+import com.example.ECM.model.User;
+import com.example.ECM.repository.CartRepository;
+import com.example.ECM.repository.CategoryRepository;
+import com.example.ECM.repository.ProductRepository;
+import com.example.ECM.repository.UserRepository;
+import com.example.ECM.service.ProductCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * /api/cart/batch chạy đồng thời với /api/cart/add trên cùng một giỏ: không lần cộng nào được phép bị mất
+ * (lô ghi số lượng tuyệt đối nên phải khóa giỏ trước khi đọc).
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class CartBatchConcurrencyTest {
+    private static final int ROUNDS = 20;
+    private static final int THREADS = 8;
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private CategoryRepository categoryRepository;
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private CartRepository cartRepository;
+    @Autowired
+    private ProductCache productCache;
+
+    private User owner;
+    private Category category;
+    private Product product;
+
+    @BeforeEach
+    void setUp() {
+        String suffix = Long.toString(System.nanoTime());
+        owner = new User();
+        owner.setUsername("batch_" + suffix);
+        owner.setEmail("batch_" + suffix + "@example.com");
+        owner.setPassword("x");
+        owner.setFullName("Batch Test");
+        owner.setPhone("0000000000");
+        owner.setAddress("Test");
+        owner = userRepository.save(owner);
+
+        category = categoryRepository.save(Category.builder().name("batch_" + suffix).products(new ArrayList<>()).build());
+        product = productRepository.save(Product.builder()
+                .name("Sản phẩm lô")
+                .price(10_000.0)
+                .stockQuantity(100)
+                .rating(4.0)
+                .category(category)
+                .build());
+    }
+
+    @AfterEach
+    void tearDown() {
+        cartRepository.findWithItemsByUserId(owner.getId()).ifPresent(cart -> cartRepository.deleteById(cart.getId()));
+        productRepository.deleteById(product.getId());
+        categoryRepository.deleteById(category.getId());
+        userRepository.deleteById(owner.getId());
+        productCache.invalidateAll();
+    }
+
+    @Test
+    void concurrentBatchAndAddKeepEveryIncrement() throws Exception {
+        String addJson = "{\"productId\":" + product.getId() + ",\"quantity\":1}";
+        String batchJson = "[{\"type\":\"ADD\",\"productId\":" + product.getId() + ",\"quantity\":1}]";
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < ROUNDS; i++) {
+                results.add(pool.submit(() -> perform(post("/api/cart/add").content(addJson))));
+                results.add(pool.submit(() -> perform(post("/api/cart/batch").content(batchJson))));
+            }
+            for (Future<?> result : results) {
+                result.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Cart cart = cartRepository.findWithItemsByUserId(owner.getId()).orElseThrow();
+        assertEquals(1, cart.getCartItems().size());
+        CartItem item = cart.getCartItems().iterator().next();
+        assertEquals(2 * ROUNDS, item.getQuantity());
+    }
+
+    private Void perform(MockHttpServletRequestBuilder request) throws Exception {
+        mockMvc.perform(request.contentType(MediaType.APPLICATION_JSON).with(user(owner.getUsername()).roles("USER")))
+                .andExpect(status().isOk());
+        return null;
+    }
+}
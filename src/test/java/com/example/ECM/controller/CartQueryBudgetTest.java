@@ -0,0 +1,181 @@
+package com.example.ECM.controller;
+
+import com.example.ECM.model.Cart;
+import com.example.ECM.model.CartItem;
+import com.example.ECM.model.Category;
+import com.example.ECM.model.Product;
+import com.example.ECM.model.User;
+import com.example.ECM.repository.CartRepository;
+import com.example.ECM.repository.CategoryRepository;
+import com.example.ECM.repository.ProductRepository;
+import com.example.ECM.repository.UserRepository;
+import com.example.ECM.service.ProductCache;
+import com.example.ECM.support.SqlStatementCounter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Giới hạn số câu SQL cho mỗi request giỏ hàng, bất kể giỏ có bao nhiêu dòng.
+ * Nếu có chỗ quay lại nạp lười từng sản phẩm / danh mục (N+1), hay ghi từng dòng thay vì theo lô, test sẽ fail.
+ */
+@SpringBootTest
+@Import(SqlStatementCounter.class)
+@AutoConfigureMockMvc
+class CartQueryBudgetTest {
+    private static final int CART_LINES = 30;
+
+    // Đọc giỏ: một câu SELECT duy nhất (giỏ + user + dòng + sản phẩm + danh mục)
+    private static final int GET_BUDGET = 1;
+    // Ghi: tìm user theo token + nạp giỏ + một câu INSERT / UPDATE / DELETE
+    private static final int WRITE_BUDGET = 3;
+    // Lô thao tác: tìm user + khóa giỏ + nạp giỏ + DELETE dòng bị bỏ + một lô upsert + đọc id dòng
+    private static final int BATCH_BUDGET = 6;
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private CategoryRepository categoryRepository;
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private CartRepository cartRepository;
+    @Autowired
+    private ProductCache productCache;
+
+    private User owner;
+    private Category category;
+    private List<Product> products;
+    private Product extraProduct;
+    private Cart cart;
+
+    @BeforeEach
+    void setUp() {
+        String suffix = Long.toString(System.nanoTime());
+        owner = new User();
+        owner.setUsername("budget_" + suffix);
+        owner.setEmail("budget_" + suffix + "@example.com");
+        owner.setPassword("x");
+        owner.setFullName("Budget Test");
+        owner.setPhone("0000000000");
+        owner.setAddress("Test");
+        owner = userRepository.save(owner);
+
+        category = categoryRepository.save(Category.builder().name("budget_" + suffix).products(new ArrayList<>()).build());
+
+        products = new ArrayList<>();
+        for (int i = 0; i <= CART_LINES; i++) {
+            products.add(Product.builder()
+                    .name("Sản phẩm " + i)
+                    .price(10_000.0 + i)
+                    .stockQuantity(100)
+                    .rating(4.0)
+                    .category(category)
+                    .build());
+        }
+        products = productRepository.saveAll(products);
+        extraProduct = products.get(CART_LINES);
+
+        Cart newCart = new Cart();
+        newCart.setUser(owner);
+        for (Product product : products.subList(0, CART_LINES)) {
+            newCart.addItem(new CartItem(newCart, product, 1));
+        }
+        cart = cartRepository.save(newCart);
+        // Thêm vào giỏ kiểm tra sản phẩm qua cache; làm ấm trước để chỉ đo phần giỏ hàng
+        productCache.getAll(products.stream().map(Product::getId).toList());
+    }
+
+    @AfterEach
+    void tearDown() {
+        cartRepository.deleteById(cart.getId());
+        productRepository.deleteAll(products);
+        categoryRepository.deleteById(category.getId());
+        userRepository.deleteById(owner.getId());
+        productCache.invalidateAll();
+    }
+
+    @Test
+    void getCartUsesSingleQuery() throws Exception {
+        perform(get("/api/cart/" + owner.getId()), GET_BUDGET)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items.length()").value(CART_LINES));
+    }
+
+    @Test
+    void addToCartStaysWithinBudget() throws Exception {
+        perform(post("/api/cart/add").contentType(MediaType.APPLICATION_JSON)
+                .content(itemJson(extraProduct.getId(), 2)), WRITE_BUDGET)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items.length()").value(CART_LINES + 1));
+    }
+
+    @Test
+    void updateCartItemStaysWithinBudget() throws Exception {
+        perform(put("/api/cart/update").contentType(MediaType.APPLICATION_JSON)
+                .content(itemJson(products.get(0).getId(), 5)), WRITE_BUDGET)
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void removeCartItemStaysWithinBudget() throws Exception {
+        perform(delete("/api/cart/remove").contentType(MediaType.APPLICATION_JSON)
+                .content(itemJson(products.get(0).getId(), 1)), WRITE_BUDGET)
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void batchStaysWithinBudgetRegardlessOfOperationCount() throws Exception {
+        // Sửa mọi dòng hiện có, bỏ một dòng và thêm một sản phẩm mới trong cùng một lô
+        StringBuilder operations = new StringBuilder("[");
+        for (Product product : products.subList(1, CART_LINES)) {
+            operations.append(operationJson("SET", product.getId(), 3)).append(',');
+        }
+        operations.append(operationJson("REMOVE", products.get(0).getId(), 0)).append(',');
+        operations.append(operationJson("ADD", extraProduct.getId(), 2)).append(']');
+
+        perform(post("/api/cart/batch").contentType(MediaType.APPLICATION_JSON)
+                .content(operations.toString()), BATCH_BUDGET)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items.length()").value(CART_LINES));
+    }
+
+    private ResultActions perform(MockHttpServletRequestBuilder request, int budget) throws Exception {
+        SqlStatementCounter.reset();
+        ResultActions result = mockMvc.perform(request.with(user(owner.getUsername()).roles("USER")));
+        int executed = SqlStatementCounter.count();
+        assertTrue(executed <= budget,
+                "Request vượt ngân sách SQL: " + executed + " câu (tối đa " + budget + ")");
+        return result;
+    }
+
+    private static String operationJson(String type, Long productId, int quantity) {
+        return "{\"type\":\"" + type + "\",\"productId\":" + productId + ",\"quantity\":" + quantity + "}";
+    }
+
+    private static String itemJson(Long productId, int quantity) {
+        return "{\"productId\":" + productId + ",\"quantity\":" + quantity + "}";
+    }
+}
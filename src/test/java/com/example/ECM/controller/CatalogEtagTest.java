@@ -0,0 +1,75 @@
+package com.example.ECM.controller;
+
+import com.example.ECM.repository.CatalogVersionJdbcRepository;
+import com.example.ECM.service.CatalogVersionService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * ETag của catalog: 304 khi client gửi lại đúng phiên bản, 200 khi catalog đã đổi,
+ * kể cả khi thay đổi được ghi từ một node khác (chỉ tăng sequence trong DB).
+ * refreshMs=0 để node này đọc lại phiên bản từ DB ở mọi request.
+ */
+@SpringBootTest(properties = "catalog.version.refreshMs=0")
+@AutoConfigureMockMvc
+class CatalogEtagTest {
+    private static final String PRODUCTS = "/api/products/all";
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private CatalogVersionService catalogVersion;
+    @Autowired
+    private CatalogVersionJdbcRepository versionRepository;
+
+    @Test
+    void unchangedCatalogReturnsNotModified() throws Exception {
+        String etag = fetchEtag();
+
+        mockMvc.perform(get(PRODUCTS).accept(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, etag));
+    }
+
+    @Test
+    void localWriteInvalidatesEtag() throws Exception {
+        String etag = fetchEtag();
+
+        catalogVersion.bump();
+
+        mockMvc.perform(get(PRODUCTS).accept(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk());
+        assertNotEquals(etag, fetchEtag());
+    }
+
+    @Test
+    void writeOnAnotherNodeInvalidatesEtag() throws Exception {
+        String etag = fetchEtag();
+
+        // Node khác chỉ tăng sequence dùng chung, không đụng tới bộ nhớ của node này
+        versionRepository.next();
+
+        mockMvc.perform(get(PRODUCTS).accept(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk());
+        assertNotEquals(etag, fetchEtag());
+    }
+
+    private String fetchEtag() throws Exception {
+        String etag = mockMvc.perform(get(PRODUCTS).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotNull(etag, "Response thiếu ETag");
+        return etag;
+    }
+}
@@ -0,0 +1,325 @@
+package com.example.ECM.controller;
+
+import com.example.ECM.model.Cart;
+import com.example.ECM.model.CartItem;
+import com.example.ECM.model.Category;
+import com.example.ECM.model.Product;
+import com.example.ECM.model.User;
+import com.example.ECM.repository.CartRepository;
+import com.example.ECM.repository.CategoryRepository;
+import com.example.ECM.repository.ProductRepository;
+import com.example.ECM.repository.UserRepository;
+import com.example.ECM.service.OrderService;
+import com.example.ECM.service.ProductCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Vòng đời đơn hàng và tồn kho: đặt hàng thiếu hàng thì không để lại gì, hủy đơn chỉ trả hàng về kho đúng một lần
+ * (kể cả hủy song song / hủy lại / hết hạn thanh toán), và bước chuyển trạng thái sai bị từ chối.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class OrderLifecycleTest {
+    private static final int STOCK = 10;
+    private static final int THREADS = 8;
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private OrderService orderService;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private CategoryRepository categoryRepository;
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private CartRepository cartRepository;
+    @Autowired
+    private ProductCache productCache;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private User owner;
+    private Category category;
+    private Product product;
+
+    @BeforeEach
+    void setUp() {
+        String suffix = Long.toString(System.nanoTime());
+        owner = new User();
+        owner.setUsername("order_" + suffix);
+        owner.setEmail("order_" + suffix + "@example.com");
+        owner.setPassword("x");
+        owner.setFullName("Order Test");
+        owner.setPhone("0000000000");
+        owner.setAddress("Test");
+        owner = userRepository.save(owner);
+
+        category = categoryRepository.save(Category.builder().name("order_" + suffix).products(new ArrayList<>()).build());
+        product = productRepository.save(Product.builder()
+                .name("Sản phẩm đơn hàng")
+                .price(10_000.0)
+                .stockQuantity(STOCK)
+                .rating(4.0)
+                .category(category)
+                .build());
+    }
+
+    @AfterEach
+    void tearDown() {
+        // Xóa qua service để bảng tổng hợp doanh số được trừ lại
+        for (Long id : jdbcTemplate.queryForList("SELECT id FROM orders WHERE user_id = ?", Long.class, owner.getId())) {
+            orderService.deleteOrder(id);
+        }
+        cartRepository.findWithItemsByUserId(owner.getId()).ifPresent(cart -> cartRepository.deleteById(cart.getId()));
+        productRepository.deleteById(product.getId());
+        categoryRepository.deleteById(category.getId());
+        userRepository.deleteById(owner.getId());
+        productCache.invalidateAll();
+    }
+
+    @Test
+    void insufficientStockRollsBackTheWholeOrder() throws Exception {
+        fillCart(STOCK + 1);
+
+        perform(post("/api/orders/checkout/" + owner.getId())).andExpect(status().isConflict());
+
+        assertEquals(0, countOrders());
+        assertEquals(STOCK, stock());
+        // Giỏ hàng không bị xóa khi đặt hàng thất bại
+        Cart cart = cartRepository.findWithItemsByUserId(owner.getId()).orElseThrow();
+        assertEquals(1, cart.getCartItems().size());
+        assertEquals(STOCK + 1, cart.getCartItems().iterator().next().getQuantity());
+    }
+
+    @Test
+    void cancelReleasesStockExactlyOnce() throws Exception {
+        fillCart(4);
+        long orderId = placeOrder();
+        assertEquals(STOCK - 4, stock());
+
+        perform(post("/api/orders/" + orderId + "/cancel"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("CANCELED"));
+        assertEquals(STOCK, stock());
+
+        // Hủy lại (từng đơn hoặc hàng loạt) không trả hàng thêm lần nữa
+        perform(post("/api/orders/" + orderId + "/cancel")).andExpect(status().isOk());
+        performAsAdmin(post("/api/orders/status/bulk")
+                .content("{\"ids\":[" + orderId + "],\"status\":\"CANCELED\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.updatedIds").isEmpty())
+                .andExpect(jsonPath("$.rejected[0].currentStatus").value("CANCELED"));
+        perform(put("/api/orders/" + orderId).content("{\"status\":\"CANCELED\"}")).andExpect(status().isOk());
+        assertEquals(STOCK, stock());
+    }
+
+    @Test
+    void concurrentCancelsReleaseStockOnce() throws Exception {
+        fillCart(3);
+        long orderId = placeOrder();
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                results.add(pool.submit(() -> orderService.cancelOrder(orderId)));
+            }
+            for (Future<?> result : results) {
+                result.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals("CANCELED", orderStatus(orderId));
+        assertEquals(STOCK, stock());
+    }
+
+    @Test
+    void illegalTransitionsAreRejected() throws Exception {
+        fillCart(2);
+        long orderId = placeOrder();
+
+        perform(put("/api/orders/" + orderId).content("{\"status\":\"DELIVERED\"}")).andExpect(status().isBadRequest());
+        perform(put("/api/orders/" + orderId).content("{\"status\":\"UNKNOWN\"}")).andExpect(status().isBadRequest());
+        assertEquals("PENDING", orderStatus(orderId));
+
+        performAsAdmin(post("/api/orders/status/bulk")
+                .content("{\"ids\":[" + orderId + "],\"status\":\"SHIPPED\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.updatedIds").isEmpty())
+                .andExpect(jsonPath("$.rejected[0].id").value(orderId))
+                .andExpect(jsonPath("$.rejected[0].currentStatus").value("PENDING"));
+        assertEquals("PENDING", orderStatus(orderId));
+
+        perform(put("/api/orders/" + orderId).content("{\"status\":\"PROCESSING\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("PROCESSING"));
+        perform(post("/api/orders/" + orderId + "/cancel")).andExpect(status().isOk());
+        assertEquals(STOCK, stock());
+
+        // CANCELED là trạng thái cuối: không mở lại đơn, không giữ hàng lại
+        perform(put("/api/orders/" + orderId).content("{\"status\":\"PROCESSING\"}")).andExpect(status().isBadRequest());
+        assertEquals("CANCELED", orderStatus(orderId));
+        assertEquals(STOCK, stock());
+    }
+
+    @Test
+    void itemsOfPlacedOrderCannotBeReplaced() throws Exception {
+        fillCart(2);
+        long orderId = placeOrder();
+
+        perform(put("/api/orders/" + orderId)
+                .content("{\"status\":\"PROCESSING\",\"orderItems\":[{\"product\":{\"id\":" + product.getId()
+                        + "},\"quantity\":9,\"price\":1}]}"))
+                .andExpect(status().isBadRequest());
+
+        assertEquals("PENDING", orderStatus(orderId));
+        Integer quantity = jdbcTemplate.queryForObject(
+                "SELECT SUM(quantity) FROM order_items WHERE order_id = ?", Integer.class, orderId);
+        assertEquals(2, quantity);
+        perform(post("/api/orders/" + orderId + "/cancel")).andExpect(status().isOk());
+        assertEquals(STOCK, stock());
+    }
+
+    @Test
+    void shippedOrderCannotBeCanceled() throws Exception {
+        fillCart(2);
+        long orderId = placeOrder();
+        performAsAdmin(post("/api/orders/status/bulk").content("{\"ids\":[" + orderId + "],\"status\":\"PROCESSING\"}"))
+                .andExpect(jsonPath("$.updatedIds[0]").value(orderId));
+        performAsAdmin(post("/api/orders/status/bulk").content("{\"ids\":[" + orderId + "],\"status\":\"SHIPPED\"}"))
+                .andExpect(jsonPath("$.updatedIds[0]").value(orderId));
+
+        perform(post("/api/orders/" + orderId + "/cancel")).andExpect(status().isBadRequest());
+        assertEquals("SHIPPED", orderStatus(orderId));
+        assertEquals(STOCK - 2, stock());
+    }
+
+    @Test
+    void deletingOrderThatHoldsStockReturnsIt() throws Exception {
+        fillCart(3);
+        long pending = placeOrder();
+        fillCart(2);
+        long shipped = placeOrder();
+        performAsAdmin(post("/api/orders/status/bulk").content("{\"ids\":[" + shipped + "],\"status\":\"PROCESSING\"}"))
+                .andExpect(jsonPath("$.updatedIds[0]").value(shipped));
+        performAsAdmin(post("/api/orders/status/bulk").content("{\"ids\":[" + shipped + "],\"status\":\"SHIPPED\"}"))
+                .andExpect(jsonPath("$.updatedIds[0]").value(shipped));
+        assertEquals(STOCK - 5, stock());
+
+        perform(delete("/api/orders/" + pending)).andExpect(status().isOk());
+        assertEquals(STOCK - 2, stock());
+
+        // Hàng của đơn đã giao cho vận chuyển đã ra khỏi kho: xóa đơn không cộng lại
+        perform(delete("/api/orders/" + shipped)).andExpect(status().isOk());
+        assertEquals(STOCK - 2, stock());
+        assertEquals(0, countOrders());
+    }
+
+    @Test
+    void deletingCanceledOrderDoesNotReturnStockAgain() throws Exception {
+        fillCart(4);
+        long orderId = placeOrder();
+        perform(post("/api/orders/" + orderId + "/cancel")).andExpect(status().isOk());
+        assertEquals(STOCK, stock());
+
+        perform(delete("/api/orders/" + orderId)).andExpect(status().isOk());
+        assertEquals(STOCK, stock());
+    }
+
+    @Test
+    void onlyOnlinePaymentOrdersExpire() {
+        fillCart(1);
+        long codOrder = placeOrder();
+        fillCart(2);
+        long onlineOrder = placeOrder();
+        assertTrue(orderService.startOnlinePayment(onlineOrder));
+        jdbcTemplate.update("UPDATE orders SET payment_started_at = now() - interval '2 hours' WHERE id = ?", onlineOrder);
+
+        LocalDateTime cutoff = LocalDateTime.now().minusHours(1);
+        orderService.cancelExpiredOrders(cutoff, 1000);
+        assertEquals("PENDING", orderStatus(codOrder));
+        assertEquals("CANCELED", orderStatus(onlineOrder));
+        assertEquals(STOCK - 1, stock());
+
+        // Lần chạy sau không hủy / trả hàng lại
+        orderService.cancelExpiredOrders(cutoff, 1000);
+        assertEquals(STOCK - 1, stock());
+    }
+
+    private void fillCart(int quantity) {
+        Cart cart = cartRepository.findWithItemsByUserId(owner.getId()).orElseGet(() -> {
+            Cart created = new Cart();
+            created.setUser(owner);
+            return cartRepository.save(created);
+        });
+        cart.addItem(new CartItem(cart, product, quantity));
+        cartRepository.save(cart);
+    }
+
+    private long placeOrder() {
+        try {
+            String body = perform(post("/api/orders/checkout/" + owner.getId()))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+            return objectMapper.readTree(body).get("id").asLong();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int stock() {
+        Integer stock = jdbcTemplate.queryForObject("SELECT stock_quantity FROM products WHERE id = ?", Integer.class, product.getId());
+        return stock != null ? stock : 0;
+    }
+
+    private long countOrders() {
+        Long count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM orders WHERE user_id = ?", Long.class, owner.getId());
+        return count != null ? count : 0;
+    }
+
+    private String orderStatus(long orderId) {
+        return jdbcTemplate.queryForObject("SELECT status FROM orders WHERE id = ?", String.class, orderId);
+    }
+
+    private ResultActions perform(MockHttpServletRequestBuilder request) throws Exception {
+        return mockMvc.perform(request.contentType(MediaType.APPLICATION_JSON).with(user(owner.getUsername()).roles("USER")));
+    }
+
+    private ResultActions performAsAdmin(MockHttpServletRequestBuilder request) throws Exception {
+        return mockMvc.perform(request.contentType(MediaType.APPLICATION_JSON).with(user("admin").roles("ADMIN")));
+    }
+}
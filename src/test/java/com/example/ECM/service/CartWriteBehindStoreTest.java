@@ -0,0 +1,144 @@
+package com.example.ECM.service;
+
+import com.example.ECM.dto.ProductDTO;
+import com.example.ECM.repository.CartJdbcRepository;
+import com.example.ECM.repository.CartJdbcRepository.CartSnapshot;
+import com.example.ECM.repository.CartRepository;
+import com.example.ECM.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Giỏ write-behind quanh transaction đặt hàng: rollback không làm mất thay đổi chưa ghi, commit bỏ bản trong bộ nhớ,
+ * và user khác cùng khóa không phải chờ trong lúc một user đang đặt hàng. DB được thay bằng mock.
+ */
+class CartWriteBehindStoreTest {
+    // 1 và 65 rơi vào cùng một khóa (64 khóa)
+    private static final long BUYER = 1L;
+    private static final long NEIGHBOUR = 65L;
+    private static final ProductDTO PRODUCT = ProductDTO.builder().id(7L).name("Sản phẩm").price(1000.0).build();
+
+    private CartRepository cartRepository;
+    private CartJdbcRepository cartJdbcRepository;
+    private CartWriteBehindStore store;
+
+    @BeforeEach
+    void setUp() {
+        cartRepository = mock(CartRepository.class);
+        cartJdbcRepository = mock(CartJdbcRepository.class);
+        UserRepository userRepository = mock(UserRepository.class);
+        ProductCache productCache = mock(ProductCache.class);
+        when(cartRepository.findWithItemsByUserId(anyLong())).thenReturn(Optional.empty());
+        when(userRepository.existsById(anyLong())).thenReturn(true);
+        when(productCache.get(anyLong())).thenReturn(Optional.of(PRODUCT));
+        when(cartJdbcRepository.writeCarts(anyList())).thenAnswer(invocation -> {
+            List<CartSnapshot> snapshots = invocation.getArgument(0);
+            return Map.of(snapshots.get(0).userId(), 100L);
+        });
+        store = new CartWriteBehindStore(cartRepository, cartJdbcRepository, userRepository, productCache, true, 500, 600000);
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void rollbackKeepsUnflushedChangesDirty() {
+        store.add(BUYER, PRODUCT, 3);
+        store.beginCheckout(BUYER);
+        verify(cartJdbcRepository, times(1)).writeCarts(anyList());
+
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        // Lần ghi trong transaction đặt hàng đã bị rollback → giỏ vẫn còn trong bộ nhớ và được ghi lại
+        assertEquals(3, store.getCart(BUYER).getItems().get(0).getQuantity());
+        store.flushAll();
+        ArgumentCaptor<List<CartSnapshot>> written = captor();
+        verify(cartJdbcRepository, times(2)).writeCarts(written.capture());
+        CartSnapshot rewrite = written.getAllValues().get(1).get(0);
+        assertEquals(BUYER, rewrite.userId());
+        assertNull(rewrite.cartId());
+        assertEquals(3, rewrite.lines().get(0).quantity());
+    }
+
+    @Test
+    void commitDropsTheInMemoryCart() {
+        store.add(BUYER, PRODUCT, 2);
+        store.beginCheckout(BUYER);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        store.flushAll();
+        verify(cartJdbcRepository, times(1)).writeCarts(anyList());
+        // Lần đọc sau nạp lại giỏ từ DB (mock: giỏ đã được dọn sau khi đặt hàng → không còn giỏ)
+        assertThrows(RuntimeException.class, () -> store.getCart(BUYER));
+        verify(cartRepository, times(2)).findWithItemsByUserId(BUYER);
+    }
+
+    @Test
+    void checkoutBlocksOnlyTheBuyer() throws Exception {
+        store.add(BUYER, PRODUCT, 1);
+        store.beginCheckout(BUYER);
+
+        // User cùng khóa vẫn thêm vào giỏ được trong lúc BUYER đang đặt hàng
+        CompletableFuture<Integer> neighbour = CompletableFuture.supplyAsync(
+                () -> store.add(NEIGHBOUR, PRODUCT, 4).getItems().get(0).getQuantity());
+        assertEquals(4, neighbour.get(5, TimeUnit.SECONDS));
+
+        // Giỏ của BUYER chờ tới khi transaction đặt hàng kết thúc
+        CompletableFuture<Void> buyer = CompletableFuture.runAsync(() -> store.add(BUYER, PRODUCT, 1));
+        Thread.sleep(100);
+        assertFalse(buyer.isDone());
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        buyer.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void periodicFlushIsNotBlockedByCheckout() {
+        store.add(BUYER, PRODUCT, 1);
+        store.beginCheckout(BUYER);
+        store.add(NEIGHBOUR, PRODUCT, 1);
+
+        store.flushAll();
+        ArgumentCaptor<List<CartSnapshot>> written = captor();
+        verify(cartJdbcRepository, times(2)).writeCarts(written.capture());
+        assertEquals(NEIGHBOUR, written.getAllValues().get(1).get(0).userId());
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+    }
+
+    // Kết thúc "transaction" đặt hàng: gọi các synchronization đã đăng ký như TransactionManager
+    private static void complete(int status) {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        synchronizations.forEach(sync -> sync.afterCompletion(status));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<List<CartSnapshot>> captor() {
+        return ArgumentCaptor.forClass((Class<List<CartSnapshot>>) (Class<?>) List.class);
+    }
+}
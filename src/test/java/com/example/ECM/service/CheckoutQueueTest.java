@@ -0,0 +1,193 @@
+package com.example.ECM.service;
+
+import com.example.ECM.repository.CheckoutJobJdbcRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Hàng đợi checkout trên bảng checkout_jobs: nhận ticket, hết hạn xử lý và thử lại.
+ * Worker của node test bị tắt để chỉ test này nhận ticket; ticket được tạo với user_id âm để không trùng dữ liệu thật.
+ */
+@SpringBootTest(properties = {
+        "checkout.async.enabled=false",
+        "checkout.async.maxAttempts=3",
+        "checkout.async.maintenanceIntervalMs=3600000"
+})
+class CheckoutQueueTest {
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long LEASE_SECONDS = 300;
+
+    @Autowired
+    private CheckoutJobJdbcRepository checkoutJobJdbcRepository;
+    @Autowired
+    private CheckoutQueueService checkoutQueueService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private long userA;
+    private long userB;
+
+    @BeforeEach
+    void setUp() {
+        userA = -System.nanoTime();
+        userB = userA - 1;
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM checkout_jobs WHERE user_id IN (?, ?)", userA, userB);
+    }
+
+    @Test
+    void claimTakesTicketsInQueueOrderOnlyOnce() {
+        String first = enqueue(userA);
+        String second = enqueue(userB);
+        // Cùng user chỉ có một ticket đang chờ
+        assertNull(checkoutJobJdbcRepository.enqueue(UUID.randomUUID().toString(), userA));
+
+        List<CheckoutJobJdbcRepository.ClaimedJob> claimed = claimMine(LEASE_SECONDS);
+        assertEquals(2, claimed.size());
+        assertEquals(userA, claimed.get(0).userId());
+        assertEquals(userB, claimed.get(1).userId());
+        assertEquals(1, claimed.get(0).attempt());
+        assertEquals("PROCESSING", checkoutJobJdbcRepository.findByTicket(first).getStatus());
+        assertEquals("PROCESSING", checkoutJobJdbcRepository.findByTicket(second).getStatus());
+
+        // Ticket đang xử lý không được nhận lần nữa
+        assertTrue(claimMine(LEASE_SECONDS).isEmpty());
+
+        assertTrue(checkoutJobJdbcRepository.markCompleted(claimed.get(0), 42L));
+        assertEquals("COMPLETED", checkoutJobJdbcRepository.findByTicket(first).getStatus());
+        assertEquals(42L, checkoutJobJdbcRepository.findByTicket(first).getOrderId());
+    }
+
+    @Test
+    void expiredLeaseIsRequeuedAndStaleWorkerCannotFinish() throws InterruptedException {
+        String ticket = enqueue(userA);
+        CheckoutJobJdbcRepository.ClaimedJob stale = claimOne(0);
+        Thread.sleep(20);
+
+        assertTrue(checkoutJobJdbcRepository.requeueStale(MAX_ATTEMPTS) >= 1);
+        assertEquals("QUEUED", checkoutJobJdbcRepository.findByTicket(ticket).getStatus());
+
+        CheckoutJobJdbcRepository.ClaimedJob current = claimOne(LEASE_SECONDS);
+        assertEquals(2, current.attempt());
+        // Worker cũ chạy xong muộn: không được ghi đè lần nhận mới
+        assertFalse(checkoutJobJdbcRepository.markCompleted(stale, 1L));
+        assertEquals("PROCESSING", checkoutJobJdbcRepository.findByTicket(ticket).getStatus());
+        assertTrue(checkoutJobJdbcRepository.markCompleted(current, 2L));
+        assertEquals(2L, checkoutJobJdbcRepository.findByTicket(ticket).getOrderId());
+    }
+
+    @Test
+    void expiredLeaseOnLastAttemptFails() throws InterruptedException {
+        String ticket = enqueue(userA);
+        claimOne(0);
+        Thread.sleep(20);
+
+        assertTrue(checkoutJobJdbcRepository.requeueStale(1) >= 1);
+        assertEquals("FAILED", checkoutJobJdbcRepository.findByTicket(ticket).getStatus());
+        assertTrue(claimMine(LEASE_SECONDS).isEmpty());
+    }
+
+    @Test
+    void transientErrorIsRetriedUntilMaxAttempts() {
+        String ticket = enqueue(userA);
+        for (int attempt = 1; attempt < MAX_ATTEMPTS; attempt++) {
+            CheckoutJobJdbcRepository.ClaimedJob job = claimOne(LEASE_SECONDS);
+            assertEquals(attempt, job.attempt());
+            assertTrue(checkoutQueueService.fail(job, "deadlock detected", true));
+            assertEquals("QUEUED", checkoutJobJdbcRepository.findByTicket(ticket).getStatus());
+        }
+
+        CheckoutJobJdbcRepository.ClaimedJob last = claimOne(LEASE_SECONDS);
+        assertEquals(MAX_ATTEMPTS, last.attempt());
+        assertFalse(checkoutQueueService.fail(last, "deadlock detected", true));
+        assertEquals("FAILED", checkoutJobJdbcRepository.findByTicket(ticket).getStatus());
+        assertEquals("deadlock detected", checkoutJobJdbcRepository.findByTicket(ticket).getError());
+    }
+
+    @Test
+    void businessErrorFailsWithoutRetry() {
+        String ticket = enqueue(userA);
+        CheckoutJobJdbcRepository.ClaimedJob job = claimOne(LEASE_SECONDS);
+
+        assertFalse(checkoutQueueService.fail(job, "Không đủ hàng trong kho", false));
+        assertEquals("FAILED", checkoutJobJdbcRepository.findByTicket(ticket).getStatus());
+        assertTrue(claimMine(LEASE_SECONDS).isEmpty());
+        // User được đặt lại ngay sau khi ticket cũ thất bại
+        assertNotNull(checkoutJobJdbcRepository.enqueue(UUID.randomUUID().toString(), userA));
+    }
+
+    @Test
+    void missingIndexIsCreatedAfterFailingDuplicateTickets() {
+        // DDL của Postgres nằm trong transaction: bỏ index, dọn và tạo lại đều được rollback sau test
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            jdbcTemplate.execute("DROP INDEX uk_checkout_jobs_active_user");
+            // Bảng từng chạy khi chưa có index: userA có hai ticket chờ, userB có ticket chờ sau ticket đang chạy
+            String oldest = insert(userA, "QUEUED");
+            String newer = insert(userA, "QUEUED");
+            String waiting = insert(userB, "QUEUED");
+            String processing = insert(userB, "PROCESSING");
+
+            assertEquals(2, checkoutJobJdbcRepository.ensureActiveUserIndex());
+            assertEquals("QUEUED", checkoutJobJdbcRepository.findByTicket(oldest).getStatus());
+            assertEquals("FAILED", checkoutJobJdbcRepository.findByTicket(newer).getStatus());
+            assertEquals("FAILED", checkoutJobJdbcRepository.findByTicket(waiting).getStatus());
+            assertEquals("PROCESSING", checkoutJobJdbcRepository.findByTicket(processing).getStatus());
+            assertNull(checkoutJobJdbcRepository.enqueue(UUID.randomUUID().toString(), userA));
+            // Index đã có: lần khởi động sau không dọn gì
+            assertEquals(0, checkoutJobJdbcRepository.ensureActiveUserIndex());
+            status.setRollbackOnly();
+        });
+    }
+
+    private String insert(long userId, String status) {
+        String ticket = UUID.randomUUID().toString();
+        jdbcTemplate.update("INSERT INTO checkout_jobs (ticket, user_id, status, attempts, created_at, updated_at) " +
+                "VALUES (?, ?, ?, 0, now(), now())", ticket, userId, status);
+        return ticket;
+    }
+
+    private String enqueue(long userId) {
+        String ticket = checkoutJobJdbcRepository.enqueue(UUID.randomUUID().toString(), userId);
+        assertNotNull(ticket);
+        return ticket;
+    }
+
+    // Nhận hết ticket đang chờ rồi chỉ giữ lại ticket của test; ticket khác (nếu có) được trả về hàng đợi
+    private List<CheckoutJobJdbcRepository.ClaimedJob> claimMine(long leaseSeconds) {
+        List<CheckoutJobJdbcRepository.ClaimedJob> claimed = checkoutJobJdbcRepository.claim(1000, leaseSeconds);
+        claimed.stream()
+                .filter(job -> job.userId() != userA && job.userId() != userB)
+                .forEach(job -> jdbcTemplate.update(
+                        "UPDATE checkout_jobs SET status = 'QUEUED', attempts = attempts - 1, locked_until = NULL WHERE id = ?",
+                        job.id()));
+        return claimed.stream()
+                .filter(job -> job.userId() == userA || job.userId() == userB)
+                .toList();
+    }
+
+    private CheckoutJobJdbcRepository.ClaimedJob claimOne(long leaseSeconds) {
+        List<CheckoutJobJdbcRepository.ClaimedJob> claimed = claimMine(leaseSeconds);
+        assertEquals(1, claimed.size());
+        return claimed.get(0);
+    }
+}
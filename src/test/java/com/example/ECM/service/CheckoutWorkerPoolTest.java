@@ -0,0 +1,79 @@
+package com.example.ECM.service;
+
+import com.example.ECM.repository.CheckoutJobJdbcRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Luồng điều phối phải trả lại mọi chỗ (permit) đã giữ khi nhận ticket lỗi hoặc không giao được ticket cho executor;
+ * nếu không, sau vài lần lỗi DB worker sẽ đứng im vĩnh viễn.
+ */
+class CheckoutWorkerPoolTest {
+    private static final int CONCURRENCY = 4;
+
+    private CheckoutWorkerPool pool;
+
+    @AfterEach
+    void tearDown() {
+        if (pool != null) {
+            pool.stop();
+        }
+    }
+
+    @Test
+    void claimFailureReturnsPermits() throws InterruptedException {
+        CheckoutQueueService queue = mock(CheckoutQueueService.class);
+        when(queue.claim(anyInt()))
+                .thenThrow(new RuntimeException("DB mất kết nối"))
+                .thenThrow(new RuntimeException("DB mất kết nối"))
+                .thenReturn(List.of());
+        pool = new CheckoutWorkerPool(queue, true, CONCURRENCY, CONCURRENCY, 10);
+        pool.start();
+
+        // Lần nhận đầu giữ hết chỗ; nếu không trả lại thì luồng điều phối không bao giờ gọi claim lần nữa
+        verify(queue, timeout(5000).atLeast(4)).claim(anyInt());
+        assertEquals(0, awaitIdle());
+    }
+
+    @Test
+    void jobsRejectedByStoppedExecutorReturnPermits() throws InterruptedException {
+        CheckoutQueueService queue = mock(CheckoutQueueService.class);
+        AtomicInteger calls = new AtomicInteger();
+        pool = new CheckoutWorkerPool(queue, true, CONCURRENCY, CONCURRENCY, 10);
+        when(queue.claim(anyInt())).thenAnswer(invocation -> {
+            if (calls.incrementAndGet() > 1) {
+                return List.of();
+            }
+            // Ứng dụng tắt đúng lúc vừa nhận lô: executor từ chối mọi ticket của lô này
+            pool.stop();
+            return List.of(new CheckoutJobJdbcRepository.ClaimedJob(1L, 1L, 1),
+                    new CheckoutJobJdbcRepository.ClaimedJob(2L, 2L, 1));
+        });
+        pool.start();
+
+        verify(queue, timeout(5000)).claim(anyInt());
+        assertEquals(0, awaitIdle());
+    }
+
+    // Số checkout đang chạy, chờ tối đa 5 giây để nó về 0 (luồng điều phối trả chỗ ngay sau khi claim trả về)
+    private int awaitIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        int running = (int) pool.stats().get("running");
+        while (running != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            running = (int) pool.stats().get("running");
+        }
+        return running;
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.ECM.service;
+
+import com.example.ECM.dto.CartOperationDTO;
+import com.example.ECM.dto.CartOperationDTO.Type;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Bảng băm địa chỉ mở ngoài heap của giỏ hàng khách: xóa bằng dịch lùi (kể cả khi chuỗi dò vòng qua cuối bảng),
+ * dọn giỏ hết hạn, take / restore và giới hạn số dòng. Không cần DB.
+ */
+class GuestCartStoreTest {
+    // 64 phân đoạn × 3 giỏ → mỗi phân đoạn chỉ có 5 slot nên chuỗi dò thường xuyên vòng qua cuối bảng
+    private static final long SMALL_CAPACITY = 64 * 3;
+    private static final long TTL_MINUTES = 60;
+
+    @Test
+    void randomInsertsAndDeletesKeepEveryCartReachable() {
+        GuestCartStore store = new GuestCartStore(SMALL_CAPACITY, TTL_MINUTES);
+        Random random = new Random(42);
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            tokens.add(String.format("%016x%016x", random.nextLong(), random.nextLong() | 1));
+        }
+        Map<String, Map<Long, Integer>> expected = new HashMap<>();
+
+        for (int step = 0; step < 20_000; step++) {
+            String token = tokens.get(random.nextInt(tokens.size()));
+            if (random.nextBoolean()) {
+                Map<Long, Integer> lines = new LinkedHashMap<>();
+                lines.put((long) step, step % 7 + 1);
+                if (store.restore(token, lines)) {
+                    expected.put(token, lines);
+                } else {
+                    // Chỉ bị từ chối khi phải tạo slot mới trong phân đoạn đã đầy
+                    assertFalse(expected.containsKey(token));
+                }
+            } else {
+                assertEquals(Optional.ofNullable(expected.remove(token)), store.take(token));
+            }
+            if (step % 100 == 0) {
+                expected.forEach((t, lines) -> assertEquals(lines, store.get(t)));
+                assertEquals((long) expected.size(), store.stats().get("size"));
+            }
+        }
+    }
+
+    @Test
+    void expiredCartIsGoneAndFreesItsSlot() {
+        // ttl = 0: giỏ hết hạn ngay khi tạo
+        GuestCartStore store = new GuestCartStore(64, 0);
+        String token = store.create();
+        assertThrows(GuestCartStore.GuestCartNotFoundException.class, () -> store.get(token));
+
+        // Mỗi phân đoạn chỉ chứa một giỏ: tạo mới phải dọn giỏ hết hạn thay vì báo đầy
+        for (int i = 0; i < 1000; i++) {
+            store.create();
+        }
+    }
+
+    @Test
+    void sweepRemovesEveryExpiredCart() {
+        GuestCartStore store = new GuestCartStore(SMALL_CAPACITY, 0);
+        for (int i = 0; i < 150; i++) {
+            store.create();
+        }
+        assertTrue((long) store.stats().get("size") > 0);
+
+        store.sweepExpired();
+        assertEquals(0L, store.stats().get("size"));
+    }
+
+    @Test
+    void fullStoreRejectsNewCarts() {
+        GuestCartStore store = new GuestCartStore(64, TTL_MINUTES);
+        // 64 phân đoạn × 1 giỏ: chậm nhất lần tạo thứ 65 phải bị từ chối
+        assertThrows(IllegalStateException.class, () -> {
+            for (int i = 0; i <= 64; i++) {
+                store.create();
+            }
+        });
+        assertTrue((long) store.stats().get("size") <= 64);
+    }
+
+    @Test
+    void takeRemovesCartAndRestorePutsItBack() {
+        GuestCartStore store = new GuestCartStore(1000, TTL_MINUTES);
+        String token = store.create();
+        store.apply(token, List.of(add(3L, 2), add(1L, 1), add(3L, 1)));
+
+        Map<Long, Integer> taken = store.take(token).orElseThrow();
+        assertEquals(List.of(3L, 1L), new ArrayList<>(taken.keySet()));
+        assertEquals(3, taken.get(3L));
+        assertThrows(GuestCartStore.GuestCartNotFoundException.class, () -> store.get(token));
+        assertTrue(store.take(token).isEmpty());
+
+        assertTrue(store.restore(token, taken));
+        assertEquals(taken, store.get(token));
+        assertEquals(List.of(3L, 1L), new ArrayList<>(store.get(token).keySet()));
+    }
+
+    @Test
+    void malformedTokenIsRejected() {
+        GuestCartStore store = new GuestCartStore(1000, TTL_MINUTES);
+        assertThrows(GuestCartStore.GuestCartNotFoundException.class, () -> store.get("not-a-token"));
+        assertTrue(store.take("zz" + "0".repeat(30)).isEmpty());
+        assertFalse(store.restore(null, Map.of(1L, 1)));
+    }
+
+    @Test
+    void batchOverLineLimitIsRejectedAsAWhole() {
+        GuestCartStore store = new GuestCartStore(1000, TTL_MINUTES);
+        String token = store.create();
+        List<CartOperationDTO> fill = new ArrayList<>();
+        for (long productId = 1; productId <= GuestCartStore.MAX_LINES; productId++) {
+            fill.add(add(productId, 1));
+        }
+        assertEquals(GuestCartStore.MAX_LINES, store.apply(token, fill).size());
+
+        // Dòng thứ 21 làm hỏng cả lô: thay đổi số lượng đi kèm cũng không được ghi
+        assertThrows(IllegalArgumentException.class,
+                () -> store.apply(token, List.of(add(1L, 5), add(GuestCartStore.MAX_LINES + 1L, 1))));
+        assertEquals(1, store.get(token).get(1L));
+
+        // Bỏ một dòng rồi thêm dòng mới trong cùng lô thì vẫn nằm trong giới hạn
+        Map<Long, Integer> lines = store.apply(token, List.of(
+                new CartOperationDTO(Type.REMOVE, 1L, 0),
+                add(GuestCartStore.MAX_LINES + 1L, 1),
+                new CartOperationDTO(Type.SET, 2L, 7)));
+        assertEquals(GuestCartStore.MAX_LINES, lines.size());
+        assertFalse(lines.containsKey(1L));
+        assertEquals(7, store.get(token).get(2L));
+    }
+
+    private static CartOperationDTO add(long productId, int quantity) {
+        return new CartOperationDTO(Type.ADD, productId, quantity);
+    }
+}
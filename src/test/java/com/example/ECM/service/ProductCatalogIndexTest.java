@@ -0,0 +1,219 @@
+package com.example.ECM.service;
+
+import com.example.ECM.model.Category;
+import com.example.ECM.model.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Index dạng cột của catalog: thêm / đổi giá / đổi danh mục / xóa phải giữ đúng các hoán vị sắp xếp,
+ * bitset lọc và thống kê danh mục; phân trang keyset (searchAfter) đi hết đúng thứ tự, không trùng không sót.
+ */
+class ProductCatalogIndexTest {
+    private static final long SHIRTS = 1L;
+    private static final long SHOES = 2L;
+
+    private ProductCatalogIndex index;
+    // id → sản phẩm đang có trong index, dùng để tính thứ tự mong đợi
+    private final Map<Long, Product> current = new TreeMap<>();
+
+    @BeforeEach
+    void setUp() {
+        index = new ProductCatalogIndex();
+        List<Product> snapshot = new ArrayList<>();
+        // Giá và rating trùng nhau để kiểm tra thứ tự phụ theo id
+        double[] prices = {300_000, 100_000, 300_000, 50_000, 2_000_000, 100_000, 750_000, 300_000, 50_000, 1_200_000};
+        double[] ratings = {4.5, 3.0, 4.5, 5.0, 2.0, 3.0, 4.5, 1.0, 3.5, 4.0};
+        for (int i = 0; i < prices.length; i++) {
+            snapshot.add(product(i + 1L, prices[i], ratings[i], i % 3 == 0 ? SHOES : SHIRTS));
+        }
+        index.beginRebuild();
+        index.completeRebuild(snapshot);
+        snapshot.forEach(p -> current.put(p.getId(), p));
+    }
+
+    @Test
+    void searchAfterWalksEveryPageInSortOrder() {
+        assertTrue(index.isReady());
+        for (int pageSize : new int[]{1, 3, 4, 100}) {
+            assertEquals(expected("price_asc"), walk("price_asc", pageSize));
+            assertEquals(expected("price_desc"), walk("price_desc", pageSize));
+            assertEquals(expected("rating_desc"), walk("rating_desc", pageSize));
+            assertEquals(expected(""), walk("", pageSize));
+        }
+    }
+
+    @Test
+    void offsetSearchMatchesKeysetOrder() {
+        ProductCatalogIndex.CatalogPage page = index.search(null, null, null, null, null, "price_asc", 2, 4, false).orElseThrow();
+        assertEquals(10, page.total());
+        assertEquals(expected("price_asc").subList(2, 6), toList(page.ids()));
+    }
+
+    @Test
+    void upsertMovesProductToItsNewPosition() {
+        // Rẻ nhất → đắt nhất, đồng thời đổi danh mục
+        upsert(product(4L, 5_000_000, 5.0, SHIRTS));
+        upsert(product(11L, 10.0, 0.5, SHOES));
+
+        assertEquals(expected("price_asc"), walk("price_asc", 3));
+        assertEquals(expected("rating_desc"), walk("rating_desc", 3));
+        assertEquals(11L, walk("price_asc", 3).get(0));
+        assertEquals(4L, walk("price_desc", 3).get(0));
+        assertCategoryStats();
+
+        ProductCatalogIndex.CatalogPage shoes = index.search(null, SHOES, null, null, null, "price_asc", 0, 100, false).orElseThrow();
+        assertEquals(List.of(11L, 1L, 7L, 10L), toList(shoes.ids()));
+    }
+
+    @Test
+    void batchUpsertReordersManyProductsAtOnce() {
+        // Nhiều hơn ngưỡng chèn từng slot → đi qua nhánh sắp riêng rồi trộn
+        Random random = new Random(7);
+        List<Product> batch = new ArrayList<>();
+        for (long id = 1; id <= 10; id++) {
+            batch.add(product(id, random.nextInt(20) * 100_000.0, random.nextInt(6), id % 2 == 0 ? SHOES : SHIRTS));
+        }
+        for (long id = 11; id <= 14; id++) {
+            batch.add(product(id, random.nextInt(20) * 100_000.0, random.nextInt(6), SHIRTS));
+        }
+        index.upsertAll(batch);
+        batch.forEach(p -> current.put(p.getId(), p));
+
+        for (int pageSize : new int[]{1, 5, 100}) {
+            assertEquals(expected("price_asc"), walk("price_asc", pageSize));
+            assertEquals(expected("price_desc"), walk("price_desc", pageSize));
+            assertEquals(expected("rating_desc"), walk("rating_desc", pageSize));
+        }
+        assertCategoryStats();
+    }
+
+    @Test
+    void removedProductDisappearsFromOrdersAndStats() {
+        // 5 là sản phẩm đắt nhất của SHIRTS: giá max của danh mục phải lùi về sản phẩm kế tiếp
+        index.remove(5L);
+        current.remove(5L);
+        index.remove(404L);
+
+        assertEquals(expected("price_asc"), walk("price_asc", 2));
+        assertEquals(expected("rating_desc"), walk("rating_desc", 2));
+        assertEquals(9, index.search(null, null, null, null, null, "", 0, 100, false).orElseThrow().total());
+        assertCategoryStats();
+    }
+
+    @Test
+    void writesDuringRebuildAreReplayedOnTheNewIndex() {
+        List<Product> snapshot = new ArrayList<>(current.values());
+        index.beginRebuild();
+        // Ghi trong lúc đang quét DB: snapshot không thấy các thay đổi này
+        upsert(product(20L, 1.0, 1.0, SHIRTS));
+        index.remove(2L);
+        current.remove(2L);
+        index.completeRebuild(snapshot);
+
+        assertEquals(expected("price_asc"), walk("price_asc", 4));
+        assertFalse(walk("", 100).contains(2L));
+        assertCategoryStats();
+    }
+
+    @Test
+    void filtersNarrowKeysetPages() {
+        List<Long> ids = new ArrayList<>();
+        Double afterKey = null;
+        Long afterId = null;
+        ProductCatalogIndex.CatalogSlice slice;
+        do {
+            slice = index.searchAfter(null, SHIRTS, 100_000.0, 1_000_000.0, 3.0, "price_asc", afterKey, afterId, 2).orElseThrow();
+            ids.addAll(toList(slice.ids()));
+            if (slice.ids().length > 0) {
+                afterKey = slice.lastKey();
+                afterId = slice.ids()[slice.ids().length - 1];
+            }
+        } while (slice.hasNext());
+
+        List<Long> expected = expected("price_asc").stream()
+                .filter(id -> {
+                    Product p = current.get(id);
+                    return p.getCategory().getId() == SHIRTS && p.getPrice() >= 100_000 && p.getPrice() <= 1_000_000
+                            && p.getRating() >= 3.0;
+                })
+                .toList();
+        assertEquals(expected, ids);
+    }
+
+    private void upsert(Product product) {
+        index.upsert(product);
+        current.put(product.getId(), product);
+    }
+
+    // Đi hết các trang bằng cursor (khóa sắp xếp, id) của phần tử cuối mỗi trang
+    private List<Long> walk(String sort, int pageSize) {
+        List<Long> ids = new ArrayList<>();
+        Double afterKey = null;
+        Long afterId = null;
+        while (true) {
+            ProductCatalogIndex.CatalogSlice slice = index.searchAfter(null, null, null, null, null, sort, afterKey, afterId, pageSize)
+                    .orElseThrow();
+            ids.addAll(toList(slice.ids()));
+            if (!slice.hasNext()) {
+                return ids;
+            }
+            assertEquals(pageSize, slice.ids().length);
+            afterKey = slice.lastKey();
+            afterId = slice.ids()[slice.ids().length - 1];
+        }
+    }
+
+    private List<Long> expected(String sort) {
+        Comparator<Product> byId = Comparator.comparing(Product::getId);
+        Comparator<Product> order = switch (sort) {
+            case "price_asc" -> Comparator.comparing(Product::getPrice).thenComparing(byId);
+            case "price_desc" -> Comparator.comparing(Product::getPrice).thenComparing(byId).reversed();
+            case "rating_desc" -> Comparator.comparing(Product::getRating).reversed().thenComparing(byId);
+            default -> byId;
+        };
+        return current.values().stream().sorted(order).map(Product::getId).toList();
+    }
+
+    private void assertCategoryStats() {
+        Map<Long, ProductCatalogIndex.CategoryStat> stats = index.categoryStats().orElseThrow();
+        for (long categoryId : new long[]{SHIRTS, SHOES}) {
+            List<Double> prices = current.values().stream()
+                    .filter(p -> p.getCategory().getId() == categoryId)
+                    .map(Product::getPrice)
+                    .sorted()
+                    .toList();
+            ProductCatalogIndex.CategoryStat stat = stats.get(categoryId);
+            assertEquals(prices.size(), stat.productCount());
+            assertEquals(prices.get(0), stat.minPrice());
+            assertEquals(prices.get(prices.size() - 1), stat.maxPrice());
+        }
+    }
+
+    private static List<Long> toList(long[] ids) {
+        return Arrays.stream(ids).boxed().toList();
+    }
+
+    private static Product product(long id, double price, double rating, long categoryId) {
+        return Product.builder()
+                .id(id)
+                .name("Sản phẩm " + id)
+                .price(price)
+                .rating(rating)
+                .stockQuantity(10)
+                .category(Category.builder().id(categoryId).build())
+                .build();
+    }
+}
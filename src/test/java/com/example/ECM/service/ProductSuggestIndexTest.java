@@ -0,0 +1,94 @@
+package com.example.ECM.service;
+
+import com.example.ECM.model.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Index gợi ý theo tiền tố: khớp đầu bất kỳ từ nào trong tên, xếp theo rating (cộng nhẹ khi tên bắt đầu bằng tiền tố),
+ * không trả trùng, và sửa / xóa đúng cả ở phần delta lẫn sau khi phần chính được dựng lại.
+ */
+class ProductSuggestIndexTest {
+    private ProductSuggestIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new ProductSuggestIndex();
+        index.beginRebuild();
+        index.completeRebuild(List.of(
+                product(1L, "Áo thun nam", 4.0),
+                product(2L, "Thun lạnh", 3.9),
+                product(3L, "Quần short", 5.0),
+                product(4L, "Thun áo thun", 1.0)));
+    }
+
+    @Test
+    void prefixOfAnyWordMatchesOrderedByWeight() {
+        // 1: 4.0; 2: 3.9 + thưởng bắt đầu tên; 4: 1.0 + thưởng
+        assertEquals(List.of(2L, 1L, 4L), ids(index.suggest("thun", 10)));
+        assertEquals(List.of(1L, 4L), ids(index.suggest("ao th", 10)));
+        assertEquals(List.of(3L), ids(index.suggest("q", 10)));
+        assertTrue(index.suggest("   ", 10).isEmpty());
+    }
+
+    @Test
+    void accentsAndPunctuationAreIgnored() {
+        assertEquals(ids(index.suggest("ao", 10)), ids(index.suggest("Áo", 10)));
+        assertEquals(List.of(1L), ids(index.suggest("áo-thun  NAM", 10)));
+    }
+
+    @Test
+    void limitIsRespectedWithoutDuplicates() {
+        // 4 khớp "thun" ở hai vị trí trong tên nhưng chỉ được gợi ý một lần
+        assertEquals(List.of(2L, 1L), ids(index.suggest("thun", 2)));
+        assertEquals(3, index.suggest("thun", 3).size());
+    }
+
+    @Test
+    void upsertAndRemoveUpdateSuggestions() {
+        index.upsert(product(2L, "Váy lạnh", 3.9));
+        index.upsert(product(5L, "Thun cổ tròn", 4.8));
+        index.remove(1L);
+
+        assertEquals(List.of(5L, 4L), ids(index.suggest("thun", 10)));
+        assertEquals(List.of(2L), ids(index.suggest("vay", 10)));
+        assertEquals("Váy lạnh", index.suggest("lanh", 10).get(0).name());
+    }
+
+    @Test
+    void largeDeltaRebuildsTheBaseKeepingTopByRating() {
+        // Đủ nhiều thay đổi để vượt ngưỡng delta và dựng lại phần chính
+        for (long id = 100; id < 1300; id++) {
+            index.upsert(product(id, "Túi xách " + id, (id % 50) / 10.0));
+        }
+        index.remove(149L);
+
+        List<ProductSuggestIndex.Suggestion> top = index.suggest("tui", 3);
+        assertEquals(3, top.size());
+        for (ProductSuggestIndex.Suggestion suggestion : top) {
+            assertEquals(4.9, suggestion.rating());
+            assertTrue(suggestion.productId() != 149L);
+        }
+        // Cùng trọng số thì id nhỏ trước
+        assertEquals(List.of(199L, 249L, 299L), ids(top));
+        assertEquals(List.of(2L, 1L, 4L), ids(index.suggest("thun", 10)));
+    }
+
+    private static List<Long> ids(List<ProductSuggestIndex.Suggestion> suggestions) {
+        List<Long> ids = new ArrayList<>();
+        for (ProductSuggestIndex.Suggestion suggestion : suggestions) {
+            ids.add(suggestion.productId());
+        }
+        return ids;
+    }
+
+    private static Product product(long id, String name, double rating) {
+        return Product.builder().id(id).name(name).rating(rating).build();
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.ECM.service;
+
+import com.example.ECM.model.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Index toàn văn: tìm không dấu, khớp một phần từ, mọi từ của truy vấn đều phải khớp, điểm theo tên / mô tả / đúng dấu,
+ * và các lần sửa / xóa thay thế document cũ.
+ */
+class ProductTextIndexTest {
+    private ProductTextIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new ProductTextIndex();
+        index.beginRebuild();
+        index.completeRebuild(List.of(
+                product(1L, "Áo sơ mi trắng", "Vải cotton"),
+                product(2L, "Quần jean xanh", "Dáng ôm"),
+                product(3L, "Giày thể thao", "Tặng kèm áo mưa"),
+                product(4L, "Ao thun", "Hàng nhập")));
+    }
+
+    @Test
+    void matchesWithoutAccentsAndCase() {
+        assertEquals(Map.of(1L, true), ids(index.match("ao so mi")));
+        assertEquals(Map.of(1L, true), ids(index.match("ÁO SƠ MI")));
+        assertEquals(Map.of(2L, true), ids(index.match("quan")));
+    }
+
+    @Test
+    void everyTermMustMatch() {
+        assertTrue(ids(index.match("ao jean")).isEmpty());
+        assertTrue(ids(index.match("khongco")).isEmpty());
+        assertNull(index.match("  - "));
+    }
+
+    @Test
+    void partOfAWordMatches() {
+        // Trigram ("jea") và tiền tố từ ngắn ("gi")
+        assertEquals(Map.of(2L, true), ids(index.match("jea")));
+        assertEquals(Map.of(3L, true), ids(index.match("gi")));
+        assertEquals(Map.of(1L, true), ids(index.match("cott")));
+    }
+
+    @Test
+    void nameOutranksDescriptionAndExactAccentsGetABonus() {
+        Map<Long, Float> scores = scores(index.match("áo"));
+        assertEquals(List.of(1L, 3L, 4L), scores.keySet().stream().sorted().toList());
+        // Khớp trong tên > chỉ khớp trong mô tả
+        assertTrue(scores.get(1L) > scores.get(3L));
+        // "Áo" đúng dấu > "Ao" không dấu
+        assertTrue(scores.get(1L) > scores.get(4L));
+    }
+
+    @Test
+    void upsertReplacesAndRemoveDeletes() {
+        index.upsert(product(1L, "Váy hoa", null));
+        assertEquals(Map.of(1L, true), ids(index.match("vay")));
+        assertEquals(List.of(3L, 4L), scores(index.match("ao")).keySet().stream().sorted().toList());
+
+        index.remove(2L);
+        assertTrue(ids(index.match("jean")).isEmpty());
+    }
+
+    @Test
+    void writesDuringRebuildAreReplayed() {
+        index.beginRebuild();
+        index.upsert(product(5L, "Mũ lưỡi trai", null));
+        index.remove(1L);
+        index.completeRebuild(List.of(product(1L, "Áo sơ mi trắng", null), product(2L, "Quần jean xanh", null)));
+
+        assertEquals(Map.of(5L, true), ids(index.match("mu luoi")));
+        assertTrue(ids(index.match("so mi")).isEmpty());
+        assertEquals(Map.of(2L, true), ids(index.match("jean")));
+    }
+
+    private static Map<Long, Boolean> ids(ProductTextIndex.TextMatch match) {
+        Map<Long, Boolean> result = new HashMap<>();
+        for (long id : match.productIds()) {
+            result.put(id, true);
+        }
+        return result;
+    }
+
+    private static Map<Long, Float> scores(ProductTextIndex.TextMatch match) {
+        Map<Long, Float> result = new HashMap<>();
+        for (int i = 0; i < match.productIds().length; i++) {
+            result.put(match.productIds()[i], match.scores()[i]);
+        }
+        return result;
+    }
+
+    private static Product product(long id, String name, String description) {
+        return Product.builder().id(id).name(name).description(description).build();
+    }
+}
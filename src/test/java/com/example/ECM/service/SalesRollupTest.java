@@ -0,0 +1,273 @@
+package com.example.ECM.service;
+
+import com.example.ECM.model.Cart;
+import com.example.ECM.model.CartItem;
+import com.example.ECM.model.Category;
+import com.example.ECM.model.Order;
+import com.example.ECM.model.Product;
+import com.example.ECM.model.User;
+import com.example.ECM.repository.CartRepository;
+import com.example.ECM.repository.CategoryRepository;
+import com.example.ECM.repository.OrderRepository;
+import com.example.ECM.repository.ProductRepository;
+import com.example.ECM.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Bảng tổng hợp doanh số: delta chỉ được cộng khi transaction đặt / hủy / xóa đơn commit,
+ * đơn luôn được tính vào danh mục lúc đặt hàng, và dựng lại (rebuild) cho cùng kết quả với phần cộng dồn.
+ * Job ghi định kỳ bị tắt (chu kỳ 1 giờ); test tự gọi flush().
+ */
+@SpringBootTest(properties = {
+        "salesRollup.enabled=true",
+        "salesRollup.backfillOnStartup=false",
+        "salesRollup.flushIntervalMs=3600000"
+})
+class SalesRollupTest {
+    private static final BigDecimal PRICE = BigDecimal.valueOf(10_000);
+
+    @Autowired
+    private OrderService orderService;
+    @Autowired
+    private SalesRollupService salesRollupService;
+    @Autowired
+    private OrderRepository orderRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private CategoryRepository categoryRepository;
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private CartRepository cartRepository;
+    @Autowired
+    private ProductCache productCache;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private record Totals(long orders, long units, BigDecimal revenue) {
+    }
+
+    private static final Totals NONE = new Totals(0, 0, BigDecimal.ZERO);
+
+    private User owner;
+    private Category categoryA;
+    private Category categoryB;
+    private Product product;
+    private final List<Long> orderIds = new ArrayList<>();
+    private LocalDate today;
+
+    @BeforeEach
+    void setUp() {
+        String suffix = Long.toString(System.nanoTime());
+        owner = new User();
+        owner.setUsername("sales_" + suffix);
+        owner.setEmail("sales_" + suffix + "@example.com");
+        owner.setPassword("x");
+        owner.setFullName("Sales Test");
+        owner.setPhone("0000000000");
+        owner.setAddress("Test");
+        owner = userRepository.save(owner);
+
+        categoryA = categoryRepository.save(Category.builder().name("salesA_" + suffix).products(new ArrayList<>()).build());
+        categoryB = categoryRepository.save(Category.builder().name("salesB_" + suffix).products(new ArrayList<>()).build());
+        product = productRepository.save(Product.builder()
+                .name("Sản phẩm doanh số")
+                .price(PRICE.doubleValue())
+                .stockQuantity(100)
+                .rating(4.0)
+                .category(categoryA)
+                .build());
+        today = LocalDate.now();
+        salesRollupService.flush();
+    }
+
+    @AfterEach
+    void tearDown() {
+        // Xóa đơn qua service để phần đã cộng vào sales_daily được trừ lại
+        for (Long id : orderIds) {
+            if (orderRepository.existsById(id)) {
+                orderService.deleteOrder(id);
+            }
+        }
+        salesRollupService.flush();
+        jdbcTemplate.update("DELETE FROM sales_daily_product WHERE product_id = ?", product.getId());
+        jdbcTemplate.update("DELETE FROM sales_daily_category WHERE category_id IN (?, ?)", categoryA.getId(), categoryB.getId());
+        cartRepository.findWithItemsByUserId(owner.getId()).ifPresent(cart -> cartRepository.deleteById(cart.getId()));
+        productRepository.deleteById(product.getId());
+        categoryRepository.deleteById(categoryA.getId());
+        categoryRepository.deleteById(categoryB.getId());
+        userRepository.deleteById(owner.getId());
+        productCache.invalidateAll();
+    }
+
+    @Test
+    void placedOrderIsCountedOnlyAfterCommit() {
+        Totals dailyBefore = daily();
+        fillCart(2);
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            orderService.createOrder(owner.getId());
+            status.setRollbackOnly();
+        });
+        salesRollupService.flush();
+        assertTotals(NONE, productTotals());
+        assertTotals(NONE, categoryTotals(categoryA));
+
+        // Giỏ vẫn còn hàng vì lần trên đã rollback
+        placeOrder();
+        salesRollupService.flush();
+        Totals expected = new Totals(1, 2, PRICE.multiply(BigDecimal.valueOf(2)));
+        assertTotals(expected, productTotals());
+        assertTotals(expected, categoryTotals(categoryA));
+        Totals dailyAfter = daily();
+        assertEquals(dailyBefore.orders() + 1, dailyAfter.orders());
+        assertEquals(dailyBefore.units() + 2, dailyAfter.units());
+    }
+
+    @Test
+    void cancelSubtractsFromCategoryAtOrderTime() {
+        fillCart(3);
+        Order order = placeOrder();
+        salesRollupService.flush();
+
+        moveProductTo(categoryB);
+        orderService.cancelOrder(order.getId());
+        salesRollupService.flush();
+
+        assertTotals(NONE, productTotals());
+        assertTotals(NONE, categoryTotals(categoryA));
+        assertTotals(NONE, categoryTotals(categoryB));
+    }
+
+    @Test
+    void deletingOrderSubtractsItOnlyIfNotCanceled() {
+        Totals dailyBefore = daily();
+        fillCart(1);
+        Order live = placeOrder();
+        fillCart(2);
+        Order canceled = placeOrder();
+        orderService.cancelOrder(canceled.getId());
+        salesRollupService.flush();
+        assertTotals(new Totals(1, 1, PRICE), productTotals());
+
+        orderService.deleteOrder(live.getId());
+        orderService.deleteOrder(canceled.getId());
+        salesRollupService.flush();
+
+        assertTotals(NONE, productTotals());
+        assertTotals(NONE, categoryTotals(categoryA));
+        assertEquals(dailyBefore.orders(), daily().orders());
+        assertEquals(dailyBefore.units(), daily().units());
+    }
+
+    @Test
+    void orderDeletedBeforeFlushAfterCancelIsStillSubtracted() {
+        fillCart(3);
+        Order order = placeOrder();
+        salesRollupService.flush();
+        assertTotals(new Totals(1, 3, PRICE.multiply(BigDecimal.valueOf(3))), productTotals());
+
+        // Hủy rồi xóa ngay, chưa có lượt ghi nào ở giữa: dòng sản phẩm phải được đọc lúc hủy
+        orderService.cancelOrder(order.getId());
+        orderService.deleteOrder(order.getId());
+        salesRollupService.flush();
+
+        assertTotals(NONE, productTotals());
+        assertTotals(NONE, categoryTotals(categoryA));
+    }
+
+    @Test
+    void rebuildMatchesIncrementalTotals() {
+        fillCart(2);
+        placeOrder();
+        fillCart(1);
+        Order canceled = placeOrder();
+        moveProductTo(categoryB);
+        fillCart(4);
+        placeOrder();
+        orderService.cancelOrder(canceled.getId());
+        salesRollupService.flush();
+
+        Totals ofProduct = productTotals();
+        Totals inA = categoryTotals(categoryA);
+        Totals inB = categoryTotals(categoryB);
+        assertTotals(new Totals(2, 6, PRICE.multiply(BigDecimal.valueOf(6))), ofProduct);
+        assertTotals(new Totals(1, 2, PRICE.multiply(BigDecimal.valueOf(2))), inA);
+        assertTotals(new Totals(1, 4, PRICE.multiply(BigDecimal.valueOf(4))), inB);
+
+        salesRollupService.rebuild(today, today);
+
+        assertTotals(ofProduct, productTotals());
+        assertTotals(inA, categoryTotals(categoryA));
+        assertTotals(inB, categoryTotals(categoryB));
+    }
+
+    private void fillCart(int quantity) {
+        Cart cart = cartRepository.findWithItemsByUserId(owner.getId()).orElseGet(() -> {
+            Cart created = new Cart();
+            created.setUser(owner);
+            return cartRepository.save(created);
+        });
+        cart.addItem(new CartItem(cart, product, quantity));
+        cartRepository.save(cart);
+    }
+
+    private Order placeOrder() {
+        Order order = orderService.createOrder(owner.getId());
+        orderIds.add(order.getId());
+        return order;
+    }
+
+    private void moveProductTo(Category category) {
+        Product current = productRepository.findById(product.getId()).orElseThrow();
+        current.setCategory(category);
+        productRepository.save(current);
+    }
+
+    private Totals productTotals() {
+        return totals("SELECT orders, units, revenue FROM sales_daily_product WHERE sales_date = ? AND product_id = ?",
+                product.getId());
+    }
+
+    private Totals categoryTotals(Category category) {
+        return totals("SELECT orders, units, revenue FROM sales_daily_category WHERE sales_date = ? AND category_id = ?",
+                category.getId());
+    }
+
+    private Totals daily() {
+        List<Totals> rows = jdbcTemplate.query("SELECT orders, units, revenue FROM sales_daily WHERE sales_date = ?",
+                (rs, rowNum) -> new Totals(rs.getLong(1), rs.getLong(2), rs.getBigDecimal(3)), Date.valueOf(today));
+        return rows.isEmpty() ? NONE : rows.get(0);
+    }
+
+    private Totals totals(String sql, Long id) {
+        List<Totals> rows = jdbcTemplate.query(sql,
+                (rs, rowNum) -> new Totals(rs.getLong(1), rs.getLong(2), rs.getBigDecimal(3)), Date.valueOf(today), id);
+        return rows.isEmpty() ? NONE : rows.get(0);
+    }
+
+    // Dòng đã trừ về 0 vẫn còn trong bảng nên so theo giá trị, doanh thu so bằng compareTo
+    private static void assertTotals(Totals expected, Totals actual) {
+        assertEquals(expected.orders(), actual.orders());
+        assertEquals(expected.units(), actual.units());
+        assertEquals(0, expected.revenue().compareTo(actual.revenue()),
+                "revenue " + actual.revenue() + " != " + expected.revenue());
+    }
+}
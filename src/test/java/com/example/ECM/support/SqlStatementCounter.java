@@ -0,0 +1,57 @@
+package com.example.ECM.support;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+/**
+ * Đếm số câu SQL gửi xuống DB trên luồng hiện tại, ở tầng DataSource nên thấy cả Hibernate lẫn JdbcTemplate.
+ * Đăng ký bằng {@code @Import(SqlStatementCounter.class)}: bọc DataSource → Connection → Statement,
+ * mỗi lần gọi execute* (kể cả executeBatch của cả lô) tính là một câu.
+ * MockMvc xử lý request ngay trên luồng của test nên số đếm phản ánh đúng một request.
+ */
+public class SqlStatementCounter implements BeanPostProcessor {
+    private static final ThreadLocal<int[]> COUNT = ThreadLocal.withInitial(() -> new int[1]);
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource dataSource) {
+            return wrap(DataSource.class, dataSource);
+        }
+        return bean;
+    }
+
+    public static void reset() {
+        COUNT.get()[0] = 0;
+    }
+
+    public static int count() {
+        return COUNT.get()[0];
+    }
+
+    private static Object wrap(Class<?> type, Object target) {
+        return Proxy.newProxyInstance(SqlStatementCounter.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (target instanceof Statement && method.getName().startsWith("execute")) {
+                COUNT.get()[0]++;
+            }
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            Class<?> returned = method.getReturnType();
+            if (result != null && (returned == Connection.class || returned == Statement.class
+                    || returned == PreparedStatement.class || returned == CallableStatement.class)) {
+                return wrap(returned, result);
+            }
+            return result;
+        });
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.ECM.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.text.Normalizer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Bỏ dấu tiếng Việt bằng bảng tra: mọi nguyên âm có dấu, đ / Đ, chuỗi dạng NFD (dấu kết hợp đứng riêng)
+ * và chuỗi vốn đã chuẩn (trả về chính nó, không cấp phát).
+ */
+class VietnameseNormalizerTest {
+
+    @Test
+    void foldsAccentsAndCase() {
+        assertEquals("ao thun do", VietnameseNormalizer.fold("Áo Thun Đỏ"));
+        assertEquals("aaaaaaaaaaaaaaaaa", VietnameseNormalizer.fold("àáảãạăằắẳẵặâầấẩẫậ"));
+        assertEquals("eeeeeeeeeee", VietnameseNormalizer.fold("ÈÉẺẼẸÊỀẾỂỄỆ"));
+        assertEquals("iiiii ooooooooooooooooo", VietnameseNormalizer.fold("ìíỉĩị òóỏõọôồốổỗộơờớởỡợ"));
+        assertEquals("uuuuuuuuuuu yyyyy dd", VietnameseNormalizer.fold("ùúủũụưừứửữự ỳýỷỹỵ đĐ"));
+    }
+
+    @Test
+    void decomposedInputLosesItsCombiningMarks() {
+        String decomposed = Normalizer.normalize("Tiếng Việt", Normalizer.Form.NFD);
+        assertEquals("tieng viet", VietnameseNormalizer.fold(decomposed));
+    }
+
+    @Test
+    void normalizedInputIsReturnedAsIs() {
+        String plain = "quan jean 2024";
+        assertSame(plain, VietnameseNormalizer.fold(plain));
+        assertEquals("", VietnameseNormalizer.fold(""));
+        assertNull(VietnameseNormalizer.fold(null));
+    }
+
+    @Test
+    void charactersOutsideTheTableAreOnlyLowercased() {
+        // Chữ toàn độ rộng (U+FF21..) nằm ngoài bảng tra
+        assertEquals("ａｂ 日本", VietnameseNormalizer.fold("ＡＢ 日本"));
+        assertEquals("ao ａｂ", VietnameseNormalizer.fold("ÁO ＡＢ"));
+    }
+}